@@ -24,8 +24,17 @@ public class DataInitializer implements CommandLineRunner {
     @Autowired
     private TransportAdministratorRepository adminRepository;
     
+    // Present with the synthetic profile only
+    @Autowired(required = false)
+    private SyntheticDataGenerator syntheticDataGenerator;
+    
     @Override
     public void run(String... args) throws Exception {
+        if (syntheticDataGenerator != null) {
+            // Production-scale data for load tests instead of the samples
+            syntheticDataGenerator.generate();
+            return;
+        }
         // Initialize sample data
         initializeSampleData();
     }
@@ -0,0 +1,71 @@
+package com.cabrooster.config;
+
+import com.cabrooster.service.dispatch.DropRoutePlanner;
+import com.cabrooster.service.dispatch.GreedyMatchingEngine;
+import com.cabrooster.service.dispatch.MatchingEngine;
+import com.cabrooster.service.dispatch.OptimalMatchingEngine;
+import com.cabrooster.service.dispatch.PartitionedMatchingEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+public class DispatchConfig {
+
+    @Value("${dispatch.matching.engine:greedy}")
+    private String matchingEngine;
+
+    @Value("${dispatch.matching.time-budget-ms:2000}")
+    private long matchingTimeBudgetMs;
+
+    @Value("${dispatch.parallel.enabled:false}")
+    private boolean parallelEnabled;
+
+    @Value("${dispatch.parallel.region-size-meters:2000}")
+    private double regionSizeMeters;
+
+    @Value("${dispatch.parallel.parallelism:0}")
+    private int parallelism;
+
+    @Value("${dispatch.pooling.seats:4}")
+    private int poolingSeats;
+
+    @Value("${dispatch.pooling.max-detour-ratio:1.5}")
+    private double poolingMaxDetourRatio;
+
+    @Value("${dispatch.pooling.region-size-meters:150}")
+    private double poolingRegionSizeMeters;
+
+    @Value("${dispatch.pooling.time-budget-ms:2000}")
+    private long poolingTimeBudgetMs;
+
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool dispatchPool() {
+        return new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @Bean
+    public MatchingEngine matchingEngine(ForkJoinPool dispatchPool) {
+        MatchingEngine engine;
+        if (GreedyMatchingEngine.NAME.equalsIgnoreCase(matchingEngine)) {
+            engine = new GreedyMatchingEngine();
+        } else if (OptimalMatchingEngine.NAME.equalsIgnoreCase(matchingEngine)) {
+            engine = new OptimalMatchingEngine(Duration.ofMillis(matchingTimeBudgetMs));
+        } else {
+            throw new IllegalStateException("Unknown dispatch.matching.engine: " + matchingEngine);
+        }
+
+        // Match independent geographic regions on all cores
+        return parallelEnabled ? new PartitionedMatchingEngine(engine, dispatchPool, regionSizeMeters,
+                Duration.ofMillis(matchingTimeBudgetMs)) : engine;
+    }
+
+    @Bean
+    public DropRoutePlanner dropRoutePlanner(ForkJoinPool dispatchPool) {
+        return new DropRoutePlanner(poolingSeats, poolingMaxDetourRatio, poolingRegionSizeMeters,
+                Duration.ofMillis(poolingTimeBudgetMs), dispatchPool);
+    }
+}
@@ -0,0 +1,72 @@
+package com.cabrooster.config;
+
+import com.cabrooster.util.distance.DistanceEngine;
+import com.cabrooster.util.distance.EquirectangularDistanceEngine;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import com.cabrooster.util.distance.PrecomputedDistanceEngine;
+import com.cabrooster.util.distance.VincentyDistanceEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+@Configuration
+public class DistanceConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(DistanceConfig.class);
+
+    @Value("${distance.engine:haversine}")
+    private String distanceEngine;
+
+    @Value("${distance.matrix.location:}")
+    private String matrixLocation;
+
+    @Value("${distance.matrix.fallback:haversine}")
+    private String matrixFallback;
+
+    @Bean
+    public DistanceEngine distanceEngine(ResourceLoader resourceLoader) {
+        DistanceEngine engine;
+        if (PrecomputedDistanceEngine.NAME.equalsIgnoreCase(distanceEngine)) {
+            engine = loadMatrix(resourceLoader, formulaEngine(matrixFallback, "distance.matrix.fallback"));
+        } else {
+            engine = formulaEngine(distanceEngine, "distance.engine");
+        }
+        logger.info("Measuring distances with the {} engine", engine.name());
+        return engine;
+    }
+
+    private static DistanceEngine formulaEngine(String name, String property) {
+        if (HaversineDistanceEngine.NAME.equalsIgnoreCase(name)) {
+            return new HaversineDistanceEngine();
+        } else if (EquirectangularDistanceEngine.NAME.equalsIgnoreCase(name)) {
+            return new EquirectangularDistanceEngine();
+        } else if (VincentyDistanceEngine.NAME.equalsIgnoreCase(name)) {
+            return new VincentyDistanceEngine();
+        }
+        throw new IllegalStateException("Unknown " + property + ": " + name);
+    }
+
+    private PrecomputedDistanceEngine loadMatrix(ResourceLoader resourceLoader, DistanceEngine fallback) {
+        if (matrixLocation.isBlank()) {
+            throw new IllegalStateException("distance.matrix.location is required for the matrix engine");
+        }
+        Resource resource = resourceLoader.getResource(matrixLocation);
+        try (Reader reader = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
+            PrecomputedDistanceEngine engine = PrecomputedDistanceEngine.load(reader, fallback);
+            logger.info("Loaded a distance matrix of {} points from {}", engine.size(), matrixLocation);
+            return engine;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read distance matrix " + matrixLocation, e);
+        }
+    }
+}
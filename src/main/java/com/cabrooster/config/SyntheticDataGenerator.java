@@ -0,0 +1,250 @@
+package com.cabrooster.config;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.util.GeoUtils;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Production-scale data for load tests and benchmarks, seeded instead of the sample data when
+ * the {@code synthetic} profile is active. Passengers are picked up at office campuses of
+ * uneven size and live spread over the city, most cabs wait near the campuses, and past rides
+ * pair passengers with cabs of their campus. The same seed gives the same data on every run.
+ * <p>
+ * Rows are inserted through a stateless session in large JDBC batches, so nothing is held in a
+ * persistence context or dirty checked.
+ */
+@Component
+@Profile("synthetic")
+public class SyntheticDataGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticDataGenerator.class);
+
+    // Spread of pickups around a campus and of waiting cabs around it
+    private static final double CAMPUS_SIGMA_METERS = 300;
+    private static final double CAB_SIGMA_METERS = 1000;
+    // Share of cabs waiting near a campus; the rest are anywhere in the city
+    private static final double CAMPUS_CAB_SHARE = 0.8;
+    private static final double CANCELLED_SHARE = 0.05;
+    private static final int JDBC_BATCH_SIZE = 1000;
+    // Rows per transaction, which bounds the database's undo log
+    private static final int ROWS_PER_TRANSACTION = 50_000;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${data.synthetic.cabs:10000}")
+    private int cabCount;
+
+    @Value("${data.synthetic.passengers:200000}")
+    private int passengerCount;
+
+    @Value("${data.synthetic.ride-history:790000}")
+    private int rideHistoryCount;
+
+    @Value("${data.synthetic.campuses:12}")
+    private int campusCount;
+
+    // Share of passengers waiting for a ride
+    @Value("${data.synthetic.waiting-share:0.9}")
+    private double waitingShare;
+
+    @Value("${data.synthetic.history-days:30}")
+    private int historyDays;
+
+    @Value("${data.synthetic.center-latitude:12.9716}")
+    private double centerLatitude;
+
+    @Value("${data.synthetic.center-longitude:77.5946}")
+    private double centerLongitude;
+
+    @Value("${data.synthetic.radius-meters:15000}")
+    private double radiusMeters;
+
+    @Value("${data.synthetic.seed:42}")
+    private long seed;
+
+    /**
+     * Insert the configured number of cabs, passengers and past rides
+     */
+    public void generate() {
+        if (campusCount < 1) {
+            throw new IllegalStateException("data.synthetic.campuses must be at least 1");
+        }
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+
+        // Campuses anywhere in the city, the first ones much busier than the last
+        double[] campusLatitudes = new double[campusCount];
+        double[] campusLongitudes = new double[campusCount];
+        double[] campusCumulativeWeights = new double[campusCount];
+        double weights = 0;
+        for (int c = 0; c < campusCount; c++) {
+            double[] location = uniformInCity(random);
+            campusLatitudes[c] = location[0];
+            campusLongitudes[c] = location[1];
+            weights += 1.0 / (c + 1);
+            campusCumulativeWeights[c] = weights;
+        }
+
+        CabDriver[] cabs = new CabDriver[cabCount];
+        int[] cabCampuses = new int[cabCount];
+        int[] cabsPerCampus = new int[campusCount];
+        Passenger[] passengers = new Passenger[passengerCount];
+        int[] passengerCampuses = new int[passengerCount];
+
+        try (StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession()) {
+            session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+            insert(session, cabCount, i -> {
+                CabDriver cab = new CabDriver();
+                cab.setName("Driver " + i);
+                cab.setEmail("driver" + i + "@example.com");
+                cab.setPhone(String.format("+91%010d", 7_000_000_000L + i));
+                cab.setLicenseNumber(String.format("DL%08d", i));
+                cab.setCabNumber(String.format("KA%02dS%05d", i / 100_000 % 100, i % 100_000));
+                double[] location;
+                if (random.nextDouble() < CAMPUS_CAB_SHARE) {
+                    int campus = pickCampus(random, campusCumulativeWeights);
+                    location = near(random, campusLatitudes[campus], campusLongitudes[campus], CAB_SIGMA_METERS);
+                    cabCampuses[i] = campus;
+                    cabsPerCampus[campus]++;
+                } else {
+                    location = uniformInCity(random);
+                    cabCampuses[i] = -1;
+                }
+                cab.setCurrentLatitude(location[0]);
+                cab.setCurrentLongitude(location[1]);
+                cab.setAvailable(true);
+                cabs[i] = cab;
+                return cab;
+            });
+
+            insert(session, passengerCount, i -> {
+                Passenger passenger = new Passenger();
+                passenger.setName("Passenger " + i);
+                passenger.setEmail("passenger" + i + "@example.com");
+                passenger.setPhone(String.format("+91%010d", 8_000_000_000L + i));
+                int campus = pickCampus(random, campusCumulativeWeights);
+                double[] pickup = near(random, campusLatitudes[campus], campusLongitudes[campus],
+                        CAMPUS_SIGMA_METERS);
+                double[] home = near(random, centerLatitude, centerLongitude, radiusMeters / 2);
+                passenger.setCurrentLatitude(pickup[0]);
+                passenger.setCurrentLongitude(pickup[1]);
+                passenger.setHomeLatitude(home[0]);
+                passenger.setHomeLongitude(home[1]);
+                passenger.setNeedsRide(random.nextDouble() < waitingShare);
+                passengerCampuses[i] = campus;
+                passengers[i] = passenger;
+                return passenger;
+            });
+
+            // Cabs of each campus, so past rides mostly pair a passenger with a cab nearby
+            int[][] campusCabs = new int[campusCount][];
+            for (int c = 0; c < campusCount; c++) {
+                campusCabs[c] = new int[cabsPerCampus[c]];
+                cabsPerCampus[c] = 0;
+            }
+            for (int cab = 0; cab < cabCount; cab++) {
+                if (cabCampuses[cab] >= 0) {
+                    campusCabs[cabCampuses[cab]][cabsPerCampus[cabCampuses[cab]]++] = cab;
+                }
+            }
+
+            LocalDate today = LocalDate.now();
+            int rides = passengerCount > 0 && cabCount > 0 ? rideHistoryCount : 0;
+            insert(session, rides, i -> {
+                int passenger = random.nextInt(passengerCount);
+                int[] nearbyCabs = campusCabs[passengerCampuses[passenger]];
+                int cab = nearbyCabs.length > 0
+                        ? nearbyCabs[random.nextInt(nearbyCabs.length)]
+                        : random.nextInt(cabCount);
+                // A morning or evening shift on one of the past days
+                LocalDateTime assigned = today.minusDays(1 + random.nextInt(Math.max(historyDays, 1)))
+                        .atTime(random.nextBoolean() ? 8 : 19, 0)
+                        .plusSeconds(random.nextInt(30 * 60));
+
+                RideAssignment assignment = new RideAssignment();
+                assignment.setCabDriver(cabs[cab]);
+                assignment.setPassenger(passengers[passenger]);
+                assignment.setAssignmentTime(assigned);
+                if (random.nextDouble() < CANCELLED_SHARE) {
+                    assignment.setStatus("CANCELLED");
+                    assignment.setCompletionTime(assigned.plusSeconds(random.nextInt(10 * 60)));
+                } else {
+                    assignment.setStatus("COMPLETED");
+                    assignment.setCompletionTime(assigned.plusSeconds(25 * 60 + random.nextInt(50 * 60)));
+                }
+                return assignment;
+            });
+        }
+
+        logger.info("Generated {} cabs, {} passengers and {} past rides around {} campuses in {} ms",
+                cabCount, passengerCount, rideHistoryCount, campusCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Insert rows in order, committing every ROWS_PER_TRANSACTION
+     */
+    private static void insert(StatelessSession session, int count, IntFunction<Object> rows) {
+        Transaction transaction = session.beginTransaction();
+        for (int i = 0; i < count; i++) {
+            session.insert(rows.apply(i));
+            if ((i + 1) % ROWS_PER_TRANSACTION == 0) {
+                transaction.commit();
+                transaction = session.beginTransaction();
+            }
+        }
+        transaction.commit();
+    }
+
+    private static int pickCampus(Random random, double[] cumulativeWeights) {
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        for (int c = 0; c < cumulativeWeights.length; c++) {
+            if (target < cumulativeWeights[c]) {
+                return c;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+
+    /**
+     * Point normally distributed around the given one
+     */
+    private static double[] near(Random random, double latitude, double longitude, double sigmaMeters) {
+        double sigmaDegrees = sigmaMeters / GeoUtils.METERS_PER_DEGREE;
+        return new double[] {
+                latitude + random.nextGaussian() * sigmaDegrees,
+                longitude + random.nextGaussian() * sigmaDegrees / Math.cos(Math.toRadians(latitude))
+        };
+    }
+
+    /**
+     * Point uniformly distributed within the city radius
+     */
+    private double[] uniformInCity(Random random) {
+        double distanceDegrees = Math.sqrt(random.nextDouble()) * radiusMeters / GeoUtils.METERS_PER_DEGREE;
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        return new double[] {
+                centerLatitude + distanceDegrees * Math.cos(bearing),
+                centerLongitude + distanceDegrees * Math.sin(bearing) / Math.cos(Math.toRadians(centerLatitude))
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.cabrooster.config;
+
+import com.cabrooster.controller.DriverTelemetryHandler;
+import com.cabrooster.interceptor.DriverHandshakeInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.NonNull;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    @Autowired
+    private DriverTelemetryHandler driverTelemetryHandler;
+
+    @Autowired
+    private DriverHandshakeInterceptor driverHandshakeInterceptor;
+
+    @Value("${telemetry.allowed-origins:*}")
+    private String[] allowedOrigins;
+
+    @Value("${telemetry.max-frame-bytes:512}")
+    private int maxFrameBytes;
+
+    @Value("${telemetry.idle-timeout-ms:60000}")
+    private long idleTimeoutMs;
+
+    @Value("${telemetry.send-time-limit-ms:5000}")
+    private long sendTimeLimitMs;
+
+    @Override
+    public void registerWebSocketHandlers(@NonNull WebSocketHandlerRegistry registry) {
+        registry.addHandler(driverTelemetryHandler, "/ws/drivers")
+                .addInterceptors(driverHandshakeInterceptor)
+                .setAllowedOrigins(allowedOrigins);
+    }
+
+    /**
+     * Size the container's message buffers for location frames rather than its 8 KB default,
+     * which is most of what an idle connection costs
+     */
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxFrameBytes);
+        container.setMaxBinaryMessageBufferSize(maxFrameBytes);
+        container.setMaxSessionIdleTimeout(idleTimeoutMs);
+        container.setAsyncSendTimeout(sendTimeLimitMs);
+        return container;
+    }
+}
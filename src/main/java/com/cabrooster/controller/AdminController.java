@@ -8,6 +8,9 @@ import com.cabrooster.repository.CabDriverRepository;
 import com.cabrooster.repository.PassengerRepository;
 import com.cabrooster.repository.RideAssignmentRepository;
 import com.cabrooster.repository.TransportAdministratorRepository;
+import com.cabrooster.service.RideAssignmentService;
+import com.cabrooster.service.dispatch.DropRoutePlan;
+import com.cabrooster.service.dispatch.MatchingResult;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -40,6 +43,9 @@ public class AdminController {
     
     @Autowired
     private RideAssignmentRepository rideAssignmentRepository;
+    
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
 
     @Operation(summary = "Get system statistics", description = "Retrieves various statistics about the system including counts of cabs, passengers, and rides")
     @ApiResponses(value = {
@@ -67,6 +73,33 @@ public class AdminController {
         stats.put("inProgressRides", rideAssignmentRepository.countByStatus("IN_PROGRESS"));
         stats.put("completedRides", rideAssignmentRepository.countByStatus("COMPLETED"));
         
+        // Last scheduled matching run
+        MatchingResult lastRun = rideAssignmentService.getLastMatchingResult();
+        if (lastRun != null) {
+            Map<String, Object> run = new HashMap<>();
+            run.put("engine", lastRun.getEngine());
+            run.put("passengers", lastRun.getPassengerCount());
+            run.put("matched", lastRun.getMatchedCount());
+            run.put("matchRate", lastRun.getMatchRate());
+            run.put("totalDistanceMeters", lastRun.getTotalCost());
+            run.put("fallbackUsed", lastRun.isFallbackUsed());
+            run.put("elapsedMillis", lastRun.getElapsedNanos() / 1_000_000.0);
+            stats.put("lastDispatchRun", run);
+        }
+        
+        // Last pooled home-drop plan against a cab for every passenger
+        DropRoutePlan lastPlan = rideAssignmentService.getLastDropRoutePlan();
+        if (lastPlan != null) {
+            Map<String, Object> plan = new HashMap<>();
+            plan.put("passengers", lastPlan.getPassengerCount());
+            plan.put("cabsUsed", lastPlan.getRouteCount());
+            plan.put("directCabs", lastPlan.getPassengerCount());
+            plan.put("totalKm", lastPlan.getTotalMeters() / 1000);
+            plan.put("directKm", lastPlan.getDirectMeters() / 1000);
+            plan.put("elapsedMillis", lastPlan.getElapsedNanos() / 1_000_000.0);
+            stats.put("lastHomeDropPlan", plan);
+        }
+        
         return stats;
     }
 
@@ -149,24 +182,8 @@ public class AdminController {
             @Parameter(description = "ID of the passenger for the ride", required = true)
             @RequestParam Long passengerId) {
         
-        return cabDriverRepository.findById(cabId).flatMap(cab -> 
-            passengerRepository.findById(passengerId).map(passenger -> {
-                RideAssignment assignment = new RideAssignment();
-                assignment.setCabDriver(cab);
-                assignment.setPassenger(passenger);
-                assignment.setStatus("PENDING");
-                
-                // Mark cab as unavailable
-                cab.setAvailable(false);
-                cabDriverRepository.save(cab);
-                
-                // Mark passenger as assigned
-                passenger.setNeedsRide(false);
-                passengerRepository.save(passenger);
-                
-                return rideAssignmentRepository.save(assignment);
-            })
-        ).map(ResponseEntity::ok)
-        .orElse(ResponseEntity.badRequest().build());
+        return rideAssignmentService.forceAssignRide(cabId, passengerId)
+            .map(ResponseEntity::ok)
+            .orElse(ResponseEntity.badRequest().build());
     }
 }
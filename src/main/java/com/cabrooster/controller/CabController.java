@@ -1,13 +1,24 @@
 package com.cabrooster.controller;
 
+import com.cabrooster.dto.LocationBatchResult;
+import com.cabrooster.dto.LocationUpdate;
+import com.cabrooster.dto.NearbyCab;
+import com.cabrooster.dto.TrajectoryPoint;
+import com.cabrooster.exception.InvalidOperationException;
 import com.cabrooster.model.CabDriver;
 import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.service.FleetStateStore;
+import com.cabrooster.service.LocationHistoryService;
+import com.cabrooster.service.LocationIngestService;
 import com.cabrooster.service.LocationService;
+import com.cabrooster.service.LocationWriteBuffer;
+import com.cabrooster.util.LocationBatchCodec;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,11 +26,25 @@ import java.util.Optional;
 @RequestMapping("/api/cabs")
 public class CabController {
 
+    private static final int MAX_NEARBY_RESULTS = 100;
+
     @Autowired
     private CabDriverRepository cabDriverRepository;
     
     @Autowired
     private LocationService locationService;
+    
+    @Autowired
+    private FleetStateStore fleetStateStore;
+    
+    @Autowired
+    private LocationIngestService locationIngestService;
+    
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+    
+    @Autowired
+    private LocationHistoryService locationHistoryService;
 
     // Update cab location (to be called every hour)
     @PutMapping("/{id}/location")
@@ -28,33 +53,126 @@ public class CabController {
             @RequestParam double latitude,
             @RequestParam double longitude) {
         
+        // The live store keeps the position in memory and writes it behind in batches
+        if (fleetStateStore.isEnabled()) {
+            if (!fleetStateStore.updateLocation(id, latitude, longitude)) {
+                return ResponseEntity.notFound().build();
+            }
+            locationHistoryService.recordCab(id, System.currentTimeMillis(), latitude, longitude);
+            return cabDriverRepository.findById(id)
+                .map(cab -> {
+                    fleetStateStore.overlay(cab);
+                    return ResponseEntity.ok(cab);
+                })
+                .orElse(ResponseEntity.notFound().build());
+        }
+        
+        // Otherwise only the latest position is written behind in batches
+        if (locationWriteBuffer.isEnabled()) {
+            return cabDriverRepository.findById(id)
+                .map(cab -> {
+                    locationWriteBuffer.bufferCab(id, latitude, longitude);
+                    locationHistoryService.recordCab(id, System.currentTimeMillis(), latitude, longitude);
+                    cab.setCurrentLatitude(latitude);
+                    cab.setCurrentLongitude(longitude);
+                    return ResponseEntity.ok(cab);
+                })
+                .orElse(ResponseEntity.notFound().build());
+        }
+        
         return cabDriverRepository.findById(id)
             .map(cab -> {
                 cab.setCurrentLatitude(latitude);
                 cab.setCurrentLongitude(longitude);
+                locationHistoryService.recordCab(id, System.currentTimeMillis(), latitude, longitude);
                 return ResponseEntity.ok(cabDriverRepository.save(cab));
             })
             .orElse(ResponseEntity.notFound().build());
     }
 
+    // Update the locations of many cabs at once, as aggregated by the gateway
+    @PostMapping("/locations:batch")
+    public LocationBatchResult updateLocations(@RequestBody List<LocationUpdate> updates) {
+        return locationIngestService.updateCabLocations(updates);
+    }
+
+    // The same batch in the compact binary form, for gateways on slow links
+    @PostMapping(value = "/locations:batch", consumes = LocationBatchCodec.MEDIA_TYPE)
+    public LocationBatchResult updateLocationsBinary(@RequestBody byte[] payload) {
+        return locationIngestService.updateCabLocations(payload);
+    }
+
     // Get all cabs
     @GetMapping
     public List<CabDriver> getAllCabs() {
-        return cabDriverRepository.findAll();
+        List<CabDriver> cabs = cabDriverRepository.findAll();
+        cabs.forEach(fleetStateStore::overlay);
+        cabs.forEach(locationWriteBuffer::overlay);
+        return cabs;
+    }
+
+    // Get the k cabs closest to a point, closest first
+    @GetMapping("/nearby")
+    public List<NearbyCab> getNearbyCabs(
+            @RequestParam double lat,
+            @RequestParam double lon,
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(defaultValue = "5000") double radius,
+            @RequestParam(defaultValue = "false") boolean availableOnly) {
+        
+        if (k < 1 || k > MAX_NEARBY_RESULTS) {
+            throw new InvalidOperationException("k must be between 1 and " + MAX_NEARBY_RESULTS);
+        }
+        if (radius <= 0) {
+            throw new InvalidOperationException("radius must be positive");
+        }
+        
+        if (fleetStateStore.isEnabled()) {
+            return fleetStateStore.findNearby(lat, lon, k, radius, availableOnly, locationService.getDistanceEngine());
+        }
+        
+        // Without the live store every cab has to be checked
+        List<CabDriver> cabs = cabDriverRepository.findAll();
+        cabs.forEach(locationWriteBuffer::overlay);
+        return cabs.stream()
+            .filter(cab -> cab.getCurrentLatitude() != null && cab.getCurrentLongitude() != null)
+            .filter(cab -> !availableOnly || cab.isAvailable())
+            .map(cab -> new NearbyCab(cab.getId(), cab.getCurrentLatitude(), cab.getCurrentLongitude(),
+                cab.isAvailable(), locationService.calculateDistance(
+                    lat, lon, cab.getCurrentLatitude(), cab.getCurrentLongitude())))
+            .filter(nearby -> nearby.getDistanceMeters() <= radius)
+            .sorted(Comparator.comparingDouble(NearbyCab::getDistanceMeters))
+            .limit(k)
+            .toList();
     }
 
     // Get cab by ID
     @GetMapping("/{id}")
     public ResponseEntity<CabDriver> getCabById(@PathVariable Long id) {
         return cabDriverRepository.findById(id)
-            .map(ResponseEntity::ok)
+            .map(cab -> {
+                fleetStateStore.overlay(cab);
+                locationWriteBuffer.overlay(cab);
+                return ResponseEntity.ok(cab);
+            })
             .orElse(ResponseEntity.notFound().build());
     }
 
+    // Get where a cab was between two times, in epoch milliseconds
+    @GetMapping("/{id}/history")
+    public List<TrajectoryPoint> getLocationHistory(
+            @PathVariable Long id,
+            @RequestParam long from,
+            @RequestParam long to) {
+        return locationHistoryService.getCabTrajectory(id, from, to);
+    }
+
     // Create a new cab
     @PostMapping
     public CabDriver createCab(@RequestBody CabDriver cabDriver) {
-        return cabDriverRepository.save(cabDriver);
+        CabDriver saved = cabDriverRepository.save(cabDriver);
+        fleetStateStore.upsert(saved);
+        return saved;
     }
 
     // Update cab details
@@ -71,7 +189,11 @@ public class CabController {
                 cab.setLicenseNumber(cabDetails.getLicenseNumber());
                 cab.setCabNumber(cabDetails.getCabNumber());
                 cab.setAvailable(cabDetails.isAvailable());
-                return ResponseEntity.ok(cabDriverRepository.save(cab));
+                CabDriver saved = cabDriverRepository.save(cab);
+                fleetStateStore.setAvailable(id, saved.isAvailable());
+                fleetStateStore.overlay(saved);
+                locationWriteBuffer.overlay(saved);
+                return ResponseEntity.ok(saved);
             })
             .orElse(ResponseEntity.notFound().build());
     }
@@ -82,6 +204,7 @@ public class CabController {
         return cabDriverRepository.findById(id)
             .map(cab -> {
                 cabDriverRepository.delete(cab);
+                fleetStateStore.remove(id);
                 return ResponseEntity.ok().build();
             })
             .orElse(ResponseEntity.notFound().build());
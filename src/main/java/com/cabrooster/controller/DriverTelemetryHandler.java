@@ -0,0 +1,308 @@
+package com.cabrooster.controller;
+
+import com.cabrooster.dto.AssignmentNotification;
+import com.cabrooster.dto.LocationUpdate;
+import com.cabrooster.interceptor.DriverHandshakeInterceptor;
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.service.FleetStateStore;
+import com.cabrooster.service.LocationHistoryService;
+import com.cabrooster.service.LocationIngestService;
+import com.cabrooster.service.LocationWriteBuffer;
+import com.cabrooster.service.dispatch.RidesAssignedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent channel for drivers, connected at {@code /ws/drivers?cabId=}. Drivers stream their
+ * position as text frames like {@code {"lat":12.97,"lon":77.59,"ts":1700000000000}} and receive
+ * an {@link AssignmentNotification} for every ride assigned to their cab.
+ * <p>
+ * Frames are applied on the container thread that read them, so a connection that sends faster
+ * than they are applied is held back by TCP flow control rather than queued in memory. Frames
+ * arriving sooner than the minimum interval after the last applied one are dropped. Without the
+ * live fleet store, positions go through the {@link LocationWriteBuffer}.
+ * Notifications are sent from a notifier thread of their own, so a committing transaction never
+ * waits on a driver's socket. Outgoing messages are buffered up to a limit per connection; a
+ * driver that falls further behind is disconnected.
+ */
+@Component
+public class DriverTelemetryHandler extends TextWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DriverTelemetryHandler.class);
+
+    private static final String CONNECTION_ATTRIBUTE = "telemetryConnection";
+    private static final CloseStatus REPLACED = CloseStatus.POLICY_VIOLATION.withReason("Replaced by a newer connection");
+
+    @Autowired
+    private FleetStateStore fleetStateStore;
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private LocationIngestService locationIngestService;
+
+    @Autowired
+    private LocationHistoryService locationHistoryService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${telemetry.min-frame-interval-ms:500}")
+    private long minFrameIntervalMs;
+
+    @Value("${telemetry.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    @Value("${telemetry.send-buffer-bytes:16384}")
+    private int sendBufferBytes;
+
+    // Notifications waiting for the notifier thread; more are counted as failed
+    @Value("${telemetry.notification-queue-capacity:10000}")
+    private int notificationQueueCapacity;
+
+    private final Map<Long, Connection> connections = new ConcurrentHashMap<>();
+
+    private Counter framesApplied;
+    private Counter framesThrottled;
+    private Counter framesStale;
+    private Counter framesRejected;
+    private Counter notificationsSent;
+    private Counter notificationsFailed;
+    private ExecutorService notifier;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("telemetry.connections", connections, Map::size)
+                .description("Drivers connected to the telemetry channel")
+                .register(meterRegistry);
+        framesApplied = frameCounter("applied");
+        framesThrottled = frameCounter("throttled");
+        framesStale = frameCounter("stale");
+        framesRejected = frameCounter("rejected");
+        notificationsSent = notificationCounter("sent");
+        notificationsFailed = notificationCounter("failed");
+        // One thread keeps each driver's notifications in order; the send time limit bounds a stalled driver
+        notifier = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(notificationQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "telemetry-notifier");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        notifier.shutdown();
+    }
+
+    @Override
+    public void afterConnectionEstablished(@NonNull WebSocketSession session) {
+        long cabId = (Long) session.getAttributes().get(DriverHandshakeInterceptor.CAB_ID_ATTRIBUTE);
+        Connection connection = new Connection(cabId, new ConcurrentWebSocketSessionDecorator(
+                session, sendTimeLimitMs, sendBufferBytes, ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE));
+        session.getAttributes().put(CONNECTION_ATTRIBUTE, connection);
+
+        // A driver that reconnects before the old connection timed out keeps only the new one
+        Connection previous = connections.put(cabId, connection);
+        if (previous != null) {
+            close(previous.session, REPLACED);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(@NonNull WebSocketSession session, @NonNull TextMessage message) throws IOException {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION_ATTRIBUTE);
+        LocationUpdate frame;
+        try {
+            frame = objectMapper.readValue(message.getPayload(), LocationUpdate.class);
+        } catch (IOException e) {
+            frame = null;
+        }
+        // A bare null or a frame missing a coordinate is as unusable as one that does not parse
+        if (frame == null || frame.getLat() == null || frame.getLon() == null) {
+            framesRejected.increment();
+            session.close(CloseStatus.BAD_DATA.withReason("Expected {\"lat\":..,\"lon\":..,\"ts\":..}"));
+            return;
+        }
+        if (!(Math.abs(frame.getLat()) <= 90) || !(Math.abs(frame.getLon()) <= 180)) {
+            framesRejected.increment();
+            session.close(CloseStatus.BAD_DATA.withReason("Coordinates out of range"));
+            return;
+        }
+
+        // Frames of one connection are delivered one at a time, so its state needs no locking
+        long now = System.nanoTime();
+        if (now - connection.nextFrameNanos < 0) {
+            framesThrottled.increment();
+            return;
+        }
+        // Frames without a timestamp count as the latest, as in location batches
+        if (frame.getTs() != null) {
+            if (frame.getTs() < connection.lastTimestamp) {
+                framesStale.increment();
+                return;
+            }
+            connection.lastTimestamp = frame.getTs();
+        }
+        connection.nextFrameNanos = now + TimeUnit.MILLISECONDS.toNanos(minFrameIntervalMs);
+
+        if (fleetStateStore.isEnabled()) {
+            if (fleetStateStore.updateLocation(connection.cabId, frame.getLat(), frame.getLon())) {
+                recordHistory(connection, frame);
+            }
+        } else if (locationWriteBuffer.isEnabled()) {
+            locationWriteBuffer.bufferCab(connection.cabId, frame.getLat(), frame.getLon());
+            recordHistory(connection, frame);
+        } else {
+            // Batches record the history themselves
+            frame.setId(connection.cabId);
+            locationIngestService.updateCabLocations(List.of(frame));
+        }
+        framesApplied.increment();
+    }
+
+    @Override
+    public void handleTransportError(@NonNull WebSocketSession session, @NonNull Throwable exception) {
+        logger.debug("Telemetry connection {} failed: {}", session.getId(), exception.getMessage());
+        close(session, CloseStatus.SERVER_ERROR);
+    }
+
+    @Override
+    public void afterConnectionClosed(@NonNull WebSocketSession session, @NonNull CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION_ATTRIBUTE);
+        if (connection != null) {
+            connections.remove(connection.cabId, connection);
+        }
+    }
+
+    /**
+     * Push assigned rides to the connected drivers once the assignment is committed. The messages
+     * are written here and sent by the notifier thread.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRidesAssigned(RidesAssignedEvent event) {
+        List<Connection> recipients = new ArrayList<>();
+        List<TextMessage> messages = new ArrayList<>();
+        for (RideAssignment assignment : event.assignments()) {
+            Connection connection = connections.get(assignment.getCabDriver().getId());
+            if (connection == null) {
+                continue;
+            }
+            AssignmentNotification notification = new AssignmentNotification(
+                    assignment.getId(),
+                    assignment.getPassenger().getId(),
+                    assignment.getPassenger().getCurrentLatitude(),
+                    assignment.getPassenger().getCurrentLongitude(),
+                    assignment.getDropOrder());
+            try {
+                messages.add(new TextMessage(objectMapper.writeValueAsString(notification)));
+                recipients.add(connection);
+            } catch (IOException e) {
+                notificationsFailed.increment();
+                logger.warn("Could not write notification for assignment {}: {}", assignment.getId(), e.getMessage());
+            }
+        }
+        if (recipients.isEmpty()) {
+            return;
+        }
+        try {
+            notifier.execute(() -> {
+                for (int i = 0; i < recipients.size(); i++) {
+                    send(recipients.get(i), messages.get(i));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            notificationsFailed.increment(recipients.size());
+            logger.warn("Notification queue is full, {} drivers will see their rides when they poll", recipients.size());
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private void send(Connection connection, TextMessage message) {
+        try {
+            connection.session.sendMessage(message);
+            notificationsSent.increment();
+        } catch (IOException | SessionLimitExceededException e) {
+            // The driver sees the ride when it polls or reconnects
+            notificationsFailed.increment();
+            logger.debug("Could not notify cab {}: {}", connection.cabId, e.getMessage());
+        }
+    }
+
+    private void recordHistory(Connection connection, LocationUpdate frame) {
+        locationHistoryService.recordCab(connection.cabId,
+                frame.getTs() != null ? frame.getTs() : System.currentTimeMillis(), frame.getLat(), frame.getLon());
+    }
+
+    private static void close(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            logger.debug("Could not close telemetry connection {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private Counter frameCounter(String result) {
+        return Counter.builder("telemetry.frames")
+                .description("Location frames received from drivers")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter notificationCounter(String result) {
+        return Counter.builder("telemetry.notifications")
+                .description("Ride assignments pushed to drivers")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * One driver's connection; the position fields are only touched by the thread delivering its frames
+     */
+    private static final class Connection {
+        final long cabId;
+        final WebSocketSession session;
+        long nextFrameNanos = System.nanoTime();
+        long lastTimestamp = Long.MIN_VALUE;
+
+        Connection(long cabId, WebSocketSession session) {
+            this.cabId = cabId;
+            this.session = session;
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package com.cabrooster.controller;
 
+import com.cabrooster.dto.LocationBatchResult;
+import com.cabrooster.dto.LocationUpdate;
 import com.cabrooster.model.Passenger;
 import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.service.LocationIngestService;
+import com.cabrooster.service.LocationWriteBuffer;
+import com.cabrooster.service.dispatch.RideRequestedEvent;
+import com.cabrooster.util.LocationBatchCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
@@ -16,6 +23,15 @@ public class PassengerController {
 
     @Autowired
     private PassengerRepository passengerRepository;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private LocationIngestService locationIngestService;
+    
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
 
     // Update passenger location (to be called every 15 minutes)
     @PutMapping("/{id}/location")
@@ -24,6 +40,18 @@ public class PassengerController {
             @RequestParam double latitude,
             @RequestParam double longitude) {
         
+        // Only the latest position is written behind in batches
+        if (locationWriteBuffer.isEnabled()) {
+            return passengerRepository.findById(id)
+                .map(passenger -> {
+                    locationWriteBuffer.bufferPassenger(id, latitude, longitude);
+                    passenger.setCurrentLatitude(latitude);
+                    passenger.setCurrentLongitude(longitude);
+                    return ResponseEntity.ok(passenger);
+                })
+                .orElse(ResponseEntity.notFound().build());
+        }
+        
         return passengerRepository.findById(id)
             .map(passenger -> {
                 passenger.setCurrentLatitude(latitude);
@@ -33,6 +61,18 @@ public class PassengerController {
             .orElse(ResponseEntity.notFound().build());
     }
 
+    // Update the locations of many passengers at once, as aggregated by the gateway
+    @PostMapping("/locations:batch")
+    public LocationBatchResult updateLocations(@RequestBody List<LocationUpdate> updates) {
+        return locationIngestService.updatePassengerLocations(updates);
+    }
+
+    // The same batch in the compact binary form, for gateways on slow links
+    @PostMapping(value = "/locations:batch", consumes = LocationBatchCodec.MEDIA_TYPE)
+    public LocationBatchResult updateLocationsBinary(@RequestBody byte[] payload) {
+        return locationIngestService.updatePassengerLocations(payload);
+    }
+
     // Request a ride
     @PostMapping("/{id}/request-ride")
     public ResponseEntity<Passenger> requestRide(
@@ -45,7 +85,13 @@ public class PassengerController {
                 passenger.setCurrentLatitude(currentLatitude);
                 passenger.setCurrentLongitude(currentLongitude);
                 passenger.setNeedsRide(true);
-                return ResponseEntity.ok(passengerRepository.save(passenger));
+                // The position sent with the request is newer than a buffered ping
+                locationWriteBuffer.discardPassenger(id);
+                Passenger saved = passengerRepository.save(passenger);
+                
+                // Let the dispatcher match the request right away when continuous dispatch is on
+                eventPublisher.publishEvent(new RideRequestedEvent(id, System.nanoTime()));
+                return ResponseEntity.ok(saved);
             })
             .orElse(ResponseEntity.notFound().build());
     }
@@ -53,14 +99,19 @@ public class PassengerController {
     // Get all passengers
     @GetMapping
     public List<Passenger> getAllPassengers() {
-        return passengerRepository.findAll();
+        List<Passenger> passengers = passengerRepository.findAll();
+        passengers.forEach(locationWriteBuffer::overlay);
+        return passengers;
     }
 
     // Get passenger by ID
     @GetMapping("/{id}")
     public ResponseEntity<Passenger> getPassengerById(@PathVariable Long id) {
         return passengerRepository.findById(id)
-            .map(ResponseEntity::ok)
+            .map(passenger -> {
+                locationWriteBuffer.overlay(passenger);
+                return ResponseEntity.ok(passenger);
+            })
             .orElse(ResponseEntity.notFound().build());
     }
 
@@ -78,6 +129,8 @@ public class PassengerController {
         
         return passengerRepository.findById(id)
             .map(passenger -> {
+                // Every column is written, so keep a buffered position rather than the stored one
+                locationWriteBuffer.overlay(passenger);
                 passenger.setName(passengerDetails.getName());
                 passenger.setEmail(passengerDetails.getEmail());
                 passenger.setPhone(passengerDetails.getPhone());
@@ -0,0 +1,28 @@
+package com.cabrooster.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Ride pushed to a driver over the telemetry channel")
+public class AssignmentNotification {
+
+    @Schema(description = "ID of the ride assignment", example = "1")
+    private Long assignmentId;
+
+    @Schema(description = "ID of the passenger to pick up", example = "1")
+    private Long passengerId;
+
+    @Schema(description = "Pickup latitude", example = "12.9716")
+    private Double pickupLat;
+
+    @Schema(description = "Pickup longitude", example = "77.5946")
+    private Double pickupLon;
+
+    @Schema(description = "Drop position of the passenger in a shared cab, absent otherwise", example = "1")
+    private Integer dropOrder;
+}
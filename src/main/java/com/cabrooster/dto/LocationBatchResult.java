@@ -0,0 +1,27 @@
+package com.cabrooster.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Acknowledgement of a batch of location pings")
+public class LocationBatchResult {
+
+    @Schema(description = "Locations stored, one per known ID", example = "998")
+    private int accepted;
+
+    @Schema(description = "Pings replaced by a later ping of the same ID in the batch", example = "3")
+    private int superseded;
+
+    @Schema(description = "Pings without a valid ID or with coordinates out of range", example = "0")
+    private int rejected;
+
+    @Schema(description = "IDs that do not exist")
+    private List<Long> unknownIds;
+}
@@ -0,0 +1,27 @@
+package com.cabrooster.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "One location ping of a cab or passenger")
+public class LocationUpdate {
+
+    @Schema(description = "ID of the cab driver or passenger", example = "1")
+    private Long id;
+
+    // Boxed so a ping without coordinates is rejected rather than read as 0,0
+    @Schema(description = "Latitude", example = "12.9716")
+    private Double lat;
+
+    @Schema(description = "Longitude", example = "77.5946")
+    private Double lon;
+
+    @Schema(description = "When the ping was taken, in epoch milliseconds; the latest ping of an ID wins",
+            example = "1700000000000")
+    private Long ts;
+}
@@ -0,0 +1,28 @@
+package com.cabrooster.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A cab close to a requested point")
+public class NearbyCab {
+
+    @Schema(description = "ID of the cab driver", example = "1")
+    private Long cabId;
+
+    @Schema(description = "Current latitude of the cab", example = "12.9716")
+    private double latitude;
+
+    @Schema(description = "Current longitude of the cab", example = "77.5946")
+    private double longitude;
+
+    @Schema(description = "Whether the cab can take a ride", example = "true")
+    private boolean available;
+
+    @Schema(description = "Distance from the requested point in meters", example = "42.5")
+    private double distanceMeters;
+}
@@ -0,0 +1,22 @@
+package com.cabrooster.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A recorded position of a cab")
+public class TrajectoryPoint {
+
+    @Schema(description = "When the position was taken, in epoch milliseconds", example = "1700000000000")
+    private long ts;
+
+    @Schema(description = "Latitude", example = "12.9716")
+    private double lat;
+
+    @Schema(description = "Longitude", example = "77.5946")
+    private double lon;
+}
@@ -0,0 +1,57 @@
+package com.cabrooster.interceptor;
+
+import com.cabrooster.repository.CabDriverRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.Map;
+
+/**
+ * Accepts a driver's telemetry connection only for a known cab, given as the {@code cabId} query parameter
+ */
+@Component
+public class DriverHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String CAB_ID_ATTRIBUTE = "cabId";
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Override
+    public boolean beforeHandshake(
+            @NonNull ServerHttpRequest request,
+            @NonNull ServerHttpResponse response,
+            @NonNull WebSocketHandler wsHandler,
+            @NonNull Map<String, Object> attributes) {
+        String cabId = UriComponentsBuilder.fromUri(request.getURI()).build()
+                .getQueryParams().getFirst(CAB_ID_ATTRIBUTE);
+        long id;
+        try {
+            id = Long.parseLong(cabId);
+        } catch (NumberFormatException e) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+        if (!cabDriverRepository.existsById(id)) {
+            response.setStatusCode(HttpStatus.NOT_FOUND);
+            return false;
+        }
+        attributes.put(CAB_ID_ATTRIBUTE, id);
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(
+            @NonNull ServerHttpRequest request,
+            @NonNull ServerHttpResponse response,
+            @NonNull WebSocketHandler wsHandler,
+            Exception exception) {
+    }
+}
@@ -2,15 +2,22 @@ package com.cabrooster.model;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Entity
 @Table(name = "cab_drivers")
+// Only write changed columns so availability updates never overwrite positions flushed by the live store
+@DynamicUpdate
 public class CabDriver extends User {
     private String licenseNumber;
     private String cabNumber;
     private Double currentLatitude;
     private Double currentLongitude;
     private boolean available = true;
+    // Optimistic lock so two writers cannot both claim the same cab
+    @Version
+    private Long version;
 
     // Getters and Setters
     public String getLicenseNumber() {
@@ -52,4 +59,12 @@ public class CabDriver extends User {
     public void setAvailable(boolean available) {
         this.available = available;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
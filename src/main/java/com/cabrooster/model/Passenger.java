@@ -2,15 +2,22 @@ package com.cabrooster.model;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.DynamicUpdate;
 
 @Entity
 @Table(name = "passengers")
+// Only write changed columns so assigning a passenger never overwrites a position written by location updates
+@DynamicUpdate
 public class Passenger extends User {
     private Double currentLatitude;
     private Double currentLongitude;
     private Double homeLatitude;
     private Double homeLongitude;
     private boolean needsRide = false;
+    // Optimistic lock so a passenger is not assigned twice by concurrent writers
+    @Version
+    private Long version;
 
     // Getters and Setters
     public Double getCurrentLatitude() {
@@ -52,4 +59,12 @@ public class Passenger extends User {
     public void setNeedsRide(boolean needsRide) {
         this.needsRide = needsRide;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
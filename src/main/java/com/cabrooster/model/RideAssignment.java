@@ -7,7 +7,9 @@ import java.time.LocalDateTime;
 @Table(name = "ride_assignments")
 public class RideAssignment {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    // Pooled sequence so a batch of inserts needs one sequence call per 50 rows
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ride_assignments_seq")
+    @SequenceGenerator(name = "ride_assignments_seq", sequenceName = "ride_assignments_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne
@@ -21,6 +23,8 @@ public class RideAssignment {
     private LocalDateTime assignmentTime;
     private LocalDateTime completionTime;
     private String status; // PENDING, IN_PROGRESS, COMPLETED, CANCELLED
+    // Position among the drops of a shared cab, starting at 1; null for a ride of its own
+    private Integer dropOrder;
     
     // Getters and Setters
     public Long getId() {
@@ -70,4 +74,12 @@ public class RideAssignment {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public Integer getDropOrder() {
+        return dropOrder;
+    }
+
+    public void setDropOrder(Integer dropOrder) {
+        this.dropOrder = dropOrder;
+    }
 }
@@ -0,0 +1,63 @@
+package com.cabrooster.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * One ride of the precomputed plan for the next 8:00 AM run: the cab planned for a passenger
+ */
+@Entity
+@Table(name = "roster_entries")
+public class RosterEntry {
+    @Id
+    // Pooled sequence so a batch of inserts needs one sequence call per 50 rows
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "roster_entries_seq")
+    @SequenceGenerator(name = "roster_entries_seq", sequenceName = "roster_entries_seq", allocationSize = 50)
+    private Long id;
+
+    private Long cabDriverId;
+    private Long passengerId;
+    private LocalDateTime plannedTime;
+
+    public RosterEntry() {
+    }
+
+    public RosterEntry(Long cabDriverId, Long passengerId, LocalDateTime plannedTime) {
+        this.cabDriverId = cabDriverId;
+        this.passengerId = passengerId;
+        this.plannedTime = plannedTime;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getCabDriverId() {
+        return cabDriverId;
+    }
+
+    public void setCabDriverId(Long cabDriverId) {
+        this.cabDriverId = cabDriverId;
+    }
+
+    public Long getPassengerId() {
+        return passengerId;
+    }
+
+    public void setPassengerId(Long passengerId) {
+        this.passengerId = passengerId;
+    }
+
+    public LocalDateTime getPlannedTime() {
+        return plannedTime;
+    }
+
+    public void setPlannedTime(LocalDateTime plannedTime) {
+        this.plannedTime = plannedTime;
+    }
+}
@@ -0,0 +1,56 @@
+package com.cabrooster.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Time-limited claim on a scheduled job, or on one partition of it, by one application instance
+ */
+@Entity
+@Table(name = "scheduler_leases")
+public class SchedulerLease {
+    @Id
+    private String name;
+
+    // Node id of the instance holding the lease
+    private String owner;
+
+    private Instant expiresAt;
+
+    public SchedulerLease() {
+    }
+
+    public SchedulerLease(String name, String owner, Instant expiresAt) {
+        this.name = name;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+    }
+
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -2,12 +2,35 @@ package com.cabrooster.repository;
 
 import com.cabrooster.model.CabDriver;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface CabDriverRepository extends JpaRepository<CabDriver, Long> {
     List<CabDriver> findByAvailable(boolean available);
     long countByAvailable(boolean available);
+
+    // Available cabs of one partition; same key as DispatchPartition.of, cabs without a location in partition 0
+    @Query("SELECT c FROM CabDriver c WHERE c.available = true AND ("
+            + "((c.currentLatitude IS NULL OR c.currentLongitude IS NULL) AND :partition = 0) "
+            + "OR (c.currentLatitude IS NOT NULL AND c.currentLongitude IS NOT NULL "
+            + "AND MOD(CAST(FLOOR((c.currentLatitude + 90) / :regionDegrees) AS Long) * 5 "
+            + "+ CAST(FLOOR((c.currentLongitude + 180) * COS(RADIANS("
+            + "(2 * CAST(FLOOR((c.currentLatitude + 90) / :regionDegrees) AS Long) + 1) * :regionDegrees / 2 - 90)) "
+            + "/ :regionDegrees) AS Long), :partitions) = :partition))")
+    List<CabDriver> findAvailableInPartition(@Param("partition") int partition,
+                                             @Param("partitions") int partitions,
+                                             @Param("regionDegrees") double regionDegrees);
+
+    // Marks the given cabs unavailable if they still are available and returns how many it claimed.
+    // Clears the persistence context so loaded cabs must be treated as detached.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE CabDriver c SET c.available = false, c.version = c.version + 1 "
+            + "WHERE c.id IN :ids AND c.available = true")
+    int claimAvailable(@Param("ids") Collection<Long> ids);
 }
@@ -1,9 +1,16 @@
 package com.cabrooster.repository;
 
 import com.cabrooster.model.Passenger;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -11,4 +18,38 @@ public interface PassengerRepository extends JpaRepository<Passenger, Long> {
     List<Passenger> findByNeedsRide(boolean needsRide);
 
     long countByNeedsRide(boolean needsRide);
+
+    // Next page of waiting passengers after the given id, in id order. Rows are read as plain values
+    // rather than managed entities, so reading them costs no dirty checking.
+    @Query("SELECT new com.cabrooster.repository.WaitingPassenger(p.id, p.version, p.currentLatitude, "
+            + "p.currentLongitude, p.homeLatitude, p.homeLongitude) "
+            + "FROM Passenger p WHERE p.needsRide = true AND p.id > :afterId ORDER BY p.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    List<WaitingPassenger> findWaitingAfter(@Param("afterId") long afterId, Pageable page);
+
+    // Next page of the waiting passengers of one partition after the given id, in id order.
+    // Same key as DispatchPartition.of; passengers without a location are in partition 0.
+    @Query("SELECT new com.cabrooster.repository.WaitingPassenger(p.id, p.version, p.currentLatitude, "
+            + "p.currentLongitude, p.homeLatitude, p.homeLongitude) "
+            + "FROM Passenger p WHERE p.needsRide = true AND p.id > :afterId AND ("
+            + "((p.currentLatitude IS NULL OR p.currentLongitude IS NULL) AND :partition = 0) "
+            + "OR (p.currentLatitude IS NOT NULL AND p.currentLongitude IS NOT NULL "
+            + "AND MOD(CAST(FLOOR((p.currentLatitude + 90) / :regionDegrees) AS Long) * 5 "
+            + "+ CAST(FLOOR((p.currentLongitude + 180) * COS(RADIANS("
+            + "(2 * CAST(FLOOR((p.currentLatitude + 90) / :regionDegrees) AS Long) + 1) * :regionDegrees / 2 - 90)) "
+            + "/ :regionDegrees) AS Long), :partitions) = :partition)) "
+            + "ORDER BY p.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    List<WaitingPassenger> findWaitingInPartitionAfter(@Param("afterId") long afterId,
+                                                       @Param("partition") int partition,
+                                                       @Param("partitions") int partitions,
+                                                       @Param("regionDegrees") double regionDegrees,
+                                                       Pageable page);
+
+    // Marks the given passengers assigned if they still need a ride and returns how many it claimed.
+    // Clears the persistence context so loaded passengers must be treated as detached.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Passenger p SET p.needsRide = false, p.version = p.version + 1 "
+            + "WHERE p.id IN :ids AND p.needsRide = true")
+    int claimWaiting(@Param("ids") Collection<Long> ids);
 }
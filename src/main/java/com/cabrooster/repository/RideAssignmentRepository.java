@@ -4,6 +4,7 @@ import com.cabrooster.model.RideAssignment;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,4 +14,6 @@ public interface RideAssignmentRepository extends JpaRepository<RideAssignment,
     List<RideAssignment> findByPassengerIdAndStatus(Long passengerId, String status);
     long countByStatus(String status);
     List<RideAssignment> findByPassengerIdAndStatusIn(Long passengerId, List<String> of);
+    // Whether a cab has other assignments in the given states, such as the other passengers of a shared ride
+    boolean existsByCabDriverIdAndStatusInAndIdNot(Long cabDriverId, Collection<String> statuses, Long id);
 }
@@ -0,0 +1,23 @@
+package com.cabrooster.repository;
+
+import com.cabrooster.model.RosterEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface RosterEntryRepository extends JpaRepository<RosterEntry, Long> {
+
+    // Rides planned after the given time whose cab is still available and passenger still waiting.
+    // Rides that no longer hold are left out, so only the changes since planning need matching.
+    @Query("SELECT new com.cabrooster.repository.RosteredRide(r.cabDriverId, p.id, p.version, "
+            + "p.currentLatitude, p.currentLongitude, c.currentLatitude, c.currentLongitude) "
+            + "FROM RosterEntry r, CabDriver c, Passenger p "
+            + "WHERE r.plannedTime > :plannedAfter AND c.id = r.cabDriverId AND c.available = true "
+            + "AND p.id = r.passengerId AND p.needsRide = true ORDER BY p.id")
+    List<RosteredRide> findStillValid(@Param("plannedAfter") LocalDateTime plannedAfter);
+}
@@ -0,0 +1,25 @@
+package com.cabrooster.repository;
+
+import com.cabrooster.model.Passenger;
+
+/**
+ * A ride of the precomputed roster that still holds, with the passenger columns needed to assign it
+ * and the cab's position
+ */
+public record RosteredRide(Long cabDriverId, Long passengerId, Long passengerVersion,
+                           Double currentLatitude, Double currentLongitude,
+                           Double cabLatitude, Double cabLongitude) {
+
+    /**
+     * Detached passenger holding these columns, enough to claim and assign it
+     */
+    public Passenger toPassenger() {
+        Passenger passenger = new Passenger();
+        passenger.setId(passengerId);
+        passenger.setVersion(passengerVersion);
+        passenger.setCurrentLatitude(currentLatitude);
+        passenger.setCurrentLongitude(currentLongitude);
+        passenger.setNeedsRide(true);
+        return passenger;
+    }
+}
@@ -0,0 +1,32 @@
+package com.cabrooster.repository;
+
+import com.cabrooster.model.SchedulerLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+
+@Repository
+public interface SchedulerLeaseRepository extends JpaRepository<SchedulerLease, String> {
+
+    // Gives the lease to the owner if it already holds it or the lease has expired; returns 1 if it did.
+    @Modifying
+    @Query("UPDATE SchedulerLease l SET l.owner = :owner, l.expiresAt = :expiresAt "
+            + "WHERE l.name = :name AND (l.owner = :owner OR l.expiresAt < :now)")
+    int takeOver(@Param("name") String name, @Param("owner") String owner,
+                 @Param("expiresAt") Instant expiresAt, @Param("now") Instant now);
+
+    // Creates a lease; fails with a key violation if another owner created it first.
+    @Modifying
+    @Query(value = "INSERT INTO scheduler_leases (name, owner, expires_at) VALUES (:name, :owner, :expiresAt)",
+            nativeQuery = true)
+    int insert(@Param("name") String name, @Param("owner") String owner, @Param("expiresAt") Instant expiresAt);
+
+    // Lets the lease expire now if the owner still holds it.
+    @Modifying
+    @Query("UPDATE SchedulerLease l SET l.expiresAt = :now WHERE l.name = :name AND l.owner = :owner")
+    int release(@Param("name") String name, @Param("owner") String owner, @Param("now") Instant now);
+}
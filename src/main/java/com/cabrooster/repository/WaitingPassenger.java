@@ -0,0 +1,25 @@
+package com.cabrooster.repository;
+
+import com.cabrooster.model.Passenger;
+
+/**
+ * Columns of a waiting passenger that the scheduled runs need, read without loading the entity
+ */
+public record WaitingPassenger(Long id, Long version, Double currentLatitude, Double currentLongitude,
+                               Double homeLatitude, Double homeLongitude) {
+
+    /**
+     * Detached passenger holding these columns, enough to match, claim and assign it
+     */
+    public Passenger toPassenger() {
+        Passenger passenger = new Passenger();
+        passenger.setId(id);
+        passenger.setVersion(version);
+        passenger.setCurrentLatitude(currentLatitude);
+        passenger.setCurrentLongitude(currentLongitude);
+        passenger.setHomeLatitude(homeLatitude);
+        passenger.setHomeLongitude(homeLongitude);
+        passenger.setNeedsRide(true);
+        return passenger;
+    }
+}
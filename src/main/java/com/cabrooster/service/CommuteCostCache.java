@@ -0,0 +1,163 @@
+package com.cabrooster.service;
+
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.PairCostCache;
+import com.cabrooster.util.distance.DistanceEngine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Costs between homes and pickup points measured by the home-drop planner, kept from one run
+ * to the next.
+ * <p>
+ * Riders are dropped at the same homes and board near the same offices every day, so on a
+ * grid of some tens of meters most pairs planned at 19:00 were already measured the day
+ * before. Live cab positions are never cached; they would not repeat.
+ * <p>
+ * When {@code dispatch.cost-cache.path} is set the cache is written there every
+ * {@code dispatch.cost-cache.save-interval-ms} while it gains entries and at shutdown, and
+ * read back at startup, so the first run after a restart starts warm. Saving runs on the
+ * scheduler, never inside a run's transaction. Entries are only reused with the distance
+ * engine that measured them.
+ */
+@Service
+public class CommuteCostCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommuteCostCache.class);
+
+    public static final String EVICTION_LRU = "lru";
+    public static final String EVICTION_LFU = "lfu";
+
+    @Autowired
+    private DistanceEngine distanceEngine;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.cost-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${dispatch.cost-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // About 50 m; a day's pickup point or a geocoded home moves less than this
+    @Value("${dispatch.cost-cache.grid-degrees:0.0005}")
+    private double gridDegrees;
+
+    @Value("${dispatch.cost-cache.eviction:lru}")
+    private String eviction;
+
+    @Value("${dispatch.cost-cache.path:}")
+    private String path;
+
+    private PairCostCache cache;
+    // Misses, and so new entries, as of the last save
+    private long savedMisses;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        PairCostCache.Eviction policy;
+        if (EVICTION_LRU.equalsIgnoreCase(eviction)) {
+            policy = PairCostCache.Eviction.LRU;
+        } else if (EVICTION_LFU.equalsIgnoreCase(eviction)) {
+            policy = PairCostCache.Eviction.LFU;
+        } else {
+            throw new IllegalStateException("Unknown cost cache eviction policy: " + eviction);
+        }
+        cache = new PairCostCache(maxBytes, gridDegrees, policy);
+        load();
+
+        FunctionCounter.builder("dispatch.cost.cache.hits", cache, PairCostCache::hitCount)
+                .description("Pair costs answered from the cache")
+                .register(meterRegistry);
+        FunctionCounter.builder("dispatch.cost.cache.misses", cache, PairCostCache::missCount)
+                .description("Pair costs that had to be measured")
+                .register(meterRegistry);
+        FunctionCounter.builder("dispatch.cost.cache.evictions", cache, PairCostCache::evictionCount)
+                .description("Pair costs dropped to stay within the size limit")
+                .register(meterRegistry);
+        Gauge.builder("dispatch.cost.cache.hit.rate", cache, PairCostCache::hitRate)
+                .description("Share of pair costs answered from the cache")
+                .register(meterRegistry);
+        Gauge.builder("dispatch.cost.cache.size", cache, PairCostCache::size)
+                .description("Pair costs held in the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The given distance function, answering from the cache when it is enabled
+     */
+    public GeoGridIndex.DistanceFunction wrap(GeoGridIndex.DistanceFunction distanceFunction) {
+        return cache == null ? distanceFunction : cache.wrap(distanceFunction);
+    }
+
+    /**
+     * Save the cache if it gained entries since it was last saved
+     */
+    @Scheduled(fixedDelayString = "${dispatch.cost-cache.save-interval-ms:300000}")
+    public void saveChanges() {
+        if (cache != null && cache.missCount() != savedMisses) {
+            save();
+        }
+    }
+
+    /**
+     * Write the cache to {@code dispatch.cost-cache.path}, if it is set
+     */
+    public synchronized void save() {
+        if (cache == null || path.isBlank()) {
+            return;
+        }
+        savedMisses = cache.missCount();
+        // Write beside the file and move it into place so a crash never leaves half a file
+        Path target = Path.of(path);
+        try {
+            Path directory = Files.createDirectories(target.toAbsolutePath().getParent());
+            Path temporary = Files.createTempFile(directory, "costs", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                cache.writeTo(out, distanceEngine.name());
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save the pair cost cache to {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        save();
+    }
+
+    private void load() {
+        if (path.isBlank() || !Files.isReadable(Path.of(path))) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(path))))) {
+            long count = cache.readFrom(in, distanceEngine.name());
+            logger.info("Loaded {} pair costs from {}", count, path);
+        } catch (IOException e) {
+            logger.warn("Could not read the pair cost cache {}: {}", path, e.getMessage());
+        }
+    }
+}
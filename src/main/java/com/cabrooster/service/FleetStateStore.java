@@ -0,0 +1,475 @@
+package com.cabrooster.service;
+
+import com.cabrooster.dto.NearbyCab;
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoKdTree;
+import com.cabrooster.util.LongIntHashMap;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Live position and availability of every cab, kept in primitive arrays.
+ * <p>
+ * Location updates only touch memory and are written to {@code cab_drivers} in
+ * batches every flush interval, so a crash loses at most one interval of positions.
+ * Availability is still written through JPA and mirrored here once it commits.
+ */
+@Service
+public class FleetStateStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FleetStateStore.class);
+
+    public static final long NO_CAB = -1;
+
+    private static final int NO_SLOT = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+    // First radius tried by nearby searches before widening
+    private static final double INITIAL_SEARCH_RADIUS_METERS = 250;
+    private static final String LOAD_SQL =
+            "SELECT id, current_latitude, current_longitude, available FROM cab_drivers";
+    private static final String FLUSH_SQL =
+            "UPDATE cab_drivers SET current_latitude = ?, current_longitude = ? WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${fleet.live-store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${fleet.live-store.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    private final StampedLock lock = new StampedLock();
+    private final LongIntHashMap slots = new LongIntHashMap(INITIAL_CAPACITY, NO_SLOT);
+    // Cabs with a known position, updated together with the arrays below
+    private final GeoKdTree positions = new GeoKdTree();
+    private final LongPredicate availableFilter = cabId -> available[slots.get(cabId)];
+
+    // One slot per cab; unknown coordinates are NaN
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private boolean[] available = new boolean[INITIAL_CAPACITY];
+    private boolean[] dirty = new boolean[INITIAL_CAPACITY];
+    private int size;
+
+    // Cabs whose position changed since the last flush, in update order
+    private long[] dirtyIds = new long[INITIAL_CAPACITY];
+    private int dirtyCount;
+
+    // Only touched by the flushing thread
+    private long[] flushIds = new long[0];
+    private double[] flushLatitudes = new double[0];
+    private double[] flushLongitudes = new double[0];
+
+    private volatile boolean loaded;
+
+    /**
+     * Load every cab from the table once the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            jdbcTemplate.query(LOAD_SQL, rs -> {
+                double latitude = rs.getDouble(2);
+                if (rs.wasNull()) {
+                    latitude = Double.NaN;
+                }
+                double longitude = rs.getDouble(3);
+                if (rs.wasNull()) {
+                    longitude = Double.NaN;
+                }
+                put(rs.getLong(1), latitude, longitude, rs.getBoolean(4));
+            });
+            loaded = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        logger.info("Live fleet store loaded {} cabs", size);
+    }
+
+    /**
+     * Whether the store is the source of truth for cab positions
+     */
+    public boolean isEnabled() {
+        return enabled && loaded;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Add or replace a cab from its persisted state
+     */
+    public void upsert(CabDriver cab) {
+        if (!isEnabled() || cab.getId() == null) {
+            return;
+        }
+        double latitude = cab.getCurrentLatitude() != null ? cab.getCurrentLatitude() : Double.NaN;
+        double longitude = cab.getCurrentLongitude() != null ? cab.getCurrentLongitude() : Double.NaN;
+        long stamp = lock.writeLock();
+        try {
+            put(cab.getId(), latitude, longitude, cab.isAvailable());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Record a new position; it reaches the table with the next flush
+     * @return false if the cab is unknown
+     */
+    public boolean updateLocation(long cabId, double latitude, double longitude) {
+        long stamp = lock.writeLock();
+        try {
+            return move(cabId, latitude, longitude);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Record new positions for many cabs under one lock; they reach the table with the next flush
+     * @param applied Set to whether each cab was known
+     * @return Number of cabs that were known
+     */
+    public int updateLocations(long[] cabIds, double[] cabLatitudes, double[] cabLongitudes, int count,
+                               boolean[] applied) {
+        int known = 0;
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                applied[i] = move(cabIds[i], cabLatitudes[i], cabLongitudes[i]);
+                if (applied[i]) {
+                    known++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return known;
+    }
+
+    public void setAvailable(long cabId, boolean isAvailable) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slots.get(cabId);
+            if (slot != NO_SLOT) {
+                available[slot] = isAvailable;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Mirror an availability change once the surrounding transaction commits,
+     * or right away if there is none
+     */
+    public void setAvailableAfterCommit(Long cabId, boolean isAvailable) {
+        if (!isEnabled() || cabId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            setAvailable(cabId, isAvailable);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                setAvailable(cabId, isAvailable);
+            }
+        });
+    }
+
+    public void remove(long cabId) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slots.remove(cabId);
+            if (slot == NO_SLOT) {
+                return;
+            }
+            positions.remove(cabId);
+            // Move the last cab into the freed slot
+            int last = --size;
+            if (slot != last) {
+                ids[slot] = ids[last];
+                latitudes[slot] = latitudes[last];
+                longitudes[slot] = longitudes[last];
+                available[slot] = available[last];
+                dirty[slot] = dirty[last];
+                slots.put(ids[slot], slot);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copy the live position onto a detached entity so responses show the latest location
+     */
+    public void overlay(CabDriver cab) {
+        if (!isEnabled() || cab.getId() == null) {
+            return;
+        }
+        long stamp = lock.readLock();
+        try {
+            int slot = slots.get(cab.getId());
+            if (slot != NO_SLOT && !Double.isNaN(latitudes[slot])) {
+                cab.setCurrentLatitude(latitudes[slot]);
+                cab.setCurrentLongitude(longitudes[slot]);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Fill in the live position of each cab, falling back to the entity for unknown cabs
+     * and NaN when neither has one
+     */
+    public void locate(List<CabDriver> cabs, double[] cabLatitudes, double[] cabLongitudes) {
+        long stamp = lock.readLock();
+        try {
+            for (int c = 0; c < cabs.size(); c++) {
+                CabDriver cab = cabs.get(c);
+                int slot = cab.getId() != null ? slots.get(cab.getId()) : NO_SLOT;
+                if (slot != NO_SLOT) {
+                    cabLatitudes[c] = latitudes[slot];
+                    cabLongitudes[c] = longitudes[slot];
+                } else {
+                    cabLatitudes[c] = cab.getCurrentLatitude() != null ? cab.getCurrentLatitude() : Double.NaN;
+                    cabLongitudes[c] = cab.getCurrentLongitude() != null ? cab.getCurrentLongitude() : Double.NaN;
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Nearest available cab within range. Does not allocate.
+     * @param distanceFunction Distance in meters
+     * @return The cab id, or {@link #NO_CAB} if none is in range
+     */
+    public long nearestAvailable(double latitude, double longitude, double maxDistanceMeters,
+                                 GeoGridIndex.DistanceFunction distanceFunction) {
+        long stamp = lock.readLock();
+        try {
+            return positions.nearest(latitude, longitude, maxDistanceMeters, distanceFunction,
+                    availableFilter, NO_CAB);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Up to k cabs closest to a point, closest first. The search starts with a small
+     * radius and doubles it until k cabs are found or the maximum radius is reached.
+     */
+    public List<NearbyCab> findNearby(double latitude, double longitude, int k, double maxRadiusMeters,
+                                      boolean availableOnly, GeoGridIndex.DistanceFunction distanceFunction) {
+        long[] cabIds = new long[k];
+        double[] distances = new double[k];
+        List<NearbyCab> nearby = new ArrayList<>(k);
+        long stamp = lock.readLock();
+        try {
+            double radius = Math.min(INITIAL_SEARCH_RADIUS_METERS, maxRadiusMeters);
+            int found;
+            while (true) {
+                found = positions.nearest(latitude, longitude, k, radius, distanceFunction,
+                        availableOnly ? availableFilter : null, cabIds, distances);
+                if (found >= k || radius >= maxRadiusMeters) {
+                    break;
+                }
+                radius = Math.min(radius * 2, maxRadiusMeters);
+            }
+            for (int i = 0; i < found; i++) {
+                int slot = slots.get(cabIds[i]);
+                nearby.add(new NearbyCab(cabIds[i], latitudes[slot], longitudes[slot], available[slot], distances[i]));
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return nearby;
+    }
+
+    /**
+     * Write positions changed since the last flush to the table in JDBC batches
+     */
+    @Scheduled(fixedDelayString = "${fleet.live-store.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        if (!isEnabled()) {
+            return;
+        }
+        int count = takeDirty();
+        if (count == 0) {
+            return;
+        }
+        try {
+            for (int from = 0; from < count; from += flushBatchSize) {
+                int batchFrom = from;
+                int batchSize = Math.min(flushBatchSize, count - from);
+                jdbcTemplate.batchUpdate(FLUSH_SQL, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setDouble(1, flushLatitudes[batchFrom + i]);
+                        ps.setDouble(2, flushLongitudes[batchFrom + i]);
+                        ps.setLong(3, flushIds[batchFrom + i]);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return batchSize;
+                    }
+                });
+            }
+            logger.debug("Flushed {} cab locations", count);
+        } catch (RuntimeException e) {
+            // Keep the positions queued so the next flush retries them
+            logger.error("Failed to flush {} cab locations", count, e);
+            requeue(count);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Set a cab's position and queue it for the next flush; needs the write lock
+     * @return false if the cab is unknown
+     */
+    private boolean move(long cabId, double latitude, double longitude) {
+        int slot = slots.get(cabId);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        positions.put(cabId, latitude, longitude);
+        if (!dirty[slot]) {
+            dirty[slot] = true;
+            if (dirtyCount == dirtyIds.length) {
+                dirtyIds = Arrays.copyOf(dirtyIds, dirtyCount * 2);
+            }
+            dirtyIds[dirtyCount++] = cabId;
+        }
+        return true;
+    }
+
+    /**
+     * Move the pending positions into the flush buffers
+     * @return Number of positions to flush
+     */
+    private int takeDirty() {
+        long stamp = lock.writeLock();
+        try {
+            if (flushIds.length < dirtyCount) {
+                flushIds = new long[dirtyIds.length];
+                flushLatitudes = new double[dirtyIds.length];
+                flushLongitudes = new double[dirtyIds.length];
+            }
+            int count = 0;
+            for (int i = 0; i < dirtyCount; i++) {
+                int slot = slots.get(dirtyIds[i]);
+                // Cabs deleted since their last update are skipped
+                if (slot == NO_SLOT) {
+                    continue;
+                }
+                // Cleared even when nothing is written, or the cab's later moves would never be queued
+                dirty[slot] = false;
+                if (Double.isNaN(latitudes[slot])) {
+                    continue;
+                }
+                flushIds[count] = ids[slot];
+                flushLatitudes[count] = latitudes[slot];
+                flushLongitudes[count] = longitudes[slot];
+                count++;
+            }
+            dirtyCount = 0;
+            return count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void requeue(int count) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                int slot = slots.get(flushIds[i]);
+                if (slot == NO_SLOT || dirty[slot]) {
+                    continue;
+                }
+                dirty[slot] = true;
+                if (dirtyCount == dirtyIds.length) {
+                    dirtyIds = Arrays.copyOf(dirtyIds, dirtyCount * 2);
+                }
+                dirtyIds[dirtyCount++] = flushIds[i];
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Caller must hold the write lock
+     */
+    private void put(long cabId, double latitude, double longitude, boolean isAvailable) {
+        int slot = slots.get(cabId);
+        if (slot == NO_SLOT) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                available = Arrays.copyOf(available, capacity);
+                dirty = Arrays.copyOf(dirty, capacity);
+            }
+            slot = size++;
+            slots.put(cabId, slot);
+            ids[slot] = cabId;
+            dirty[slot] = false;
+        }
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        available[slot] = isAvailable;
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            positions.remove(cabId);
+        } else {
+            positions.put(cabId, latitude, longitude);
+        }
+    }
+}
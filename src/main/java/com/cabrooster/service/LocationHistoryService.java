@@ -0,0 +1,178 @@
+package com.cabrooster.service;
+
+import com.cabrooster.dto.TrajectoryPoint;
+import com.cabrooster.exception.InvalidOperationException;
+import com.cabrooster.util.TrajectoryStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every position cabs report, kept for replaying trips, settling disputes and training ETA
+ * models. Positions are appended to memory-mapped segments under {@code location.history.path}
+ * rather than written through JPA, so recording one costs about as much as a map update.
+ * Sealing a full segment and syncing to disk run on a maintenance thread, not the ping's.
+ */
+@Service
+public class LocationHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryService.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${location.history.enabled:false}")
+    private boolean enabled;
+
+    @Value("${location.history.path:./data/location-history}")
+    private String path;
+
+    @Value("${location.history.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${location.history.roll-interval-ms:3600000}")
+    private long rollIntervalMs;
+
+    @Value("${location.history.retention-days:90}")
+    private long retentionDays;
+
+    // Largest trajectory one query returns
+    @Value("${location.history.max-points:10000}")
+    private int maxPoints;
+
+    // Client timestamps further ahead of this clock are taken as received now
+    @Value("${location.history.max-clock-skew-ms:300000}")
+    private long maxClockSkewMs;
+
+    private ExecutorService maintenanceThread;
+    private TrajectoryStore cabs;
+    private Counter recorded;
+    private Counter failed;
+    private Counter clamped;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        Path directory = Path.of(path, "cabs");
+        maintenanceThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "location-history-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            cabs = new TrajectoryStore(directory, segmentBytes, rollIntervalMs, TimeUnit.DAYS.toMillis(retentionDays),
+                    maintenanceThread);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the location history at " + directory, e);
+        }
+        recorded = Counter.builder("location.history.records")
+                .description("Positions appended to the location history")
+                .register(meterRegistry);
+        failed = Counter.builder("location.history.failures")
+                .description("Positions that could not be appended")
+                .register(meterRegistry);
+        clamped = Counter.builder("location.history.clamped")
+                .description("Positions whose timestamp lay in the future and was replaced by the time received")
+                .register(meterRegistry);
+        logger.info("Location history at {} holds {} segments", directory, cabs.getSegmentCount());
+    }
+
+    public boolean isEnabled() {
+        return cabs != null;
+    }
+
+    /**
+     * Append a cab's position; a failure is counted and logged but never reaches the caller.
+     * A timestamp from a client clock that runs ahead is replaced by the time received, so it
+     * cannot keep a segment from expiring.
+     */
+    public void recordCab(long cabId, long timestampMillis, double latitude, double longitude) {
+        if (cabs == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (timestampMillis > now + maxClockSkewMs) {
+            clamped.increment();
+            timestampMillis = now;
+        }
+        try {
+            cabs.append(cabId, timestampMillis, latitude, longitude);
+            recorded.increment();
+        } catch (UncheckedIOException e) {
+            failed.increment();
+            logger.warn("Could not record the position of cab {}: {}", cabId, e.getMessage());
+        }
+    }
+
+    /**
+     * Where a cab was between two times, oldest position first
+     */
+    public List<TrajectoryPoint> getCabTrajectory(long cabId, long fromMillis, long toMillis) {
+        if (cabs == null) {
+            throw new InvalidOperationException("Location history is not enabled");
+        }
+        if (toMillis < fromMillis) {
+            throw new InvalidOperationException("from must not be after to");
+        }
+        List<TrajectoryStore.Point> points = cabs.range(cabId, fromMillis, toMillis);
+        if (points.size() > maxPoints) {
+            throw new InvalidOperationException(
+                    "More than " + maxPoints + " positions between from and to; ask for a shorter range");
+        }
+        return points.stream()
+                .map(point -> new TrajectoryPoint(point.timestampMillis(), point.latitude(), point.longitude()))
+                .toList();
+    }
+
+    /**
+     * Roll the current segment by age, delete segments past the retention and sync to disk
+     */
+    @Scheduled(fixedDelayString = "${location.history.maintenance-interval-ms:60000}")
+    public void maintain() {
+        if (cabs == null) {
+            return;
+        }
+        int deleted = cabs.maintain(System.currentTimeMillis());
+        if (deleted > 0) {
+            logger.info("Deleted {} location history segments past the retention", deleted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (cabs == null) {
+            return;
+        }
+        // Let a segment being sealed finish before the store closes
+        maintenanceThread.shutdown();
+        try {
+            if (!maintenanceThread.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Location history maintenance did not finish; unsealed segments are sealed on restart");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            cabs.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the location history: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.cabrooster.service;
+
+import com.cabrooster.dto.LocationBatchResult;
+import com.cabrooster.dto.LocationUpdate;
+import com.cabrooster.exception.InvalidOperationException;
+import com.cabrooster.util.LocationBatchCodec;
+import com.cabrooster.util.LongIntHashMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies batches of location pings, as aggregated by the gateway, without loading entities.
+ * Cab positions go to the live fleet store when it is enabled; everything else is written with
+ * JDBC batch updates in one transaction per batch. A batch counts as newer than the single
+ * pings of its ids still waiting in the {@link LocationWriteBuffer}, which are dropped.
+ * Batches come as JSON or in the binary form of {@link LocationBatchCodec}, which is decoded
+ * straight into the batch's arrays.
+ */
+@Service
+public class LocationIngestService {
+
+    private static final int NOT_FOUND = -1;
+    // Same statement as the live store's flush, so cab versions are left to availability changes
+    static final String CAB_UPDATE_SQL =
+            "UPDATE cab_drivers SET current_latitude = ?, current_longitude = ? WHERE id = ?";
+    // Leaves the version alone too; passengers are saved with only their changed columns, so a copy
+    // read before the move does not put the old position back and is not failed by it either
+    static final String PASSENGER_UPDATE_SQL =
+            "UPDATE passengers SET current_latitude = ?, current_longitude = ? WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FleetStateStore fleetStateStore;
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private LocationHistoryService locationHistoryService;
+
+    @Value("${location.batch.max-size:10000}")
+    private int maxBatchSize;
+
+    @Value("${location.batch.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    @Transactional
+    public LocationBatchResult updateCabLocations(List<LocationUpdate> updates) {
+        Batch batch = latestPerId(updates);
+        applyCabs(batch);
+        // Every valid ping of a known cab goes into the history, including those a later ping superseded
+        if (locationHistoryService.isEnabled()) {
+            long now = System.currentTimeMillis();
+            for (LocationUpdate update : updates) {
+                if (isComplete(update) && batch.isApplied(update.getId(), update.getLat(), update.getLon())) {
+                    locationHistoryService.recordCab(update.getId(), update.getTs() != null ? update.getTs() : now,
+                            update.getLat(), update.getLon());
+                }
+            }
+        }
+        return batch.result();
+    }
+
+    /**
+     * Apply a batch in the binary form of {@link LocationBatchCodec}
+     */
+    @Transactional
+    public LocationBatchResult updateCabLocations(byte[] payload) {
+        Batch batch = latestPerId(payload);
+        applyCabs(batch);
+        if (locationHistoryService.isEnabled()) {
+            // Decoding again is cheaper than keeping every ping around
+            LocationBatchCodec.decode(payload, (id, timestamp, latitude, longitude) -> {
+                if (batch.isApplied(id, latitude, longitude)) {
+                    locationHistoryService.recordCab(id, timestamp, latitude, longitude);
+                }
+            });
+        }
+        return batch.result();
+    }
+
+    @Transactional
+    public LocationBatchResult updatePassengerLocations(List<LocationUpdate> updates) {
+        Batch batch = latestPerId(updates);
+        applyPassengers(batch);
+        return batch.result();
+    }
+
+    /**
+     * Apply a batch in the binary form of {@link LocationBatchCodec}
+     */
+    @Transactional
+    public LocationBatchResult updatePassengerLocations(byte[] payload) {
+        Batch batch = latestPerId(payload);
+        applyPassengers(batch);
+        return batch.result();
+    }
+
+    private void applyCabs(Batch batch) {
+        if (fleetStateStore.isEnabled()) {
+            fleetStateStore.updateLocations(batch.ids, batch.latitudes, batch.longitudes, batch.count, batch.applied);
+        } else {
+            locationWriteBuffer.discardCabs(batch.ids, batch.count);
+            write(CAB_UPDATE_SQL, batch);
+        }
+    }
+
+    private void applyPassengers(Batch batch) {
+        locationWriteBuffer.discardPassengers(batch.ids, batch.count);
+        write(PASSENGER_UPDATE_SQL, batch);
+    }
+
+    /**
+     * Keep the latest valid ping of every id. Pings without a timestamp count as later
+     * than those before them in the batch.
+     */
+    private Batch latestPerId(List<LocationUpdate> updates) {
+        checkSize(updates.size());
+        Batch batch = new Batch(updates.size());
+        for (LocationUpdate update : updates) {
+            if (!isComplete(update)) {
+                batch.rejected++;
+                continue;
+            }
+            batch.accept(update.getId(), update.getTs() != null ? update.getTs() : Long.MAX_VALUE,
+                    update.getLat(), update.getLon());
+        }
+        return batch;
+    }
+
+    private Batch latestPerId(byte[] payload) {
+        try {
+            int count = LocationBatchCodec.count(payload);
+            checkSize(count);
+            Batch batch = new Batch(count);
+            LocationBatchCodec.decode(payload, batch);
+            return batch;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidOperationException("Malformed location batch: " + e.getMessage());
+        }
+    }
+
+    private void checkSize(int count) {
+        if (count > maxBatchSize) {
+            throw new InvalidOperationException("At most " + maxBatchSize + " locations per batch");
+        }
+    }
+
+    private static boolean isComplete(LocationUpdate update) {
+        return update != null && update.getId() != null && update.getLat() != null && update.getLon() != null;
+    }
+
+    private static boolean isValid(long id, double latitude, double longitude) {
+        // Ids are positive, which also keeps them clear of the hash map's empty key
+        return id > 0 && Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180;
+    }
+
+    private void write(String sql, Batch batch) {
+        for (int from = 0; from < batch.count; from += jdbcBatchSize) {
+            int batchFrom = from;
+            int batchSize = Math.min(jdbcBatchSize, batch.count - from);
+            int[] updated = jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setDouble(1, batch.latitudes[batchFrom + i]);
+                    ps.setDouble(2, batch.longitudes[batchFrom + i]);
+                    ps.setLong(3, batch.ids[batchFrom + i]);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return batchSize;
+                }
+            });
+            for (int i = 0; i < batchSize; i++) {
+                // Drivers that rewrite batches report no count; those rows are taken as found
+                batch.applied[batchFrom + i] = updated[i] != 0;
+            }
+        }
+    }
+
+    /**
+     * Latest position of each id in a batch, in order of first appearance
+     */
+    private static final class Batch implements LocationBatchCodec.Sink {
+        final long[] ids;
+        final long[] timestamps;
+        final double[] latitudes;
+        final double[] longitudes;
+        final boolean[] applied;
+        // Position of each id in the arrays above
+        final LongIntHashMap positions;
+        int count;
+        int superseded;
+        int rejected;
+
+        Batch(int capacity) {
+            ids = new long[capacity];
+            timestamps = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            applied = new boolean[capacity];
+            positions = new LongIntHashMap(capacity, NOT_FOUND);
+        }
+
+        @Override
+        public void accept(long id, long timestampMillis, double latitude, double longitude) {
+            if (!isValid(id, latitude, longitude)) {
+                rejected++;
+                return;
+            }
+            int position = positions.get(id);
+            if (position == NOT_FOUND) {
+                position = count++;
+                positions.put(id, position);
+                ids[position] = id;
+            } else {
+                superseded++;
+                if (timestampMillis < timestamps[position]) {
+                    return;
+                }
+            }
+            timestamps[position] = timestampMillis;
+            latitudes[position] = latitude;
+            longitudes[position] = longitude;
+        }
+
+        /**
+         * Whether a ping was valid and its id was found
+         */
+        boolean isApplied(long id, double latitude, double longitude) {
+            return isValid(id, latitude, longitude) && applied[positions.get(id)];
+        }
+
+        LocationBatchResult result() {
+            List<Long> unknownIds = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (!applied[i]) {
+                    unknownIds.add(ids[i]);
+                }
+            }
+            return new LocationBatchResult(count - unknownIds.size(), superseded, rejected, unknownIds);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.cabrooster.service;
 
+import com.cabrooster.util.distance.DistanceEngine;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -7,9 +12,37 @@ public class LocationService {
     
     // Earth's radius in kilometers
     private static final double EARTH_RADIUS = 6371.0;
+    private static final double EARTH_RADIUS_METERS = EARTH_RADIUS * 1000;
+    
+    // The equirectangular approximation stays within 1e-4 of Haversine inside this range
+    private static final double PREFILTER_MAX_RADIUS_METERS = 50_000;
+    private static final double PREFILTER_MAX_LATITUDE = 80;
+    private static final double PREFILTER_MIN_RELATIVE_ERROR = 1e-4;
+    private static final double DEFAULT_PREFILTER_RELATIVE_ERROR = 1e-3;
+    // Covers rounding for points a few millimetres apart
+    private static final double PREFILTER_ABSOLUTE_ERROR_METERS = 1e-6;
+    
+    // Haversine unless the deployment configures another engine
+    @Autowired
+    private DistanceEngine distanceEngine = new HaversineDistanceEngine();
+    
+    @Value("${location.prefilter.enabled:true}")
+    private boolean prefilterEnabled = true;
+    
+    // Assumed worst relative error of the approximation; larger is safer but sends more pairs to Haversine
+    @Value("${location.prefilter.relative-error:" + DEFAULT_PREFILTER_RELATIVE_ERROR + "}")
+    private double prefilterRelativeError = DEFAULT_PREFILTER_RELATIVE_ERROR;
+    
+    @PostConstruct
+    public void init() {
+        if (prefilterRelativeError < PREFILTER_MIN_RELATIVE_ERROR || prefilterRelativeError >= 0.5) {
+            throw new IllegalStateException("location.prefilter.relative-error must be between "
+                    + PREFILTER_MIN_RELATIVE_ERROR + " and 0.5");
+        }
+    }
     
     /**
-     * Calculate distance between two points in meters using Haversine formula
+     * Calculate distance between two points in meters with the configured distance engine
      * @param lat1 Latitude of point 1
      * @param lon1 Longitude of point 1
      * @param lat2 Latitude of point 2
@@ -17,25 +50,125 @@ public class LocationService {
      * @return Distance in meters
      */
     public double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        // Convert latitude and longitude from degrees to radians
-        double lat1Rad = Math.toRadians(lat1);
-        double lon1Rad = Math.toRadians(lon1);
-        double lat2Rad = Math.toRadians(lat2);
-        double lon2Rad = Math.toRadians(lon2);
+        return distanceEngine.distance(lat1, lon1, lat2, lon2);
+    }
+    
+    /**
+     * Calculate the distance in meters from one point to each of many points
+     * @param out Receives the distance to each of the first count points
+     */
+    public void calculateDistances(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        distanceEngine.distances(lat, lon, lats, lons, out, count);
+    }
+    
+    /**
+     * The configured distance engine, for spatial indexes that measure many pairs
+     */
+    public DistanceEngine getDistanceEngine() {
+        return distanceEngine;
+    }
+    
+    /**
+     * Find the nearest of many points within a maximum distance. Returns the same point as
+     * comparing the distance of every point in order. With the Haversine engine most points
+     * are rejected by a bounding box in degrees, the rest are ranked with an equirectangular
+     * approximation and only those that could still be the nearest get the exact check.
+     * @param lats Latitudes of the candidates
+     * @param lons Longitudes of the candidates
+     * @param cosLats Cached cosine of each candidate's latitude in radians, or null to compute
+     *                it for the candidates inside the bounding box
+     * @param count Number of candidates
+     * @return Position of the nearest candidate, or -1 if none is within maxDistanceMeters
+     */
+    public int findNearest(double lat, double lon, double[] lats, double[] lons, double[] cosLats,
+                           int count, double maxDistanceMeters) {
+        // The error bound only holds against Haversine
+        if (!prefilterEnabled || !(distanceEngine instanceof HaversineDistanceEngine)
+                || maxDistanceMeters > PREFILTER_MAX_RADIUS_METERS
+                || Math.abs(lat) > PREFILTER_MAX_LATITUDE) {
+            return findNearestExact(lat, lon, lats, lons, count, maxDistanceMeters);
+        }
         
-        // Differences in coordinates
-        double dLat = lat2Rad - lat1Rad;
-        double dLon = lon2Rad - lon1Rad;
+        // Bounding box that contains every point within the radius
+        double angularRadius = maxDistanceMeters / EARTH_RADIUS_METERS;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double latSpan = Math.toDegrees(angularRadius);
+        double lonSpan = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angularRadius) / cosLat)));
         
-        // Haversine formula
-        double a = Math.pow(Math.sin(dLat / 2), 2) +
-                  Math.cos(lat1Rad) * Math.cos(lat2Rad) * 
-                  Math.pow(Math.sin(dLon / 2), 2);
-                  
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        double distance = EARTH_RADIUS * c * 1000; // Convert to meters
+        // Rank by approximate distance; remember the range that holds every possible winner
+        double bestApprox = Double.MAX_VALUE;
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            double approx = approximateDistance(lat, lon, cosLat, lats[i], lons[i], cosLats, i, latSpan, lonSpan);
+            if (approx <= maxDistanceMeters * (1 + prefilterRelativeError) + PREFILTER_ABSOLUTE_ERROR_METERS) {
+                bestApprox = Math.min(bestApprox, approx);
+                first = first < 0 ? i : first;
+                last = i;
+            }
+        }
+        if (first < 0) {
+            return -1;
+        }
         
-        return distance;
+        // The true nearest point cannot be approximated further away than this
+        double cutoff = Math.min(
+                maxDistanceMeters * (1 + prefilterRelativeError),
+                bestApprox * (1 + prefilterRelativeError) / (1 - prefilterRelativeError))
+                + PREFILTER_ABSOLUTE_ERROR_METERS;
+        int nearest = -1;
+        double minDistance = Double.MAX_VALUE;
+        for (int i = first; i <= last; i++) {
+            double approx = approximateDistance(lat, lon, cosLat, lats[i], lons[i], cosLats, i, latSpan, lonSpan);
+            if (approx > cutoff) {
+                continue;
+            }
+            double distance = calculateDistance(lat, lon, lats[i], lons[i]);
+            if (distance < minDistance && distance <= maxDistanceMeters) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+    
+    /**
+     * Equirectangular distance in meters, or infinity outside the bounding box
+     */
+    private static double approximateDistance(double lat, double lon, double cosLat, double otherLat, double otherLon,
+                                              double[] cosLats, int index, double latSpan, double lonSpan) {
+        double dLat = otherLat - lat;
+        if (dLat > latSpan || dLat < -latSpan) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double dLon = otherLon - lon;
+        // Points across the antimeridian
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        if (dLon > lonSpan || dLon < -lonSpan) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double otherCosLat = cosLats != null ? cosLats[index] : Math.cos(Math.toRadians(otherLat));
+        double x = Math.toRadians(dLon) * (cosLat + otherCosLat) / 2;
+        double y = Math.toRadians(dLat);
+        return EARTH_RADIUS_METERS * Math.sqrt(x * x + y * y);
+    }
+    
+    private int findNearestExact(double lat, double lon, double[] lats, double[] lons, int count,
+                                 double maxDistanceMeters) {
+        int nearest = -1;
+        double minDistance = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double distance = calculateDistance(lat, lon, lats[i], lons[i]);
+            if (distance < minDistance && distance <= maxDistanceMeters) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
     }
     
     /**
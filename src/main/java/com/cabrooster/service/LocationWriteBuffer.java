@@ -0,0 +1,282 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for single location pings of passengers, and of cabs when the live fleet
+ * store is off. Only the latest position of each id is kept and they are written with JDBC batch
+ * updates every flush interval, or right away once max-pending ids are waiting. Positions stay
+ * in the buffer until their row is written, so reads that go through {@link #overlay} never see
+ * an older position than the last ping.
+ */
+@Service
+public class LocationWriteBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationWriteBuffer.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${location.write-buffer.enabled:true}")
+    private boolean enabled;
+
+    @Value("${location.write-buffer.max-pending:10000}")
+    private int maxPending;
+
+    @Value("${location.batch.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    private Pending cabs;
+    private Pending passengers;
+
+    @PostConstruct
+    public void init() {
+        cabs = new Pending("cab", LocationIngestService.CAB_UPDATE_SQL);
+        passengers = new Pending("passenger", LocationIngestService.PASSENGER_UPDATE_SQL);
+    }
+
+    /**
+     * Whether single pings are buffered rather than written straight through JPA
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void bufferCab(long cabId, double latitude, double longitude) {
+        buffer(cabs, cabId, latitude, longitude);
+    }
+
+    public void bufferPassenger(long passengerId, double latitude, double longitude) {
+        buffer(passengers, passengerId, latitude, longitude);
+    }
+
+    /**
+     * Drop a buffered position that a newer write is about to replace. A flush that already read
+     * it is waited for, so it cannot write the older position over the newer one.
+     */
+    public void discardCab(long cabId) {
+        discard(cabs, new long[] {cabId}, 1);
+    }
+
+    public void discardCabs(long[] cabIds, int count) {
+        discard(cabs, cabIds, count);
+    }
+
+    public void discardPassenger(long passengerId) {
+        discard(passengers, new long[] {passengerId}, 1);
+    }
+
+    public void discardPassengers(long[] passengerIds, int count) {
+        discard(passengers, passengerIds, count);
+    }
+
+    /**
+     * Replace a cab's persisted position with its buffered one, if any
+     */
+    public void overlay(CabDriver cab) {
+        Position position = cab.getId() != null ? cabs.positions.get(cab.getId()) : null;
+        if (position != null) {
+            cab.setCurrentLatitude(position.latitude());
+            cab.setCurrentLongitude(position.longitude());
+        }
+    }
+
+    public void overlay(Passenger passenger) {
+        Position position = passenger.getId() != null ? passengers.positions.get(passenger.getId()) : null;
+        if (position != null) {
+            passenger.setCurrentLatitude(position.latitude());
+            passenger.setCurrentLongitude(position.longitude());
+        }
+    }
+
+    /**
+     * Replace the persisted positions of the given cabs with their buffered ones, if any.
+     * Unlike {@link #overlay(CabDriver)} the entities are left alone, so managed ones are not
+     * written back when their transaction commits.
+     * @param latitudes Persisted latitude of each cab, overwritten in place
+     * @param longitudes Persisted longitude of each cab, overwritten in place
+     */
+    public void locateCabs(List<CabDriver> drivers, double[] latitudes, double[] longitudes) {
+        if (cabs.positions.isEmpty()) {
+            return;
+        }
+        for (int c = 0; c < drivers.size(); c++) {
+            Long cabId = drivers.get(c).getId();
+            Position position = cabId != null ? cabs.positions.get(cabId) : null;
+            if (position != null) {
+                latitudes[c] = position.latitude();
+                longitudes[c] = position.longitude();
+            }
+        }
+    }
+
+    /**
+     * Buffered latitude and longitude of a passenger, or null if none is waiting to be written
+     */
+    public double[] getPassengerPosition(Long passengerId) {
+        Position position = passengerId != null ? passengers.positions.get(passengerId) : null;
+        return position != null ? new double[] {position.latitude(), position.longitude()} : null;
+    }
+
+    public int getPendingCount() {
+        return cabs.positions.size() + passengers.positions.size();
+    }
+
+    /**
+     * Write every buffered position
+     */
+    @Scheduled(fixedDelayString = "${location.write-buffer.flush-interval-ms:1000}")
+    public void flush() {
+        flush(cabs);
+        flush(passengers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private void buffer(Pending pending, long id, double latitude, double longitude) {
+        pending.buffered.increment();
+        if (pending.positions.put(id, new Position(latitude, longitude)) != null) {
+            pending.coalesced.increment();
+        }
+        // The caller that fills the buffer writes it; callers that come while it does keep going
+        if (pending.positions.size() >= maxPending) {
+            flush(pending);
+        }
+    }
+
+    private void discard(Pending pending, long[] ids, int count) {
+        // An id that is not buffered is in no flush either, as flushes remove ids only once written
+        int first = 0;
+        while (first < count && !pending.positions.containsKey(ids[first])) {
+            first++;
+        }
+        if (first == count) {
+            return;
+        }
+        pending.flushLock.lock();
+        try {
+            for (int i = first; i < count; i++) {
+                pending.positions.remove(ids[i]);
+            }
+        } finally {
+            pending.flushLock.unlock();
+        }
+    }
+
+    private void flush(Pending pending) {
+        if (pending.positions.isEmpty() || !pending.flushLock.tryLock()) {
+            return;
+        }
+        try {
+            long[] ids = new long[jdbcBatchSize];
+            Position[] positions = new Position[jdbcBatchSize];
+            Iterator<Map.Entry<Long, Position>> entries = pending.positions.entrySet().iterator();
+            while (entries.hasNext()) {
+                int count = 0;
+                while (count < jdbcBatchSize && entries.hasNext()) {
+                    Map.Entry<Long, Position> entry = entries.next();
+                    ids[count] = entry.getKey();
+                    positions[count] = entry.getValue();
+                    count++;
+                }
+                write(pending, ids, positions, count);
+            }
+        } finally {
+            pending.flushLock.unlock();
+        }
+    }
+
+    private void write(Pending pending, long[] ids, Position[] positions, int count) {
+        int[] updated = jdbcTemplate.batchUpdate(pending.sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setDouble(1, positions[i].latitude());
+                ps.setDouble(2, positions[i].longitude());
+                ps.setLong(3, ids[i]);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return count;
+            }
+        });
+        int unknown = 0;
+        for (int i = 0; i < count; i++) {
+            // A newer ping that came in meanwhile stays for the next flush
+            pending.positions.remove(ids[i], positions[i]);
+            if (updated[i] == 0) {
+                unknown++;
+            }
+        }
+        pending.written.increment(count - unknown);
+        if (unknown > 0) {
+            logger.debug("Dropped buffered positions of {} unknown {}s", unknown, pending.entity);
+        }
+    }
+
+    // Equal positions are interchangeable, so a flush may remove a repeated ping it did not read
+    private record Position(double latitude, double longitude) {
+    }
+
+    /**
+     * Latest buffered position of every id of one entity, with its update statement and counters
+     */
+    private final class Pending {
+        final String entity;
+        final String sql;
+        final Map<Long, Position> positions = new ConcurrentHashMap<>();
+        final ReentrantLock flushLock = new ReentrantLock();
+        final Counter buffered;
+        final Counter coalesced;
+        final Counter written;
+
+        Pending(String entity, String sql) {
+            this.entity = entity;
+            this.sql = sql;
+            buffered = counter("buffered");
+            // Pings replaced by a later one before they were written
+            coalesced = counter("coalesced");
+            written = counter("written");
+            Gauge.builder("location.writes.pending", positions, Map::size)
+                    .description("Positions waiting to be written")
+                    .tag("entity", entity)
+                    .register(meterRegistry);
+        }
+
+        private Counter counter(String result) {
+            return Counter.builder("location.writes")
+                    .description("Location pings taken by the write buffer, by what became of them")
+                    .tag("entity", entity)
+                    .tag("result", result)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -1,29 +1,71 @@
 package com.cabrooster.service;
 
+import com.cabrooster.dto.NearbyCab;
+import com.cabrooster.exception.InvalidOperationException;
 import com.cabrooster.model.CabDriver;
 import com.cabrooster.model.Passenger;
 import com.cabrooster.model.RideAssignment;
+import com.cabrooster.model.RosterEntry;
 import com.cabrooster.repository.CabDriverRepository;
 import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RosterEntryRepository;
+import com.cabrooster.repository.RosteredRide;
+import com.cabrooster.repository.WaitingPassenger;
+import com.cabrooster.service.dispatch.BatchDispatchResult;
+import com.cabrooster.service.dispatch.CandidateGraph;
+import com.cabrooster.service.dispatch.DispatchPartition;
+import com.cabrooster.service.dispatch.DropRoutePlan;
+import com.cabrooster.service.dispatch.DropRoutePlanner;
+import com.cabrooster.service.dispatch.MatchingEngine;
+import com.cabrooster.service.dispatch.MatchingResult;
+import com.cabrooster.service.dispatch.RidesAssignedEvent;
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.distance.DistanceEngine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.retry.annotation.Backoff;
+import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import com.cabrooster.repository.RideAssignmentRepository;
 
 @Service
 public class RideAssignmentService {
 
+    private static final Logger logger = LoggerFactory.getLogger(RideAssignmentService.class);
+
     private static final double MAX_DISTANCE_METERS = 100; // 100 meters
     private static final String STATUS_PENDING = "PENDING";
     private static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
     private static final String STATUS_COMPLETED = "COMPLETED";
     private static final String STATUS_CANCELLED = "CANCELLED";
+    // Live store lookups to retry when the store thought a taken cab was free
+    private static final int MAX_LIVE_LOOKUPS = 3;
+    // Ids per bulk update statement, well below the IN list limits of common databases
+    private static final int BULK_UPDATE_CHUNK_SIZE = 1000;
+    // Retry settings for operations that lost a race for a cab or passenger
+    private static final String CLAIM_MAX_ATTEMPTS = "${dispatch.claim.max-attempts:3}";
+    private static final String CLAIM_RETRY_DELAY_MS = "${dispatch.claim.retry-delay-ms:20}";
 
     @Autowired
     private RideAssignmentRepository rideAssignmentRepository;
@@ -36,68 +78,630 @@ public class RideAssignmentService {
     
     @Autowired
     private LocationService locationService;
+    
+    @Autowired
+    private FleetStateStore fleetStateStore;
+    
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+    
+    @Autowired
+    private TravelTimeService travelTimeService;
+    
+    @Autowired
+    private DistanceEngine distanceEngine;
+    
+    @Autowired
+    private CommuteCostCache commuteCostCache;
+    
+    @Autowired
+    private RosterEntryRepository rosterEntryRepository;
+    
+    @Autowired
+    private MatchingEngine matchingEngine;
+    
+    @Autowired
+    private ForkJoinPool dispatchPool;
+    
+    @Autowired
+    private DropRoutePlanner dropRoutePlanner;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Value("${dispatch.parallel.enabled:false}")
+    private boolean parallelEnabled;
+    
+    // Let passengers heading home from the same place share a cab in the evening run
+    @Value("${dispatch.pooling.enabled:false}")
+    private boolean poolingEnabled;
+    
+    // Waiting passengers the scheduled runs read and match at a time
+    @Value("${dispatch.scheduled.chunk-size:10000}")
+    private int scheduledChunkSize;
+    
+    // Times a chunk of a scheduled run is matched when its claims keep losing races
+    @Value(CLAIM_MAX_ATTEMPTS)
+    private int claimMaxAttempts;
+    
+    // Precomputed rosters older than this are not committed
+    @Value("${dispatch.roster.max-age-hours:12}")
+    private long rosterMaxAgeHours;
+    
+    // Straight-line nearest cabs whose drive times are compared when routing is enabled
+    @Value("${routing.dispatch-candidates:8}")
+    private int routedCandidates;
+    
+    private volatile MatchingResult lastMatchingResult;
+    private volatile DropRoutePlan lastDropRoutePlan;
+    private GeoGridIndex.DistanceFunction distanceFunction;
+    private TransactionTemplate transactionTemplate;
+    
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        // The engine itself, so spatial indexes can see how far it may undercut the great circle
+        distanceFunction = locationService.getDistanceEngine();
+    }
 
     /**
-     * Schedule ride assignments at 8:00 AM and 7:00 PM daily
+     * Scheduled ride assignment run, started by {@link ScheduledDispatchJob} at 8:00 AM.
+     * Each chunk of passengers commits on its own, so losing a race for a cab redoes only that chunk.
+     * @param partition Passengers and cabs this run is responsible for
+     */
+    public void scheduleRideAssignments(DispatchPartition partition) {
+        // Planned rides that still hold only need committing; the rest are matched as usual
+        int rostered;
+        try {
+            rostered = transactionTemplate.execute(status -> commitRoster(partition));
+        } catch (OptimisticLockingFailureException e) {
+            // Someone took a rostered cab or passenger meanwhile; the roster's passengers are matched below
+            logger.info("Precomputed roster no longer holds: {}", e.getMessage());
+            rostered = 0;
+        }
+        lastMatchingResult = runScheduledAssignments(false, partition, null);
+        logger.info("Scheduled ride assignment run finished: {} rostered, {}", rostered, lastMatchingResult);
+    }
+    
+    /**
+     * Plan the 8:00 AM run off-peak from the cabs and passengers as they are now, replacing the
+     * previous roster. That run then assigns the planned rides that still hold and only matches
+     * passengers whose ride changed since.
+     * @return Number of rides planned
      */
-    @Scheduled(cron = "0 0 8,19 * * ?") // 8 AM and 7 PM every day
     @Transactional
-    public void scheduleRideAssignments() {
-        // Find all available cabs
-        List<CabDriver> availableCabs = cabDriverRepository.findByAvailable(true);
-        
-        // Find all passengers who need a ride
-        List<Passenger> passengersNeedingRide = passengerRepository.findByNeedsRide(true);
-        
-        // For each passenger, find the nearest available cab
-        for (Passenger passenger : passengersNeedingRide) {
-            Optional<CabDriver> nearestCab = findNearestAvailableCab(
-                    passenger.getCurrentLatitude(), 
-                    passenger.getCurrentLongitude(),
-                    availableCabs);
-            
-            if (nearestCab.isPresent()) {
-                assignRide(nearestCab.get(), passenger);
-                // Remove the assigned cab from available cabs
-                availableCabs.remove(nearestCab.get());
+    public int precomputeRoster() {
+        List<RosterEntry> roster = new ArrayList<>();
+        MatchingResult result = runScheduledAssignments(false, DispatchPartition.ALL, roster);
+        rosterEntryRepository.deleteAllInBatch();
+        rosterEntryRepository.saveAll(roster);
+        logger.info("Precomputed roster of {} rides: {}", roster.size(), result);
+        return roster.size();
+    }
+    
+    /**
+     * Scheduled home-drop run, started by {@link ScheduledDispatchJob} at 7:00 PM. With pooling
+     * enabled, passengers with a home location share cabs with others going the same way.
+     * Chunks commit on their own as in {@link #scheduleRideAssignments}.
+     * @param partition Passengers and cabs this run is responsible for
+     */
+    public void scheduleHomeDrops(DispatchPartition partition) {
+        lastMatchingResult = runScheduledAssignments(poolingEnabled, partition, null);
+        logger.info("Scheduled home-drop run finished: {}", lastMatchingResult);
+    }
+    
+    /**
+     * Match the waiting passengers of a partition to the available cabs of the same partition.
+     * Partitions run on other instances never reach for these cabs.
+     * @param roster Receives the planned rides instead of assigning them, or null to assign
+     */
+    private MatchingResult runScheduledAssignments(boolean pooled, DispatchPartition partition,
+                                                   List<RosterEntry> roster) {
+        List<CabDriver> availableCabs = findAvailableCabs(partition);
+        
+        // Homes and the places riders board at stay put from day to day, so the drop planner's
+        // costs between them are worth keeping. Cabs and riders are matched on live positions,
+        // which never come up twice.
+        GeoGridIndex.DistanceFunction commuteCosts = pooled ? commuteCostCache.wrap(distanceFunction) : null;
+        
+        // Waiting passengers are read a chunk at a time as plain rows and matched against the cabs
+        // still free. Each chunk's claims commit in a transaction of their own, so the run never
+        // holds more than one chunk of passengers and assignments, and a chunk that lost a race is
+        // matched again from fresh rows without undoing the chunks before it.
+        List<MatchingResult> results = new ArrayList<>();
+        List<DropRoutePlan> plans = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        List<WaitingPassenger> chunk;
+        long afterId = Long.MIN_VALUE;
+        do {
+            chunk = findWaitingChunk(partition, afterId);
+            for (int attempt = 1; ; attempt++) {
+                List<Passenger> passengers = chunk.stream()
+                        .map(WaitingPassenger::toPassenger)
+                        .toList();
+                // The rows are detached copies, so the latest pings still in the write buffer can go on them
+                passengers.forEach(locationWriteBuffer::overlay);
+                
+                List<Ride> rides = new ArrayList<>(passengers.size());
+                DropRoutePlan plan = pooled ? planHomeDrops(passengers, commuteCosts, rides) : null;
+                if (!pooled) {
+                    passengers.forEach(passenger -> rides.add(Ride.of(passenger)));
+                }
+                
+                List<CabDriver> matchedCabs = new ArrayList<>();
+                List<Passenger> matchedPassengers = new ArrayList<>();
+                List<Integer> dropOrders = new ArrayList<>();
+                MatchingResult result = matchRides(rides, availableCabs, distanceFunction,
+                        matchedCabs, matchedPassengers, dropOrders);
+                if (roster != null) {
+                    for (int i = 0; i < matchedCabs.size(); i++) {
+                        roster.add(new RosterEntry(matchedCabs.get(i).getId(), matchedPassengers.get(i).getId(), now));
+                    }
+                } else {
+                    try {
+                        transactionTemplate.executeWithoutResult(
+                                status -> assignRides(matchedCabs, matchedPassengers, dropOrders));
+                    } catch (OptimisticLockingFailureException e) {
+                        if (attempt >= claimMaxAttempts) {
+                            throw e;
+                        }
+                        logger.info("Chunk after passenger {} lost a race, matching it again: {}",
+                                afterId, e.getMessage());
+                        chunk = findWaitingChunk(partition, afterId);
+                        availableCabs = findAvailableCabs(partition);
+                        continue;
+                    }
+                }
+                results.add(result);
+                if (plan != null) {
+                    plans.add(plan);
+                }
+                // Cabs matched in this chunk are not free for the next
+                availableCabs.removeAll(new HashSet<>(matchedCabs));
+                break;
+            }
+            if (!chunk.isEmpty()) {
+                afterId = chunk.get(chunk.size() - 1).id();
+            }
+        } while (chunk.size() == scheduledChunkSize);
+        
+        if (pooled) {
+            lastDropRoutePlan = DropRoutePlan.combine(plans);
+            logger.info("Planned shared home drops: {}", lastDropRoutePlan);
+        }
+        return MatchingResult.combine(results);
+    }
+    
+    private List<CabDriver> findAvailableCabs(DispatchPartition partition) {
+        return new ArrayList<>(partition.isWhole()
+                ? cabDriverRepository.findByAvailable(true)
+                : cabDriverRepository.findAvailableInPartition(partition.index(), partition.count(),
+                        partition.regionDegrees()));
+    }
+    
+    /**
+     * Up to a chunk of the partition's waiting passengers with ids above the given one
+     */
+    private List<WaitingPassenger> findWaitingChunk(DispatchPartition partition, long afterId) {
+        PageRequest page = PageRequest.of(0, scheduledChunkSize);
+        return partition.isWhole()
+                ? passengerRepository.findWaitingAfter(afterId, page)
+                : passengerRepository.findWaitingInPartitionAfter(afterId, partition.index(), partition.count(),
+                        partition.regionDegrees(), page);
+    }
+    
+    /**
+     * Assign the rides of the precomputed roster whose cab is still available and passenger
+     * still waiting. Rosters older than {@code dispatch.roster.max-age-hours} are ignored. Only
+     * rides whose passenger and cab are both in the partition are taken; the rest are left to
+     * be matched within their own partitions.
+     * @return Number of rides assigned
+     */
+    private int commitRoster(DispatchPartition partition) {
+        List<RosteredRide> rides = rosterEntryRepository.findStillValid(
+                LocalDateTime.now().minusHours(rosterMaxAgeHours));
+        List<RosteredRide> inPartition = new ArrayList<>(rides.size());
+        List<Long> cabIds = new ArrayList<>(rides.size());
+        for (RosteredRide ride : rides) {
+            if (partition.contains(ride.currentLatitude(), ride.currentLongitude())
+                    && partition.contains(ride.cabLatitude(), ride.cabLongitude())) {
+                inPartition.add(ride);
+                cabIds.add(ride.cabDriverId());
+            }
+        }
+        if (inPartition.isEmpty()) {
+            return 0;
+        }
+        
+        Map<Long, CabDriver> cabsById = new HashMap<>();
+        for (CabDriver cab : cabDriverRepository.findAllById(cabIds)) {
+            cabsById.put(cab.getId(), cab);
+        }
+        // A cab deleted after the roster was read makes its ride invalid; its passenger is matched afresh
+        List<CabDriver> cabs = new ArrayList<>(inPartition.size());
+        List<Passenger> passengers = new ArrayList<>(inPartition.size());
+        for (RosteredRide ride : inPartition) {
+            CabDriver cab = cabsById.get(ride.cabDriverId());
+            if (cab != null) {
+                cabs.add(cab);
+                passengers.add(ride.toPassenger());
+            }
+        }
+        if (cabs.size() < inPartition.size()) {
+            logger.info("{} rostered rides dropped because their cab no longer exists", inPartition.size() - cabs.size());
+        }
+        return cabs.isEmpty() ? 0 : assignRides(cabs, passengers, null).size();
+    }
+    
+    /**
+     * Group the passengers into shared cabs. Passengers without a pickup or home location
+     * ride on their own.
+     * @param rides Receives the passengers of each cab in drop-off order with their pickup point
+     */
+    private DropRoutePlan planHomeDrops(List<Passenger> passengers, GeoGridIndex.DistanceFunction costFunction,
+                                        List<Ride> rides) {
+        List<Passenger> poolable = new ArrayList<>(passengers.size());
+        for (Passenger passenger : passengers) {
+            if (passenger.getCurrentLatitude() != null && passenger.getCurrentLongitude() != null
+                    && passenger.getHomeLatitude() != null && passenger.getHomeLongitude() != null) {
+                poolable.add(passenger);
+            } else {
+                rides.add(Ride.of(passenger));
+            }
+        }
+        
+        double[] pickupLatitudes = new double[poolable.size()];
+        double[] pickupLongitudes = new double[poolable.size()];
+        double[] homeLatitudes = new double[poolable.size()];
+        double[] homeLongitudes = new double[poolable.size()];
+        for (int p = 0; p < poolable.size(); p++) {
+            Passenger passenger = poolable.get(p);
+            pickupLatitudes[p] = passenger.getCurrentLatitude();
+            pickupLongitudes[p] = passenger.getCurrentLongitude();
+            homeLatitudes[p] = passenger.getHomeLatitude();
+            homeLongitudes[p] = passenger.getHomeLongitude();
+        }
+        DropRoutePlan plan = dropRoutePlanner.plan(pickupLatitudes, pickupLongitudes,
+                homeLatitudes, homeLongitudes, costFunction);
+        for (int r = 0; r < plan.getRouteCount(); r++) {
+            List<Passenger> ride = new ArrayList<>(plan.getRoute(r).length);
+            for (int p : plan.getRoute(r)) {
+                ride.add(poolable.get(p));
+            }
+            rides.add(new Ride(ride, plan.getPickupLatitude(r), plan.getPickupLongitude(r)));
+        }
+        return plan;
+    }
+    
+    /**
+     * Match the given passengers to the given cabs with the configured matching engine
+     * and persist a ride assignment for every match
+     */
+    @Transactional
+    public MatchingResult matchAndAssign(List<Passenger> passengers, List<CabDriver> cabs) {
+        return matchAndAssign(passengers.stream().map(Ride::of).toList(), cabs, new ArrayList<>(), distanceFunction);
+    }
+    
+    /**
+     * Match a batch of ride requests together against the cabs available right now
+     */
+    @Retryable(retryFor = OptimisticLockingFailureException.class,
+            maxAttemptsExpression = CLAIM_MAX_ATTEMPTS,
+            backoff = @Backoff(delayExpression = CLAIM_RETRY_DELAY_MS, multiplier = 2))
+    @Transactional
+    public BatchDispatchResult dispatchBatch(Collection<Long> passengerIds) {
+        List<Passenger> waiting = passengerRepository.findAllById(passengerIds).stream()
+                .filter(Passenger::isNeedsRide)
+                .toList();
+        
+        List<RideAssignment> assignments = new ArrayList<>();
+        MatchingResult result = matchAndAssign(waiting.stream().map(this::rideOf).toList(),
+                cabDriverRepository.findByAvailable(true), assignments, distanceFunction);
+        
+        Set<Long> assignedPassengerIds = new HashSet<>();
+        for (RideAssignment assignment : assignments) {
+            assignedPassengerIds.add(assignment.getPassenger().getId());
+        }
+        return new BatchDispatchResult(result, assignedPassengerIds);
+    }
+    
+    /**
+     * Match every ride to a cab near its pickup point and assign the cab to all of the ride's passengers
+     * @param rides Passengers sharing each cab, in drop-off order
+     */
+    private MatchingResult matchAndAssign(List<Ride> rides, List<CabDriver> cabs,
+                                          List<RideAssignment> assignments,
+                                          GeoGridIndex.DistanceFunction costFunction) {
+        List<CabDriver> matchedCabs = new ArrayList<>();
+        List<Passenger> matchedPassengers = new ArrayList<>();
+        List<Integer> dropOrders = new ArrayList<>();
+        MatchingResult result = matchRides(rides, cabs, costFunction, matchedCabs, matchedPassengers, dropOrders);
+        assignments.addAll(assignRides(matchedCabs, matchedPassengers, dropOrders));
+        return result;
+    }
+    
+    /**
+     * Match every ride to a cab near its pickup point
+     * @param rides Passengers sharing each cab, in drop-off order
+     * @param matchedCabs Receives the cab of every matched passenger, once per passenger
+     * @param matchedPassengers Receives the matched passengers
+     * @param dropOrders Receives each matched passenger's drop position, or null for a ride of its own
+     */
+    private MatchingResult matchRides(List<Ride> rides, List<CabDriver> cabs,
+                                      GeoGridIndex.DistanceFunction costFunction, List<CabDriver> matchedCabs,
+                                      List<Passenger> matchedPassengers, List<Integer> dropOrders) {
+        // Cabs and passengers without a known location cannot be matched
+        double[] cabLatitudes = new double[cabs.size()];
+        double[] cabLongitudes = new double[cabs.size()];
+        locateCabs(cabs, cabLatitudes, cabLongitudes);
+        List<CabDriver> locatedCabs = new ArrayList<>(cabs.size());
+        for (int c = 0; c < cabs.size(); c++) {
+            if (!Double.isNaN(cabLatitudes[c]) && !Double.isNaN(cabLongitudes[c])) {
+                cabLatitudes[locatedCabs.size()] = cabLatitudes[c];
+                cabLongitudes[locatedCabs.size()] = cabLongitudes[c];
+                locatedCabs.add(cabs.get(c));
             }
         }
+        List<Ride> locatedRides = rides.stream()
+                .filter(ride -> !Double.isNaN(ride.pickupLatitude()) && !Double.isNaN(ride.pickupLongitude()))
+                .toList();
+        
+        CandidateGraph graph = buildCandidateGraph(locatedRides, cabLatitudes, cabLongitudes, locatedCabs.size(),
+                costFunction);
+        MatchingResult result = matchingEngine.match(graph);
+        
+        for (int p = 0; p < locatedRides.size(); p++) {
+            int cab = result.getCabForPassenger(p);
+            if (cab == MatchingResult.UNMATCHED) {
+                continue;
+            }
+            List<Passenger> ride = locatedRides.get(p).passengers();
+            for (int drop = 0; drop < ride.size(); drop++) {
+                matchedCabs.add(locatedCabs.get(cab));
+                matchedPassengers.add(ride.get(drop));
+                dropOrders.add(ride.size() > 1 ? drop + 1 : null);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Current position of each cab, from the live store when it is enabled and otherwise from
+     * the row or a newer ping still in the write buffer. Unknown coordinates are NaN.
+     */
+    private void locateCabs(List<CabDriver> cabs, double[] cabLatitudes, double[] cabLongitudes) {
+        if (fleetStateStore.isEnabled()) {
+            fleetStateStore.locate(cabs, cabLatitudes, cabLongitudes);
+            return;
+        }
+        for (int c = 0; c < cabs.size(); c++) {
+            CabDriver cab = cabs.get(c);
+            cabLatitudes[c] = cab.getCurrentLatitude() != null ? cab.getCurrentLatitude() : Double.NaN;
+            cabLongitudes[c] = cab.getCurrentLongitude() != null ? cab.getCurrentLongitude() : Double.NaN;
+        }
+        locationWriteBuffer.locateCabs(cabs, cabLatitudes, cabLongitudes);
+    }
+    
+    /**
+     * Build the candidate edges between ride pickups and every cab within MAX_DISTANCE_METERS.
+     * The cabs are indexed once so each lookup only visits nearby grid cells.
+     */
+    private CandidateGraph buildCandidateGraph(List<Ride> rides, double[] cabLatitudes,
+                                               double[] cabLongitudes, int cabCount,
+                                               GeoGridIndex.DistanceFunction costFunction) {
+        GeoGridIndex<Integer> cabIndex = new GeoGridIndex<>(MAX_DISTANCE_METERS, Integer::longValue);
+        for (int c = 0; c < cabCount; c++) {
+            cabIndex.add(c, cabLatitudes[c], cabLongitudes[c]);
+        }
+        
+        double[] latitudes = new double[rides.size()];
+        double[] longitudes = new double[rides.size()];
+        for (int p = 0; p < rides.size(); p++) {
+            latitudes[p] = rides.get(p).pickupLatitude();
+            longitudes[p] = rides.get(p).pickupLongitude();
+        }
+        
+        if (parallelEnabled) {
+            return CandidateGraph.build(latitudes, longitudes, cabIndex, cabCount,
+                    MAX_DISTANCE_METERS, costFunction, dispatchPool);
+        }
+        return CandidateGraph.build(latitudes, longitudes, cabIndex, cabCount,
+                MAX_DISTANCE_METERS, costFunction);
+    }
+    
+    /**
+     * Match a single ride request against the cabs that are available right now
+     * @return The new assignment, or empty if the passenger no longer needs a ride
+     *         or no cab is within range
+     */
+    @Retryable(retryFor = OptimisticLockingFailureException.class,
+            maxAttemptsExpression = CLAIM_MAX_ATTEMPTS,
+            backoff = @Backoff(delayExpression = CLAIM_RETRY_DELAY_MS, multiplier = 2))
+    @Transactional
+    public Optional<RideAssignment> dispatchRideRequest(Long passengerId) {
+        Optional<Ride> waiting = passengerRepository.findById(passengerId)
+                .filter(Passenger::isNeedsRide)
+                .map(this::rideOf)
+                .filter(ride -> !Double.isNaN(ride.pickupLatitude()) && !Double.isNaN(ride.pickupLongitude()));
+        if (waiting.isEmpty()) {
+            return Optional.empty();
+        }
+        
+        Ride ride = waiting.get();
+        Optional<CabDriver> nearestCab = fleetStateStore.isEnabled()
+                ? findNearestLiveCab(ride.pickupLatitude(), ride.pickupLongitude())
+                : findNearestAvailableCab(
+                        ride.pickupLatitude(),
+                        ride.pickupLongitude(),
+                        cabDriverRepository.findByAvailable(true));
+        return nearestCab.map(cab -> assignRide(cab, ride.passengers().get(0)));
+    }
+    
+    /**
+     * Find the nearest available cab using the live fleet store, so only the chosen cab is loaded
+     */
+    private Optional<CabDriver> findNearestLiveCab(double latitude, double longitude) {
+        for (int attempt = 0; attempt < MAX_LIVE_LOOKUPS; attempt++) {
+            long cabId = travelTimeService.isEnabled()
+                    ? findFastestLiveCab(latitude, longitude)
+                    : fleetStateStore.nearestAvailable(latitude, longitude, MAX_DISTANCE_METERS, distanceFunction);
+            if (cabId == FleetStateStore.NO_CAB) {
+                return Optional.empty();
+            }
+            Optional<CabDriver> cab = cabDriverRepository.findById(cabId).filter(CabDriver::isAvailable);
+            if (cab.isPresent()) {
+                return cab;
+            }
+            // The table says the cab is taken or gone; correct the store and look again
+            fleetStateStore.setAvailable(cabId, false);
+        }
+        return Optional.empty();
+    }
+    
+    /**
+     * Of the nearest available cabs in the live store, the one with the shortest drive to the passenger
+     */
+    private long findFastestLiveCab(double latitude, double longitude) {
+        List<NearbyCab> candidates = fleetStateStore.findNearby(
+                latitude, longitude, routedCandidates, MAX_DISTANCE_METERS, true, distanceFunction);
+        double[] cabLatitudes = new double[candidates.size()];
+        double[] cabLongitudes = new double[candidates.size()];
+        for (int c = 0; c < candidates.size(); c++) {
+            cabLatitudes[c] = candidates.get(c).getLatitude();
+            cabLongitudes[c] = candidates.get(c).getLongitude();
+        }
+        int fastest = findFastest(latitude, longitude, cabLatitudes, cabLongitudes, candidates.size());
+        return fastest < 0 ? FleetStateStore.NO_CAB : candidates.get(fastest).getCabId();
+    }
+    
+    /**
+     * Position of the cab with the shortest drive to the given location. When the location or all
+     * of the cabs are off the road network, or no route connects them, the straight-line nearest
+     * is taken instead. Returns -1 only when there are no cabs.
+     */
+    private int findFastest(double latitude, double longitude, double[] cabLatitudes, double[] cabLongitudes,
+                            int count) {
+        double[] seconds = new double[count];
+        travelTimeService.travelTimesTo(latitude, longitude, cabLatitudes, cabLongitudes, seconds, count);
+        int fastest = -1;
+        for (int c = 0; c < count; c++) {
+            if (seconds[c] < Double.POSITIVE_INFINITY && (fastest < 0 || seconds[c] < seconds[fastest])) {
+                fastest = c;
+            }
+        }
+        if (fastest >= 0) {
+            return fastest;
+        }
+        // The drive times are no longer needed, so the array takes the distances
+        double[] meters = seconds;
+        distanceEngine.distances(latitude, longitude, cabLatitudes, cabLongitudes, meters, count);
+        double nearestMeters = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < count; c++) {
+            if (meters[c] < nearestMeters) {
+                nearestMeters = meters[c];
+                fastest = c;
+            }
+        }
+        return fastest;
     }
     
     /**
      * Find the nearest available cab to the given location
      */
-    private Optional<CabDriver> findNearestAvailableCab(Double latitude, Double longitude, 
+    private Optional<CabDriver> findNearestAvailableCab(double latitude, double longitude,
                                                        List<CabDriver> availableCabs) {
-        if (availableCabs.isEmpty()) {
-            return Optional.empty();
+        // Lay the located cabs out as arrays so most can be rejected without a Haversine call
+        double[] cabLatitudes = new double[availableCabs.size()];
+        double[] cabLongitudes = new double[availableCabs.size()];
+        locateCabs(availableCabs, cabLatitudes, cabLongitudes);
+        List<CabDriver> locatedCabs = new ArrayList<>(availableCabs.size());
+        for (int c = 0; c < availableCabs.size(); c++) {
+            if (Double.isNaN(cabLatitudes[c]) || Double.isNaN(cabLongitudes[c])) {
+                continue;
+            }
+            cabLatitudes[locatedCabs.size()] = cabLatitudes[c];
+            cabLongitudes[locatedCabs.size()] = cabLongitudes[c];
+            locatedCabs.add(availableCabs.get(c));
+        }
+        if (travelTimeService.isEnabled()) {
+            return findFastestInRange(latitude, longitude, locatedCabs, cabLatitudes, cabLongitudes);
         }
         
-        CabDriver nearestCab = null;
-        double minDistance = Double.MAX_VALUE;
+        // These cabs were just loaded, so cos(lat) is only worked out for those near the passenger
+        int nearest = locationService.findNearest(latitude, longitude, cabLatitudes, cabLongitudes, null,
+                locatedCabs.size(), MAX_DISTANCE_METERS);
         
-        for (CabDriver cab : availableCabs) {
-            double distance = locationService.calculateDistance(
-                    latitude, longitude,
-                    cab.getCurrentLatitude(), cab.getCurrentLongitude());
-                    
-            if (distance < minDistance && distance <= MAX_DISTANCE_METERS) {
-                minDistance = distance;
-                nearestCab = cab;
+        return nearest < 0 ? Optional.empty() : Optional.of(locatedCabs.get(nearest));
+    }
+    
+    /**
+     * Among the located cabs within range, the one with the shortest drive to the given location
+     */
+    private Optional<CabDriver> findFastestInRange(double latitude, double longitude, List<CabDriver> locatedCabs,
+                                                   double[] cabLatitudes, double[] cabLongitudes) {
+        double[] distances = new double[locatedCabs.size()];
+        locationService.calculateDistances(latitude, longitude, cabLatitudes, cabLongitudes,
+                distances, locatedCabs.size());
+        // Compact the cabs in range to the front of the arrays
+        List<CabDriver> inRange = new ArrayList<>();
+        for (int c = 0; c < locatedCabs.size(); c++) {
+            if (distances[c] <= MAX_DISTANCE_METERS) {
+                cabLatitudes[inRange.size()] = cabLatitudes[c];
+                cabLongitudes[inRange.size()] = cabLongitudes[c];
+                inRange.add(locatedCabs.get(c));
             }
         }
-        
-        return Optional.ofNullable(nearestCab);
+        int fastest = findFastest(latitude, longitude, cabLatitudes, cabLongitudes, inRange.size());
+        return fastest < 0 ? Optional.empty() : Optional.of(inRange.get(fastest));
+    }
+    
+    /**
+     * Result of the most recent scheduled matching run, or null if none has run yet
+     */
+    public MatchingResult getLastMatchingResult() {
+        return lastMatchingResult;
+    }
+    
+    /**
+     * Shared routes of the most recent pooled home-drop run, or null if none has run yet
+     */
+    public DropRoutePlan getLastDropRoutePlan() {
+        return lastDropRoutePlan;
     }
     
     /**
-     * Assign a ride to a cab driver
+     * Assign a ride to a cab driver of the operator's choice, bypassing matching
+     * @return The new assignment, or empty if the cab or passenger does not exist
+     */
+    @Retryable(retryFor = OptimisticLockingFailureException.class,
+            maxAttemptsExpression = CLAIM_MAX_ATTEMPTS,
+            backoff = @Backoff(delayExpression = CLAIM_RETRY_DELAY_MS, multiplier = 2))
+    @Transactional
+    public Optional<RideAssignment> forceAssignRide(Long cabId, Long passengerId) {
+        return cabDriverRepository.findById(cabId).flatMap(cab ->
+            passengerRepository.findById(passengerId).map(passenger -> assignRide(cab, passenger)));
+    }
+    
+    /**
+     * Assign a ride to a cab driver. Both are claimed by their version checks on save, which fail
+     * with an {@link OptimisticLockingFailureException} if someone else changed either meanwhile.
      */
     @Transactional
     public RideAssignment assignRide(CabDriver cabDriver, Passenger passenger) {
+        if (!cabDriver.isAvailable()) {
+            throw new InvalidOperationException("Cab " + cabDriver.getId() + " is not available");
+        }
+        if (!passenger.isNeedsRide()) {
+            throw new InvalidOperationException("Passenger " + passenger.getId() + " does not need a ride");
+        }
+        
         // Mark cab as unavailable
         cabDriver.setAvailable(false);
         cabDriverRepository.save(cabDriver);
+        fleetStateStore.setAvailableAfterCommit(cabDriver.getId(), false);
         
         // Mark passenger as assigned
         passenger.setNeedsRide(false);
@@ -110,22 +714,98 @@ public class RideAssignmentService {
         assignment.setAssignmentTime(LocalDateTime.now());
         assignment.setStatus(STATUS_PENDING);
         
-        return rideAssignmentRepository.save(assignment);
+        RideAssignment saved = rideAssignmentRepository.save(assignment);
+        eventPublisher.publishEvent(new RidesAssignedEvent(List.of(saved)));
+        return saved;
+    }
+    
+    /**
+     * Assign a whole plan of rides at once. Availability flags are cleared with one bulk
+     * update per chunk of ids and the assignments are inserted in JDBC batches.
+     * Cabs and passengers that were loaded in the current transaction are detached afterwards.
+     * @param cabDrivers Cab of each ride; a shared cab appears once for each of its passengers
+     * @param passengers Passenger of each ride, in the same order
+     */
+    @Transactional
+    public List<RideAssignment> assignRides(List<CabDriver> cabDrivers, List<Passenger> passengers) {
+        return assignRides(cabDrivers, passengers, null);
+    }
+    
+    /**
+     * @param dropOrders Drop position of each passenger in a shared cab, or null if no cab is shared
+     */
+    private List<RideAssignment> assignRides(List<CabDriver> cabDrivers, List<Passenger> passengers,
+                                             List<Integer> dropOrders) {
+        if (cabDrivers.size() != passengers.size()) {
+            throw new IllegalArgumentException("Expected a cab for every passenger");
+        }
+        if (cabDrivers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        // Claim the cabs and passengers; any that were taken meanwhile fail the whole plan.
+        // A shared cab appears once per passenger but is claimed once.
+        List<Long> cabIds = cabDrivers.stream().map(CabDriver::getId).distinct().toList();
+        List<Long> passengerIds = passengers.stream().map(Passenger::getId).toList();
+        for (int from = 0; from < cabIds.size(); from += BULK_UPDATE_CHUNK_SIZE) {
+            int to = Math.min(from + BULK_UPDATE_CHUNK_SIZE, cabIds.size());
+            int claimed = cabDriverRepository.claimAvailable(cabIds.subList(from, to));
+            if (claimed != to - from) {
+                throw new OptimisticLockingFailureException("Claimed " + claimed + " cabs out of " + (to - from));
+            }
+        }
+        for (int from = 0; from < passengerIds.size(); from += BULK_UPDATE_CHUNK_SIZE) {
+            int to = Math.min(from + BULK_UPDATE_CHUNK_SIZE, passengerIds.size());
+            int claimed = passengerRepository.claimWaiting(passengerIds.subList(from, to));
+            if (claimed != to - from) {
+                throw new OptimisticLockingFailureException("Claimed " + claimed + " passengers out of " + (to - from));
+            }
+        }
+        
+        // Create ride assignments; the updated rows above are mirrored on the detached copies
+        LocalDateTime now = LocalDateTime.now();
+        List<RideAssignment> assignments = new ArrayList<>(cabDrivers.size());
+        for (int i = 0; i < cabDrivers.size(); i++) {
+            CabDriver cabDriver = cabDrivers.get(i);
+            Passenger passenger = passengers.get(i);
+            cabDriver.setAvailable(false);
+            passenger.setNeedsRide(false);
+            fleetStateStore.setAvailableAfterCommit(cabDriver.getId(), false);
+            
+            RideAssignment assignment = new RideAssignment();
+            assignment.setCabDriver(cabDriver);
+            assignment.setPassenger(passenger);
+            assignment.setAssignmentTime(now);
+            assignment.setStatus(STATUS_PENDING);
+            assignment.setDropOrder(dropOrders != null ? dropOrders.get(i) : null);
+            assignments.add(assignment);
+        }
+        
+        List<RideAssignment> saved = rideAssignmentRepository.saveAll(assignments);
+        eventPublisher.publishEvent(new RidesAssignedEvent(saved));
+        return saved;
     }
     
     /**
      * Update ride status
      */
+    @Retryable(retryFor = OptimisticLockingFailureException.class,
+            maxAttemptsExpression = CLAIM_MAX_ATTEMPTS,
+            backoff = @Backoff(delayExpression = CLAIM_RETRY_DELAY_MS, multiplier = 2))
     @Transactional
     public RideAssignment updateRideStatus(Long assignmentId, String status) {
         return rideAssignmentRepository.findById(assignmentId).map(assignment -> {
             assignment.setStatus(status);
             
             if (STATUS_COMPLETED.equals(status) || STATUS_CANCELLED.equals(status)) {
-                // Mark cab as available again
+                // Mark cab as available again once none of the passengers sharing it is still riding
                 CabDriver cabDriver = assignment.getCabDriver();
-                cabDriver.setAvailable(true);
-                cabDriverRepository.save(cabDriver);
+                if (!rideAssignmentRepository.existsByCabDriverIdAndStatusInAndIdNot(
+                        cabDriver.getId(), List.of(STATUS_PENDING, STATUS_IN_PROGRESS), assignment.getId())) {
+                    cabDriver.setAvailable(true);
+                    cabDriverRepository.save(cabDriver);
+                    fleetStateStore.setAvailableAfterCommit(cabDriver.getId(), true);
+                }
                 
                 // Update completion time
                 assignment.setCompletionTime(LocalDateTime.now());
@@ -135,6 +815,27 @@ public class RideAssignmentService {
         }).orElseThrow(() -> new RuntimeException("Ride assignment not found"));
     }
     
+    /**
+     * A ride of its own for a loaded passenger, boarding at the latest ping if it is still buffered.
+     * The entity keeps its persisted position, so a managed one is not written back.
+     */
+    private Ride rideOf(Passenger passenger) {
+        double[] buffered = locationWriteBuffer.getPassengerPosition(passenger.getId());
+        return buffered != null ? new Ride(List.of(passenger), buffered[0], buffered[1]) : Ride.of(passenger);
+    }
+    
+    /**
+     * Passengers sharing a cab in drop-off order and the point where they all board; NaN if unknown
+     */
+    private record Ride(List<Passenger> passengers, double pickupLatitude, double pickupLongitude) {
+        
+        static Ride of(Passenger passenger) {
+            return new Ride(List.of(passenger),
+                    passenger.getCurrentLatitude() != null ? passenger.getCurrentLatitude() : Double.NaN,
+                    passenger.getCurrentLongitude() != null ? passenger.getCurrentLongitude() : Double.NaN);
+        }
+    }
+    
     /**
      * Get all ride assignments
      */
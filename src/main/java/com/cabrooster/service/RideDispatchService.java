@@ -0,0 +1,260 @@
+package com.cabrooster.service;
+
+import com.cabrooster.service.dispatch.BatchDispatchResult;
+import com.cabrooster.service.dispatch.MatchingResult;
+import com.cabrooster.service.dispatch.RideRequestedEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches ride requests as they arrive instead of waiting for the next scheduled run.
+ * <p>
+ * In {@code continuous} mode every ride request is put on an in-process queue and a
+ * single worker thread matches it against the cabs available at that moment.
+ * <p>
+ * In {@code windowed} mode the worker collects the requests that arrive within a short
+ * window and matches them together with the configured matching engine. The window
+ * adapts to the arrival rate so that it usually holds about the target batch size.
+ * <p>
+ * Requests that cannot be queued or matched keep {@code needsRide} set and are picked
+ * up by the scheduled run.
+ */
+@Service
+public class RideDispatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RideDispatchService.class);
+
+    public static final String MODE_SCHEDULED = "scheduled";
+    public static final String MODE_CONTINUOUS = "continuous";
+    public static final String MODE_WINDOWED = "windowed";
+
+    // Weight of the latest window in the smoothed arrival rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${dispatch.mode:scheduled}")
+    private String mode;
+
+    @Value("${dispatch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${dispatch.window.min-ms:2000}")
+    private long windowMinMs;
+
+    @Value("${dispatch.window.max-ms:10000}")
+    private long windowMaxMs;
+
+    @Value("${dispatch.window.target-batch-size:50}")
+    private int targetBatchSize;
+
+    private BlockingQueue<RideRequestedEvent> queue;
+    private Timer assignedLatency;
+    private Timer unmatchedLatency;
+    private Timer windowDuration;
+    private Timer windowMatchDuration;
+    private DistributionSummary windowBatchSize;
+    private DistributionSummary windowTotalDistance;
+    private Thread worker;
+    private volatile boolean running;
+    private volatile long windowNanos;
+    private volatile double lastWindowMatchRate = 1.0;
+    private double arrivalRatePerSecond;
+
+    @PostConstruct
+    public void init() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("dispatch.queue.depth", queue, BlockingQueue::size)
+                .description("Ride requests waiting for the dispatcher")
+                .register(meterRegistry);
+        assignedLatency = latencyTimer("assigned");
+        unmatchedLatency = latencyTimer("unmatched");
+
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMinMs);
+        Gauge.builder("dispatch.window.size", this, service -> service.windowNanos / 1e9)
+                .description("Current length of the batching window")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("dispatch.window.match.rate", this, service -> service.lastWindowMatchRate)
+                .description("Share of requests matched in the last window")
+                .register(meterRegistry);
+        windowDuration = Timer.builder("dispatch.window.duration")
+                .description("How long each batching window stayed open")
+                .register(meterRegistry);
+        windowMatchDuration = Timer.builder("dispatch.window.match.duration")
+                .description("Time spent matching one window")
+                .register(meterRegistry);
+        windowBatchSize = DistributionSummary.builder("dispatch.window.batch.size")
+                .description("Ride requests per window")
+                .register(meterRegistry);
+        windowTotalDistance = DistributionSummary.builder("dispatch.window.total.distance")
+                .description("Total pickup distance of the matches in one window")
+                .baseUnit("meters")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the dispatcher thread once the application is ready to serve requests
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (MODE_CONTINUOUS.equalsIgnoreCase(mode)) {
+            worker = new Thread(this::runWorker, "ride-dispatcher");
+        } else if (MODE_WINDOWED.equalsIgnoreCase(mode)) {
+            worker = new Thread(this::runWindowedWorker, "ride-dispatcher");
+        } else {
+            return;
+        }
+        running = true;
+        worker.setDaemon(true);
+        worker.start();
+        logger.info("Ride dispatch started in {} mode with queue capacity {}", mode, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Queue a ride request for the dispatcher. Never blocks the request thread.
+     */
+    @EventListener
+    public void onRideRequested(RideRequestedEvent event) {
+        if (!running) {
+            return;
+        }
+        if (!queue.offer(event)) {
+            logger.warn("Dispatch queue is full, passenger {} will wait for the next scheduled run",
+                    event.passengerId());
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            RideRequestedEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            dispatch(event);
+        }
+    }
+
+    private void runWindowedWorker() {
+        List<RideRequestedEvent> batch = new ArrayList<>();
+        // Requests of a window arrived since the previous one closed, including the quiet time before it opened
+        long previousClose = System.nanoTime();
+        while (running) {
+            try {
+                // A window opens with the first request and stays open for the current window size
+                batch.add(queue.take());
+                long opened = System.nanoTime();
+                long closesAt = opened + windowNanos;
+                long remaining;
+                while ((remaining = closesAt - System.nanoTime()) > 0) {
+                    RideRequestedEvent event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                    queue.drainTo(batch);
+                }
+                long closed = System.nanoTime();
+                dispatchWindow(batch, closed - opened, closed - previousClose);
+                previousClose = closed;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatchWindow(List<RideRequestedEvent> batch, long windowLengthNanos, long arrivalPeriodNanos) {
+        windowDuration.record(windowLengthNanos, TimeUnit.NANOSECONDS);
+        windowBatchSize.record(batch.size());
+        adaptWindow(batch.size(), arrivalPeriodNanos);
+
+        List<Long> passengerIds = batch.stream().map(RideRequestedEvent::passengerId).distinct().toList();
+        try {
+            BatchDispatchResult outcome = rideAssignmentService.dispatchBatch(passengerIds);
+            MatchingResult matching = outcome.matching();
+            windowMatchDuration.record(matching.getElapsedNanos(), TimeUnit.NANOSECONDS);
+            windowTotalDistance.record(matching.getTotalCost());
+            lastWindowMatchRate = matching.getMatchRate();
+
+            long now = System.nanoTime();
+            for (RideRequestedEvent event : batch) {
+                Timer latency = outcome.assignedPassengerIds().contains(event.passengerId())
+                        ? assignedLatency : unmatchedLatency;
+                latency.record(now - event.requestedAtNanos(), TimeUnit.NANOSECONDS);
+            }
+            logger.debug("Dispatch window of {} requests: {}", batch.size(), matching);
+        } catch (RuntimeException e) {
+            logger.error("Failed to dispatch a window of {} ride requests", batch.size(), e);
+        }
+    }
+
+    /**
+     * Size the next window so it collects about the target batch at the smoothed arrival rate
+     * @param arrivalPeriodNanos Time since the previous window closed, over which the requests arrived
+     */
+    private void adaptWindow(int requests, long arrivalPeriodNanos) {
+        double observedRate = requests / Math.max(arrivalPeriodNanos / 1e9, 0.001);
+        arrivalRatePerSecond = arrivalRatePerSecond == 0
+                ? observedRate
+                : RATE_SMOOTHING * observedRate + (1 - RATE_SMOOTHING) * arrivalRatePerSecond;
+
+        long idealNanos = (long) (targetBatchSize / arrivalRatePerSecond * 1e9);
+        windowNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(windowMinMs),
+                Math.min(TimeUnit.MILLISECONDS.toNanos(windowMaxMs), idealNanos));
+    }
+
+    private void dispatch(RideRequestedEvent event) {
+        try {
+            boolean assigned = rideAssignmentService.dispatchRideRequest(event.passengerId()).isPresent();
+            Timer latency = assigned ? assignedLatency : unmatchedLatency;
+            latency.record(System.nanoTime() - event.requestedAtNanos(), TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            // Keep the worker alive; the passenger still needs a ride and stays queued for the scheduled run
+            logger.error("Failed to dispatch ride request for passenger {}", event.passengerId(), e);
+        }
+    }
+
+    private Timer latencyTimer(String outcome) {
+        return Timer.builder("dispatch.assignment.latency")
+                .description("Time from ride request to dispatch decision")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
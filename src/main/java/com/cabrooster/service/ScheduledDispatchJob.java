@@ -0,0 +1,192 @@
+package com.cabrooster.service;
+
+import com.cabrooster.service.dispatch.DispatchPartition;
+import com.cabrooster.util.GeoUtils;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Fires the scheduled ride assignment runs. {@code scheduler.cluster.mode} decides how several
+ * instances sharing one database divide the work:
+ * <ul>
+ * <li>{@code single}: every instance runs every job; for a single instance</li>
+ * <li>{@code leader}: only the instance that takes the job's lease runs it</li>
+ * <li>{@code partitioned}: passengers and cabs are split into partitions by region and each
+ * instance runs the partitions whose leases it takes, so instances never compete for a cab</li>
+ * </ul>
+ * The roster precompute covers every passenger, so it is run by one instance in every mode.
+ * Leases last {@code scheduler.cluster.lease-ttl-ms}, are renewed while their work runs and are
+ * kept after a successful run so instances firing a little late do not repeat it. One held by a
+ * crashed instance is free again by the next run.
+ * <p>
+ * Each instance's live fleet store only sees the pings that instance took, so {@code leader}
+ * and {@code partitioned} modes require {@code fleet.live-store.enabled: false}; runs then read
+ * the positions every instance wrote to the table.
+ */
+@Component
+public class ScheduledDispatchJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledDispatchJob.class);
+
+    public static final String MODE_SINGLE = "single";
+    public static final String MODE_LEADER = "leader";
+    public static final String MODE_PARTITIONED = "partitioned";
+
+    static final String RIDE_ASSIGNMENT_JOB = "ride-assignment";
+    static final String HOME_DROP_JOB = "home-drop";
+    static final String ROSTER_JOB = "roster";
+
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
+
+    @Autowired
+    private SchedulerLeaseService leaseService;
+
+    @Value("${scheduler.cluster.mode:single}")
+    private String mode;
+
+    @Value("${scheduler.cluster.lease-ttl-ms:600000}")
+    private long leaseTtlMs;
+
+    @Value("${scheduler.cluster.partitions:16}")
+    private int partitions;
+
+    @Value("${scheduler.cluster.partition-size-meters:2000}")
+    private double partitionSizeMeters;
+
+    // Passes over the partitions that failed before they are given up
+    @Value("${scheduler.cluster.partition-attempts:3}")
+    private int partitionAttempts;
+
+    @Value("${dispatch.roster.enabled:false}")
+    private boolean rosterEnabled;
+
+    @Value("${fleet.live-store.enabled:true}")
+    private boolean liveStoreEnabled;
+
+    @PostConstruct
+    public void init() {
+        if (!MODE_SINGLE.equalsIgnoreCase(mode) && !MODE_LEADER.equalsIgnoreCase(mode)
+                && !MODE_PARTITIONED.equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("Unknown scheduler.cluster.mode: " + mode);
+        }
+        if (!MODE_SINGLE.equalsIgnoreCase(mode) && liveStoreEnabled) {
+            // The store is loaded once at startup and would hide positions written by other instances
+            throw new IllegalStateException("scheduler.cluster.mode " + mode
+                    + " needs fleet.live-store.enabled: false");
+        }
+        if (partitions < 1) {
+            throw new IllegalStateException("scheduler.cluster.partitions must be at least 1");
+        }
+        if (partitionAttempts < 1) {
+            throw new IllegalStateException("scheduler.cluster.partition-attempts must be at least 1");
+        }
+    }
+
+    /**
+     * Ride assignments at 8:00 AM daily
+     */
+    @Scheduled(cron = "0 0 8 * * ?") // 8 AM every day
+    public void runRideAssignments() {
+        run(RIDE_ASSIGNMENT_JOB, rideAssignmentService::scheduleRideAssignments);
+    }
+
+    /**
+     * Home drops at 7:00 PM daily
+     */
+    @Scheduled(cron = "0 0 19 * * ?") // 7 PM every day
+    public void runHomeDrops() {
+        run(HOME_DROP_JOB, rideAssignmentService::scheduleHomeDrops);
+    }
+
+    /**
+     * Plan the next 8:00 AM run off-peak, when enabled with {@code dispatch.roster.enabled}
+     */
+    @Scheduled(cron = "${dispatch.roster.cron:0 0 3 * * ?}")
+    public void precomputeRoster() {
+        if (rosterEnabled) {
+            runWhole(ROSTER_JOB, rideAssignmentService::precomputeRoster);
+        }
+    }
+
+    /**
+     * Run a job, or the partitions of it whose leases this instance takes. A partition that
+     * fails keeps its lease and is tried again after the others, up to
+     * {@code scheduler.cluster.partition-attempts} times, before it is let go for another
+     * instance. Leases are renewed while their partition runs.
+     * @param assignments Runs the job for the passengers and cabs of the given partition
+     * @return Number of partitions run here; a job that is not partitioned counts as one
+     */
+    int run(String job, Consumer<DispatchPartition> assignments) {
+        if (!MODE_PARTITIONED.equalsIgnoreCase(mode)) {
+            return runWhole(job, () -> assignments.accept(DispatchPartition.ALL));
+        }
+
+        // Start at a different partition on every instance so they rarely race for one lease
+        Duration ttl = Duration.ofMillis(leaseTtlMs);
+        double regionDegrees = partitionSizeMeters / GeoUtils.METERS_PER_DEGREE;
+        int offset = Math.floorMod(leaseService.getNodeId().hashCode(), partitions);
+        List<Integer> pending = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            pending.add((offset + i) % partitions);
+        }
+        int ran = 0;
+        for (int attempt = 1; attempt <= partitionAttempts && !pending.isEmpty(); attempt++) {
+            List<Integer> failed = new ArrayList<>();
+            for (int partition : pending) {
+                String lease = job + "/" + partition;
+                if (!leaseService.tryAcquire(lease, ttl)) {
+                    continue;
+                }
+                try (SchedulerLeaseService.Renewal renewal = leaseService.keepAlive(lease, ttl)) {
+                    assignments.accept(new DispatchPartition(partition, partitions, regionDegrees));
+                    ran++;
+                } catch (RuntimeException e) {
+                    logger.warn("Partition {} of {} failed on attempt {}", partition, job, attempt, e);
+                    failed.add(partition);
+                }
+            }
+            pending = failed;
+        }
+        for (int partition : pending) {
+            // Let the partition go so another instance or a later run is not blocked by the lease
+            leaseService.release(job + "/" + partition);
+            logger.error("Partition {} of {} failed {} times, giving it up", partition, job, partitionAttempts);
+        }
+        logger.info("Ran {} of {} partitions of {} on node {}", ran, partitions, job, leaseService.getNodeId());
+        return ran;
+    }
+
+    /**
+     * Run a whole job on this instance, unless another instance holds its lease
+     * @return 1 if the job ran here, 0 if not
+     */
+    private int runWhole(String job, Runnable work) {
+        if (MODE_SINGLE.equalsIgnoreCase(mode)) {
+            work.run();
+            return 1;
+        }
+        Duration ttl = Duration.ofMillis(leaseTtlMs);
+        if (!leaseService.tryAcquire(job, ttl)) {
+            logger.info("Skipping {}, another instance holds the lease", job);
+            return 0;
+        }
+        try (SchedulerLeaseService.Renewal renewal = leaseService.keepAlive(job, ttl)) {
+            work.run();
+        } catch (RuntimeException e) {
+            leaseService.release(job);
+            throw e;
+        }
+        return 1;
+    }
+}
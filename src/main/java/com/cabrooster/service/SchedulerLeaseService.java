@@ -0,0 +1,142 @@
+package com.cabrooster.service;
+
+import com.cabrooster.repository.SchedulerLeaseRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leases in the shared database that let one application instance at a time run a piece of
+ * scheduled work. A lease is held until it expires or is released, so a lease held by an
+ * instance that crashed is free again once its time is up. Expiry is judged by the clock of
+ * the instance asking, so lease times should be long compared to the clock skew between hosts.
+ */
+@Service
+public class SchedulerLeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerLeaseService.class);
+
+    @Autowired
+    private SchedulerLeaseRepository leaseRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Identifies this instance as a lease owner; a random id per start when blank
+    @Value("${scheduler.cluster.node-id:}")
+    private String nodeId;
+
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService renewer;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        // Lease changes commit at once, whatever transaction the caller is in
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renewer.shutdownNow();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Take the named lease if it is free, has expired or is already held by this instance
+     * @return Whether this instance now holds the lease for the given time
+     */
+    public boolean tryAcquire(String name, Duration ttl) {
+        Instant now = Instant.now();
+        Instant expiresAt = now.plus(ttl);
+        try {
+            Boolean taken = transactionTemplate.execute(status ->
+                    leaseRepository.takeOver(name, nodeId, expiresAt, now) == 1 || create(name, expiresAt));
+            return Boolean.TRUE.equals(taken);
+        } catch (ConcurrencyFailureException e) {
+            // Another instance is changing the same lease right now and will get it
+            return false;
+        }
+    }
+
+    /**
+     * Keep renewing a lease this instance holds, every third of its time, until the returned
+     * handle is closed. Work that outlasts the lease time keeps it this way; when the instance
+     * dies the renewals stop and the lease runs out as usual.
+     */
+    public Renewal keepAlive(String name, Duration ttl) {
+        long periodMs = Math.max(1, ttl.toMillis() / 3);
+        ScheduledFuture<?> renewal = renewer.scheduleAtFixedRate(() -> {
+            try {
+                if (!tryAcquire(name, ttl)) {
+                    logger.warn("Lost lease {} while still running under it", name);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not renew lease {}", name, e);
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return () -> renewal.cancel(false);
+    }
+
+    /**
+     * Give up the named lease if this instance holds it
+     */
+    public void release(String name) {
+        transactionTemplate.executeWithoutResult(status -> leaseRepository.release(name, nodeId, Instant.now()));
+    }
+
+    /**
+     * Create a lease that has never been taken. Of several instances creating it at once,
+     * the primary key lets only the first insert through.
+     */
+    private boolean create(String name, Instant expiresAt) {
+        if (leaseRepository.existsById(name)) {
+            return false;
+        }
+        try {
+            // Insert in a transaction of its own so a lost race does not spoil the caller's
+            transactionTemplate.executeWithoutResult(status ->
+                    leaseRepository.insert(name, nodeId, expiresAt));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the renewals of a lease started by {@link #keepAlive}
+     */
+    @FunctionalInterface
+    public interface Renewal extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
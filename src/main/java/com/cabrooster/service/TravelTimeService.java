@@ -0,0 +1,201 @@
+package com.cabrooster.service;
+
+import com.cabrooster.util.GeoKdTree;
+import com.cabrooster.util.distance.DistanceEngine;
+import com.cabrooster.util.routing.ContractionHierarchy;
+import com.cabrooster.util.routing.RoadGraph;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Drive times over a local road graph, answered by a contraction hierarchy.
+ * <p>
+ * The graph is read at startup from {@code routing.graph.location}. The hierarchy is loaded
+ * from {@code routing.cache-path} when that file was built from the same graph, and built and
+ * written there otherwise. Points are snapped to the nearest road node; the distance to it is
+ * covered at the off-road speed. Everything runs in process, without a routing service.
+ */
+@Service
+public class TravelTimeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TravelTimeService.class);
+
+    private static final long NO_NODE = -1;
+
+    @Autowired
+    private ResourceLoader resourceLoader;
+
+    @Autowired
+    private DistanceEngine distanceEngine;
+
+    @Value("${routing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${routing.graph.location:}")
+    private String graphLocation;
+
+    @Value("${routing.cache-path:}")
+    private String cachePath;
+
+    @Value("${routing.snap-radius-meters:250}")
+    private double snapRadiusMeters;
+
+    @Value("${routing.off-road-speed-mps:5}")
+    private double offRoadSpeed;
+
+    private RoadGraph graph;
+    private ContractionHierarchy hierarchy;
+    private final GeoKdTree nodes = new GeoKdTree();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (graphLocation.isBlank()) {
+            throw new IllegalStateException("routing.graph.location is required when routing is enabled");
+        }
+        Resource resource = resourceLoader.getResource(graphLocation);
+        try (Reader reader = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
+            graph = RoadGraph.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read road graph " + graphLocation, e);
+        }
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            nodes.put(node, graph.latitude(node), graph.longitude(node));
+        }
+        hierarchy = loadCachedHierarchy().orElseGet(this::buildHierarchy);
+        logger.info("Routing over {} road nodes and {} edges ({} hierarchy edges)",
+                graph.nodeCount(), graph.edgeCount(), hierarchy.edgeCount());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Drive time in seconds between two points, or infinity if either is off the road
+     * network or there is no route
+     */
+    public double travelTimeSeconds(double fromLat, double fromLon, double toLat, double toLon) {
+        int from = snap(fromLat, fromLon);
+        int to = snap(toLat, toLon);
+        if (from < 0 || to < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return offRoadSeconds(fromLat, fromLon, from) + hierarchy.travelTime(from, to) + offRoadSeconds(toLat, toLon, to);
+    }
+
+    /**
+     * Drive times in seconds from one point to each of many points
+     * @param out Receives the time to each of the first count points, infinity where there is no route
+     */
+    public void travelTimesFrom(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        travelTimes(lat, lon, lats, lons, out, count, true);
+    }
+
+    /**
+     * Drive times in seconds from each of many points to one point, such as cabs to a passenger
+     * @param out Receives the time from each of the first count points, infinity where there is no route
+     */
+    public void travelTimesTo(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        travelTimes(lat, lon, lats, lons, out, count, false);
+    }
+
+    private void travelTimes(double lat, double lon, double[] lats, double[] lons, double[] out, int count,
+                             boolean outwards) {
+        int origin = snap(lat, lon);
+        if (origin < 0) {
+            Arrays.fill(out, 0, count, Double.POSITIVE_INFINITY);
+            return;
+        }
+        // Points off the network are routed from the origin's own node and overwritten below
+        int[] snapped = new int[count];
+        int[] others = new int[count];
+        for (int i = 0; i < count; i++) {
+            snapped[i] = snap(lats[i], lons[i]);
+            others[i] = snapped[i] < 0 ? origin : snapped[i];
+        }
+        if (outwards) {
+            hierarchy.travelTimesFrom(origin, others, out, count);
+        } else {
+            hierarchy.travelTimesTo(origin, others, out, count);
+        }
+
+        double originSeconds = offRoadSeconds(lat, lon, origin);
+        for (int i = 0; i < count; i++) {
+            out[i] = snapped[i] < 0
+                    ? Double.POSITIVE_INFINITY
+                    : out[i] + originSeconds + offRoadSeconds(lats[i], lons[i], snapped[i]);
+        }
+    }
+
+    /**
+     * Nearest road node within the snap radius, or -1
+     */
+    private int snap(double lat, double lon) {
+        return (int) nodes.nearest(lat, lon, snapRadiusMeters, distanceEngine, null, NO_NODE);
+    }
+
+    private double offRoadSeconds(double lat, double lon, int node) {
+        return distanceEngine.distance(lat, lon, graph.latitude(node), graph.longitude(node)) / offRoadSpeed;
+    }
+
+    private Optional<ContractionHierarchy> loadCachedHierarchy() {
+        if (cachePath.isBlank() || !Files.isReadable(Path.of(cachePath))) {
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(cachePath))))) {
+            Optional<ContractionHierarchy> cached = ContractionHierarchy.readFrom(in).filter(h -> h.isBuiltFrom(graph));
+            if (cached.isEmpty()) {
+                logger.info("Cached contraction hierarchy {} is out of date and will be rebuilt", cachePath);
+            }
+            return cached;
+        } catch (IOException e) {
+            logger.warn("Could not read cached contraction hierarchy {}: {}", cachePath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private ContractionHierarchy buildHierarchy() {
+        long start = System.nanoTime();
+        ContractionHierarchy built = ContractionHierarchy.build(graph);
+        logger.info("Built contraction hierarchy in {} ms", (System.nanoTime() - start) / 1_000_000);
+        if (!cachePath.isBlank()) {
+            // Write beside the cache and move it into place so a crash never leaves half a file
+            Path target = Path.of(cachePath);
+            try {
+                Path directory = Files.createDirectories(target.toAbsolutePath().getParent());
+                Path temporary = Files.createTempFile(directory, "ch", ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    built.writeTo(out);
+                }
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Could not cache contraction hierarchy to {}: {}", cachePath, e.getMessage());
+            }
+        }
+        return built;
+    }
+}
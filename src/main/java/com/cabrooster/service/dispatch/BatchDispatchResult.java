@@ -0,0 +1,11 @@
+package com.cabrooster.service.dispatch;
+
+import java.util.Set;
+
+/**
+ * Outcome of matching one batch of ride requests
+ * @param matching Match statistics for the batch
+ * @param assignedPassengerIds Passengers that received a cab
+ */
+public record BatchDispatchResult(MatchingResult matching, Set<Long> assignedPassengerIds) {
+}
@@ -0,0 +1,270 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.util.GeoGridIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Sparse bipartite graph of passenger/cab pairs that are close enough to be matched.
+ * Edges are stored row by row (one row per passenger) in compressed arrays.
+ */
+public final class CandidateGraph {
+
+    // Passengers per task when the graph is built in parallel
+    private static final int PARALLEL_CHUNK_SIZE = 2048;
+
+    private final int passengerCount;
+    private final int cabCount;
+    private final int[] rowStart;
+    private final int[] edgeCab;
+    private final double[] edgeCost;
+    private double[] passengerLatitudes;
+    private double[] passengerLongitudes;
+
+    CandidateGraph(int passengerCount, int cabCount, int[] rowStart, int[] edgeCab, double[] edgeCost) {
+        this.passengerCount = passengerCount;
+        this.cabCount = cabCount;
+        this.rowStart = rowStart;
+        this.edgeCab = edgeCab;
+        this.edgeCost = edgeCost;
+    }
+
+    /**
+     * Build the candidate edges for every passenger from a grid index of cab positions
+     * @param passengerLatitudes Latitude of each passenger
+     * @param passengerLongitudes Longitude of each passenger
+     * @param cabIndex Index whose items are cab positions in the cab list
+     * @param cabCount Number of cabs in the cab list
+     * @param maxDistanceMeters Maximum pickup distance for an edge
+     * @param distanceFunction Distance in meters between two points
+     */
+    public static CandidateGraph build(double[] passengerLatitudes, double[] passengerLongitudes,
+                                       GeoGridIndex<Integer> cabIndex, int cabCount,
+                                       double maxDistanceMeters,
+                                       GeoGridIndex.DistanceFunction distanceFunction) {
+        CandidateGraph graph = buildRows(passengerLatitudes, passengerLongitudes, 0, passengerLatitudes.length,
+                cabIndex, cabCount, maxDistanceMeters, distanceFunction);
+        graph.passengerLatitudes = passengerLatitudes;
+        graph.passengerLongitudes = passengerLongitudes;
+        return graph;
+    }
+
+    /**
+     * Same as {@link #build} but computes chunks of passenger rows on the given pool.
+     * The cab index must not be modified while the graph is being built.
+     */
+    public static CandidateGraph build(double[] passengerLatitudes, double[] passengerLongitudes,
+                                       GeoGridIndex<Integer> cabIndex, int cabCount,
+                                       double maxDistanceMeters,
+                                       GeoGridIndex.DistanceFunction distanceFunction,
+                                       ForkJoinPool pool) {
+        int passengerCount = passengerLatitudes.length;
+        if (passengerCount <= PARALLEL_CHUNK_SIZE) {
+            return build(passengerLatitudes, passengerLongitudes, cabIndex, cabCount,
+                    maxDistanceMeters, distanceFunction);
+        }
+
+        List<ForkJoinTask<CandidateGraph>> chunks = new ArrayList<>();
+        for (int from = 0; from < passengerCount; from += PARALLEL_CHUNK_SIZE) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + PARALLEL_CHUNK_SIZE, passengerCount);
+            chunks.add(pool.submit(() -> buildRows(passengerLatitudes, passengerLongitudes, chunkFrom, chunkTo,
+                    cabIndex, cabCount, maxDistanceMeters, distanceFunction)));
+        }
+
+        // Concatenate the chunks in passenger order
+        int[] rowStart = new int[passengerCount + 1];
+        int edgeCount = 0;
+        List<CandidateGraph> parts = new ArrayList<>(chunks.size());
+        for (ForkJoinTask<CandidateGraph> chunk : chunks) {
+            CandidateGraph part = chunk.join();
+            parts.add(part);
+            edgeCount += part.getEdgeCount();
+        }
+        int[] edgeCab = new int[edgeCount];
+        double[] edgeCost = new double[edgeCount];
+        int row = 0;
+        int offset = 0;
+        for (CandidateGraph part : parts) {
+            for (int p = 0; p < part.passengerCount; p++) {
+                rowStart[++row] = offset + part.rowStart[p + 1];
+            }
+            System.arraycopy(part.edgeCab, 0, edgeCab, offset, part.getEdgeCount());
+            System.arraycopy(part.edgeCost, 0, edgeCost, offset, part.getEdgeCount());
+            offset += part.getEdgeCount();
+        }
+
+        CandidateGraph graph = new CandidateGraph(passengerCount, cabCount, rowStart, edgeCab, edgeCost);
+        graph.passengerLatitudes = passengerLatitudes;
+        graph.passengerLongitudes = passengerLongitudes;
+        return graph;
+    }
+
+    private static CandidateGraph buildRows(double[] passengerLatitudes, double[] passengerLongitudes,
+                                            int from, int to, GeoGridIndex<Integer> cabIndex, int cabCount,
+                                            double maxDistanceMeters,
+                                            GeoGridIndex.DistanceFunction distanceFunction) {
+        Builder builder = new Builder(to - from, cabCount);
+        for (int p = from; p < to; p++) {
+            cabIndex.forEachWithin(passengerLatitudes[p], passengerLongitudes[p], maxDistanceMeters,
+                    distanceFunction, builder::addEdge);
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Graph restricted to the given passengers (in the given order) and the cabs they can reach.
+     * Cabs are renumbered in ascending order of their original position.
+     */
+    public Subgraph subgraph(int[] passengers) {
+        int edgeTotal = 0;
+        for (int p : passengers) {
+            edgeTotal += rowEnd(p) - rowStart(p);
+        }
+
+        // Sorted, de-duplicated list of the cabs reachable from these passengers
+        int[] cabs = new int[edgeTotal];
+        int n = 0;
+        for (int p : passengers) {
+            for (int e = rowStart(p); e < rowEnd(p); e++) {
+                cabs[n++] = edgeCab[e];
+            }
+        }
+        Arrays.sort(cabs);
+        int distinct = 0;
+        for (int i = 0; i < cabs.length; i++) {
+            if (i == 0 || cabs[i] != cabs[i - 1]) {
+                cabs[distinct++] = cabs[i];
+            }
+        }
+        cabs = Arrays.copyOf(cabs, distinct);
+
+        Builder builder = new Builder(passengers.length, cabs.length);
+        for (int p : passengers) {
+            for (int e = rowStart(p); e < rowEnd(p); e++) {
+                builder.addEdge(Arrays.binarySearch(cabs, edgeCab[e]), edgeCost[e]);
+            }
+            builder.endRow();
+        }
+        return new Subgraph(builder.build(), passengers, cabs);
+    }
+
+    /**
+     * Whether passenger coordinates are attached (graphs built from positions have them)
+     */
+    public boolean hasPassengerLocations() {
+        return passengerLatitudes != null;
+    }
+
+    public double getPassengerLatitude(int passenger) {
+        return passengerLatitudes[passenger];
+    }
+
+    public double getPassengerLongitude(int passenger) {
+        return passengerLongitudes[passenger];
+    }
+
+    public int getPassengerCount() {
+        return passengerCount;
+    }
+
+    public int getCabCount() {
+        return cabCount;
+    }
+
+    public int getEdgeCount() {
+        return rowStart[passengerCount];
+    }
+
+    /**
+     * First edge of the given passenger's row
+     */
+    public int rowStart(int passenger) {
+        return rowStart[passenger];
+    }
+
+    /**
+     * One past the last edge of the given passenger's row
+     */
+    public int rowEnd(int passenger) {
+        return rowStart[passenger + 1];
+    }
+
+    public int edgeCab(int edge) {
+        return edgeCab[edge];
+    }
+
+    public double edgeCost(int edge) {
+        return edgeCost[edge];
+    }
+
+    /**
+     * Cost of the edge between a passenger and a cab, or NaN if they are not connected
+     */
+    public double cost(int passenger, int cab) {
+        for (int e = rowStart[passenger]; e < rowStart[passenger + 1]; e++) {
+            if (edgeCab[e] == cab) {
+                return edgeCost[e];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Part of a graph together with the original positions of its passengers and cabs
+     */
+    public record Subgraph(CandidateGraph graph, int[] passengers, int[] cabs) {
+    }
+
+    /**
+     * Incrementally builds a graph one passenger row at a time
+     */
+    public static final class Builder {
+        private final int passengerCount;
+        private final int cabCount;
+        private final int[] rowStart;
+        private int[] edgeCab = new int[16];
+        private double[] edgeCost = new double[16];
+        private int edgeCount;
+        private int row;
+
+        public Builder(int passengerCount, int cabCount) {
+            this.passengerCount = passengerCount;
+            this.cabCount = cabCount;
+            this.rowStart = new int[passengerCount + 1];
+        }
+
+        /**
+         * Add an edge from the current passenger row to the given cab
+         */
+        public void addEdge(int cab, double cost) {
+            if (edgeCount == edgeCab.length) {
+                edgeCab = Arrays.copyOf(edgeCab, edgeCount * 2);
+                edgeCost = Arrays.copyOf(edgeCost, edgeCount * 2);
+            }
+            edgeCab[edgeCount] = cab;
+            edgeCost[edgeCount] = cost;
+            edgeCount++;
+        }
+
+        /**
+         * Close the current passenger row and move on to the next passenger
+         */
+        public void endRow() {
+            rowStart[++row] = edgeCount;
+        }
+
+        public CandidateGraph build() {
+            if (row != passengerCount) {
+                throw new IllegalStateException("Expected " + passengerCount + " rows but got " + row);
+            }
+            return new CandidateGraph(passengerCount, cabCount, rowStart,
+                    Arrays.copyOf(edgeCab, edgeCount), Arrays.copyOf(edgeCost, edgeCount));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.cabrooster.service.dispatch;
+
+/**
+ * The share of a scheduled run one instance works on. Passengers and cabs belong to the
+ * partition of the region they are in, so partitions run on different instances never
+ * compete for the same cab. Neighbouring regions fall in different partitions, which spreads a
+ * busy area over several instances. Without a location they belong to partition 0.
+ * <p>
+ * Regions are rows {@code regionDegrees} of latitude tall. A degree of longitude shrinks with
+ * the cosine of the latitude, so each row's columns are widened by it at the row's middle and
+ * the regions stay roughly square on the ground.
+ * <p>
+ * The repositories compute the same key in their partition queries; {@link #ROW_STRIDE} and the
+ * offsets must stay in step with them.
+ *
+ * @param index This partition, from 0
+ * @param count Number of partitions
+ * @param regionDegrees Height of the regions in degrees of latitude
+ */
+public record DispatchPartition(int index, int count, double regionDegrees) {
+
+    /**
+     * The whole run as one partition
+     */
+    public static final DispatchPartition ALL = new DispatchPartition(0, 1, 1);
+
+    // Partition step between a region and the one north of it; row-major for cities about five regions across
+    public static final long ROW_STRIDE = 5;
+
+    public DispatchPartition {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Partition " + index + " of " + count);
+        }
+    }
+
+    public boolean isWhole() {
+        return count == 1;
+    }
+
+    public boolean contains(Double latitude, Double longitude) {
+        return isWhole() || of(latitude, longitude, count, regionDegrees) == index;
+    }
+
+    /**
+     * Partition of a location among {@code count}
+     */
+    public static int of(Double latitude, Double longitude, int count, double regionDegrees) {
+        if (latitude == null || longitude == null) {
+            return 0;
+        }
+        // Offset so region numbers are never negative
+        long row = (long) Math.floor((latitude + 90) / regionDegrees);
+        // Middle of the row, in the same operations as the queries so both round alike
+        double rowLatitude = (2 * row + 1) * regionDegrees / 2 - 90;
+        long column = (long) Math.floor((longitude + 180) * Math.cos(Math.toRadians(rowLatitude)) / regionDegrees);
+        return (int) ((row * ROW_STRIDE + column) % count);
+    }
+}
@@ -0,0 +1,112 @@
+package com.cabrooster.service.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared home-drop routes together with how they compare to giving every passenger a cab
+ */
+public final class DropRoutePlan {
+
+    private final int[][] routes;
+    // Latitude and longitude of the point each route's riders board at
+    private final double[][] pickups;
+    private final int passengerCount;
+    private final double totalMeters;
+    private final double directMeters;
+    private final long elapsedNanos;
+
+    public DropRoutePlan(int[][] routes, double[][] pickups, int passengerCount, double totalMeters,
+                         double directMeters, long elapsedNanos) {
+        this.routes = routes;
+        this.pickups = pickups;
+        this.passengerCount = passengerCount;
+        this.totalMeters = totalMeters;
+        this.directMeters = directMeters;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * One plan for a run that was planned in consecutive chunks of passengers. Route positions
+     * refer to the chunk each route was planned for.
+     */
+    public static DropRoutePlan combine(List<DropRoutePlan> chunks) {
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        List<int[]> routes = new ArrayList<>();
+        List<double[]> pickups = new ArrayList<>();
+        int passengers = 0;
+        double totalMeters = 0;
+        double directMeters = 0;
+        long elapsedNanos = 0;
+        for (DropRoutePlan chunk : chunks) {
+            routes.addAll(Arrays.asList(chunk.routes));
+            pickups.addAll(Arrays.asList(chunk.pickups));
+            passengers += chunk.passengerCount;
+            totalMeters += chunk.totalMeters;
+            directMeters += chunk.directMeters;
+            elapsedNanos += chunk.elapsedNanos;
+        }
+        return new DropRoutePlan(routes.toArray(new int[0][]), pickups.toArray(new double[0][]),
+                passengers, totalMeters, directMeters, elapsedNanos);
+    }
+
+    /**
+     * Number of routes, which is the number of cabs the plan needs
+     */
+    public int getRouteCount() {
+        return routes.length;
+    }
+
+    /**
+     * Passenger positions of one route in drop-off order
+     */
+    public int[] getRoute(int route) {
+        return routes[route];
+    }
+
+    /**
+     * Latitude of the point where all riders of a route board
+     */
+    public double getPickupLatitude(int route) {
+        return pickups[route][0];
+    }
+
+    public double getPickupLongitude(int route) {
+        return pickups[route][1];
+    }
+
+    /**
+     * Passengers planned, which is the number of cabs a ride each would need
+     */
+    public int getPassengerCount() {
+        return passengerCount;
+    }
+
+    /**
+     * Meters driven over all routes, from the pickup point to the last drop
+     */
+    public double getTotalMeters() {
+        return totalMeters;
+    }
+
+    /**
+     * Meters driven if every passenger went straight home in a cab of their own
+     */
+    public double getDirectMeters() {
+        return directMeters;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cabs=%d (direct %d) distance=%.1fkm (direct %.1fkm) elapsed=%.1fms",
+                routes.length, passengerCount, totalMeters / 1000, directMeters / 1000,
+                elapsedNanos / 1_000_000.0);
+    }
+}
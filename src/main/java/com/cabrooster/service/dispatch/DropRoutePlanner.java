@@ -0,0 +1,444 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Pools passengers that are picked up in the same place into shared cabs and orders their drops.
+ * <p>
+ * Passengers are grouped into square regions by pickup location and every region is solved on
+ * the pool. A region is one pickup point: its riders board together at the middle of their
+ * pickups, which is where the cab is sent and where every route of the region starts. Only
+ * drops are planned as stops, so regions should be no larger than riders are willing to walk. A region starts with a cab per passenger, merges routes by the Clarke-Wright savings
+ * of driving from one home to the next instead of from the pickup point, then moves runs of up
+ * to three drops between routes (or-opt) and reverses parts of routes (2-opt) until nothing
+ * improves or the time budget runs out. No route carries more than the seat capacity and no
+ * passenger rides more than the detour ratio times the direct distance home.
+ */
+public class DropRoutePlanner {
+
+    // Larger regions are split into slices by direction so the distance table stays small
+    private static final int MAX_REGION_PASSENGERS = 1000;
+    // Nearest homes considered for savings and for moving drops between routes
+    private static final int NEIGHBOURS = 30;
+    // Longest run of consecutive drops moved at once
+    private static final int MAX_SEGMENT_LENGTH = 3;
+    private static final double EPSILON = 1e-6;
+
+    private final int seats;
+    private final double maxDetourRatio;
+    private final double regionSizeDegrees;
+    private final Duration timeBudget;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param seats Passengers a cab can carry
+     * @param maxDetourRatio Longest ride a passenger accepts, as a multiple of the direct distance
+     * @param regionSizeMeters Side of the square regions whose riders board at one pickup point
+     * @param timeBudget Time after which improvement stops and the routes so far are returned
+     */
+    public DropRoutePlanner(int seats, double maxDetourRatio, double regionSizeMeters, Duration timeBudget,
+                            ForkJoinPool pool) {
+        if (seats < 1) {
+            throw new IllegalArgumentException("A cab needs at least one seat");
+        }
+        if (maxDetourRatio < 1) {
+            throw new IllegalArgumentException("Detour ratio must be at least 1");
+        }
+        if (regionSizeMeters <= 0) {
+            throw new IllegalArgumentException("Region size must be positive");
+        }
+        this.seats = seats;
+        this.maxDetourRatio = maxDetourRatio;
+        this.regionSizeDegrees = regionSizeMeters / GeoUtils.METERS_PER_DEGREE;
+        this.timeBudget = timeBudget;
+        this.pool = pool;
+    }
+
+    public int getSeats() {
+        return seats;
+    }
+
+    /**
+     * Plan the drop routes of the given passengers
+     * @param distanceFunction Distance in meters between two points
+     * @return Routes of passenger positions, each with the pickup point its riders board at;
+     *         every passenger is on exactly one route
+     */
+    public DropRoutePlan plan(double[] pickupLatitudes, double[] pickupLongitudes,
+                              double[] homeLatitudes, double[] homeLongitudes,
+                              GeoGridIndex.DistanceFunction distanceFunction) {
+        long start = System.nanoTime();
+        long deadline = start + timeBudget.toNanos();
+
+        List<ForkJoinTask<Region>> tasks = new ArrayList<>();
+        for (int[] passengers : groupByRegion(pickupLatitudes, pickupLongitudes, homeLatitudes, homeLongitudes)) {
+            tasks.add(pool.submit(() -> {
+                Region region = new Region(passengers, pickupLatitudes, pickupLongitudes,
+                        homeLatitudes, homeLongitudes, distanceFunction);
+                region.solve(deadline);
+                return region;
+            }));
+        }
+
+        List<int[]> routes = new ArrayList<>();
+        List<double[]> pickups = new ArrayList<>();
+        double totalMeters = 0;
+        double directMeters = 0;
+        for (ForkJoinTask<Region> task : tasks) {
+            Region region = task.join();
+            region.collectRoutes(routes, pickups);
+            totalMeters += region.totalMeters();
+            directMeters += region.directMeters();
+        }
+        return new DropRoutePlan(routes.toArray(new int[0][]), pickups.toArray(new double[0][]),
+                pickupLatitudes.length, totalMeters, directMeters, System.nanoTime() - start);
+    }
+
+    /**
+     * Passenger positions grouped by pickup region, regions in a fixed order
+     */
+    private List<int[]> groupByRegion(double[] pickupLatitudes, double[] pickupLongitudes,
+                                      double[] homeLatitudes, double[] homeLongitudes) {
+        Map<Long, List<Integer>> regions = new TreeMap<>();
+        for (int p = 0; p < pickupLatitudes.length; p++) {
+            int latIndex = (int) Math.floor(pickupLatitudes[p] / regionSizeDegrees);
+            int lonIndex = (int) Math.floor(pickupLongitudes[p] / regionSizeDegrees);
+            long key = ((long) latIndex << 32) | (lonIndex & 0xFFFFFFFFL);
+            regions.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+        }
+
+        List<int[]> groups = new ArrayList<>(regions.size());
+        for (List<Integer> members : regions.values()) {
+            if (members.size() <= MAX_REGION_PASSENGERS) {
+                groups.add(members.stream().mapToInt(Integer::intValue).toArray());
+                continue;
+            }
+            // Slice by the direction of each home from its pickup, which keeps routes intact
+            members.sort((a, b) -> Double.compare(
+                    bearing(pickupLatitudes[a], pickupLongitudes[a], homeLatitudes[a], homeLongitudes[a]),
+                    bearing(pickupLatitudes[b], pickupLongitudes[b], homeLatitudes[b], homeLongitudes[b])));
+            int slices = (members.size() + MAX_REGION_PASSENGERS - 1) / MAX_REGION_PASSENGERS;
+            for (int s = 0; s < slices; s++) {
+                int from = s * members.size() / slices;
+                int to = (s + 1) * members.size() / slices;
+                groups.add(members.subList(from, to).stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return groups;
+    }
+
+    private static double bearing(double fromLat, double fromLon, double toLat, double toLon) {
+        return Math.atan2(toLat - fromLat, (toLon - fromLon) * Math.cos(Math.toRadians(fromLat)));
+    }
+
+    /**
+     * Routes of one region. Passengers and routes are numbered locally; route r starts as
+     * the route of passenger r and has length 0 once it has been merged into another.
+     */
+    private final class Region {
+        private final int[] passengers;
+        private final int size;
+        // Where the region's riders board
+        private final double pickupLat;
+        private final double pickupLon;
+        private final double[][] distances;
+        // From the pickup point to each home
+        private final double[] direct;
+        // Longest ride each passenger accepts
+        private final double[] limit;
+        private final int[][] neighbours;
+        private final int[][] routes;
+        private final int[] lengths;
+        private final double[] meters;
+        private final int[] routeOf;
+        private final int[] candidate;
+        private final int[] remainder;
+
+        Region(int[] passengers, double[] pickupLatitudes, double[] pickupLongitudes,
+               double[] homeLatitudes, double[] homeLongitudes, GeoGridIndex.DistanceFunction distanceFunction) {
+            this.passengers = passengers;
+            this.size = passengers.length;
+
+            double latSum = 0;
+            double lonSum = 0;
+            for (int p : passengers) {
+                latSum += pickupLatitudes[p];
+                lonSum += pickupLongitudes[p];
+            }
+            pickupLat = latSum / size;
+            pickupLon = lonSum / size;
+
+            direct = new double[size];
+            limit = new double[size];
+            distances = new double[size][size];
+            for (int i = 0; i < size; i++) {
+                int p = passengers[i];
+                direct[i] = distanceFunction.distance(pickupLat, pickupLon, homeLatitudes[p], homeLongitudes[p]);
+                limit[i] = direct[i] * maxDetourRatio;
+                for (int j = 0; j < i; j++) {
+                    int q = passengers[j];
+                    distances[i][j] = distanceFunction.distance(homeLatitudes[p], homeLongitudes[p],
+                            homeLatitudes[q], homeLongitudes[q]);
+                    distances[j][i] = distances[i][j];
+                }
+            }
+            neighbours = nearestNeighbours();
+
+            routes = new int[size][seats];
+            lengths = new int[size];
+            meters = new double[size];
+            routeOf = new int[size];
+            for (int i = 0; i < size; i++) {
+                routes[i][0] = i;
+                lengths[i] = 1;
+                meters[i] = direct[i];
+                routeOf[i] = i;
+            }
+            candidate = new int[seats];
+            remainder = new int[seats];
+        }
+
+        void solve(long deadline) {
+            merge();
+            boolean improved = true;
+            while (improved && System.nanoTime() < deadline) {
+                improved = false;
+                for (int r = 0; r < size; r++) {
+                    if (lengths[r] > 2) {
+                        improved |= reverseSegments(r);
+                    }
+                }
+                for (int i = 0; i < size && System.nanoTime() < deadline; i++) {
+                    improved |= moveSegments(i);
+                }
+            }
+        }
+
+        void collectRoutes(List<int[]> out, List<double[]> pickups) {
+            for (int r = 0; r < size; r++) {
+                if (lengths[r] == 0) {
+                    continue;
+                }
+                int[] route = new int[lengths[r]];
+                for (int t = 0; t < route.length; t++) {
+                    route[t] = passengers[routes[r][t]];
+                }
+                out.add(route);
+                pickups.add(new double[] {pickupLat, pickupLon});
+            }
+        }
+
+        double totalMeters() {
+            double total = 0;
+            for (int r = 0; r < size; r++) {
+                total += meters[r];
+            }
+            return total;
+        }
+
+        double directMeters() {
+            double total = 0;
+            for (double d : direct) {
+                total += d;
+            }
+            return total;
+        }
+
+        /**
+         * Up to NEIGHBOURS other passengers of each passenger, closest first
+         */
+        private int[][] nearestNeighbours() {
+            int k = Math.min(NEIGHBOURS, size - 1);
+            int[][] nearest = new int[size][k];
+            for (int i = 0; i < size; i++) {
+                int[] row = nearest[i];
+                int found = 0;
+                for (int j = 0; j < size; j++) {
+                    if (j == i || (found == k && distances[i][j] >= distances[i][row[k - 1]])) {
+                        continue;
+                    }
+                    // Insertion into the sorted row, dropping the farthest when it is full
+                    int at = found < k ? found++ : k - 1;
+                    while (at > 0 && distances[i][row[at - 1]] > distances[i][j]) {
+                        row[at] = row[at - 1];
+                        at--;
+                    }
+                    row[at] = j;
+                }
+            }
+            return nearest;
+        }
+
+        /**
+         * Savings construction: append one route to another, largest saving first
+         */
+        private void merge() {
+            int maxPairs = 2 * size * Math.min(NEIGHBOURS, Math.max(0, size - 1));
+            int[] from = new int[maxPairs];
+            int[] to = new int[maxPairs];
+            double[] saving = new double[maxPairs];
+            int pairs = 0;
+            for (int i = 0; i < size; i++) {
+                for (int j : neighbours[i]) {
+                    // Dropping i and then j instead of driving to j from the pickup
+                    double s = direct[j] - distances[i][j];
+                    if (s > EPSILON) {
+                        from[pairs] = i;
+                        to[pairs] = j;
+                        saving[pairs++] = s;
+                    }
+                }
+            }
+            Integer[] order = new Integer[pairs];
+            for (int s = 0; s < pairs; s++) {
+                order[s] = s;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(saving[b], saving[a]));
+
+            for (int s : order) {
+                int a = routeOf[from[s]];
+                int b = routeOf[to[s]];
+                if (a == b || lengths[a] + lengths[b] > seats
+                        || routes[a][lengths[a] - 1] != from[s] || routes[b][0] != to[s]) {
+                    continue;
+                }
+                int length = lengths[a] + lengths[b];
+                System.arraycopy(routes[a], 0, candidate, 0, lengths[a]);
+                System.arraycopy(routes[b], 0, candidate, lengths[a], lengths[b]);
+                double m = measure(candidate, length);
+                if (Double.isNaN(m)) {
+                    continue;
+                }
+                for (int t = 0; t < lengths[b]; t++) {
+                    routeOf[routes[b][t]] = a;
+                }
+                System.arraycopy(candidate, 0, routes[a], 0, length);
+                lengths[a] = length;
+                meters[a] = m;
+                lengths[b] = 0;
+                meters[b] = 0;
+            }
+        }
+
+        /**
+         * 2-opt: reverse the order of a run of drops within a route
+         */
+        private boolean reverseSegments(int r) {
+            boolean improved = false;
+            int length = lengths[r];
+            for (int a = 0; a < length - 1; a++) {
+                for (int b = a + 1; b < length; b++) {
+                    System.arraycopy(routes[r], 0, candidate, 0, length);
+                    for (int i = a, j = b; i < j; i++, j--) {
+                        int swap = candidate[i];
+                        candidate[i] = candidate[j];
+                        candidate[j] = swap;
+                    }
+                    double m = measure(candidate, length);
+                    if (m < meters[r] - EPSILON) {
+                        System.arraycopy(candidate, 0, routes[r], 0, length);
+                        meters[r] = m;
+                        improved = true;
+                    }
+                }
+            }
+            return improved;
+        }
+
+        /**
+         * Or-opt: move a run of drops starting at passenger i next to one of i's neighbours,
+         * on the same route or another one. Emptying a route saves a cab and is always taken.
+         */
+        private boolean moveSegments(int i) {
+            int r = routeOf[i];
+            int start = indexOf(routes[r], lengths[r], i);
+            for (int segment = 1; segment <= MAX_SEGMENT_LENGTH && start + segment <= lengths[r]; segment++) {
+                int remaining = lengths[r] - segment;
+                System.arraycopy(routes[r], 0, remainder, 0, start);
+                System.arraycopy(routes[r], start + segment, remainder, start, remaining - start);
+                double remainderMeters = remaining == 0 ? 0 : measure(remainder, remaining);
+                if (Double.isNaN(remainderMeters)) {
+                    continue;
+                }
+
+                for (int j : neighbours[i]) {
+                    int s = routeOf[j];
+                    boolean sameRoute = s == r;
+                    if (sameRoute && indexOf(routes[r], lengths[r], j) - start < segment
+                            && indexOf(routes[r], lengths[r], j) >= start) {
+                        // The neighbour is part of the run being moved
+                        continue;
+                    }
+                    if (!sameRoute && lengths[s] + segment > seats) {
+                        continue;
+                    }
+                    int[] base = sameRoute ? remainder : routes[s];
+                    int baseLength = sameRoute ? remaining : lengths[s];
+                    int at = indexOf(base, baseLength, j);
+                    // Before and after the neighbour
+                    for (int insert = at; insert <= at + 1; insert++) {
+                        System.arraycopy(base, 0, candidate, 0, insert);
+                        System.arraycopy(routes[r], start, candidate, insert, segment);
+                        System.arraycopy(base, insert, candidate, insert + segment, baseLength - insert);
+                        double m = measure(candidate, baseLength + segment);
+                        if (Double.isNaN(m)) {
+                            continue;
+                        }
+                        if (sameRoute) {
+                            if (m < meters[r] - EPSILON) {
+                                System.arraycopy(candidate, 0, routes[r], 0, lengths[r]);
+                                meters[r] = m;
+                                return true;
+                            }
+                        } else if (remaining == 0 || remainderMeters + m < meters[r] + meters[s] - EPSILON) {
+                            for (int t = start; t < start + segment; t++) {
+                                routeOf[routes[r][t]] = s;
+                            }
+                            System.arraycopy(candidate, 0, routes[s], 0, baseLength + segment);
+                            lengths[s] = baseLength + segment;
+                            meters[s] = m;
+                            System.arraycopy(remainder, 0, routes[r], 0, remaining);
+                            lengths[r] = remaining;
+                            meters[r] = remainderMeters;
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Meters from the pickup point to the last drop, or NaN if a passenger rides too far
+         */
+        private double measure(int[] route, int length) {
+            double ride = direct[route[0]];
+            for (int t = 1; t < length; t++) {
+                ride += distances[route[t - 1]][route[t]];
+                if (ride > limit[route[t]] + EPSILON) {
+                    return Double.NaN;
+                }
+            }
+            return ride;
+        }
+    }
+
+    private static int indexOf(int[] route, int length, int passenger) {
+        for (int t = 0; t < length; t++) {
+            if (route[t] == passenger) {
+                return t;
+            }
+        }
+        return -1;
+    }
+}
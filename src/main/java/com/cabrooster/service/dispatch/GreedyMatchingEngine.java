@@ -0,0 +1,59 @@
+package com.cabrooster.service.dispatch;
+
+import java.util.Arrays;
+
+/**
+ * Gives each passenger, in list order, the closest cab that is still free.
+ * Ties go to the cab that comes first in the cab list.
+ */
+public class GreedyMatchingEngine implements MatchingEngine {
+
+    public static final String NAME = "greedy";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public MatchingResult match(CandidateGraph graph) {
+        long start = System.nanoTime();
+        int[] cabForPassenger = new int[graph.getPassengerCount()];
+        Arrays.fill(cabForPassenger, MatchingResult.UNMATCHED);
+
+        fill(graph, cabForPassenger, new boolean[graph.getCabCount()], new boolean[graph.getPassengerCount()]);
+
+        return new MatchingResult(NAME, cabForPassenger, graph, false, System.nanoTime() - start);
+    }
+
+    /**
+     * Greedily match every passenger that is not yet resolved, skipping cabs already taken
+     */
+    static void fill(CandidateGraph graph, int[] cabForPassenger, boolean[] cabTaken, boolean[] resolved) {
+        for (int p = 0; p < graph.getPassengerCount(); p++) {
+            if (resolved[p]) {
+                continue;
+            }
+
+            int bestCab = MatchingResult.UNMATCHED;
+            double minCost = Double.MAX_VALUE;
+            for (int e = graph.rowStart(p); e < graph.rowEnd(p); e++) {
+                int cab = graph.edgeCab(e);
+                double cost = graph.edgeCost(e);
+                if (cabTaken[cab]) {
+                    continue;
+                }
+                if (cost < minCost || (cost == minCost && cab < bestCab)) {
+                    minCost = cost;
+                    bestCab = cab;
+                }
+            }
+
+            if (bestCab != MatchingResult.UNMATCHED) {
+                cabTaken[bestCab] = true;
+                cabForPassenger[p] = bestCab;
+            }
+            resolved[p] = true;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.cabrooster.service.dispatch;
+
+/**
+ * Strategy that assigns at most one cab to each passenger over a candidate graph
+ */
+public interface MatchingEngine {
+
+    /**
+     * Short name used in configuration and run reports
+     */
+    String getName();
+
+    /**
+     * Match passengers to cabs. Every match must be an edge of the graph and
+     * no cab may be used twice.
+     */
+    MatchingResult match(CandidateGraph graph);
+
+    /**
+     * Match as {@link #match(CandidateGraph)}, giving up on a better result once the
+     * {@link System#nanoTime()} deadline has passed. Engines without a time budget ignore it.
+     */
+    default MatchingResult match(CandidateGraph graph, long deadline) {
+        return match(graph);
+    }
+}
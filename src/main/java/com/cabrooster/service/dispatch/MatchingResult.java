@@ -0,0 +1,128 @@
+package com.cabrooster.service.dispatch;
+
+import java.util.List;
+
+/**
+ * Outcome of a matching run: the cab chosen for each passenger plus summary statistics
+ */
+public final class MatchingResult {
+
+    public static final int UNMATCHED = -1;
+
+    private final String engine;
+    private final int[] cabForPassenger;
+    private final int matchedCount;
+    private final double totalCost;
+    private final boolean fallbackUsed;
+    private final long elapsedNanos;
+
+    public MatchingResult(String engine, int[] cabForPassenger, CandidateGraph graph,
+                          boolean fallbackUsed, long elapsedNanos) {
+        this.engine = engine;
+        this.cabForPassenger = cabForPassenger;
+        this.fallbackUsed = fallbackUsed;
+        this.elapsedNanos = elapsedNanos;
+
+        int matched = 0;
+        double cost = 0;
+        for (int p = 0; p < cabForPassenger.length; p++) {
+            if (cabForPassenger[p] != UNMATCHED) {
+                matched++;
+                cost += graph.cost(p, cabForPassenger[p]);
+            }
+        }
+        this.matchedCount = matched;
+        this.totalCost = cost;
+    }
+
+    private MatchingResult(String engine, int[] cabForPassenger, int matchedCount, double totalCost,
+                           boolean fallbackUsed, long elapsedNanos) {
+        this.engine = engine;
+        this.cabForPassenger = cabForPassenger;
+        this.matchedCount = matchedCount;
+        this.totalCost = totalCost;
+        this.fallbackUsed = fallbackUsed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * One result for a run that was matched in consecutive chunks of passengers. Passengers keep
+     * their chunk order; cab positions refer to the cab list each chunk was matched against.
+     */
+    public static MatchingResult combine(List<MatchingResult> chunks) {
+        if (chunks.size() == 1) {
+            return chunks.get(0);
+        }
+        int passengers = 0;
+        for (MatchingResult chunk : chunks) {
+            passengers += chunk.cabForPassenger.length;
+        }
+        int[] cabForPassenger = new int[passengers];
+        String engine = chunks.isEmpty() ? "none" : chunks.get(0).engine;
+        int matched = 0;
+        double cost = 0;
+        boolean fallbackUsed = false;
+        long elapsedNanos = 0;
+        int offset = 0;
+        for (MatchingResult chunk : chunks) {
+            System.arraycopy(chunk.cabForPassenger, 0, cabForPassenger, offset, chunk.cabForPassenger.length);
+            offset += chunk.cabForPassenger.length;
+            matched += chunk.matchedCount;
+            cost += chunk.totalCost;
+            fallbackUsed |= chunk.fallbackUsed;
+            elapsedNanos += chunk.elapsedNanos;
+        }
+        return new MatchingResult(engine, cabForPassenger, matched, cost, fallbackUsed, elapsedNanos);
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Cab position matched to the given passenger, or {@link #UNMATCHED}
+     */
+    public int getCabForPassenger(int passenger) {
+        return cabForPassenger[passenger];
+    }
+
+    public int getPassengerCount() {
+        return cabForPassenger.length;
+    }
+
+    public int getMatchedCount() {
+        return matchedCount;
+    }
+
+    /**
+     * Share of passengers that were matched, between 0 and 1
+     */
+    public double getMatchRate() {
+        return cabForPassenger.length == 0 ? 1.0 : (double) matchedCount / cabForPassenger.length;
+    }
+
+    /**
+     * Sum of the edge costs (pickup distance in meters) of all matches
+     */
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    /**
+     * Whether the engine ran out of time and finished with the greedy fallback
+     */
+    public boolean isFallbackUsed() {
+        return fallbackUsed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("engine=%s matched=%d/%d (%.1f%%) totalDistance=%.1fm fallback=%s elapsed=%.1fms",
+                engine, matchedCount, cabForPassenger.length, getMatchRate() * 100, totalCost,
+                fallbackUsed, elapsedNanos / 1_000_000.0);
+    }
+}
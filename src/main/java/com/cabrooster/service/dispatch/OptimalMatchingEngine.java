@@ -0,0 +1,401 @@
+package com.cabrooster.service.dispatch;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Minimum-cost maximum matching over the sparse candidate graph.
+ * <p>
+ * The graph is split into connected components, which are independent of each other.
+ * Each component is solved with successive shortest augmenting paths (a sparse
+ * Hungarian method): Dijkstra over reduced costs finds the cheapest way to add one
+ * more match, so the final matching serves as many passengers as possible and, among
+ * those matchings, has the lowest total pickup distance.
+ * <p>
+ * If the time budget runs out, the components solved so far are kept and the rest
+ * are matched greedily.
+ */
+public class OptimalMatchingEngine implements MatchingEngine {
+
+    public static final String NAME = "optimal";
+
+    // How many heap pops happen between two deadline checks
+    private static final int DEADLINE_CHECK_INTERVAL = 4096;
+
+    private final long timeBudgetNanos;
+
+    public OptimalMatchingEngine(Duration timeBudget) {
+        this.timeBudgetNanos = timeBudget.toNanos();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public MatchingResult match(CandidateGraph graph) {
+        return match(graph, Long.MAX_VALUE);
+    }
+
+    @Override
+    public MatchingResult match(CandidateGraph graph, long deadline) {
+        long start = System.nanoTime();
+        // The caller's deadline or this engine's own budget, whichever ends first
+        deadline = Math.min(deadline, start + timeBudgetNanos);
+
+        int passengerCount = graph.getPassengerCount();
+        int[] cabForPassenger = new int[passengerCount];
+        Arrays.fill(cabForPassenger, MatchingResult.UNMATCHED);
+        boolean[] cabTaken = new boolean[graph.getCabCount()];
+        boolean[] resolved = new boolean[passengerCount];
+
+        Components components = Components.of(graph);
+        ComponentSolver solver = new ComponentSolver(graph, cabForPassenger, cabTaken, resolved);
+
+        boolean fallbackUsed = false;
+        for (int component = 0; component < components.count; component++) {
+            if (!solver.solve(components, component, deadline)) {
+                fallbackUsed = true;
+                break;
+            }
+        }
+
+        if (fallbackUsed) {
+            GreedyMatchingEngine.fill(graph, cabForPassenger, cabTaken, resolved);
+        }
+
+        return new MatchingResult(NAME, cabForPassenger, graph, fallbackUsed, System.nanoTime() - start);
+    }
+
+    /**
+     * Connected components of the candidate graph, ordered by their first passenger
+     */
+    private static final class Components {
+        private int count;
+        private int[] passengerStart;
+        private int[] passengers;
+        private int[] cabStart;
+        private int[] cabs;
+
+        static Components of(CandidateGraph graph) {
+            int passengerCount = graph.getPassengerCount();
+            int cabCount = graph.getCabCount();
+
+            // Union-find over passenger nodes [0, P) and cab nodes [P, P + C)
+            int[] parent = new int[passengerCount + cabCount];
+            for (int i = 0; i < parent.length; i++) {
+                parent[i] = i;
+            }
+            for (int p = 0; p < passengerCount; p++) {
+                for (int e = graph.rowStart(p); e < graph.rowEnd(p); e++) {
+                    union(parent, p, passengerCount + graph.edgeCab(e));
+                }
+            }
+
+            // Number the components in order of their first passenger
+            int[] componentOfRoot = new int[parent.length];
+            Arrays.fill(componentOfRoot, -1);
+            Components components = new Components();
+            int[] passengerComponent = new int[passengerCount];
+            for (int p = 0; p < passengerCount; p++) {
+                if (graph.rowStart(p) == graph.rowEnd(p)) {
+                    passengerComponent[p] = -1;
+                    continue;
+                }
+                int root = find(parent, p);
+                if (componentOfRoot[root] < 0) {
+                    componentOfRoot[root] = components.count++;
+                }
+                passengerComponent[p] = componentOfRoot[root];
+            }
+            int[] cabComponent = new int[cabCount];
+            for (int c = 0; c < cabCount; c++) {
+                cabComponent[c] = componentOfRoot[find(parent, passengerCount + c)];
+            }
+
+            components.passengerStart = new int[components.count + 1];
+            components.passengers = group(passengerComponent, components.count, components.passengerStart);
+            components.cabStart = new int[components.count + 1];
+            components.cabs = group(cabComponent, components.count, components.cabStart);
+            return components;
+        }
+
+        private static int[] group(int[] componentOf, int count, int[] start) {
+            for (int component : componentOf) {
+                if (component >= 0) {
+                    start[component + 1]++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                start[i + 1] += start[i];
+            }
+            int[] members = new int[start[count]];
+            int[] next = Arrays.copyOf(start, count);
+            for (int i = 0; i < componentOf.length; i++) {
+                if (componentOf[i] >= 0) {
+                    members[next[componentOf[i]]++] = i;
+                }
+            }
+            return members;
+        }
+
+        private static int find(int[] parent, int node) {
+            while (parent[node] != node) {
+                parent[node] = parent[parent[node]];
+                node = parent[node];
+            }
+            return node;
+        }
+
+        private static void union(int[] parent, int a, int b) {
+            int rootA = find(parent, a);
+            int rootB = find(parent, b);
+            if (rootA != rootB) {
+                parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+            }
+        }
+    }
+
+    /**
+     * Successive shortest path solver for one component at a time.
+     * Local nodes are the component's passengers [0, np) followed by its cabs [np, np + nc).
+     */
+    private static final class ComponentSolver {
+        private final CandidateGraph graph;
+        private final int[] cabForPassenger;
+        private final boolean[] cabTaken;
+        private final boolean[] resolved;
+        private final int[] localCab;
+
+        ComponentSolver(CandidateGraph graph, int[] cabForPassenger, boolean[] cabTaken, boolean[] resolved) {
+            this.graph = graph;
+            this.cabForPassenger = cabForPassenger;
+            this.cabTaken = cabTaken;
+            this.resolved = resolved;
+            this.localCab = new int[graph.getCabCount()];
+        }
+
+        /**
+         * @return false if the deadline passed before the component was solved
+         */
+        boolean solve(Components components, int component, long deadline) {
+            int passengerFrom = components.passengerStart[component];
+            int np = components.passengerStart[component + 1] - passengerFrom;
+            int cabFrom = components.cabStart[component];
+            int nc = components.cabStart[component + 1] - cabFrom;
+            for (int c = 0; c < nc; c++) {
+                localCab[components.cabs[cabFrom + c]] = c;
+            }
+
+            int n = np + nc;
+            int[] matchP = new int[np];
+            int[] matchC = new int[nc];
+            double[] matchCost = new double[np];
+            Arrays.fill(matchP, -1);
+            Arrays.fill(matchC, -1);
+
+            double[] potential = new double[n];
+            double[] dist = new double[n];
+            int[] prev = new int[n];
+            double[] prevCost = new double[n];
+            boolean[] settled = new boolean[n];
+            IndexedHeap heap = new IndexedHeap(dist);
+
+            int freePassengers = np;
+            int pops = 0;
+            while (freePassengers > 0) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+
+                Arrays.fill(dist, Double.POSITIVE_INFINITY);
+                Arrays.fill(settled, false);
+                heap.clear();
+                for (int p = 0; p < np; p++) {
+                    if (matchP[p] < 0) {
+                        dist[p] = 0;
+                        prev[p] = -1;
+                        heap.push(p);
+                    }
+                }
+
+                // Dijkstra over reduced costs until the first free cab is reached
+                int target = -1;
+                while (!heap.isEmpty()) {
+                    if (++pops % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                        return false;
+                    }
+                    int u = heap.pop();
+                    settled[u] = true;
+
+                    if (u >= np) {
+                        int c = u - np;
+                        if (matchC[c] < 0) {
+                            target = c;
+                            break;
+                        }
+                        // Matched cab: the only residual edge leads back to its passenger
+                        int p = matchC[c];
+                        double reduced = potential[u] - potential[p] - matchCost[p];
+                        relax(heap, dist, prev, prevCost, settled, p, dist[u] + Math.max(reduced, 0), u, 0);
+                    } else {
+                        int globalP = components.passengers[passengerFrom + u];
+                        for (int e = graph.rowStart(globalP); e < graph.rowEnd(globalP); e++) {
+                            int c = localCab[graph.edgeCab(e)];
+                            if (c == matchP[u]) {
+                                continue;
+                            }
+                            int v = np + c;
+                            double cost = graph.edgeCost(e);
+                            double reduced = cost + potential[u] - potential[v];
+                            relax(heap, dist, prev, prevCost, settled, v, dist[u] + Math.max(reduced, 0), u, cost);
+                        }
+                    }
+                }
+
+                if (target < 0) {
+                    // No augmenting path left: the matching is maximum
+                    break;
+                }
+
+                // Keep reduced costs non-negative for the next round
+                double targetDist = dist[np + target];
+                for (int v = 0; v < n; v++) {
+                    potential[v] += Math.min(dist[v], targetDist);
+                }
+
+                // Flip the matched/unmatched edges along the path
+                int c = target;
+                while (true) {
+                    int p = prev[np + c];
+                    int nextCab = matchP[p];
+                    matchP[p] = c;
+                    matchC[c] = p;
+                    matchCost[p] = prevCost[np + c];
+                    if (nextCab < 0) {
+                        freePassengers--;
+                        break;
+                    }
+                    c = nextCab;
+                }
+            }
+
+            for (int p = 0; p < np; p++) {
+                int globalP = components.passengers[passengerFrom + p];
+                if (matchP[p] >= 0) {
+                    int globalCab = components.cabs[cabFrom + matchP[p]];
+                    cabForPassenger[globalP] = globalCab;
+                    cabTaken[globalCab] = true;
+                }
+                resolved[globalP] = true;
+            }
+            return true;
+        }
+
+        private static void relax(IndexedHeap heap, double[] dist, int[] prev, double[] prevCost,
+                                  boolean[] settled, int v, double candidate, int from, double cost) {
+            if (!settled[v] && candidate < dist[v]) {
+                dist[v] = candidate;
+                prev[v] = from;
+                prevCost[v] = cost;
+                heap.pushOrDecrease(v);
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of node ids keyed by an external distance array.
+     * Ties are broken by node id so runs are deterministic.
+     */
+    static final class IndexedHeap {
+        private final double[] key;
+        private final int[] heap;
+        private final int[] position;
+        private int size;
+
+        IndexedHeap(double[] key) {
+            this.key = key;
+            this.heap = new int[key.length];
+            this.position = new int[key.length];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                position[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        void push(int node) {
+            heap[size] = node;
+            position[node] = size;
+            siftUp(size++);
+        }
+
+        void pushOrDecrease(int node) {
+            if (position[node] < 0) {
+                push(node);
+            } else {
+                siftUp(position[node]);
+            }
+        }
+
+        int pop() {
+            int top = heap[0];
+            position[top] = -1;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private boolean less(int a, int b) {
+            return key[a] < key[b] || (key[a] == key[b] && a < b);
+        }
+
+        private void siftUp(int i) {
+            int node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(node, heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            position[node] = i;
+        }
+
+        private void siftDown(int i) {
+            int node = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], node)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            position[node] = i;
+        }
+    }
+}
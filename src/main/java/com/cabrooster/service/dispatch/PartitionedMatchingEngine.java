@@ -0,0 +1,140 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.util.GeoUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits passengers into square geographic regions and matches every region in
+ * parallel with the delegate engine. All regions share one time budget, counted from
+ * the start of the run, however many of them wait for a thread.
+ * <p>
+ * Cabs near a region border can be claimed by more than one region. Such a cab goes
+ * to the cheapest claim (the lower passenger position wins ties), so the outcome does
+ * not depend on which region finished first. Passengers that lose a claim are then
+ * matched greedily against the cabs nobody took.
+ */
+public class PartitionedMatchingEngine implements MatchingEngine {
+
+    private final MatchingEngine delegate;
+    private final ForkJoinPool pool;
+    private final double regionSizeDegrees;
+    private final long timeBudgetNanos;
+
+    public PartitionedMatchingEngine(MatchingEngine delegate, ForkJoinPool pool, double regionSizeMeters,
+                                     Duration timeBudget) {
+        if (regionSizeMeters <= 0) {
+            throw new IllegalArgumentException("Region size must be positive");
+        }
+        this.delegate = delegate;
+        this.pool = pool;
+        this.regionSizeDegrees = regionSizeMeters / GeoUtils.METERS_PER_DEGREE;
+        this.timeBudgetNanos = timeBudget.toNanos();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName() + "-partitioned";
+    }
+
+    @Override
+    public MatchingResult match(CandidateGraph graph) {
+        return match(graph, Long.MAX_VALUE);
+    }
+
+    @Override
+    public MatchingResult match(CandidateGraph graph, long deadline) {
+        long start = System.nanoTime();
+        long runDeadline = Math.min(deadline, start + timeBudgetNanos);
+        if (!graph.hasPassengerLocations()) {
+            return delegate.match(graph, runDeadline);
+        }
+
+        // Solve every region on the pool
+        List<ForkJoinTask<RegionResult>> tasks = new ArrayList<>();
+        for (int[] passengers : groupByRegion(graph)) {
+            tasks.add(pool.submit(() -> {
+                CandidateGraph.Subgraph region = graph.subgraph(passengers);
+                return new RegionResult(region, delegate.match(region.graph(), runDeadline));
+            }));
+        }
+
+        // Every cab goes to its cheapest claim across regions
+        int[] claimant = new int[graph.getCabCount()];
+        double[] claimCost = new double[graph.getCabCount()];
+        Arrays.fill(claimant, MatchingResult.UNMATCHED);
+        boolean fallbackUsed = false;
+        for (ForkJoinTask<RegionResult> task : tasks) {
+            RegionResult region = task.join();
+            CandidateGraph.Subgraph subgraph = region.subgraph();
+            fallbackUsed |= region.result().isFallbackUsed();
+            for (int local = 0; local < subgraph.passengers().length; local++) {
+                int localCab = region.result().getCabForPassenger(local);
+                if (localCab == MatchingResult.UNMATCHED) {
+                    continue;
+                }
+                int passenger = subgraph.passengers()[local];
+                int cab = subgraph.cabs()[localCab];
+                double cost = subgraph.graph().cost(local, localCab);
+                if (claimant[cab] == MatchingResult.UNMATCHED || cost < claimCost[cab]
+                        || (cost == claimCost[cab] && passenger < claimant[cab])) {
+                    claimant[cab] = passenger;
+                    claimCost[cab] = cost;
+                }
+            }
+        }
+
+        int[] cabForPassenger = new int[graph.getPassengerCount()];
+        Arrays.fill(cabForPassenger, MatchingResult.UNMATCHED);
+        boolean[] cabTaken = new boolean[graph.getCabCount()];
+        boolean[] resolved = new boolean[graph.getPassengerCount()];
+        for (int cab = 0; cab < claimant.length; cab++) {
+            if (claimant[cab] != MatchingResult.UNMATCHED) {
+                cabForPassenger[claimant[cab]] = cab;
+                cabTaken[cab] = true;
+                resolved[claimant[cab]] = true;
+            }
+        }
+
+        // Passengers that lost a border conflict get whatever is left nearby
+        GreedyMatchingEngine.fill(graph, cabForPassenger, cabTaken, resolved);
+
+        return new MatchingResult(getName(), cabForPassenger, graph, fallbackUsed, System.nanoTime() - start);
+    }
+
+    /**
+     * Passenger positions grouped by region, regions in a fixed order. A degree of longitude
+     * shrinks towards the poles, so each row of regions is widened by the cosine of its
+     * latitude to keep the regions square on the ground.
+     */
+    private List<int[]> groupByRegion(CandidateGraph graph) {
+        Map<Long, List<Integer>> regions = new TreeMap<>();
+        for (int p = 0; p < graph.getPassengerCount(); p++) {
+            if (graph.rowStart(p) == graph.rowEnd(p)) {
+                continue;
+            }
+            int latIndex = (int) Math.floor(graph.getPassengerLatitude(p) / regionSizeDegrees);
+            double rowLatitude = (latIndex + 0.5) * regionSizeDegrees;
+            double regionWidthDegrees = regionSizeDegrees / Math.max(Math.cos(Math.toRadians(rowLatitude)), 1e-6);
+            int lonIndex = (int) Math.floor(graph.getPassengerLongitude(p) / regionWidthDegrees);
+            long key = ((long) latIndex << 32) | (lonIndex & 0xFFFFFFFFL);
+            regions.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+        }
+
+        List<int[]> groups = new ArrayList<>(regions.size());
+        for (List<Integer> members : regions.values()) {
+            groups.add(members.stream().mapToInt(Integer::intValue).toArray());
+        }
+        return groups;
+    }
+
+    private record RegionResult(CandidateGraph.Subgraph subgraph, MatchingResult result) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.cabrooster.service.dispatch;
+
+/**
+ * Published when a passenger asks for a ride
+ * @param passengerId Passenger that needs a ride
+ * @param requestedAtNanos {@link System#nanoTime()} when the request was accepted
+ */
+public record RideRequestedEvent(Long passengerId, long requestedAtNanos) {
+}
@@ -0,0 +1,12 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.model.RideAssignment;
+
+import java.util.List;
+
+/**
+ * Published when rides are assigned, before the assigning transaction commits
+ * @param assignments Saved assignments
+ */
+public record RidesAssignedEvent(List<RideAssignment> assignments) {
+}
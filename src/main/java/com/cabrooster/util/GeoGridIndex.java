@@ -0,0 +1,214 @@
+package com.cabrooster.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-memory spatial index that buckets items into a uniform latitude/longitude grid.
+ * Lookups only visit the query cell and the neighbouring cells that can contain an
+ * item within the search radius, and items can be removed in O(1).
+ */
+public class GeoGridIndex<T> {
+
+    // Lower bound for cos(latitude) so cells near the poles stay searchable
+    private static final double MIN_COS_LATITUDE = 0.01;
+
+    private final double cellSizeDegrees;
+    private final int lonCellCount;
+    private final ToLongFunction<T> idFunction;
+    private final Map<Long, List<Entry<T>>> cells = new HashMap<>();
+    private final Map<Long, Entry<T>> entriesById = new HashMap<>();
+    private int nextOrdinal;
+
+    /**
+     * @param cellSizeMeters Edge length of a grid cell, usually the dispatch search radius
+     * @param idFunction Extracts the unique id used for removal
+     */
+    public GeoGridIndex(double cellSizeMeters, ToLongFunction<T> idFunction) {
+        if (cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSizeDegrees = cellSizeMeters / GeoUtils.METERS_PER_DEGREE;
+        this.lonCellCount = (int) Math.ceil(360.0 / cellSizeDegrees);
+        this.idFunction = idFunction;
+    }
+
+    /**
+     * Add an item at the given position. Items added earlier win distance ties.
+     */
+    public void add(T item, double latitude, double longitude) {
+        long id = idFunction.applyAsLong(item);
+        remove(id);
+
+        Entry<T> entry = new Entry<>(item, latitude, longitude, nextOrdinal++);
+        List<Entry<T>> cell = cells.computeIfAbsent(
+                cellKey(latIndex(latitude), lonIndex(longitude)), key -> new ArrayList<>());
+        entry.cell = cell;
+        entry.position = cell.size();
+        cell.add(entry);
+        entriesById.put(id, entry);
+    }
+
+    /**
+     * Remove the item with the given id, if present
+     * @return true if an item was removed
+     */
+    public boolean remove(long id) {
+        Entry<T> entry = entriesById.remove(id);
+        if (entry == null) {
+            return false;
+        }
+
+        // Swap the last entry of the cell into the freed slot
+        List<Entry<T>> cell = entry.cell;
+        Entry<T> last = cell.remove(cell.size() - 1);
+        if (last != entry) {
+            last.position = entry.position;
+            cell.set(entry.position, last);
+        }
+        return true;
+    }
+
+    /**
+     * Find the item closest to the given location within the maximum distance
+     */
+    public Optional<T> nearest(double latitude, double longitude, double maxDistanceMeters,
+                               DistanceFunction distanceFunction) {
+        NearestVisitor<T> nearest = new NearestVisitor<>();
+        visitEntriesWithin(latitude, longitude, maxDistanceMeters, distanceFunction, nearest);
+        return nearest.best == null ? Optional.empty() : Optional.of(nearest.best.item);
+    }
+
+    /**
+     * Visit every item within the maximum distance of the given location
+     */
+    public void forEachWithin(double latitude, double longitude, double maxDistanceMeters,
+                              DistanceFunction distanceFunction, Visitor<T> visitor) {
+        visitEntriesWithin(latitude, longitude, maxDistanceMeters, distanceFunction,
+                (entry, distance) -> visitor.visit(entry.item, distance));
+    }
+
+    private void visitEntriesWithin(double latitude, double longitude, double maxDistanceMeters,
+                                    DistanceFunction distanceFunction, Visitor<Entry<T>> visitor) {
+        int latCenter = latIndex(latitude);
+        double searchRadius = maxDistanceMeters / distanceFunction.greatCircleLowerBound();
+        int latSpan = latSpan(searchRadius);
+        int lonSpan = lonSpan(latitude, searchRadius);
+
+        // Near the poles the span can cover every longitude column, so visit each once
+        int lonFrom = lonIndex(longitude) - lonSpan;
+        int lonCount = 2 * lonSpan + 1;
+        if (lonCount >= lonCellCount) {
+            lonFrom = 0;
+            lonCount = lonCellCount;
+        }
+
+        for (int dLat = -latSpan; dLat <= latSpan; dLat++) {
+            for (int i = 0; i < lonCount; i++) {
+                List<Entry<T>> cell = cells.get(cellKey(latCenter + dLat, wrapLon(lonFrom + i)));
+                if (cell == null) {
+                    continue;
+                }
+                for (Entry<T> entry : cell) {
+                    double distance = distanceFunction.distance(
+                            latitude, longitude, entry.latitude, entry.longitude);
+                    if (distance <= maxDistanceMeters) {
+                        visitor.visit(entry, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entriesById.size();
+    }
+
+    public boolean isEmpty() {
+        return entriesById.isEmpty();
+    }
+
+    private int latSpan(double radiusMeters) {
+        return (int) Math.ceil(radiusMeters / GeoUtils.METERS_PER_DEGREE / cellSizeDegrees);
+    }
+
+    private int lonSpan(double latitude, double radiusMeters) {
+        double cosLat = Math.max(Math.cos(Math.toRadians(latitude)), MIN_COS_LATITUDE);
+        int span = (int) Math.ceil(radiusMeters / (GeoUtils.METERS_PER_DEGREE * cosLat) / cellSizeDegrees);
+        return Math.min(span, lonCellCount);
+    }
+
+    private int latIndex(double latitude) {
+        return (int) Math.floor((latitude + 90.0) / cellSizeDegrees);
+    }
+
+    private int lonIndex(double longitude) {
+        return wrapLon((int) Math.floor((longitude + 180.0) / cellSizeDegrees));
+    }
+
+    private int wrapLon(int lonIndex) {
+        return Math.floorMod(lonIndex, lonCellCount);
+    }
+
+    private static long cellKey(int latIndex, int lonIndex) {
+        return ((long) latIndex << 32) | (lonIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Distance between two points in meters
+     */
+    @FunctionalInterface
+    public interface DistanceFunction {
+        double distance(double lat1, double lon1, double lat2, double lon2);
+
+        /**
+         * Smallest ratio of this distance to the spherical great-circle distance.
+         * Spatial indexes widen their search by it so shorter metrics are not pruned away.
+         */
+        default double greatCircleLowerBound() {
+            return 1.0;
+        }
+    }
+
+    /**
+     * Callback for items found by a range query
+     */
+    @FunctionalInterface
+    public interface Visitor<T> {
+        void visit(T item, double distanceMeters);
+    }
+
+    private static final class NearestVisitor<T> implements Visitor<Entry<T>> {
+        private Entry<T> best;
+        private double minDistance = Double.MAX_VALUE;
+
+        @Override
+        public void visit(Entry<T> entry, double distanceMeters) {
+            if (distanceMeters < minDistance
+                    || (distanceMeters == minDistance && entry.ordinal < best.ordinal)) {
+                minDistance = distanceMeters;
+                best = entry;
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final double latitude;
+        private final double longitude;
+        private final int ordinal;
+        private List<Entry<T>> cell;
+        private int position;
+
+        private Entry(T item, double latitude, double longitude, int ordinal) {
+            this.item = item;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.ordinal = ordinal;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.cabrooster.util;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Bucketed KD-tree over points on the earth's surface, keyed by long ids.
+ * <p>
+ * Points are stored as unit vectors so distances do not break at the antimeridian
+ * or near the poles. Points can be added, moved and removed one at a time; a full
+ * bucket is split at the middle of its widest axis. Not thread-safe.
+ */
+public class GeoKdTree {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000.0;
+    private static final int BUCKET_SIZE = 16;
+    private static final int NO_SLOT = -1;
+
+    private final LongIntHashMap slots = new LongIntHashMap(1024, NO_SLOT);
+    private final ThreadLocal<Search> searches = ThreadLocal.withInitial(Search::new);
+
+    // One slot per point
+    private long[] ids = new long[1024];
+    private double[] latitudes = new double[1024];
+    private double[] longitudes = new double[1024];
+    private double[][] coords = new double[3][1024];
+    private Node[] leafOf = new Node[1024];
+    private int[] positionInLeaf = new int[1024];
+    private int size;
+
+    private Node root = new Node();
+
+    /**
+     * Add a point or move an existing one
+     */
+    public void put(long id, double latitude, double longitude) {
+        int slot = slots.get(id);
+        if (slot == NO_SLOT) {
+            if (size == ids.length) {
+                grow();
+            }
+            slot = size++;
+            slots.put(id, slot);
+            ids[slot] = id;
+        } else {
+            detach(slot);
+        }
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        coords[0][slot] = Math.cos(lat) * Math.cos(lon);
+        coords[1][slot] = Math.cos(lat) * Math.sin(lon);
+        coords[2][slot] = Math.sin(lat);
+        attach(slot);
+    }
+
+    public void remove(long id) {
+        int slot = slots.remove(id);
+        if (slot == NO_SLOT) {
+            return;
+        }
+        detach(slot);
+
+        // Move the last point into the freed slot
+        int last = --size;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            latitudes[slot] = latitudes[last];
+            longitudes[slot] = longitudes[last];
+            for (double[] axis : coords) {
+                axis[slot] = axis[last];
+            }
+            leafOf[slot] = leafOf[last];
+            positionInLeaf[slot] = positionInLeaf[last];
+            leafOf[slot].points[positionInLeaf[slot]] = slot;
+            slots.put(ids[slot], slot);
+        }
+        leafOf[last] = null;
+    }
+
+    public boolean contains(long id) {
+        return slots.containsKey(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the k nearest points within a radius, closest first. Does not allocate.
+     * @param distanceFunction Distance in meters
+     * @param filter Ids to consider, or null for all
+     * @param outIds Receives the ids of the nearest points, at least k long
+     * @param outDistances Receives their distances in meters, at least k long
+     * @return Number of points found
+     */
+    public int nearest(double latitude, double longitude, int k, double maxDistanceMeters,
+                       GeoGridIndex.DistanceFunction distanceFunction, LongPredicate filter,
+                       long[] outIds, double[] outDistances) {
+        if (k <= 0 || size == 0) {
+            return 0;
+        }
+        Search search = searches.get();
+        search.reset(latitude, longitude, k, maxDistanceMeters, distanceFunction, filter);
+        search(root, search);
+
+        // Pop the max-heap from the back so results come out closest first
+        int found = search.count;
+        for (int i = found - 1; i >= 0; i--) {
+            outIds[i] = ids[search.heapSlots[0]];
+            outDistances[i] = search.heapDistances[0];
+            search.pop();
+        }
+        search.filter = null;
+        search.distanceFunction = null;
+        return found;
+    }
+
+    /**
+     * Nearest point within a radius. Does not allocate.
+     * @return Its id, or notFound if there is none
+     */
+    public long nearest(double latitude, double longitude, double maxDistanceMeters,
+                        GeoGridIndex.DistanceFunction distanceFunction, LongPredicate filter, long notFound) {
+        if (size == 0) {
+            return notFound;
+        }
+        Search search = searches.get();
+        search.reset(latitude, longitude, 1, maxDistanceMeters, distanceFunction, filter);
+        search(root, search);
+        long nearest = search.count > 0 ? ids[search.heapSlots[0]] : notFound;
+        search.filter = null;
+        search.distanceFunction = null;
+        return nearest;
+    }
+
+    private void search(Node node, Search search) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.count; i++) {
+                int slot = node.points[i];
+                if (search.filter != null && !search.filter.test(ids[slot])) {
+                    continue;
+                }
+                double distance = search.distanceFunction.distance(
+                        search.latitude, search.longitude, latitudes[slot], longitudes[slot]);
+                if (distance <= search.limit()) {
+                    search.offer(slot, distance);
+                }
+            }
+            return;
+        }
+
+        double offset = search.coords[node.axis] - node.split;
+        Node near = offset < 0 ? node.left : node.right;
+        Node far = offset < 0 ? node.right : node.left;
+        search(near, search);
+        // Every point across the split plane is at least this far away
+        if (chordToMeters(Math.abs(offset)) * search.distanceFunction.greatCircleLowerBound() <= search.limit()) {
+            search(far, search);
+        }
+    }
+
+    private void attach(int slot) {
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = coords[node.axis][slot] < node.split ? node.left : node.right;
+        }
+        node.add(slot);
+        leafOf[slot] = node;
+        positionInLeaf[slot] = node.count - 1;
+        if (node.count > BUCKET_SIZE) {
+            split(node);
+        }
+    }
+
+    private void detach(int slot) {
+        Node leaf = leafOf[slot];
+        int position = positionInLeaf[slot];
+        int moved = leaf.points[--leaf.count];
+        leaf.points[position] = moved;
+        positionInLeaf[moved] = position;
+        leafOf[slot] = null;
+    }
+
+    /**
+     * Split a full bucket at the middle of its widest axis. Buckets of identical points stay whole.
+     */
+    private void split(Node leaf) {
+        int axis = -1;
+        double widest = 0;
+        double split = 0;
+        for (int a = 0; a < 3; a++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int i = 0; i < leaf.count; i++) {
+                double value = coords[a][leaf.points[i]];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            double middle = min + (max - min) / 2;
+            // The middle must separate the extremes, which rounding prevents for nearly identical points
+            if (max - min > widest && middle > min) {
+                widest = max - min;
+                axis = a;
+                split = middle;
+            }
+        }
+        if (axis == -1) {
+            return;
+        }
+
+        int[] points = Arrays.copyOf(leaf.points, leaf.count);
+        leaf.axis = axis;
+        leaf.split = split;
+        leaf.left = new Node();
+        leaf.right = new Node();
+        leaf.points = null;
+        leaf.count = 0;
+        for (int slot : points) {
+            Node child = coords[axis][slot] < split ? leaf.left : leaf.right;
+            child.add(slot);
+            leafOf[slot] = child;
+            positionInLeaf[slot] = child.count - 1;
+        }
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        for (int a = 0; a < 3; a++) {
+            coords[a] = Arrays.copyOf(coords[a], capacity);
+        }
+        leafOf = Arrays.copyOf(leafOf, capacity);
+        positionInLeaf = Arrays.copyOf(positionInLeaf, capacity);
+    }
+
+    /**
+     * Great-circle distance for a straight-line distance between two points on the unit sphere
+     */
+    private static double chordToMeters(double chord) {
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, chord / 2)) * (1 - 1e-9);
+    }
+
+    private static final class Node {
+        // Internal nodes split on an axis; leaves hold point slots
+        int axis = -1;
+        double split;
+        Node left;
+        Node right;
+        int[] points = new int[BUCKET_SIZE + 1];
+        int count;
+
+        boolean isLeaf() {
+            return axis == -1;
+        }
+
+        void add(int slot) {
+            if (count == points.length) {
+                points = Arrays.copyOf(points, count * 2);
+            }
+            points[count++] = slot;
+        }
+    }
+
+    /**
+     * Per-thread state of one query, holding the best candidates in a max-heap on distance
+     */
+    private static final class Search {
+        final double[] coords = new double[3];
+        double latitude;
+        double longitude;
+        int k;
+        double maxDistance;
+        GeoGridIndex.DistanceFunction distanceFunction;
+        LongPredicate filter;
+        int[] heapSlots = new int[16];
+        double[] heapDistances = new double[16];
+        int count;
+
+        void reset(double latitude, double longitude, int k, double maxDistance,
+                   GeoGridIndex.DistanceFunction distanceFunction, LongPredicate filter) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            double lat = Math.toRadians(latitude);
+            double lon = Math.toRadians(longitude);
+            coords[0] = Math.cos(lat) * Math.cos(lon);
+            coords[1] = Math.cos(lat) * Math.sin(lon);
+            coords[2] = Math.sin(lat);
+            this.k = k;
+            this.maxDistance = maxDistance;
+            this.distanceFunction = distanceFunction;
+            this.filter = filter;
+            this.count = 0;
+            if (heapSlots.length < k) {
+                heapSlots = new int[k];
+                heapDistances = new double[k];
+            }
+        }
+
+        /**
+         * Distance a candidate must beat to be kept
+         */
+        double limit() {
+            return count < k ? maxDistance : heapDistances[0];
+        }
+
+        void offer(int slot, double distance) {
+            if (count < k) {
+                int i = count++;
+                heapSlots[i] = slot;
+                heapDistances[i] = distance;
+                siftUp(i);
+            } else if (distance < heapDistances[0]) {
+                heapSlots[0] = slot;
+                heapDistances[0] = distance;
+                siftDown(0);
+            }
+        }
+
+        void pop() {
+            count--;
+            heapSlots[0] = heapSlots[count];
+            heapDistances[0] = heapDistances[count];
+            siftDown(0);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (heapDistances[parent] >= heapDistances[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < count && heapDistances[left] > heapDistances[largest]) {
+                    largest = left;
+                }
+                if (right < count && heapDistances[right] > heapDistances[largest]) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int slot = heapSlots[a];
+            heapSlots[a] = heapSlots[b];
+            heapSlots[b] = slot;
+            double distance = heapDistances[a];
+            heapDistances[a] = heapDistances[b];
+            heapDistances[b] = distance;
+        }
+    }
+}
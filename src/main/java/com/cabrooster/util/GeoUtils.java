@@ -3,7 +3,14 @@ package com.cabrooster.util;
 public class GeoUtils {
     
     // Earth's radius in kilometers
-    private static final double EARTH_RADIUS_KM = 6371.0;
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    // Meters in one degree of latitude, and of longitude at the equator, on the same sphere.
+    // Grids and regions sized with it line up with the distances computed here.
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+    
+    // Whether the batch distance methods can use the JDK Vector API
+    private static final boolean VECTOR_KERNEL = VectorHaversine.isSupported();
     
     /**
      * Calculate distance between two points in kilometers using Haversine formula
@@ -51,4 +58,59 @@ public class GeoUtils {
         double distance = calculateDistanceInMeters(lat1, lon1, lat2, lon2);
         return distance <= maxDistanceMeters;
     }
+    
+    /**
+     * Distance in meters from one point to each of many points, using the same
+     * Haversine formula as {@link #calculateDistanceInMeters}. Uses the JDK Vector API
+     * when the jdk.incubator.vector module is present and a scalar loop otherwise.
+     * @param lat Latitude of the origin
+     * @param lon Longitude of the origin
+     * @param lats Latitudes of the targets
+     * @param lons Longitudes of the targets
+     * @param out Receives the distance to each target
+     * @param count Number of targets to process
+     */
+    public static void distancesInMeters(double lat, double lon, double[] lats, double[] lons,
+                                         double[] out, int count) {
+        if (count > lats.length || count > lons.length || count > out.length) {
+            throw new IllegalArgumentException("Arrays are shorter than " + count);
+        }
+        if (VECTOR_KERNEL) {
+            VectorHaversine.distancesInMeters(lat, lon, lats, lons, out, count);
+        } else {
+            scalarDistancesInMeters(lat, lon, lats, lons, out, 0, count);
+        }
+    }
+    
+    /**
+     * Distance in meters from one point to every point of the given arrays
+     */
+    public static void distancesInMeters(double lat, double lon, double[] lats, double[] lons, double[] out) {
+        distancesInMeters(lat, lon, lats, lons, out, lats.length);
+    }
+    
+    /**
+     * Whether the batch distance methods run on the Vector API
+     */
+    public static boolean isVectorized() {
+        return VECTOR_KERNEL;
+    }
+    
+    /**
+     * Scalar batch kernel; the origin's trig is computed once and squares avoid Math.pow
+     */
+    static void scalarDistancesInMeters(double lat, double lon, double[] lats, double[] lons,
+                                        double[] out, int from, int to) {
+        double lat1Rad = Math.toRadians(lat);
+        double lon1Rad = Math.toRadians(lon);
+        double cosLat1 = Math.cos(lat1Rad);
+        for (int i = from; i < to; i++) {
+            double lat2Rad = Math.toRadians(lats[i]);
+            double sinHalfDLat = Math.sin((lat2Rad - lat1Rad) / 2);
+            double sinHalfDLon = Math.sin((Math.toRadians(lons[i]) - lon1Rad) / 2);
+            double a = sinHalfDLat * sinHalfDLat + cosLat1 * Math.cos(lat2Rad) * (sinHalfDLon * sinHalfDLon);
+            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+            out[i] = EARTH_RADIUS_KM * c * 1000;
+        }
+    }
 }
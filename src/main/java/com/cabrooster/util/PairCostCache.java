@@ -0,0 +1,301 @@
+package com.cabrooster.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the cost between two points, keyed on coordinates rounded to a grid.
+ * <p>
+ * Entries live in primitive arrays split over independently locked segments, so parallel
+ * lookups rarely contend. A full segment evicts the least recently or least frequently used
+ * of a few randomly sampled entries, which approximates true LRU or LFU in constant time.
+ */
+public class PairCostCache {
+
+    // Bytes per entry: hash, two keys, the cost, last use and use count, plus the hash index at half load
+    public static final int ENTRY_BYTES = 5 * 8 + 4 + 2 * (8 + 4);
+
+    private static final int FILE_MAGIC = 0x50434331;
+    private static final int SEGMENT_COUNT = 16;
+    private static final int EVICTION_SAMPLES = 8;
+    private static final int NO_SLOT = -1;
+    private static final int INITIAL_SEGMENT_CAPACITY = 256;
+
+    public enum Eviction { LRU, LFU }
+
+    private final double gridDegrees;
+    private final Eviction eviction;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes Approximate memory the entries may use
+     * @param gridDegrees Coordinates closer than this share an entry
+     */
+    public PairCostCache(long maxBytes, double gridDegrees, Eviction eviction) {
+        if (gridDegrees <= 0) {
+            throw new IllegalArgumentException("Grid size must be positive");
+        }
+        long entries = Math.max(SEGMENT_COUNT, maxBytes / ENTRY_BYTES);
+        int perSegment = (int) Math.min(Integer.MAX_VALUE / 4, entries / SEGMENT_COUNT);
+        this.gridDegrees = gridDegrees;
+        this.eviction = eviction;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Cached cost between two points, or NaN if there is none
+     */
+    public double get(double lat1, double lon1, double lat2, double lon2) {
+        long origin = cell(lat1, lon1);
+        long destination = cell(lat2, lon2);
+        long hash = hash(origin, destination);
+        double cost = segmentFor(hash).get(hash, origin, destination, clock.incrementAndGet());
+        if (Double.isNaN(cost)) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return cost;
+    }
+
+    public void put(double lat1, double lon1, double lat2, double lon2, double cost) {
+        long origin = cell(lat1, lon1);
+        long destination = cell(lat2, lon2);
+        put(origin, destination, cost, 1, clock.incrementAndGet());
+    }
+
+    /**
+     * Wrap a distance function so that every pair it measures goes through this cache
+     */
+    public GeoGridIndex.DistanceFunction wrap(GeoGridIndex.DistanceFunction distanceFunction) {
+        return new GeoGridIndex.DistanceFunction() {
+            @Override
+            public double distance(double lat1, double lon1, double lat2, double lon2) {
+                double cost = get(lat1, lon1, lat2, lon2);
+                if (Double.isNaN(cost)) {
+                    cost = distanceFunction.distance(lat1, lon1, lat2, lon2);
+                    put(lat1, lon1, lat2, lon2, cost);
+                }
+                return cost;
+            }
+
+            @Override
+            public double greatCircleLowerBound() {
+                return distanceFunction.greatCircleLowerBound();
+            }
+        };
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Share of lookups answered from the cache, or 0 before the first lookup
+     */
+    public double hitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Write every entry, tagged with what the costs measure
+     * @param costName Name of the cost function, checked by {@link #readFrom}
+     */
+    public void writeTo(DataOutputStream out, String costName) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeUTF(costName);
+        out.writeDouble(gridDegrees);
+        out.writeInt(SEGMENT_COUNT);
+        for (Segment segment : segments) {
+            segment.writeTo(out);
+        }
+    }
+
+    /**
+     * Add the entries written by {@link #writeTo}, unless they measure another cost or use another grid
+     * @return Number of entries read
+     */
+    public long readFrom(DataInputStream in, String costName) throws IOException {
+        if (in.readInt() != FILE_MAGIC || !in.readUTF().equals(costName) || in.readDouble() != gridDegrees) {
+            return 0;
+        }
+        long total = 0;
+        int segmentCount = in.readInt();
+        for (int s = 0; s < segmentCount; s++) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long origin = in.readLong();
+                long destination = in.readLong();
+                double cost = in.readDouble();
+                int uses = in.readInt();
+                put(origin, destination, cost, uses, clock.incrementAndGet());
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private void put(long origin, long destination, double cost, int uses, long now) {
+        long hash = hash(origin, destination);
+        if (segmentFor(hash).put(hash, origin, destination, cost, uses, now)) {
+            evictions.increment();
+        }
+    }
+
+    private long cell(double lat, double lon) {
+        long latCell = Math.round((lat + 90) / gridDegrees);
+        long lonCell = Math.round((lon + 180) / gridDegrees);
+        return latCell << 32 | lonCell;
+    }
+
+    private static long hash(long origin, long destination) {
+        long hash = origin * 0x9E3779B97F4A7C15L + destination;
+        hash ^= hash >>> 31;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 29;
+        // The index reserves Long.MIN_VALUE
+        return hash == Long.MIN_VALUE ? 0 : hash;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)];
+    }
+
+    private final class Segment {
+        private final int capacity;
+        private final LongIntHashMap index;
+        // Grown on demand up to the capacity
+        private long[] hashes;
+        private long[] origins;
+        private long[] destinations;
+        private double[] costs;
+        private long[] lastUsed;
+        private int[] uses;
+        private int size;
+
+        Segment(int capacity) {
+            this.capacity = Math.max(1, capacity);
+            int initial = Math.min(this.capacity, INITIAL_SEGMENT_CAPACITY);
+            this.index = new LongIntHashMap(initial, NO_SLOT);
+            this.hashes = new long[initial];
+            this.origins = new long[initial];
+            this.destinations = new long[initial];
+            this.costs = new double[initial];
+            this.lastUsed = new long[initial];
+            this.uses = new int[initial];
+        }
+
+        synchronized double get(long hash, long origin, long destination, long now) {
+            int slot = index.get(hash);
+            if (slot == NO_SLOT || origins[slot] != origin || destinations[slot] != destination) {
+                return Double.NaN;
+            }
+            lastUsed[slot] = now;
+            if (uses[slot] < Integer.MAX_VALUE) {
+                uses[slot]++;
+            }
+            return costs[slot];
+        }
+
+        /**
+         * @return Whether an entry was evicted to make room
+         */
+        synchronized boolean put(long hash, long origin, long destination, double cost, int useCount, long now) {
+            boolean evicted = false;
+            int slot = index.get(hash);
+            if (slot == NO_SLOT) {
+                if (size < capacity) {
+                    if (size == hashes.length) {
+                        grow();
+                    }
+                    slot = size++;
+                } else {
+                    slot = victim();
+                    index.remove(hashes[slot]);
+                    evicted = true;
+                }
+                index.put(hash, slot);
+            }
+            // A hash collision simply replaces the other pair
+            hashes[slot] = hash;
+            origins[slot] = origin;
+            destinations[slot] = destination;
+            costs[slot] = cost;
+            lastUsed[slot] = now;
+            uses[slot] = useCount;
+            return evicted;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int slot = 0; slot < size; slot++) {
+                out.writeLong(origins[slot]);
+                out.writeLong(destinations[slot]);
+                out.writeDouble(costs[slot]);
+                out.writeInt(uses[slot]);
+            }
+        }
+
+        private void grow() {
+            int length = (int) Math.min(capacity, 2L * hashes.length);
+            hashes = Arrays.copyOf(hashes, length);
+            origins = Arrays.copyOf(origins, length);
+            destinations = Arrays.copyOf(destinations, length);
+            costs = Arrays.copyOf(costs, length);
+            lastUsed = Arrays.copyOf(lastUsed, length);
+            uses = Arrays.copyOf(uses, length);
+        }
+
+        private int victim() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int victim = random.nextInt(size);
+            for (int i = 1; i < EVICTION_SAMPLES; i++) {
+                int candidate = random.nextInt(size);
+                if (isColder(candidate, victim)) {
+                    victim = candidate;
+                }
+            }
+            return victim;
+        }
+
+        private boolean isColder(int a, int b) {
+            if (eviction == Eviction.LFU && uses[a] != uses[b]) {
+                return uses[a] < uses[b];
+            }
+            return lastUsed[a] < lastUsed[b];
+        }
+    }
+}
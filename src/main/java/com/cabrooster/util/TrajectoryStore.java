@@ -0,0 +1,664 @@
+package com.cabrooster.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Append-only log of {@code (entityId, timestamp, latitude, longitude)} records in fixed-size
+ * memory-mapped segment files. A record is written straight into the mapped page, so an append
+ * costs a few stores and survives a crash of the process.
+ * <p>
+ * Every record points back to the previous record of the same entity in its segment, and the
+ * segment taking appends keeps the last record of every entity in memory, so a range query only
+ * reads the records of that entity in the segments that overlap the range. Segments are rolled
+ * when full or after the roll interval, which also bounds how far back a query walks in one
+ * segment, and deleted once all their records are older than the retention.
+ * <p>
+ * A rolled segment is truncated to its records, its last records are written to an index file
+ * beside it sorted by entity, and it is closed. This sealing, creating the next segment and
+ * syncing pages to disk happen on the maintenance thread, never on the thread that appends. Only its time range stays in memory; a query
+ * opens it for as long as it reads it. Reopening the store reads the index headers, so neither
+ * startup time nor memory grows with the retention.
+ * <p>
+ * Coordinates are stored as fixed point with seven decimals, about a centimetre.
+ */
+public class TrajectoryStore implements Closeable {
+
+    private static final int FILE_MAGIC = 0x54524b31;
+    private static final int INDEX_MAGIC = 0x54524b49;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    // Magic, record count and creation time
+    private static final int HEADER_BYTES = 16;
+    private static final int COUNT_OFFSET = 4;
+    private static final int CREATED_OFFSET = 8;
+
+    // Entity, timestamp, latitude, longitude and the entity's previous record in the segment
+    private static final int RECORD_BYTES = 28;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int LATITUDE_OFFSET = 16;
+    private static final int LONGITUDE_OFFSET = 20;
+    private static final int PREVIOUS_OFFSET = 24;
+
+    // Index: magic, record count, creation time, first and last timestamp and entry count,
+    // then the entity and its last record for every entity, by entity
+    private static final int INDEX_HEADER_BYTES = 36;
+    private static final int INDEX_ENTRY_BYTES = 12;
+
+    private static final double SCALE = 1e7;
+    private static final int NO_RECORD = -1;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long rollMillis;
+    private final long retentionMillis;
+    // Runs the sealing of segments rolled by an append
+    private final Executor maintenance;
+
+    private final StampedLock lock = new StampedLock();
+    // Oldest first; the last one takes appends until it is full or rolled
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    // Rolled and still readable from memory, waiting to be sealed
+    private final List<Segment> rolled = new ArrayList<>();
+    // Created ahead of the next roll so appends never wait for a new file
+    private Segment standby;
+    private boolean creatingStandby;
+    private long nextSequence;
+
+    /**
+     * Open the segments in a directory, creating it if needed. Segments filled by appends are
+     * sealed by the next {@link #maintain}.
+     * @param segmentBytes Size of every segment file
+     * @param rollMillis Age after which a segment stops taking appends
+     * @param retentionMillis Age of the newest record after which a segment is deleted
+     */
+    public TrajectoryStore(Path directory, int segmentBytes, long rollMillis, long retentionMillis) throws IOException {
+        this(directory, segmentBytes, rollMillis, retentionMillis, task -> { });
+    }
+
+    /**
+     * Open the segments in a directory, creating it if needed
+     * @param maintenance Seals segments filled by appends and creates the next one, so a full
+     *                    segment costs the appending thread nothing
+     */
+    public TrajectoryStore(Path directory, int segmentBytes, long rollMillis, long retentionMillis,
+                           Executor maintenance) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_BYTES) {
+            throw new IllegalArgumentException("Segments must hold at least one record");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.rollMillis = rollMillis;
+        this.retentionMillis = retentionMillis;
+        this.maintenance = maintenance;
+
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(Path::getFileName));
+        List<Segment> unsealed = new ArrayList<>();
+        for (Path file : files) {
+            long sequence = sequenceOf(file);
+            nextSequence = sequence + 1;
+            if (Files.exists(indexOf(file))) {
+                segments.add(Segment.sealed(file, sequence));
+                continue;
+            }
+            // Still taking appends when the store was closed, rolled by a crash before it was
+            // sealed, or a spare that was never used
+            Segment segment = Segment.open(file, sequence);
+            if (segment.count == 0) {
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            unsealed.add(segment);
+        }
+        for (Segment segment : unsealed) {
+            if (segment == segments.get(segments.size() - 1) && !segment.isFull()) {
+                active = segment;
+            } else {
+                segment.seal();
+                segment.release();
+            }
+        }
+    }
+
+    /**
+     * Append a position. A full segment is handed to the maintenance executor to be sealed.
+     * @throws UncheckedIOException if no segment was ready and a new one could not be created
+     */
+    public void append(long entityId, long timestampMillis, double latitude, double longitude) {
+        boolean rolledNow = false;
+        long stamp = lock.writeLock();
+        try {
+            if (active != null && active.isFull()) {
+                rolled.add(active);
+                active = null;
+                rolledNow = true;
+            }
+            if (active == null) {
+                activate(System.currentTimeMillis());
+            }
+            active.append(entityId, timestampMillis, latitude, longitude);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (rolledNow) {
+            maintenance.execute(() -> {
+                try {
+                    sealRolled();
+                } catch (UncheckedIOException e) {
+                    // Still queued; the next maintain tries again and reports it
+                }
+            });
+        }
+    }
+
+    /**
+     * Positions of an entity with a timestamp in a range, oldest first. The segments to read
+     * are picked under the lock and read after it is released, so a long query never holds up
+     * appends.
+     * @param fromMillis First timestamp included
+     * @param toMillis Last timestamp included
+     */
+    public List<Point> range(long entityId, long fromMillis, long toMillis) {
+        List<Read> reads = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.count > 0 && segment.maxTimestamp >= fromMillis && segment.minTimestamp <= toMillis) {
+                    Mapping mapping = segment.mapping;
+                    // Records below the count never change, so they can be read without the lock
+                    reads.add(mapping != null
+                            ? new Read(segment, mapping.buffer, mapping.lastRecords.get(entityId))
+                            : new Read(segment, null, NO_RECORD));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        List<Point> points = new ArrayList<>();
+        for (Read read : reads) {
+            if (read.records() != null) {
+                Segment.walk(read.records(), read.lastRecord(), fromMillis, toMillis, points);
+            } else {
+                read.segment().collectSealed(entityId, fromMillis, toMillis, points);
+            }
+        }
+        points.sort(Comparator.comparingLong(Point::timestampMillis));
+        return points;
+    }
+
+    /**
+     * Roll the active segment once it is older than the roll interval, delete segments past
+     * the retention, write the active segment's pages to disk, seal the rolled segments and
+     * have the next segment ready. Only the bookkeeping holds the lock, so appends carry on
+     * while pages are synced.
+     * @return Number of segments deleted
+     */
+    public int maintain(long nowMillis) {
+        List<Segment> expired = new ArrayList<>();
+        MappedByteBuffer pages = null;
+        long stamp = lock.writeLock();
+        try {
+            if (active != null && active.count > 0 && nowMillis - active.createdMillis >= rollMillis) {
+                rolled.add(active);
+                active = null;
+            }
+            for (Segment segment : segments) {
+                // Only sealed segments expire; the active and rolled ones are still mapped
+                if (segment.mapping == null
+                        && (segment.count == 0 || segment.maxTimestamp < nowMillis - retentionMillis)) {
+                    expired.add(segment);
+                }
+            }
+            segments.removeAll(expired);
+            if (active != null) {
+                pages = active.mapping.buffer;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (pages != null) {
+            pages.force();
+        }
+        for (Segment segment : expired) {
+            segment.delete();
+        }
+        sealRolled();
+        return expired.size();
+    }
+
+    public int getSegmentCount() {
+        long stamp = lock.readLock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            // The active segment is left open on disk and takes appends again after reopening
+            if (active != null) {
+                active.mapping.buffer.force();
+                active.mapping.channel.close();
+            }
+            // Rolled segments not sealed yet are sealed on reopening
+            for (Segment segment : rolled) {
+                segment.mapping.buffer.force();
+                segment.mapping.channel.close();
+            }
+            if (standby != null) {
+                standby.delete();
+            }
+            segments.clear();
+            rolled.clear();
+            active = null;
+            standby = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Start appending to the standby segment, or to a new one if it is not ready. Called under
+     * the write lock.
+     */
+    private void activate(long nowMillis) {
+        Segment segment = standby;
+        standby = null;
+        if (segment == null) {
+            segment = createSegment(nextSequence++);
+        }
+        segment.activate(nowMillis);
+        segments.add(segment);
+        active = segment;
+    }
+
+    /**
+     * Seal the rolled segments and create the next one. A segment that fails to seal stays
+     * queued, with the ones after it, for the next attempt.
+     */
+    private void sealRolled() {
+        List<Segment> sealing;
+        long stamp = lock.writeLock();
+        try {
+            sealing = new ArrayList<>(rolled);
+            rolled.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (int i = 0; i < sealing.size(); i++) {
+            try {
+                seal(sealing.get(i));
+            } catch (UncheckedIOException e) {
+                stamp = lock.writeLock();
+                try {
+                    rolled.addAll(0, sealing.subList(i, sealing.size()));
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+                throw e;
+            }
+        }
+        prepareStandby();
+    }
+
+    /**
+     * Write a rolled segment's index and close it, outside the lock. Queries read it from
+     * memory until it is released and from disk after.
+     */
+    private void seal(Segment segment) {
+        try {
+            segment.seal();
+        } catch (IOException e) {
+            // Left open and readable from memory; it is sealed on reopening
+            throw new UncheckedIOException("Could not seal location history segment " + segment.path, e);
+        }
+        long stamp = lock.writeLock();
+        try {
+            segment.release();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close location history segment " + segment.path, e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Create the next segment, outside the lock, unless it exists or is being created
+     */
+    private void prepareStandby() {
+        long sequence;
+        long stamp = lock.writeLock();
+        try {
+            if (standby != null || creatingStandby) {
+                return;
+            }
+            creatingStandby = true;
+            sequence = nextSequence++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        Segment segment = null;
+        try {
+            segment = createSegment(sequence);
+        } finally {
+            stamp = lock.writeLock();
+            try {
+                standby = segment;
+                creatingStandby = false;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private Segment createSegment(long sequence) {
+        Path file = directory.resolve(String.format("%016d%s", sequence, SEGMENT_SUFFIX));
+        try {
+            return Segment.create(file, sequence, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create location history segment " + file, e);
+        }
+    }
+
+    private static Path indexOf(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return segmentFile.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static long sequenceOf(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected file " + file + " among location history segments");
+        }
+    }
+
+    /**
+     * One recorded position
+     */
+    public record Point(long timestampMillis, double latitude, double longitude) {
+    }
+
+    /**
+     * A segment a query reads: its records and the entity's last record while it is mapped,
+     * or only the segment once it is sealed
+     */
+    private record Read(Segment segment, ByteBuffer records, int lastRecord) {
+    }
+
+    /**
+     * One segment file and its time range. While it takes appends it is mapped and keeps the
+     * last record of every entity in memory; once sealed it is read from disk on demand.
+     */
+    private static final class Segment {
+        final long sequence;
+        final Path path;
+        long createdMillis;
+        // Open until the segment is sealed, null after
+        Mapping mapping;
+        int count;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+
+        private Segment(long sequence, Path path, long createdMillis, Mapping mapping) {
+            this.sequence = sequence;
+            this.path = path;
+            this.createdMillis = createdMillis;
+            this.mapping = mapping;
+        }
+
+        static Segment create(Path path, long sequence, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                buffer.putInt(0, FILE_MAGIC);
+                buffer.putInt(COUNT_OFFSET, 0);
+                return new Segment(sequence, path, 0, new Mapping(channel, buffer));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Map an unsealed segment and rebuild its index from the records
+         */
+        static Segment open(Path path, long sequence) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != FILE_MAGIC) {
+                    throw new IOException(path + " is not a location history segment");
+                }
+                Mapping mapping = new Mapping(channel, buffer);
+                Segment segment = new Segment(sequence, path, buffer.getLong(CREATED_OFFSET), mapping);
+                int count = Math.min(buffer.getInt(COUNT_OFFSET), mapping.capacity);
+                for (int index = 0; index < count; index++) {
+                    int offset = offsetOf(index);
+                    mapping.lastRecords.put(buffer.getLong(offset), index);
+                    segment.track(buffer.getLong(offset + TIMESTAMP_OFFSET));
+                }
+                segment.count = count;
+                return segment;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * A sealed segment, from the header of its index
+         */
+        static Segment sealed(Path path, long sequence) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+            try (FileChannel index = FileChannel.open(indexOf(path), StandardOpenOption.READ)) {
+                while (header.hasRemaining() && index.read(header) >= 0) {
+                    // Read the whole header
+                }
+            }
+            if (header.hasRemaining() || header.getInt(0) != INDEX_MAGIC) {
+                throw new IOException(indexOf(path) + " is not a location history index");
+            }
+            Segment segment = new Segment(sequence, path, header.getLong(8), null);
+            segment.count = header.getInt(4);
+            segment.minTimestamp = header.getLong(16);
+            segment.maxTimestamp = header.getLong(24);
+            return segment;
+        }
+
+        /**
+         * Start the segment's roll interval
+         */
+        void activate(long nowMillis) {
+            createdMillis = nowMillis;
+            mapping.buffer.putLong(CREATED_OFFSET, nowMillis);
+        }
+
+        boolean isFull() {
+            return mapping != null && count == mapping.capacity;
+        }
+
+        void append(long entityId, long timestampMillis, double latitude, double longitude) {
+            MappedByteBuffer buffer = mapping.buffer;
+            int offset = offsetOf(count);
+            buffer.putLong(offset, entityId);
+            buffer.putLong(offset + TIMESTAMP_OFFSET, timestampMillis);
+            buffer.putInt(offset + LATITUDE_OFFSET, (int) Math.round(latitude * SCALE));
+            buffer.putInt(offset + LONGITUDE_OFFSET, (int) Math.round(longitude * SCALE));
+            buffer.putInt(offset + PREVIOUS_OFFSET, mapping.lastRecords.get(entityId));
+            mapping.lastRecords.put(entityId, count);
+            track(timestampMillis);
+            // The count is written last, so a record cut short by a crash is left out on reopening
+            count++;
+            buffer.putInt(COUNT_OFFSET, count);
+        }
+
+        /**
+         * Write the index and cut the file to its records. The index is moved into place last,
+         * so a segment without one is sealed again on reopening. Records stay readable from the
+         * mapping until it is released.
+         */
+        void seal() throws IOException {
+            long[] entries = new long[mapping.lastRecords.size()];
+            int entryCount = 0;
+            for (int index = count - 1; index >= 0; index--) {
+                long entityId = mapping.buffer.getLong(offsetOf(index));
+                if (mapping.lastRecords.get(entityId) == index) {
+                    entries[entryCount++] = entityId;
+                }
+            }
+            Arrays.sort(entries, 0, entryCount);
+            ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_BYTES + entryCount * INDEX_ENTRY_BYTES);
+            index.putInt(INDEX_MAGIC).putInt(count).putLong(createdMillis)
+                    .putLong(minTimestamp).putLong(maxTimestamp).putInt(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                index.putLong(entries[i]).putInt(mapping.lastRecords.get(entries[i]));
+            }
+            index.flip();
+
+            mapping.buffer.force();
+            Path temporary = indexOf(path).resolveSibling(indexOf(path).getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (index.hasRemaining()) {
+                    out.write(index);
+                }
+                out.force(true);
+            }
+            mapping.channel.truncate(offsetOf(count));
+            Files.move(temporary, indexOf(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Close a sealed segment; queries read it from disk from now on
+         */
+        void release() throws IOException {
+            Mapping released = mapping;
+            mapping = null;
+            // The mapping itself is released when the buffer is collected
+            released.channel.close();
+        }
+
+        /**
+         * Follow the entity's records back from its last one in a sealed segment, opened for the read
+         */
+        void collectSealed(long entityId, long fromMillis, long toMillis, List<Point> points) {
+            try (FileChannel index = FileChannel.open(indexOf(path), StandardOpenOption.READ)) {
+                int last = find(index.map(FileChannel.MapMode.READ_ONLY, 0, index.size()), entityId);
+                if (last == NO_RECORD) {
+                    return;
+                }
+                try (FileChannel records = FileChannel.open(path, StandardOpenOption.READ)) {
+                    walk(records.map(FileChannel.MapMode.READ_ONLY, 0, offsetOf(count)),
+                            last, fromMillis, toMillis, points);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted past the retention since the query started
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read location history segment " + path, e);
+            }
+        }
+
+        void delete() {
+            try {
+                if (mapping != null) {
+                    mapping.channel.close();
+                }
+                // The mapping itself is released when the buffer is collected
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(indexOf(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not delete location history segment " + path, e);
+            }
+        }
+
+        private void track(long timestampMillis) {
+            minTimestamp = Math.min(minTimestamp, timestampMillis);
+            maxTimestamp = Math.max(maxTimestamp, timestampMillis);
+        }
+
+        static void walk(ByteBuffer buffer, int index, long fromMillis, long toMillis, List<Point> points) {
+            while (index != NO_RECORD) {
+                int offset = offsetOf(index);
+                long timestamp = buffer.getLong(offset + TIMESTAMP_OFFSET);
+                if (timestamp >= fromMillis && timestamp <= toMillis) {
+                    points.add(new Point(timestamp,
+                            buffer.getInt(offset + LATITUDE_OFFSET) / SCALE,
+                            buffer.getInt(offset + LONGITUDE_OFFSET) / SCALE));
+                }
+                index = buffer.getInt(offset + PREVIOUS_OFFSET);
+            }
+        }
+
+        /**
+         * Binary search of a sealed segment's index for an entity's last record
+         */
+        private static int find(ByteBuffer index, long entityId) {
+            int low = 0;
+            int high = index.getInt(32) - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int offset = INDEX_HEADER_BYTES + middle * INDEX_ENTRY_BYTES;
+                long key = index.getLong(offset);
+                if (key < entityId) {
+                    low = middle + 1;
+                } else if (key > entityId) {
+                    high = middle - 1;
+                } else {
+                    return index.getInt(offset + 8);
+                }
+            }
+            return NO_RECORD;
+        }
+
+        private static int offsetOf(int index) {
+            return HEADER_BYTES + index * RECORD_BYTES;
+        }
+    }
+
+    /**
+     * The open file of a segment taking appends and the last record of every entity in it
+     */
+    private static final class Mapping {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final LongIntHashMap lastRecords = new LongIntHashMap(1024, NO_RECORD);
+
+        Mapping(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.cabrooster.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Haversine batch kernel on the JDK Vector API.
+ * <p>
+ * Only loaded when the jdk.incubator.vector module is present at runtime
+ * (start the JVM with {@code --add-modules jdk.incubator.vector}); callers must
+ * check {@link #isSupported()} first.
+ */
+final class VectorHaversine {
+
+    private static final double DEGREES_TO_RADIANS = Math.PI / 180;
+
+    private VectorHaversine() {
+    }
+
+    static boolean isSupported() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            // Make sure the kernel actually links and runs on this JVM
+            double[] probe = new double[1];
+            Kernel.distancesInMeters(0, 0, probe, probe, probe, 1);
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static void distancesInMeters(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        Kernel.distancesInMeters(lat, lon, lats, lons, out, count);
+    }
+
+    /**
+     * Holds the vector species so nothing from the incubator module is touched
+     * before {@link #isSupported()} has checked for it
+     */
+    private static final class Kernel {
+
+        private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+        static void distancesInMeters(double lat, double lon, double[] lats, double[] lons,
+                                      double[] out, int count) {
+            double lat1Rad = Math.toRadians(lat);
+            double lon1Rad = Math.toRadians(lon);
+            double cosLat1 = Math.cos(lat1Rad);
+            double metersPerRadian = GeoUtils.EARTH_RADIUS_KM * 1000;
+
+            int i = 0;
+            for (int upper = SPECIES.loopBound(count); i < upper; i += SPECIES.length()) {
+                DoubleVector lat2Rad = DoubleVector.fromArray(SPECIES, lats, i).mul(DEGREES_TO_RADIANS);
+                DoubleVector lon2Rad = DoubleVector.fromArray(SPECIES, lons, i).mul(DEGREES_TO_RADIANS);
+                DoubleVector sinHalfDLat = lat2Rad.sub(lat1Rad).div(2).lanewise(VectorOperators.SIN);
+                DoubleVector sinHalfDLon = lon2Rad.sub(lon1Rad).div(2).lanewise(VectorOperators.SIN);
+                DoubleVector a = sinHalfDLat.mul(sinHalfDLat)
+                        .add(lat2Rad.lanewise(VectorOperators.COS).mul(cosLat1).mul(sinHalfDLon.mul(sinHalfDLon)));
+                DoubleVector c = a.sqrt().lanewise(VectorOperators.ATAN2, a.neg().add(1).sqrt()).mul(2);
+                c.mul(metersPerRadian).intoArray(out, i);
+            }
+            GeoUtils.scalarDistancesInMeters(lat, lon, lats, lons, out, i, count);
+        }
+    }
+}
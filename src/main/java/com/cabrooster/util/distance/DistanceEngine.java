@@ -0,0 +1,29 @@
+package com.cabrooster.util.distance;
+
+import com.cabrooster.util.GeoGridIndex;
+
+/**
+ * Distance between two points on the earth, in meters. Dispatch, the nearby queries and
+ * the spatial indexes all measure through one engine, chosen per deployment with
+ * {@code distance.engine}.
+ */
+public interface DistanceEngine extends GeoGridIndex.DistanceFunction {
+
+    /**
+     * Name used to select the engine in configuration
+     */
+    String name();
+
+    /**
+     * Distance in meters from one point to each of many points
+     * @param out Receives the distance to each of the first count points
+     */
+    default void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        if (count > lats.length || count > lons.length || count > out.length) {
+            throw new IllegalArgumentException("Arrays are shorter than " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            out[i] = distance(lat, lon, lats[i], lons[i]);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.cabrooster.util.distance;
+
+/**
+ * Flat-earth approximation of the great-circle distance. Needs one cosine and a square root
+ * per pair and stays within 0.01% of Haversine up to 50 km below 80 degrees latitude, but
+ * degrades over long distances and near the poles.
+ */
+public class EquirectangularDistanceEngine implements DistanceEngine {
+
+    public static final String NAME = "equirectangular";
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000.0;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLon = lon2 - lon1;
+        // Take the short way across the antimeridian
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        double x = Math.toRadians(dLon) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS_METERS * Math.sqrt(x * x + y * y);
+    }
+
+    @Override
+    public double greatCircleLowerBound() {
+        return 0.99;
+    }
+}
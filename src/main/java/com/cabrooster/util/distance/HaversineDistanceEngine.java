@@ -0,0 +1,26 @@
+package com.cabrooster.util.distance;
+
+import com.cabrooster.util.GeoUtils;
+
+/**
+ * Great-circle distance on a sphere. The default engine; batches run on the Vector API when available.
+ */
+public class HaversineDistanceEngine implements DistanceEngine {
+
+    public static final String NAME = "haversine";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public double distance(double lat1, double lon1, double lat2, double lon2) {
+        return GeoUtils.calculateDistanceInMeters(lat1, lon1, lat2, lon2);
+    }
+
+    @Override
+    public void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        GeoUtils.distancesInMeters(lat, lon, lats, lons, out, count);
+    }
+}
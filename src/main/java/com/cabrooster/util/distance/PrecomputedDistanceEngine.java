@@ -0,0 +1,160 @@
+package com.cabrooster.util.distance;
+
+import com.cabrooster.util.GeoUtils;
+import com.cabrooster.util.LongIntHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Distances looked up from a precomputed matrix, such as road distances between pickup
+ * points exported from a routing engine. Pairs of points that are not both in the matrix
+ * are measured by a fallback engine. Points are matched after rounding to 1e-6 degrees.
+ */
+public class PrecomputedDistanceEngine implements DistanceEngine {
+
+    public static final String NAME = "matrix";
+
+    private static final double COORDINATE_SCALE = 1e6;
+    private static final int NOT_FOUND = -1;
+
+    // Road distances may be a little shorter than the sphere from snapping, but not this much
+    private static final double MIN_LOWER_BOUND = 0.5;
+
+    private final LongIntHashMap pointIndex;
+    private final double[] matrix;
+    private final int size;
+    private final DistanceEngine fallback;
+    private final double lowerBound;
+
+    /**
+     * @param lats Latitudes of the matrix points
+     * @param lons Longitudes of the matrix points
+     * @param distances Distance in meters from each point (row) to each point (column)
+     * @param fallback Engine for pairs outside the matrix
+     */
+    public PrecomputedDistanceEngine(double[] lats, double[] lons, double[][] distances, DistanceEngine fallback) {
+        size = lats.length;
+        if (lons.length != size || distances.length != size) {
+            throw new IllegalArgumentException("Distance matrix must have one row per point");
+        }
+        this.fallback = fallback;
+        this.pointIndex = new LongIntHashMap(size, NOT_FOUND);
+        this.matrix = new double[size * size];
+
+        double smallestRatio = fallback.greatCircleLowerBound();
+        for (int i = 0; i < size; i++) {
+            if (distances[i].length != size) {
+                throw new IllegalArgumentException("Row " + i + " of the distance matrix must have " + size + " columns");
+            }
+            long key = key(lats[i], lons[i]);
+            if (pointIndex.containsKey(key)) {
+                throw new IllegalArgumentException("Point " + i + " appears twice in the distance matrix");
+            }
+            pointIndex.put(key, i);
+            for (int j = 0; j < size; j++) {
+                double distance = distances[i][j];
+                if (!(distance >= 0) || Double.isInfinite(distance)) {
+                    throw new IllegalArgumentException("Invalid distance from point " + i + " to point " + j);
+                }
+                matrix[i * size + j] = distance;
+                double greatCircle = GeoUtils.calculateDistanceInMeters(lats[i], lons[i], lats[j], lons[j]);
+                if (greatCircle > 0) {
+                    smallestRatio = Math.min(smallestRatio, distance / greatCircle);
+                }
+            }
+        }
+        if (smallestRatio < MIN_LOWER_BOUND) {
+            throw new IllegalArgumentException("Distance matrix has pairs far closer than the straight-line distance");
+        }
+        this.lowerBound = Math.min(1.0, smallestRatio);
+    }
+
+    /**
+     * Read a matrix from CSV. Each row is {@code latitude,longitude,d0,d1,...} giving a point and
+     * its distance in meters to every point in row order. Blank lines and lines starting with # are skipped.
+     */
+    public static PrecomputedDistanceEngine load(Reader source, DistanceEngine fallback) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            double[] row = new double[fields.length];
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    row[i] = Double.parseDouble(fields[i].trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid distance matrix row " + (rows.size() + 1) + ": " + line, e);
+            }
+            rows.add(row);
+        }
+
+        int count = rows.size();
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        double[][] distances = new double[count][];
+        for (int i = 0; i < count; i++) {
+            double[] row = rows.get(i);
+            if (row.length != count + 2) {
+                throw new IOException("Distance matrix row " + (i + 1) + " must have " + (count + 2) + " values");
+            }
+            lats[i] = row[0];
+            lons[i] = row[1];
+            distances[i] = Arrays.copyOfRange(row, 2, row.length);
+        }
+        return new PrecomputedDistanceEngine(lats, lons, distances, fallback);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public double distance(double lat1, double lon1, double lat2, double lon2) {
+        int from = pointIndex.get(key(lat1, lon1));
+        int to = from == NOT_FOUND ? NOT_FOUND : pointIndex.get(key(lat2, lon2));
+        if (to == NOT_FOUND) {
+            return fallback.distance(lat1, lon1, lat2, lon2);
+        }
+        return matrix[from * size + to];
+    }
+
+    @Override
+    public void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int count) {
+        int from = pointIndex.get(key(lat, lon));
+        if (from == NOT_FOUND) {
+            fallback.distances(lat, lon, lats, lons, out, count);
+            return;
+        }
+        DistanceEngine.super.distances(lat, lon, lats, lons, out, count);
+    }
+
+    @Override
+    public double greatCircleLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * Number of points in the matrix
+     */
+    public int size() {
+        return size;
+    }
+
+    private static long key(double lat, double lon) {
+        long latKey = Math.round((lat + 90) * COORDINATE_SCALE);
+        long lonKey = Math.round((lon + 180) * COORDINATE_SCALE);
+        return latKey << 32 | lonKey;
+    }
+}
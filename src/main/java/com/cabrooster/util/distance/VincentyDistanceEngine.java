@@ -0,0 +1,76 @@
+package com.cabrooster.util.distance;
+
+/**
+ * Geodesic distance on the WGS-84 ellipsoid using Vincenty's inverse formula. Accurate to
+ * well under a millimetre, about half a percent closer to GPS reality than the sphere, and
+ * the slowest engine. Nearly antipodal points, where the iteration does not converge, fall
+ * back to Haversine.
+ */
+public class VincentyDistanceEngine implements DistanceEngine {
+
+    public static final String NAME = "vincenty";
+
+    // WGS-84 semi-major axis, flattening and semi-minor axis
+    private static final double A = 6_378_137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double B = A * (1 - F);
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double CONVERGENCE = 1e-12;
+
+    private final HaversineDistanceEngine fallback = new HaversineDistanceEngine();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public double distance(double lat1, double lon1, double lat2, double lon2) {
+        double l = Math.toRadians(lon2 - lon1);
+        double u1 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1 - F) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(u1);
+        double cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double sinSigma = Math.sqrt(Math.pow(cosU2 * sinLambda, 2)
+                    + Math.pow(cosU1 * sinU2 - sinU1 * cosU2 * cosLambda, 2));
+            if (sinSigma == 0) {
+                return 0; // Same point
+            }
+            double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            double sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            double cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            // Both points on the equator
+            double cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+            double c = F / 16 * cosSqAlpha * (4 + F * (4 - 3 * cosSqAlpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+            if (Math.abs(lambda - previous) < CONVERGENCE) {
+                double uSq = cosSqAlpha * (A * A - B * B) / (B * B);
+                double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+                double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+                double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4
+                        * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                        - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+                return B * bigA * (sigma - deltaSigma);
+            }
+        }
+        return fallback.distance(lat1, lon1, lat2, lon2);
+    }
+
+    @Override
+    public double greatCircleLowerBound() {
+        // Meridian arcs at the equator are the shortest relative to the sphere, at about 0.9944
+        return 0.994;
+    }
+}
@@ -0,0 +1,630 @@
+package com.cabrooster.util.routing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Contraction hierarchy over a {@link RoadGraph} for exact shortest travel times.
+ * <p>
+ * Nodes are contracted one at a time, least important first, adding shortcut edges
+ * wherever a shortest path ran through the contracted node. A query then only searches
+ * upwards in the order from both ends, which visits a few hundred nodes instead of the
+ * whole graph. Built hierarchies are immutable and can be shared between threads.
+ */
+public final class ContractionHierarchy {
+
+    private static final int FILE_MAGIC = 0x43485254;
+    private static final int FILE_VERSION = 1;
+
+    // Witness searches give up after this many nodes and add the shortcut anyway; estimating
+    // the priority of a node only needs a rough count, so it searches less
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+    private final int nodeCount;
+    private final long graphFingerprint;
+    // Upward edges out of each node, and upward edges into each node stored at their target
+    private final int[] forwardFirst;
+    private final int[] forwardTargets;
+    private final double[] forwardSeconds;
+    private final int[] backwardFirst;
+    private final int[] backwardSources;
+    private final double[] backwardSeconds;
+
+    private final ThreadLocal<Search> searches;
+
+    private ContractionHierarchy(int nodeCount, long graphFingerprint,
+                                 int[] forwardFirst, int[] forwardTargets, double[] forwardSeconds,
+                                 int[] backwardFirst, int[] backwardSources, double[] backwardSeconds) {
+        this.nodeCount = nodeCount;
+        this.graphFingerprint = graphFingerprint;
+        this.forwardFirst = forwardFirst;
+        this.forwardTargets = forwardTargets;
+        this.forwardSeconds = forwardSeconds;
+        this.backwardFirst = backwardFirst;
+        this.backwardSources = backwardSources;
+        this.backwardSeconds = backwardSeconds;
+        this.searches = ThreadLocal.withInitial(() -> new Search(nodeCount));
+    }
+
+    /**
+     * Contract every node of the graph
+     */
+    public static ContractionHierarchy build(RoadGraph graph) {
+        return new Builder(graph).build();
+    }
+
+    /**
+     * Shortest travel time in seconds, or infinity if the target cannot be reached
+     */
+    public double travelTime(int source, int target) {
+        Search search = searches.get();
+        exhaust(search.forward, source, true, search);
+        double best = meet(search.backward, target, false, search);
+        search.forward.clear();
+        return best;
+    }
+
+    /**
+     * Travel times from one node to many
+     * @param out Receives the time to each target, infinity where it cannot be reached
+     */
+    public void travelTimesFrom(int source, int[] targets, double[] out, int count) {
+        Search search = searches.get();
+        exhaust(search.forward, source, true, search);
+        for (int i = 0; i < count; i++) {
+            out[i] = meet(search.backward, targets[i], false, search);
+        }
+        search.forward.clear();
+    }
+
+    /**
+     * Travel times from many nodes to one
+     * @param out Receives the time from each source, infinity where the target cannot be reached
+     */
+    public void travelTimesTo(int target, int[] sources, double[] out, int count) {
+        Search search = searches.get();
+        // The roles swap: the target's search is complete and each source searches to meet it
+        exhaust(search.backward, target, false, search);
+        for (int i = 0; i < count; i++) {
+            out[i] = meet(search.forward, sources[i], true, search);
+        }
+        search.backward.clear();
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Number of edges in both upward graphs, shortcuts included
+     */
+    public int edgeCount() {
+        return forwardTargets.length + backwardSources.length;
+    }
+
+    /**
+     * Whether this hierarchy was built from the given graph
+     */
+    public boolean isBuiltFrom(RoadGraph graph) {
+        return graph.nodeCount() == nodeCount && graph.fingerprint() == graphFingerprint;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(nodeCount);
+        out.writeLong(graphFingerprint);
+        writeEdges(out, forwardFirst, forwardTargets, forwardSeconds);
+        writeEdges(out, backwardFirst, backwardSources, backwardSeconds);
+    }
+
+    /**
+     * Read a hierarchy written by {@link #writeTo}
+     * @return The hierarchy, or empty if the data was written by another version
+     */
+    public static Optional<ContractionHierarchy> readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            return Optional.empty();
+        }
+        int nodeCount = in.readInt();
+        long fingerprint = in.readLong();
+        int[] forwardFirst = readInts(in, nodeCount + 1);
+        int[] forwardTargets = readInts(in, forwardFirst[nodeCount]);
+        double[] forwardSeconds = readDoubles(in, forwardFirst[nodeCount]);
+        int[] backwardFirst = readInts(in, nodeCount + 1);
+        int[] backwardSources = readInts(in, backwardFirst[nodeCount]);
+        double[] backwardSeconds = readDoubles(in, backwardFirst[nodeCount]);
+        return Optional.of(new ContractionHierarchy(nodeCount, fingerprint, forwardFirst, forwardTargets,
+                forwardSeconds, backwardFirst, backwardSources, backwardSeconds));
+    }
+
+    /**
+     * Settle every node reachable upwards from the start
+     */
+    private void exhaust(Distances distances, int start, boolean forward, Search search) {
+        IndexedHeap heap = search.heap;
+        distances.set(start, 0);
+        heap.push(start, 0);
+        while (!heap.isEmpty()) {
+            double distance = heap.peekKey();
+            int node = heap.pop();
+            if (!isStalled(distances, node, distance, forward)) {
+                relax(distances, node, distance, forward, heap);
+            }
+        }
+    }
+
+    /**
+     * Search upwards from the start until it can no longer improve on a path through the
+     * other, completed search
+     */
+    private double meet(Distances distances, int start, boolean forward, Search search) {
+        Distances other = forward ? search.backward : search.forward;
+        IndexedHeap heap = search.heap;
+        double best = Double.POSITIVE_INFINITY;
+        distances.set(start, 0);
+        heap.push(start, 0);
+        while (!heap.isEmpty() && heap.peekKey() < best) {
+            double distance = heap.peekKey();
+            int node = heap.pop();
+            best = Math.min(best, distance + other.get(node));
+            if (!isStalled(distances, node, distance, forward)) {
+                relax(distances, node, distance, forward, heap);
+            }
+        }
+        heap.clear();
+        distances.clear();
+        return best;
+    }
+
+    private void relax(Distances distances, int node, double distance, boolean forward, IndexedHeap heap) {
+        int[] first = forward ? forwardFirst : backwardFirst;
+        int[] heads = forward ? forwardTargets : backwardSources;
+        double[] seconds = forward ? forwardSeconds : backwardSeconds;
+        for (int e = first[node]; e < first[node + 1]; e++) {
+            int head = heads[e];
+            double candidate = distance + seconds[e];
+            if (candidate < distances.get(head)) {
+                distances.set(head, candidate);
+                heap.pushOrDecrease(head, candidate);
+            }
+        }
+    }
+
+    /**
+     * Stall-on-demand: a node reached more cheaply by coming down from a higher node is not
+     * on a shortest upward path, so nothing is gained by searching on from it
+     */
+    private boolean isStalled(Distances distances, int node, double distance, boolean forward) {
+        // Edges into the node from higher nodes are the other direction's upward edges
+        int[] first = forward ? backwardFirst : forwardFirst;
+        int[] heads = forward ? backwardSources : forwardTargets;
+        double[] seconds = forward ? backwardSeconds : forwardSeconds;
+        for (int e = first[node]; e < first[node + 1]; e++) {
+            if (distances.get(heads[e]) + seconds[e] < distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeEdges(DataOutputStream out, int[] first, int[] heads, double[] seconds) throws IOException {
+        for (int value : first) {
+            out.writeInt(value);
+        }
+        for (int value : heads) {
+            out.writeInt(value);
+        }
+        for (double value : seconds) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(DataInputStream in, int count) throws IOException {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    /**
+     * Per-thread query state
+     */
+    private static final class Search {
+        final Distances forward;
+        final Distances backward;
+        final IndexedHeap heap;
+
+        Search(int nodeCount) {
+            forward = new Distances(nodeCount);
+            backward = new Distances(nodeCount);
+            heap = new IndexedHeap(nodeCount);
+        }
+    }
+
+    /**
+     * Tentative distances that reset in time proportional to the nodes touched
+     */
+    static final class Distances {
+        private final double[] values;
+        private final int[] touched;
+        private int touchedCount;
+
+        Distances(int nodeCount) {
+            values = new double[nodeCount];
+            touched = new int[nodeCount];
+            Arrays.fill(values, Double.POSITIVE_INFINITY);
+        }
+
+        double get(int node) {
+            return values[node];
+        }
+
+        void set(int node, double value) {
+            if (values[node] == Double.POSITIVE_INFINITY) {
+                touched[touchedCount++] = node;
+            }
+            values[node] = value;
+        }
+
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                values[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    /**
+     * Binary min-heap of nodes keyed by distance, with decrease-key
+     */
+    static final class IndexedHeap {
+        private final int[] nodes;
+        private final double[] keys;
+        // Index of each node in the heap, or -1
+        private final int[] positions;
+        private int size;
+
+        IndexedHeap(int nodeCount) {
+            nodes = new int[nodeCount];
+            keys = new double[nodeCount];
+            positions = new int[nodeCount];
+            Arrays.fill(positions, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int node) {
+            return positions[node] >= 0;
+        }
+
+        double peekKey() {
+            return keys[0];
+        }
+
+        void push(int node, double key) {
+            int i = size++;
+            nodes[i] = node;
+            keys[i] = key;
+            positions[node] = i;
+            siftUp(i);
+        }
+
+        void pushOrDecrease(int node, double key) {
+            int i = positions[node];
+            if (i < 0) {
+                push(node, key);
+            } else if (key < keys[i]) {
+                keys[i] = key;
+                siftUp(i);
+            }
+        }
+
+        /**
+         * Change the key of a node already in the heap, in either direction
+         */
+        void update(int node, double key) {
+            int i = positions[node];
+            keys[i] = key;
+            siftUp(i);
+            siftDown(positions[node]);
+        }
+
+        int pop() {
+            int top = nodes[0];
+            positions[top] = -1;
+            size--;
+            if (size > 0) {
+                nodes[0] = nodes[size];
+                keys[0] = keys[size];
+                positions[nodes[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                positions[nodes[i]] = -1;
+            }
+            size = 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (keys[parent] <= keys[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && keys[left] < keys[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && keys[right] < keys[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int node = nodes[a];
+            nodes[a] = nodes[b];
+            nodes[b] = node;
+            double key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            positions[nodes[a]] = a;
+            positions[nodes[b]] = b;
+        }
+    }
+
+    /**
+     * Growable adjacency lists of the graph while it is being contracted
+     */
+    private static final class Adjacency {
+        final int[][] nodes;
+        final double[][] seconds;
+        final int[] sizes;
+
+        Adjacency(int nodeCount) {
+            nodes = new int[nodeCount][];
+            seconds = new double[nodeCount][];
+            sizes = new int[nodeCount];
+            for (int v = 0; v < nodeCount; v++) {
+                nodes[v] = new int[4];
+                seconds[v] = new double[4];
+            }
+        }
+
+        /**
+         * Add an edge, keeping only the faster of parallel edges
+         */
+        void add(int from, int to, double time) {
+            int[] heads = nodes[from];
+            for (int i = 0; i < sizes[from]; i++) {
+                if (heads[i] == to) {
+                    seconds[from][i] = Math.min(seconds[from][i], time);
+                    return;
+                }
+            }
+            if (sizes[from] == heads.length) {
+                nodes[from] = Arrays.copyOf(heads, heads.length * 2);
+                seconds[from] = Arrays.copyOf(seconds[from], heads.length * 2);
+            }
+            nodes[from][sizes[from]] = to;
+            seconds[from][sizes[from]++] = time;
+        }
+
+        void remove(int from, int to) {
+            int[] heads = nodes[from];
+            for (int i = 0; i < sizes[from]; i++) {
+                if (heads[i] == to) {
+                    int last = --sizes[from];
+                    heads[i] = heads[last];
+                    seconds[from][i] = seconds[from][last];
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Builder {
+        private final RoadGraph graph;
+        private final int nodeCount;
+        private final Adjacency out;
+        private final Adjacency in;
+        private final int[] contractedNeighbours;
+        private final int[] levels;
+
+        // Witness search state
+        private final Distances witnessDistances;
+        private final IndexedHeap witnessHeap;
+
+        // Upward edges recorded as nodes are contracted
+        private final int[][] forwardHeads;
+        private final double[][] forwardTimes;
+        private final int[][] backwardHeads;
+        private final double[][] backwardTimes;
+
+        Builder(RoadGraph graph) {
+            this.graph = graph;
+            this.nodeCount = graph.nodeCount();
+            this.out = new Adjacency(nodeCount);
+            this.in = new Adjacency(nodeCount);
+            this.contractedNeighbours = new int[nodeCount];
+            this.levels = new int[nodeCount];
+            this.witnessDistances = new Distances(nodeCount);
+            this.witnessHeap = new IndexedHeap(nodeCount);
+            this.forwardHeads = new int[nodeCount][];
+            this.forwardTimes = new double[nodeCount][];
+            this.backwardHeads = new int[nodeCount][];
+            this.backwardTimes = new double[nodeCount][];
+
+            for (int v = 0; v < nodeCount; v++) {
+                for (int e = graph.firstEdge[v]; e < graph.firstEdge[v + 1]; e++) {
+                    int w = graph.edgeTargets[e];
+                    if (w != v) {
+                        out.add(v, w, graph.edgeSeconds[e]);
+                        in.add(w, v, graph.edgeSeconds[e]);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IndexedHeap queue = new IndexedHeap(nodeCount);
+            for (int v = 0; v < nodeCount; v++) {
+                queue.push(v, priority(v));
+            }
+            while (!queue.isEmpty()) {
+                // Neighbours' priorities are refreshed after each contraction, so the top is current
+                int node = queue.pop();
+                contract(node);
+                for (int i = 0; i < out.sizes[node]; i++) {
+                    updateNeighbour(out.nodes[node][i], node, queue);
+                }
+                for (int i = 0; i < in.sizes[node]; i++) {
+                    updateNeighbour(in.nodes[node][i], node, queue);
+                }
+            }
+            return toHierarchy();
+        }
+
+        private void updateNeighbour(int neighbour, int node, IndexedHeap queue) {
+            if (queue.contains(neighbour)) {
+                contractedNeighbours[neighbour]++;
+                levels[neighbour] = Math.max(levels[neighbour], levels[node] + 1);
+                queue.update(neighbour, priority(neighbour));
+            }
+        }
+
+        /**
+         * Edge difference plus terms that spread contraction evenly over the graph
+         */
+        private double priority(int node) {
+            int shortcuts = addShortcuts(node, false, ESTIMATE_SETTLE_LIMIT);
+            return shortcuts - out.sizes[node] - in.sizes[node] + contractedNeighbours[node] + levels[node];
+        }
+
+        private void contract(int node) {
+            addShortcuts(node, true, WITNESS_SETTLE_LIMIT);
+
+            // Every remaining neighbour is contracted later, so these edges all lead upwards
+            forwardHeads[node] = Arrays.copyOf(out.nodes[node], out.sizes[node]);
+            forwardTimes[node] = Arrays.copyOf(out.seconds[node], out.sizes[node]);
+            backwardHeads[node] = Arrays.copyOf(in.nodes[node], in.sizes[node]);
+            backwardTimes[node] = Arrays.copyOf(in.seconds[node], in.sizes[node]);
+
+            for (int i = 0; i < out.sizes[node]; i++) {
+                in.remove(out.nodes[node][i], node);
+            }
+            for (int i = 0; i < in.sizes[node]; i++) {
+                out.remove(in.nodes[node][i], node);
+            }
+        }
+
+        /**
+         * Shortcuts needed to keep shortest paths through the node once it is removed
+         * @param add Whether to add them or only count them
+         */
+        private int addShortcuts(int node, boolean add, int settleLimit) {
+            int shortcuts = 0;
+            for (int i = 0; i < in.sizes[node]; i++) {
+                int source = in.nodes[node][i];
+                double toNode = in.seconds[node][i];
+                double limit = 0;
+                for (int j = 0; j < out.sizes[node]; j++) {
+                    if (out.nodes[node][j] != source) {
+                        limit = Math.max(limit, toNode + out.seconds[node][j]);
+                    }
+                }
+                witnessSearch(source, node, limit, settleLimit);
+                for (int j = 0; j < out.sizes[node]; j++) {
+                    int target = out.nodes[node][j];
+                    double via = toNode + out.seconds[node][j];
+                    if (target != source && witnessDistances.get(target) > via) {
+                        shortcuts++;
+                        if (add) {
+                            out.add(source, target, via);
+                            in.add(target, source, via);
+                        }
+                    }
+                }
+                witnessDistances.clear();
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Bounded Dijkstra from the source that avoids the node being contracted
+         */
+        private void witnessSearch(int source, int avoided, double limit, int settleLimit) {
+            witnessDistances.set(source, 0);
+            witnessHeap.push(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && witnessHeap.peekKey() <= limit && settled++ < settleLimit) {
+                double distance = witnessHeap.peekKey();
+                int node = witnessHeap.pop();
+                for (int i = 0; i < out.sizes[node]; i++) {
+                    int head = out.nodes[node][i];
+                    double candidate = distance + out.seconds[node][i];
+                    if (head != avoided && candidate < witnessDistances.get(head)) {
+                        witnessDistances.set(head, candidate);
+                        witnessHeap.pushOrDecrease(head, candidate);
+                    }
+                }
+            }
+            witnessHeap.clear();
+        }
+
+        private ContractionHierarchy toHierarchy() {
+            int[] forwardFirst = new int[nodeCount + 1];
+            int[] backwardFirst = new int[nodeCount + 1];
+            for (int v = 0; v < nodeCount; v++) {
+                forwardFirst[v + 1] = forwardFirst[v] + forwardHeads[v].length;
+                backwardFirst[v + 1] = backwardFirst[v] + backwardHeads[v].length;
+            }
+            int[] forwardTargets = new int[forwardFirst[nodeCount]];
+            double[] forwardSeconds = new double[forwardFirst[nodeCount]];
+            int[] backwardSources = new int[backwardFirst[nodeCount]];
+            double[] backwardSeconds = new double[backwardFirst[nodeCount]];
+            for (int v = 0; v < nodeCount; v++) {
+                System.arraycopy(forwardHeads[v], 0, forwardTargets, forwardFirst[v], forwardHeads[v].length);
+                System.arraycopy(forwardTimes[v], 0, forwardSeconds, forwardFirst[v], forwardTimes[v].length);
+                System.arraycopy(backwardHeads[v], 0, backwardSources, backwardFirst[v], backwardHeads[v].length);
+                System.arraycopy(backwardTimes[v], 0, backwardSeconds, backwardFirst[v], backwardTimes[v].length);
+            }
+            return new ContractionHierarchy(nodeCount, graph.fingerprint(), forwardFirst, forwardTargets,
+                    forwardSeconds, backwardFirst, backwardSources, backwardSeconds);
+        }
+    }
+}
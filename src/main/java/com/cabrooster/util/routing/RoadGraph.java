@@ -0,0 +1,151 @@
+package com.cabrooster.util.routing;
+
+import com.cabrooster.util.LongIntHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Directed road network with travel times, stored as compressed adjacency arrays.
+ * Nodes are numbered from 0 in the order they were read.
+ */
+public final class RoadGraph {
+
+    private static final int NO_NODE = -1;
+
+    final double[] latitudes;
+    final double[] longitudes;
+    // Edges leaving node v are firstEdge[v] until firstEdge[v + 1]
+    final int[] firstEdge;
+    final int[] edgeTargets;
+    final double[] edgeSeconds;
+
+    RoadGraph(double[] latitudes, double[] longitudes, int[] edgeSources, int[] edgeTargets,
+              double[] edgeSeconds, int edgeCount) {
+        int nodeCount = latitudes.length;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstEdge = new int[nodeCount + 1];
+        this.edgeTargets = new int[edgeCount];
+        this.edgeSeconds = new double[edgeCount];
+
+        // Counting sort of the edges by source node
+        for (int e = 0; e < edgeCount; e++) {
+            firstEdge[edgeSources[e] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            firstEdge[v + 1] += firstEdge[v];
+        }
+        int[] next = Arrays.copyOf(firstEdge, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            int position = next[edgeSources[e]]++;
+            this.edgeTargets[position] = edgeTargets[e];
+            this.edgeSeconds[position] = edgeSeconds[e];
+        }
+    }
+
+    /**
+     * Read a graph exported from an OSM extract. Lines are either
+     * {@code n,<node id>,<latitude>,<longitude>} or {@code e,<from id>,<to id>,<seconds>[,oneway]};
+     * edges are two-way unless the last field is {@code oneway}. Nodes must come before the
+     * edges that use them. Blank lines and lines starting with # are skipped.
+     */
+    public static RoadGraph load(Reader source) throws IOException {
+        LongIntHashMap nodeIndex = new LongIntHashMap(1024, NO_NODE);
+        double[] lats = new double[1024];
+        double[] lons = new double[1024];
+        int nodeCount = 0;
+        int[] sources = new int[1024];
+        int[] targets = new int[1024];
+        double[] seconds = new double[1024];
+        int edgeCount = 0;
+
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            try {
+                if (fields[0].equals("n") && fields.length == 4) {
+                    long id = Long.parseLong(fields[1].trim());
+                    if (nodeIndex.containsKey(id)) {
+                        throw new IOException("Duplicate node " + id + " on line " + lineNumber);
+                    }
+                    if (nodeCount == lats.length) {
+                        lats = Arrays.copyOf(lats, nodeCount * 2);
+                        lons = Arrays.copyOf(lons, nodeCount * 2);
+                    }
+                    lats[nodeCount] = Double.parseDouble(fields[2].trim());
+                    lons[nodeCount] = Double.parseDouble(fields[3].trim());
+                    nodeIndex.put(id, nodeCount++);
+                } else if (fields[0].equals("e") && (fields.length == 4 || fields.length == 5)) {
+                    int from = nodeIndex.get(Long.parseLong(fields[1].trim()));
+                    int to = nodeIndex.get(Long.parseLong(fields[2].trim()));
+                    double time = Double.parseDouble(fields[3].trim());
+                    boolean oneWay = fields.length == 5 && fields[4].trim().equals("oneway");
+                    if (from == NO_NODE || to == NO_NODE) {
+                        throw new IOException("Edge on line " + lineNumber + " uses an unknown node");
+                    }
+                    if (!(time >= 0) || Double.isInfinite(time)) {
+                        throw new IOException("Invalid travel time on line " + lineNumber);
+                    }
+                    if (edgeCount + 2 > sources.length) {
+                        sources = Arrays.copyOf(sources, sources.length * 2);
+                        targets = Arrays.copyOf(targets, targets.length * 2);
+                        seconds = Arrays.copyOf(seconds, seconds.length * 2);
+                    }
+                    sources[edgeCount] = from;
+                    targets[edgeCount] = to;
+                    seconds[edgeCount++] = time;
+                    if (!oneWay) {
+                        sources[edgeCount] = to;
+                        targets[edgeCount] = from;
+                        seconds[edgeCount++] = time;
+                    }
+                } else {
+                    throw new IOException("Unrecognised road graph line " + lineNumber + ": " + line);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number on road graph line " + lineNumber, e);
+            }
+        }
+        return new RoadGraph(Arrays.copyOf(lats, nodeCount), Arrays.copyOf(lons, nodeCount),
+                sources, targets, seconds, edgeCount);
+    }
+
+    public int nodeCount() {
+        return latitudes.length;
+    }
+
+    public int edgeCount() {
+        return edgeTargets.length;
+    }
+
+    public double latitude(int node) {
+        return latitudes[node];
+    }
+
+    public double longitude(int node) {
+        return longitudes[node];
+    }
+
+    /**
+     * Hash of the whole graph, used to tell whether a cached hierarchy was built from it
+     */
+    public long fingerprint() {
+        long hash = 1125899906842597L;
+        hash = 31 * hash + Arrays.hashCode(latitudes);
+        hash = 31 * hash + Arrays.hashCode(longitudes);
+        hash = 31 * hash + Arrays.hashCode(firstEdge);
+        hash = 31 * hash + Arrays.hashCode(edgeTargets);
+        hash = 31 * hash + Arrays.hashCode(edgeSeconds);
+        return hash;
+    }
+}
@@ -0,0 +1,99 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.util.distance.DistanceEngine;
+import com.cabrooster.util.distance.EquirectangularDistanceEngine;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import com.cabrooster.util.distance.PrecomputedDistanceEngine;
+import com.cabrooster.util.distance.VincentyDistanceEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each distance engine for one passenger against a city of cabs, in pairs per
+ * microsecond. Accuracy against Vincenty on the same pairs is checked by DistanceEngineTest.
+ * The matrix engine is built from Vincenty distances, so it shows the cost of the lookup alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceEngineBenchmark {
+
+    private static final int CABS = 1024;
+    private static final double PASSENGER_LATITUDE = 12.9716;
+    private static final double PASSENGER_LONGITUDE = 77.5946;
+
+    @Param({HaversineDistanceEngine.NAME, EquirectangularDistanceEngine.NAME,
+            VincentyDistanceEngine.NAME, PrecomputedDistanceEngine.NAME})
+    public String engineName;
+
+    private DistanceEngine engine;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] distances;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        latitudes = new double[CABS];
+        longitudes = new double[CABS];
+        distances = new double[CABS];
+        for (int i = 0; i < CABS; i++) {
+            latitudes[i] = 12.8 + random.nextDouble() * 0.4;
+            longitudes[i] = 77.4 + random.nextDouble() * 0.4;
+        }
+        // The passenger's point goes last
+        latitudes[CABS - 1] = PASSENGER_LATITUDE;
+        longitudes[CABS - 1] = PASSENGER_LONGITUDE;
+
+        DistanceEngine reference = new VincentyDistanceEngine();
+        engine = switch (engineName) {
+            case HaversineDistanceEngine.NAME -> new HaversineDistanceEngine();
+            case EquirectangularDistanceEngine.NAME -> new EquirectangularDistanceEngine();
+            case VincentyDistanceEngine.NAME -> reference;
+            case PrecomputedDistanceEngine.NAME -> matrixOf(reference);
+            default -> throw new IllegalArgumentException("Unknown engine " + engineName);
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CABS)
+    public double[] perPair() {
+        for (int i = 0; i < CABS; i++) {
+            distances[i] = engine.distance(PASSENGER_LATITUDE, PASSENGER_LONGITUDE, latitudes[i], longitudes[i]);
+        }
+        return distances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CABS)
+    public double[] batch() {
+        engine.distances(PASSENGER_LATITUDE, PASSENGER_LONGITUDE, latitudes, longitudes, distances, CABS);
+        return distances;
+    }
+
+    private PrecomputedDistanceEngine matrixOf(DistanceEngine reference) {
+        double[][] matrix = new double[CABS][CABS];
+        for (int i = 0; i < CABS; i++) {
+            for (int j = 0; j < CABS; j++) {
+                matrix[i][j] = reference.distance(latitudes[i], longitudes[i], latitudes[j], longitudes[j]);
+            }
+        }
+        return new PrecomputedDistanceEngine(latitudes, longitudes, matrix, new HaversineDistanceEngine());
+    }
+}
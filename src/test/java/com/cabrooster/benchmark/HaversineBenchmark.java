@@ -0,0 +1,80 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.service.LocationService;
+import com.cabrooster.util.GeoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One passenger against an array of cabs: per-pair calls versus the batch kernel.
+ * Scores are per cab. Forks inherit the runner's JVM options, so the batch kernel
+ * is vectorised when the runner has jdk.incubator.vector (the benchmark profile adds it).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaversineBenchmark {
+
+    private static final int CABS = 4096;
+    private static final double PASSENGER_LATITUDE = 12.9716;
+    private static final double PASSENGER_LONGITUDE = 77.5946;
+
+    private final LocationService locationService = new LocationService();
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] distances;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        latitudes = new double[CABS];
+        longitudes = new double[CABS];
+        distances = new double[CABS];
+        for (int i = 0; i < CABS; i++) {
+            latitudes[i] = 12.8 + random.nextDouble() * 0.4;
+            longitudes[i] = 77.4 + random.nextDouble() * 0.4;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CABS)
+    public double[] perPairGeoUtils() {
+        for (int i = 0; i < CABS; i++) {
+            distances[i] = GeoUtils.calculateDistanceInMeters(
+                    PASSENGER_LATITUDE, PASSENGER_LONGITUDE, latitudes[i], longitudes[i]);
+        }
+        return distances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CABS)
+    public double[] perPairLocationService() {
+        for (int i = 0; i < CABS; i++) {
+            distances[i] = locationService.calculateDistance(
+                    PASSENGER_LATITUDE, PASSENGER_LONGITUDE, latitudes[i], longitudes[i]);
+        }
+        return distances;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CABS)
+    public double[] batch() {
+        GeoUtils.distancesInMeters(PASSENGER_LATITUDE, PASSENGER_LONGITUDE, latitudes, longitudes, distances);
+        return distances;
+    }
+}
@@ -0,0 +1,122 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.dto.LocationUpdate;
+import com.cabrooster.util.LocationBatchCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a locations:batch request body into the arrays the ingest service applies, from JSON
+ * as Spring MVC reads it and from the binary form.
+ * <p>
+ * Each decode also counts the payload bytes and pings it read. In average time mode JMH reports
+ * these as {@code :payloadBytes} and {@code :pings} rows in time per byte and per ping; the
+ * primary score divided by the {@code :payloadBytes} row is the payload size of one batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBatchBenchmark {
+
+    @Param({"100", "10000"})
+    public int pings;
+
+    private ObjectReader reader;
+    private byte[] json;
+    private byte[] binary;
+
+    private long[] ids;
+    private long[] timestamps;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int count;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Payload {
+        public long payloadBytes;
+        public long pings;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+            pings = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        reader = mapper.readerFor(new TypeReference<List<LocationUpdate>>() { });
+
+        // A gateway's batch: a fleet sorted by id in one city, pinging within a few seconds
+        Random random = new Random(42);
+        List<LocationUpdate> updates = new ArrayList<>(pings);
+        ids = new long[pings];
+        timestamps = new long[pings];
+        latitudes = new double[pings];
+        longitudes = new double[pings];
+        for (int i = 0; i < pings; i++) {
+            ids[i] = 1000 + i;
+            timestamps[i] = 1_700_000_000_000L + random.nextInt(5000);
+            latitudes[i] = Math.round((12.9716 + (random.nextDouble() - 0.5) * 0.2) * 1e7) / 1e7;
+            longitudes[i] = Math.round((77.5946 + (random.nextDouble() - 0.5) * 0.2) * 1e7) / 1e7;
+            updates.add(new LocationUpdate(ids[i], latitudes[i], longitudes[i], timestamps[i]));
+        }
+        json = mapper.writeValueAsBytes(updates);
+        binary = LocationBatchCodec.encode(ids, timestamps, latitudes, longitudes, pings);
+    }
+
+    @Benchmark
+    public int decodeJson(Payload payload) throws IOException {
+        List<LocationUpdate> updates = reader.readValue(json);
+        count = 0;
+        for (LocationUpdate update : updates) {
+            accept(update.getId(), update.getTs(), update.getLat(), update.getLon());
+        }
+        payload.payloadBytes += json.length;
+        payload.pings += count;
+        return count;
+    }
+
+    @Benchmark
+    public int decodeBinary(Payload payload) {
+        count = 0;
+        LocationBatchCodec.decode(binary, this::accept);
+        payload.payloadBytes += binary.length;
+        payload.pings += count;
+        return count;
+    }
+
+    private void accept(long id, long timestampMillis, double latitude, double longitude) {
+        ids[count] = id;
+        timestamps[count] = timestampMillis;
+        latitudes[count] = latitude;
+        longitudes[count] = longitude;
+        count++;
+    }
+}
@@ -0,0 +1,147 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.dto.NearbyCab;
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.service.FleetStateStore;
+import com.cabrooster.service.LocationService;
+import com.cabrooster.util.GeoGridIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest available cab for one passenger, by each path dispatch can take: a Haversine call per
+ * cab, the prefiltered scan over cabs just loaded from the table, and the live fleet store.
+ * Cabs are spread over a 40 km city and the search radius is dispatch's 100 meters.
+ * <p>
+ * The {@code nearbyWithMoves} group samples the latency of the nearby-cabs endpoint's k=10
+ * lookups, three lookup threads against one thread moving cabs; its p0.99 row is the tail
+ * latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestCabBenchmark {
+
+    private static final double MAX_DISTANCE_METERS = 100;
+    // Passenger positions cycled through so no single lookup is always cached
+    private static final int PASSENGERS = 1024;
+    private static final int NEARBY_K = 10;
+    private static final double NEARBY_RADIUS_METERS = 5000;
+
+    @Param({"100", "1000", "10000", "50000", "100000"})
+    public int fleetSize;
+
+    private final LocationService locationService = new LocationService();
+    private final GeoGridIndex.DistanceFunction distanceFunction = locationService::calculateDistance;
+    private FleetStateStore fleetStateStore;
+    private double[] cabLatitudes;
+    private double[] cabLongitudes;
+    private double[] passengerLatitudes;
+    private double[] passengerLongitudes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        cabLatitudes = new double[fleetSize];
+        cabLongitudes = new double[fleetSize];
+        fleetStateStore = new FleetStateStore();
+        ReflectionTestUtils.setField(fleetStateStore, "enabled", true);
+        ReflectionTestUtils.setField(fleetStateStore, "loaded", true);
+        for (int c = 0; c < fleetSize; c++) {
+            cabLatitudes[c] = 12.8 + random.nextDouble() * 0.4;
+            cabLongitudes[c] = 77.4 + random.nextDouble() * 0.4;
+
+            CabDriver cab = new CabDriver();
+            cab.setId((long) c);
+            cab.setCurrentLatitude(cabLatitudes[c]);
+            cab.setCurrentLongitude(cabLongitudes[c]);
+            cab.setAvailable(true);
+            fleetStateStore.upsert(cab);
+        }
+        passengerLatitudes = new double[PASSENGERS];
+        passengerLongitudes = new double[PASSENGERS];
+        for (int p = 0; p < PASSENGERS; p++) {
+            passengerLatitudes[p] = 12.8 + random.nextDouble() * 0.4;
+            passengerLongitudes[p] = 77.4 + random.nextDouble() * 0.4;
+        }
+    }
+
+    @Benchmark
+    public int fullScan() {
+        int p = nextPassenger();
+        int nearest = -1;
+        double minDistance = MAX_DISTANCE_METERS;
+        for (int c = 0; c < fleetSize; c++) {
+            double distance = locationService.calculateDistance(passengerLatitudes[p], passengerLongitudes[p],
+                    cabLatitudes[c], cabLongitudes[c]);
+            if (distance <= minDistance) {
+                minDistance = distance;
+                nearest = c;
+            }
+        }
+        return nearest;
+    }
+
+    @Benchmark
+    public int prefiltered() {
+        int p = nextPassenger();
+        // As dispatch does for cabs just loaded, without cached cosines
+        return locationService.findNearest(passengerLatitudes[p], passengerLongitudes[p],
+                cabLatitudes, cabLongitudes, null, fleetSize, MAX_DISTANCE_METERS);
+    }
+
+    @Benchmark
+    public long liveStore() {
+        int p = nextPassenger();
+        return fleetStateStore.nearestAvailable(passengerLatitudes[p], passengerLongitudes[p],
+                MAX_DISTANCE_METERS, distanceFunction);
+    }
+
+    @Benchmark
+    @Group("nearbyWithMoves")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<NearbyCab> nearby() {
+        int p = nextPassenger();
+        return fleetStateStore.findNearby(passengerLatitudes[p], passengerLongitudes[p], NEARBY_K,
+                NEARBY_RADIUS_METERS, true, distanceFunction);
+    }
+
+    @Benchmark
+    @Group("nearbyWithMoves")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean move() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return fleetStateStore.updateLocation(random.nextInt(fleetSize),
+                12.8 + random.nextDouble() * 0.4, 77.4 + random.nextDouble() * 0.4);
+    }
+
+    private int nextPassenger() {
+        next = (next + 1) & (PASSENGERS - 1);
+        return next;
+    }
+}
@@ -0,0 +1,72 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.service.RateLimitService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the rate limit check every API request pays, for a number of distinct client
+ * addresses, from one thread and from several at once. The limit is set high enough that no
+ * request is rejected, so only the bookkeeping is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitBenchmark {
+
+    @Param({"1", "1000", "100000"})
+    public int clients;
+
+    private final RateLimitService rateLimitService = new RateLimitService();
+    private String[] addresses;
+
+    @Setup
+    public void setUp() {
+        ReflectionTestUtils.setField(rateLimitService, "capacity", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(rateLimitService, "time", 1);
+        ReflectionTestUtils.setField(rateLimitService, "timeUnit", "MINUTES");
+        addresses = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            addresses[i] = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+            // Buckets already exist, as they do for returning clients
+            rateLimitService.checkRateLimit(addresses[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        int next;
+    }
+
+    @Benchmark
+    public void checkRateLimit(Client client) {
+        rateLimitService.checkRateLimit(nextAddress(client));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void checkRateLimitContended(Client client) {
+        rateLimitService.checkRateLimit(nextAddress(client));
+    }
+
+    private String nextAddress(Client client) {
+        client.next = client.next + 1 < clients ? client.next + 1 : 0;
+        return addresses[client.next];
+    }
+}
@@ -0,0 +1,86 @@
+package com.cabrooster.benchmark;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.model.RideAssignment;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialising ride assignments as the ride endpoints return them, for one ride and for lists
+ * the size of an admin listing. The mapper is configured as Spring MVC configures its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RideAssignmentJsonBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int rides;
+
+    private ObjectWriter writer;
+    private List<RideAssignment> assignments;
+
+    @Setup
+    public void setUp() {
+        writer = Jackson2ObjectMapperBuilder.json().build().writer();
+        LocalDateTime now = LocalDateTime.of(2024, 1, 15, 8, 0);
+        assignments = new ArrayList<>(rides);
+        for (int i = 0; i < rides; i++) {
+            CabDriver cab = new CabDriver();
+            cab.setId((long) i);
+            cab.setName("Driver " + i);
+            cab.setEmail("driver" + i + "@example.com");
+            cab.setPhone("+91700000" + i);
+            cab.setLicenseNumber("DL" + i);
+            cab.setCabNumber("KA01AB" + i);
+            cab.setCurrentLatitude(12.9716 + i * 1e-5);
+            cab.setCurrentLongitude(77.5946 + i * 1e-5);
+            cab.setVersion(1L);
+
+            Passenger passenger = new Passenger();
+            passenger.setId((long) i);
+            passenger.setName("Passenger " + i);
+            passenger.setEmail("passenger" + i + "@example.com");
+            passenger.setPhone("+91800000" + i);
+            passenger.setCurrentLatitude(12.9716 + i * 1e-5);
+            passenger.setCurrentLongitude(77.5946 + i * 1e-5);
+            passenger.setHomeLatitude(12.9352 + i * 1e-5);
+            passenger.setHomeLongitude(77.6245 + i * 1e-5);
+            passenger.setVersion(1L);
+
+            RideAssignment assignment = new RideAssignment();
+            assignment.setId((long) i);
+            assignment.setCabDriver(cab);
+            assignment.setPassenger(passenger);
+            assignment.setAssignmentTime(now);
+            assignment.setStatus("PENDING");
+            assignments.add(assignment);
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return rides == 1 ? writer.writeValueAsBytes(assignments.get(0)) : writer.writeValueAsBytes(assignments);
+    }
+}
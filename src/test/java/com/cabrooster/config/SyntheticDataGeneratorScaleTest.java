@@ -0,0 +1,70 @@
+package com.cabrooster.config;
+
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RideAssignmentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Times seeding the default million rows into the test database. Takes minutes, so it only
+ * runs with {@code mvn test -Dsynthetic.scale=true}; {@code -Dsynthetic.scale.max-seconds}
+ * sets how long it may take.
+ */
+@DataJpaTest
+@Import(SyntheticDataGenerator.class)
+@ActiveProfiles({"test", "synthetic"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@EnabledIfSystemProperty(named = "synthetic.scale", matches = "true")
+class SyntheticDataGeneratorScaleTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticDataGeneratorScaleTest.class);
+
+    @Autowired
+    private SyntheticDataGenerator generator;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private RideAssignmentRepository rideAssignmentRepository;
+
+    @AfterEach
+    void tearDown() {
+        rideAssignmentRepository.deleteAllInBatch();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testSeedsAMillionRowsInTime() {
+        long maxSeconds = Long.getLong("synthetic.scale.max-seconds", 600);
+
+        long start = System.nanoTime();
+        generator.generate();
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+
+        long rows = cabDriverRepository.count() + passengerRepository.count() + rideAssignmentRepository.count();
+        logger.info("Seeded {} rows in {} s", rows, seconds);
+        assertEquals(10_000, cabDriverRepository.count());
+        assertEquals(200_000, passengerRepository.count());
+        assertEquals(790_000, rideAssignmentRepository.count());
+        assertTrue(seconds <= maxSeconds, "seeding took " + seconds + " s, more than " + maxSeconds);
+    }
+}
@@ -0,0 +1,95 @@
+package com.cabrooster.config;
+
+import com.cabrooster.model.Passenger;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RideAssignmentRepository;
+import com.cabrooster.util.GeoUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "data.synthetic.cabs=200",
+        "data.synthetic.passengers=2000",
+        "data.synthetic.ride-history=3000",
+        "data.synthetic.campuses=4"
+})
+@Import(SyntheticDataGenerator.class)
+@ActiveProfiles({"test", "synthetic"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SyntheticDataGeneratorTest {
+
+    @Autowired
+    private SyntheticDataGenerator generator;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private RideAssignmentRepository rideAssignmentRepository;
+
+    @AfterEach
+    void tearDown() {
+        rideAssignmentRepository.deleteAllInBatch();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testGeneratesClusteredFleetAndHistory() {
+        generator.generate();
+
+        assertEquals(200, cabDriverRepository.count());
+        assertEquals(2000, passengerRepository.count());
+        assertEquals(3000, rideAssignmentRepository.count());
+
+        // Pickups cluster at the campuses: nearly every passenger has plenty of others close by
+        List<Passenger> passengers = passengerRepository.findAll();
+        int clustered = 0;
+        for (Passenger passenger : passengers) {
+            int neighbours = 0;
+            for (Passenger other : passengers) {
+                if (GeoUtils.calculateDistanceInMeters(passenger.getCurrentLatitude(), passenger.getCurrentLongitude(),
+                        other.getCurrentLatitude(), other.getCurrentLongitude()) < 500) {
+                    neighbours++;
+                }
+            }
+            if (neighbours > 20) {
+                clustered++;
+            }
+        }
+        assertTrue(clustered > passengers.size() * 0.9, clustered + " of " + passengers.size() + " clustered");
+    }
+
+    @Test
+    void testSameSeedGivesSameData() {
+        generator.generate();
+        List<Double> first = pickupLatitudes();
+        tearDown();
+
+        generator.generate();
+
+        assertEquals(first, pickupLatitudes());
+    }
+
+    private List<Double> pickupLatitudes() {
+        return passengerRepository.findAll().stream()
+                .sorted(Comparator.comparingInt(passenger -> Integer.parseInt(passenger.getName().substring(10))))
+                .map(Passenger::getCurrentLatitude)
+                .toList();
+    }
+}
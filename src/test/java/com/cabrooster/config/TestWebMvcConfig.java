@@ -4,8 +4,12 @@ import com.cabrooster.repository.CabDriverRepository;
 import com.cabrooster.repository.PassengerRepository;
 import com.cabrooster.repository.RideAssignmentRepository;
 import com.cabrooster.service.BookingService;
+import com.cabrooster.service.FleetStateStore;
 import com.cabrooster.service.LMStudioService;
+import com.cabrooster.service.LocationHistoryService;
+import com.cabrooster.service.LocationIngestService;
 import com.cabrooster.service.LocationService;
+import com.cabrooster.service.LocationWriteBuffer;
 import com.cabrooster.service.RateLimitService;
 import com.cabrooster.service.RideAssignmentService;
 import org.mockito.Mockito;
@@ -69,4 +73,28 @@ public class TestWebMvcConfig {
     public RideAssignmentService rideAssignmentService() {
         return Mockito.mock(RideAssignmentService.class);
     }
+    
+    @Bean
+    @Primary
+    public FleetStateStore fleetStateStore() {
+        return Mockito.mock(FleetStateStore.class);
+    }
+    
+    @Bean
+    @Primary
+    public LocationIngestService locationIngestService() {
+        return Mockito.mock(LocationIngestService.class);
+    }
+    
+    @Bean
+    @Primary
+    public LocationWriteBuffer locationWriteBuffer() {
+        return Mockito.mock(LocationWriteBuffer.class);
+    }
+    
+    @Bean
+    @Primary
+    public LocationHistoryService locationHistoryService() {
+        return Mockito.mock(LocationHistoryService.class);
+    }
 }
@@ -0,0 +1,376 @@
+package com.cabrooster.controller;
+
+import com.cabrooster.interceptor.DriverHandshakeInterceptor;
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.service.FleetStateStore;
+import com.cabrooster.service.LocationHistoryService;
+import com.cabrooster.service.LocationIngestService;
+import com.cabrooster.service.LocationWriteBuffer;
+import com.cabrooster.service.dispatch.RidesAssignedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+public class DriverTelemetryHandlerTest {
+
+    private static final int DRIVERS = 10_000;
+    private static final int FRAMES_PER_DRIVER = 20;
+
+    @Mock
+    private FleetStateStore fleetStateStore;
+
+    @Mock
+    private LocationIngestService locationIngestService;
+
+    @Mock
+    private LocationHistoryService locationHistoryService;
+
+    @InjectMocks
+    private DriverTelemetryHandler handler;
+
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @BeforeEach
+    public void setup() {
+        locationWriteBuffer = new LocationWriteBuffer();
+        ReflectionTestUtils.setField(locationWriteBuffer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(locationWriteBuffer, "enabled", true);
+        ReflectionTestUtils.setField(locationWriteBuffer, "maxPending", DRIVERS * 2);
+        ReflectionTestUtils.setField(locationWriteBuffer, "jdbcBatchSize", 500);
+        locationWriteBuffer.init();
+        ReflectionTestUtils.setField(handler, "locationWriteBuffer", locationWriteBuffer);
+        ReflectionTestUtils.setField(handler, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(handler, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(handler, "minFrameIntervalMs", 0L);
+        ReflectionTestUtils.setField(handler, "sendTimeLimitMs", 5000);
+        ReflectionTestUtils.setField(handler, "sendBufferBytes", 16384);
+        ReflectionTestUtils.setField(handler, "notificationQueueCapacity", 100);
+        handler.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+
+    // Counts the state held per driver; heap per connection over real sockets is not measured here
+    @Test
+    public void testManyDriversStreamConcurrentlyWithBoundedState() throws Exception {
+        // A mock that remembers no invocations, so the frames do not pile up in it
+        ReflectionTestUtils.setField(handler, "locationHistoryService",
+                mock(LocationHistoryService.class, withSettings().stubOnly()));
+        List<FakeSession> sessions = new ArrayList<>(DRIVERS);
+        for (long cabId = 1; cabId <= DRIVERS; cabId++) {
+            FakeSession session = new FakeSession(cabId);
+            handler.afterConnectionEstablished(session);
+            sessions.add(session);
+        }
+        assertEquals(DRIVERS, handler.getConnectionCount());
+
+        // Each driver's frames arrive in order on one thread at a time, drivers in parallel
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> streams = new ArrayList<>();
+            for (FakeSession session : sessions) {
+                streams.add(executor.submit(() -> {
+                    for (int frame = 1; frame <= FRAMES_PER_DRIVER; frame++) {
+                        handler.handleMessage(session, new TextMessage(
+                                "{\"lat\":" + (12.9 + frame * 0.001) + ",\"lon\":77.59,\"ts\":" + frame + "}"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> stream : streams) {
+                stream.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Only the latest position of each cab is held, however many frames were sent
+        assertEquals(DRIVERS, locationWriteBuffer.getPendingCount());
+        for (long cabId = 1; cabId <= DRIVERS; cabId++) {
+            CabDriver cab = new CabDriver();
+            cab.setId(cabId);
+            locationWriteBuffer.overlay(cab);
+            assertEquals(12.9 + FRAMES_PER_DRIVER * 0.001, cab.getCurrentLatitude());
+        }
+        verifyNoInteractions(locationIngestService);
+
+        for (FakeSession session : sessions) {
+            assertTrue(session.isOpen());
+            handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+        }
+        assertEquals(0, handler.getConnectionCount());
+    }
+
+    @Test
+    public void testFramesGoToLiveStoreAndTooFastOrStaleOnesAreDropped() throws Exception {
+        when(fleetStateStore.isEnabled()).thenReturn(true);
+        when(fleetStateStore.updateLocation(anyLong(), anyDouble(), anyDouble())).thenReturn(true);
+        FakeSession session = new FakeSession(7L);
+        handler.afterConnectionEstablished(session);
+
+        handler.handleMessage(session, new TextMessage("{\"lat\":12.97,\"lon\":77.59,\"ts\":2000}"));
+        // Taken before the last applied frame
+        handler.handleMessage(session, new TextMessage("{\"lat\":12.10,\"lon\":77.10,\"ts\":1000}"));
+        verify(fleetStateStore).updateLocation(7L, 12.97, 77.59);
+        verify(locationHistoryService).recordCab(7L, 2000L, 12.97, 77.59);
+
+        ReflectionTestUtils.setField(handler, "minFrameIntervalMs", 60_000L);
+        handler.handleMessage(session, new TextMessage("{\"lat\":12.98,\"lon\":77.60,\"ts\":3000}"));
+        handler.handleMessage(session, new TextMessage("{\"lat\":12.99,\"lon\":77.61,\"ts\":4000}"));
+        verify(fleetStateStore).updateLocation(7L, 12.98, 77.60);
+        verify(fleetStateStore, times(2)).updateLocation(anyLong(), anyDouble(), anyDouble());
+        assertTrue(session.isOpen());
+        assertEquals(0, locationWriteBuffer.getPendingCount());
+    }
+
+    @Test
+    public void testMalformedFramesCloseTheConnection() throws Exception {
+        FakeSession garbled = new FakeSession(1L);
+        handler.afterConnectionEstablished(garbled);
+        handler.handleMessage(garbled, new TextMessage("12.97,77.59"));
+        assertEquals(CloseStatus.BAD_DATA.getCode(), garbled.closeStatus.getCode());
+
+        FakeSession outOfRange = new FakeSession(2L);
+        handler.afterConnectionEstablished(outOfRange);
+        handler.handleMessage(outOfRange, new TextMessage("{\"lat\":91,\"lon\":77.59}"));
+        assertEquals(CloseStatus.BAD_DATA.getCode(), outOfRange.closeStatus.getCode());
+
+        FakeSession bareNull = new FakeSession(3L);
+        handler.afterConnectionEstablished(bareNull);
+        handler.handleMessage(bareNull, new TextMessage("null"));
+        assertEquals(CloseStatus.BAD_DATA.getCode(), bareNull.closeStatus.getCode());
+
+        // Without a longitude the frame would otherwise put the cab on the prime meridian
+        FakeSession missingLongitude = new FakeSession(4L);
+        handler.afterConnectionEstablished(missingLongitude);
+        handler.handleMessage(missingLongitude, new TextMessage("{\"lat\":12.97}"));
+        assertEquals(CloseStatus.BAD_DATA.getCode(), missingLongitude.closeStatus.getCode());
+
+        assertEquals(0, locationWriteBuffer.getPendingCount());
+    }
+
+    @Test
+    public void testAssignmentsArePushedToTheAssignedCabOnly() throws Exception {
+        FakeSession assigned = new FakeSession(1L);
+        FakeSession other = new FakeSession(2L);
+        handler.afterConnectionEstablished(assigned);
+        handler.afterConnectionEstablished(other);
+
+        handler.onRidesAssigned(new RidesAssignedEvent(List.of(
+                newAssignment(100L, 1L, 50L),
+                // Cab 3 is not connected
+                newAssignment(101L, 3L, 51L))));
+        awaitNotifications();
+
+        assertEquals(1, assigned.sent.size());
+        String payload = ((TextMessage) assigned.sent.get(0)).getPayload();
+        Map<?, ?> notification = new ObjectMapper().readValue(payload, Map.class);
+        assertEquals(100, notification.get("assignmentId"));
+        assertEquals(50, notification.get("passengerId"));
+        assertEquals(12.97, notification.get("pickupLat"));
+        assertTrue(other.sent.isEmpty());
+    }
+
+    @Test
+    public void testReconnectReplacesTheOldConnection() throws Exception {
+        FakeSession first = new FakeSession(1L);
+        FakeSession second = new FakeSession(1L);
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(second);
+
+        assertFalse(first.isOpen());
+        // The old connection closing afterwards leaves the new one registered
+        handler.afterConnectionClosed(first, first.closeStatus);
+        assertEquals(1, handler.getConnectionCount());
+
+        handler.onRidesAssigned(new RidesAssignedEvent(List.of(newAssignment(100L, 1L, 50L))));
+        awaitNotifications();
+        assertTrue(first.sent.isEmpty());
+        assertEquals(1, second.sent.size());
+    }
+
+    @Test
+    public void testStalledDriverDoesNotHoldUpTheCaller() throws Exception {
+        FakeSession stalled = new FakeSession(1L);
+        stalled.stall = new CountDownLatch(1);
+        handler.afterConnectionEstablished(stalled);
+
+        // Would block until the driver reads if the commit sent the notification itself
+        handler.onRidesAssigned(new RidesAssignedEvent(List.of(newAssignment(100L, 1L, 50L))));
+        assertTrue(stalled.sent.isEmpty());
+
+        stalled.stall.countDown();
+        awaitNotifications();
+        assertEquals(1, stalled.sent.size());
+    }
+
+    private void awaitNotifications() throws Exception {
+        ((ExecutorService) ReflectionTestUtils.getField(handler, "notifier")).submit(() -> { }).get();
+    }
+
+    private static RideAssignment newAssignment(Long id, Long cabId, Long passengerId) {
+        CabDriver cab = new CabDriver();
+        cab.setId(cabId);
+        Passenger passenger = new Passenger();
+        passenger.setId(passengerId);
+        passenger.setCurrentLatitude(12.97);
+        passenger.setCurrentLongitude(77.59);
+        RideAssignment assignment = new RideAssignment();
+        assignment.setId(id);
+        assignment.setCabDriver(cab);
+        assignment.setPassenger(passenger);
+        return assignment;
+    }
+
+    /**
+     * Session as set up by the handshake, recording what the handler sends and how it closes
+     */
+    private static final class FakeSession implements WebSocketSession {
+        private final String id;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final List<WebSocketMessage<?>> sent = new CopyOnWriteArrayList<>();
+        private volatile CloseStatus closeStatus;
+        // Sends wait on this when set, like a driver that stopped reading
+        private volatile CountDownLatch stall;
+
+        FakeSession(long cabId) {
+            this.id = "session-" + cabId + "-" + System.identityHashCode(this);
+            attributes.put(DriverHandshakeInterceptor.CAB_ID_ATTRIBUTE, cabId);
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return URI.create("/api/ws/drivers");
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 0;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (stall != null) {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            sent.add(message);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return closeStatus == null;
+        }
+
+        @Override
+        public void close() {
+            close(CloseStatus.NORMAL);
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            closeStatus = status;
+        }
+    }
+}
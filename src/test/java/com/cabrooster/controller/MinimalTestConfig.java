@@ -3,7 +3,9 @@ package com.cabrooster.controller;
 import com.cabrooster.repository.PassengerRepository;
 import com.cabrooster.service.BookingService;
 import com.cabrooster.service.LMStudioService;
+import com.cabrooster.service.LocationIngestService;
 import com.cabrooster.service.LocationService;
+import com.cabrooster.service.LocationWriteBuffer;
 import com.cabrooster.service.RateLimitService;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
@@ -42,4 +44,14 @@ public class MinimalTestConfig {
     public PassengerRepository passengerRepository() {
         return mock(PassengerRepository.class);
     }
+    
+    @Bean
+    public LocationIngestService locationIngestService() {
+        return mock(LocationIngestService.class);
+    }
+    
+    @Bean
+    public LocationWriteBuffer locationWriteBuffer() {
+        return mock(LocationWriteBuffer.class);
+    }
 }
@@ -1,14 +1,17 @@
 package com.cabrooster.controller;
 
 import com.cabrooster.config.TestWebMvcConfig;
+import com.cabrooster.dto.NearbyCab;
 import com.cabrooster.model.CabDriver;
 import com.cabrooster.model.Passenger;
 import com.cabrooster.repository.CabDriverRepository;
 import com.cabrooster.repository.PassengerRepository;
 import com.cabrooster.service.BookingService;
+import com.cabrooster.service.FleetStateStore;
 import com.cabrooster.service.LMStudioService;
 import com.cabrooster.service.LocationService;
 import com.cabrooster.service.RateLimitService;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,9 +22,14 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -56,6 +64,9 @@ public class PassengerCabControllerTest {
     @Autowired
     private LocationService locationService;
 
+    @Autowired
+    private FleetStateStore fleetStateStore;
+
     private final Long passengerId = 1L;
     private final Long cabDriverId = 1L;
     private final String testIp = "127.0.0.1";
@@ -78,6 +89,12 @@ public class PassengerCabControllerTest {
         doNothing().when(rateLimitService).checkRateLimit(anyString());
     }
 
+    @AfterEach
+    public void tearDown() {
+        // The store mock is shared with other tests in this context
+        reset(fleetStateStore);
+    }
+
 
     @Test
     public void testGetPassengerById() throws Exception {
@@ -98,4 +115,37 @@ public class PassengerCabControllerTest {
                 .andExpect(jsonPath("$.id").value(cabDriverId))
                 .andExpect(jsonPath("$.name").value("Jane Smith"));
     }
+
+    @Test
+    public void testGetNearbyCabsFromLiveStore() throws Exception {
+        when(fleetStateStore.isEnabled()).thenReturn(true);
+        when(fleetStateStore.findNearby(eq(12.97), eq(77.59), eq(2), eq(1000.0), eq(true), any()))
+                .thenReturn(List.of(
+                        new NearbyCab(2L, 12.9701, 77.5901, true, 14.2),
+                        new NearbyCab(5L, 12.9710, 77.5905, true, 117.9)));
+
+        mockMvc.perform(get("/api/cabs/nearby")
+                .param("lat", "12.97")
+                .param("lon", "77.59")
+                .param("k", "2")
+                .param("radius", "1000")
+                .param("availableOnly", "true")
+                .header("X-Forwarded-For", testIp))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].cabId").value(2))
+                .andExpect(jsonPath("$[1].cabId").value(5));
+    }
+
+    @Test
+    public void testGetNearbyCabsRejectsInvalidK() throws Exception {
+        mockMvc.perform(get("/api/cabs/nearby")
+                .param("lat", "12.97")
+                .param("lon", "77.59")
+                .param("k", "0")
+                .header("X-Forwarded-For", testIp))
+                .andExpect(status().isBadRequest());
+
+        verify(fleetStateStore, never()).findNearby(anyDouble(), anyDouble(), anyInt(), anyDouble(), anyBoolean(), any());
+    }
 }
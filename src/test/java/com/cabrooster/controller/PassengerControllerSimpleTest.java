@@ -4,6 +4,8 @@ import com.cabrooster.model.Passenger;
 import com.cabrooster.repository.PassengerRepository;
 import com.cabrooster.service.BookingService;
 import com.cabrooster.service.LMStudioService;
+import com.cabrooster.service.LocationIngestService;
+import com.cabrooster.service.LocationWriteBuffer;
 import com.cabrooster.service.RateLimitService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
@@ -43,6 +45,12 @@ public class PassengerControllerSimpleTest {
     @MockBean
     private RateLimitService rateLimitService;
 
+    @MockBean
+    private LocationIngestService locationIngestService;
+
+    @MockBean
+    private LocationWriteBuffer locationWriteBuffer;
+
     private final Long passengerId = 1L;
     private final String testIp = "127.0.0.1";
 
@@ -2,6 +2,8 @@ package com.cabrooster.controller;
 
 import com.cabrooster.model.Passenger;
 import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.service.LocationIngestService;
+import com.cabrooster.service.LocationWriteBuffer;
 import com.cabrooster.service.RateLimitService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
@@ -33,6 +35,12 @@ public class PassengerControllerTest {
     @MockBean
     private RateLimitService rateLimitService;
 
+    @MockBean
+    private LocationIngestService locationIngestService;
+
+    @MockBean
+    private LocationWriteBuffer locationWriteBuffer;
+
     @Autowired
     private ObjectMapper objectMapper;
 
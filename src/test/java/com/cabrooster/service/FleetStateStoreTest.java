@@ -0,0 +1,147 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.repository.CabDriverRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static com.cabrooster.service.TestEntities.availableCab;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest
+@Import(FleetStateStore.class)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FleetStateStoreTest {
+
+    @Autowired
+    private FleetStateStore fleetStateStore;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.setField(fleetStateStore, "jdbcTemplate", jdbcTemplate);
+        fleetStateStore.flush();
+        cabDriverRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testMovesReachTheTableOnlyWhenFlushed() {
+        CabDriver cab = cabDriverRepository.save(availableCab(12.97, 77.59));
+        fleetStateStore.load();
+
+        assertTrue(fleetStateStore.updateLocation(cab.getId(), 12.98, 77.60));
+        assertFalse(fleetStateStore.updateLocation(cab.getId() + 100, 12.98, 77.60));
+        assertEquals(12.97, cabDriverRepository.findById(cab.getId()).orElseThrow().getCurrentLatitude());
+
+        fleetStateStore.flush();
+
+        CabDriver moved = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertEquals(12.98, moved.getCurrentLatitude());
+        assertEquals(77.60, moved.getCurrentLongitude());
+        // Positions are not a reason to fail a concurrent availability change
+        assertEquals(cab.getVersion(), moved.getVersion());
+    }
+
+    @Test
+    void testFailedFlushIsRetriedByTheNextOne() {
+        CabDriver cab = cabDriverRepository.save(availableCab(12.97, 77.59));
+        fleetStateStore.load();
+        JdbcTemplate failing = mock(JdbcTemplate.class);
+        when(failing.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class)))
+                .thenThrow(new DataAccessResourceFailureException("Database is down"));
+
+        fleetStateStore.updateLocation(cab.getId(), 12.98, 77.60);
+        ReflectionTestUtils.setField(fleetStateStore, "jdbcTemplate", failing);
+        fleetStateStore.flush();
+        assertEquals(12.97, cabDriverRepository.findById(cab.getId()).orElseThrow().getCurrentLatitude());
+
+        // A later move of the same cab is not queued twice, and the latest position is what gets written
+        fleetStateStore.updateLocation(cab.getId(), 12.99, 77.61);
+        ReflectionTestUtils.setField(fleetStateStore, "jdbcTemplate", jdbcTemplate);
+        fleetStateStore.flush();
+
+        CabDriver moved = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertEquals(12.99, moved.getCurrentLatitude());
+        assertEquals(77.61, moved.getCurrentLongitude());
+    }
+
+    @Test
+    void testMovesAfterACabIsDeletedAndRegisteredAgainReachTheTable() {
+        CabDriver cab = cabDriverRepository.save(availableCab(12.97, 77.59));
+        fleetStateStore.load();
+        fleetStateStore.updateLocation(cab.getId(), 12.98, 77.60);
+
+        // Its position is deleted before the flush, then the cab is registered again and moves
+        fleetStateStore.upsert(newCabWithId(cab.getId(), null, null));
+        fleetStateStore.flush();
+        fleetStateStore.upsert(newCabWithId(cab.getId(), 12.97, 77.59));
+        fleetStateStore.updateLocation(cab.getId(), 12.99, 77.61);
+        fleetStateStore.flush();
+
+        CabDriver moved = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertEquals(12.99, moved.getCurrentLatitude());
+        assertEquals(77.61, moved.getCurrentLongitude());
+
+        // A cab removed from the store and registered again gets a clean slot
+        fleetStateStore.updateLocation(cab.getId(), 13.00, 77.62);
+        fleetStateStore.remove(cab.getId());
+        fleetStateStore.upsert(newCabWithId(cab.getId(), 12.99, 77.61));
+        fleetStateStore.flush();
+        fleetStateStore.updateLocation(cab.getId(), 13.01, 77.63);
+        fleetStateStore.flush();
+
+        assertEquals(13.01, cabDriverRepository.findById(cab.getId()).orElseThrow().getCurrentLatitude());
+    }
+
+    @Test
+    void testLocateUsesLivePositionsAndFallsBackToTheEntity() {
+        CabDriver live = cabDriverRepository.save(availableCab(12.97, 77.59));
+        fleetStateStore.load();
+        fleetStateStore.updateLocation(live.getId(), 12.98, 77.60);
+        // Not in the store, with and without a persisted position
+        CabDriver unknown = availableCab(12.90, 77.50);
+        unknown.setId(live.getId() + 100);
+        CabDriver nowhere = availableCab(null, null);
+
+        double[] latitudes = new double[3];
+        double[] longitudes = new double[3];
+        fleetStateStore.locate(List.of(live, unknown, nowhere), latitudes, longitudes);
+
+        assertEquals(12.98, latitudes[0]);
+        assertEquals(77.60, longitudes[0]);
+        assertEquals(12.90, latitudes[1]);
+        assertEquals(77.50, longitudes[1]);
+        assertTrue(Double.isNaN(latitudes[2]));
+        assertTrue(Double.isNaN(longitudes[2]));
+        // The entity itself still has the persisted position
+        assertEquals(12.97, live.getCurrentLatitude());
+    }
+
+    private static CabDriver newCabWithId(Long id, Double latitude, Double longitude) {
+        CabDriver cab = availableCab(latitude, longitude);
+        cab.setId(id);
+        return cab;
+    }
+}
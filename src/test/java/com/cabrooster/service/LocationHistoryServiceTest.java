@@ -0,0 +1,59 @@
+package com.cabrooster.service;
+
+import com.cabrooster.dto.TrajectoryPoint;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationHistoryServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LocationHistoryService locationHistoryService;
+
+    @BeforeEach
+    void setUp() {
+        locationHistoryService = new LocationHistoryService();
+        ReflectionTestUtils.setField(locationHistoryService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(locationHistoryService, "enabled", true);
+        ReflectionTestUtils.setField(locationHistoryService, "path", directory.toString());
+        ReflectionTestUtils.setField(locationHistoryService, "segmentBytes", 1 << 16);
+        ReflectionTestUtils.setField(locationHistoryService, "rollIntervalMs", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(locationHistoryService, "retentionDays", 1L);
+        ReflectionTestUtils.setField(locationHistoryService, "maxPoints", 100);
+        ReflectionTestUtils.setField(locationHistoryService, "maxClockSkewMs", TimeUnit.MINUTES.toMillis(5));
+        locationHistoryService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        locationHistoryService.shutdown();
+    }
+
+    @Test
+    void testTimestampsFromTheFutureAreRecordedWhenReceived() {
+        long now = System.currentTimeMillis();
+        // A little ahead is clock skew and kept; a year ahead is a broken clock
+        locationHistoryService.recordCab(1, now + 60_000, 12.97, 77.59);
+        locationHistoryService.recordCab(1, now + TimeUnit.DAYS.toMillis(365), 12.98, 77.60);
+
+        List<TrajectoryPoint> points = locationHistoryService.getCabTrajectory(1, 0, Long.MAX_VALUE);
+        assertEquals(2, points.size());
+        assertTrue(points.get(0).getTs() >= now && points.get(0).getTs() < now + 60_000);
+        assertEquals(12.98, points.get(0).getLat(), 1e-7);
+        assertEquals(now + 60_000, points.get(1).getTs());
+        assertEquals(1, meterRegistry.counter("location.history.clamped").count());
+    }
+}
@@ -0,0 +1,164 @@
+package com.cabrooster.service;
+
+import com.cabrooster.dto.LocationBatchResult;
+import com.cabrooster.dto.LocationUpdate;
+import com.cabrooster.exception.InvalidOperationException;
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.util.LocationBatchCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.cabrooster.service.TestEntities.availableCab;
+import static com.cabrooster.service.TestEntities.passenger;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest(properties = "location.batch.max-size=100")
+@Import(LocationIngestService.class)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LocationIngestServiceTest {
+
+    @Autowired
+    private LocationIngestService locationIngestService;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @MockBean
+    private FleetStateStore fleetStateStore;
+
+    @MockBean
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @MockBean
+    private LocationHistoryService locationHistoryService;
+
+    @AfterEach
+    void tearDown() {
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testPassengerBatchKeepsLatestPingPerPassenger() {
+        Passenger first = passengerRepository.save(passenger());
+        Passenger second = passengerRepository.save(passenger());
+        long missing = Math.max(first.getId(), second.getId()) + 100;
+
+        LocationBatchResult result = locationIngestService.updatePassengerLocations(Arrays.asList(
+                new LocationUpdate(first.getId(), 12.98, 77.60, 2000L),
+                // Arrived later but taken earlier, so it loses
+                new LocationUpdate(first.getId(), 12.00, 77.00, 1000L),
+                new LocationUpdate(second.getId(), 12.90, 77.50, null),
+                new LocationUpdate(missing, 12.90, 77.50, null),
+                new LocationUpdate(null, 12.90, 77.50, null),
+                new LocationUpdate(second.getId(), 91.0, 77.50, null),
+                // Missing coordinates are not 0,0
+                new LocationUpdate(second.getId(), null, 77.50, null)));
+
+        assertEquals(2, result.getAccepted());
+        assertEquals(1, result.getSuperseded());
+        assertEquals(3, result.getRejected());
+        assertEquals(List.of(missing), result.getUnknownIds());
+
+        Passenger moved = passengerRepository.findById(first.getId()).orElseThrow();
+        assertEquals(12.98, moved.getCurrentLatitude());
+        assertEquals(77.60, moved.getCurrentLongitude());
+        assertEquals(first.getVersion(), moved.getVersion());
+        assertEquals(12.90, passengerRepository.findById(second.getId()).orElseThrow().getCurrentLatitude());
+    }
+
+    @Test
+    void testCabBatchGoesToLiveStoreWhenEnabled() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        List<LocationUpdate> updates = List.of(new LocationUpdate(cab.getId(), 12.98, 77.60, null));
+
+        LocationBatchResult written = locationIngestService.updateCabLocations(updates);
+        assertEquals(1, written.getAccepted());
+        CabDriver moved = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertEquals(12.98, moved.getCurrentLatitude());
+        // Positions do not count as a change for optimistic locking, as with the live store's flush
+        assertEquals(cab.getVersion(), moved.getVersion());
+
+        when(fleetStateStore.isEnabled()).thenReturn(true);
+        LocationBatchResult stored = locationIngestService.updateCabLocations(updates);
+        verify(fleetStateStore).updateLocations(any(), any(), any(), eq(1), any());
+        // The mocked store knows no cabs
+        assertEquals(List.of(cab.getId()), stored.getUnknownIds());
+    }
+
+    @Test
+    void testBinaryBatchIsAppliedLikeJson() {
+        CabDriver first = cabDriverRepository.save(availableCab());
+        CabDriver second = cabDriverRepository.save(availableCab());
+        long missing = Math.max(first.getId(), second.getId()) + 100;
+        byte[] payload = LocationBatchCodec.encode(
+                new long[] {first.getId(), first.getId(), second.getId(), missing, second.getId()},
+                new long[] {2000, 1000, 2000, 2000, 3000},
+                new double[] {12.98, 12.00, 12.90, 12.90, 91},
+                new double[] {77.60, 77.00, 77.50, 77.50, 77.50}, 5);
+        when(locationHistoryService.isEnabled()).thenReturn(true);
+
+        LocationBatchResult result = locationIngestService.updateCabLocations(payload);
+
+        assertEquals(2, result.getAccepted());
+        assertEquals(1, result.getSuperseded());
+        assertEquals(1, result.getRejected());
+        assertEquals(List.of(missing), result.getUnknownIds());
+        CabDriver moved = cabDriverRepository.findById(first.getId()).orElseThrow();
+        assertEquals(12.98, moved.getCurrentLatitude(), 1e-9);
+        assertEquals(77.60, moved.getCurrentLongitude(), 1e-9);
+        // The superseded ping is still part of the cab's trajectory
+        verify(locationHistoryService).recordCab(eq(first.getId()), eq(1000L), anyDouble(), anyDouble());
+        verify(locationHistoryService, never()).recordCab(eq(missing), anyLong(), anyDouble(), anyDouble());
+    }
+
+    @Test
+    void testMalformedOrOversizedBinaryBatchIsRejected() {
+        byte[] payload = LocationBatchCodec.encode(new long[] {1}, new long[] {1000},
+                new double[] {12.98}, new double[] {77.60}, 1);
+        byte[] truncated = Arrays.copyOf(payload, payload.length - 1);
+        long[] ids = new long[101];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        byte[] oversized = LocationBatchCodec.encode(ids, new long[101], new double[101], new double[101], 101);
+
+        assertThrows(InvalidOperationException.class, () -> locationIngestService.updatePassengerLocations(truncated));
+        assertThrows(InvalidOperationException.class, () -> locationIngestService.updatePassengerLocations(oversized));
+    }
+
+    @Test
+    void testOversizedBatchIsRejected() {
+        List<LocationUpdate> updates = new ArrayList<>();
+        for (long id = 1; id <= 101; id++) {
+            updates.add(new LocationUpdate(id, 12.98, 77.60, null));
+        }
+
+        assertThrows(InvalidOperationException.class, () -> locationIngestService.updatePassengerLocations(updates));
+    }
+}
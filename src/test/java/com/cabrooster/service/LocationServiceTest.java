@@ -0,0 +1,74 @@
+package com.cabrooster.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationServiceTest {
+
+    private final LocationService locationService = new LocationService();
+
+    @Test
+    void testPrefilteredNearestMatchesFullScan() {
+        Random random = new Random(23);
+        // Ordinary cities, high latitudes and both sides of the antimeridian
+        double[][] centres = {{12.9716, 77.5946}, {59.9139, 10.7522}, {78.2232, 15.6267}, {-16.5, 179.99}};
+        double[] radii = {100, 2_000, 50_000, 200_000};
+        int count = 2000;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        double[] cosLats = new double[count];
+
+        for (double[] centre : centres) {
+            for (double radius : radii) {
+                double spread = radius * 3 / 111_000;
+                for (int i = 0; i < count; i++) {
+                    lats[i] = centre[0] + (random.nextDouble() - 0.5) * spread;
+                    lons[i] = wrap(centre[1] + (random.nextDouble() - 0.5) * spread * 2);
+                    cosLats[i] = Math.cos(Math.toRadians(lats[i]));
+                }
+                // Ties go to the first cab, as in a full scan
+                lats[count - 1] = lats[count / 2];
+                lons[count - 1] = lons[count / 2];
+                cosLats[count - 1] = cosLats[count / 2];
+
+                for (int q = 0; q < 50; q++) {
+                    double lat = centre[0] + (random.nextDouble() - 0.5) * spread;
+                    double lon = wrap(centre[1] + (random.nextDouble() - 0.5) * spread * 2);
+                    int expected = fullScan(lat, lon, lats, lons, count, radius);
+                    assertEquals(expected, locationService.findNearest(lat, lon, lats, lons, cosLats, count, radius));
+                    assertEquals(expected, locationService.findNearest(lat, lon, lats, lons, null, count, radius));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testNearestIsNotFoundOutsideRadius() {
+        double[] lats = {12.9716, 12.9800};
+        double[] lons = {77.5946, 77.5946};
+
+        assertEquals(-1, locationService.findNearest(12.9900, 77.5946, lats, lons, null, 2, 100));
+        assertEquals(1, locationService.findNearest(12.9801, 77.5946, lats, lons, null, 2, 100));
+        assertEquals(-1, locationService.findNearest(12.9801, 77.5946, lats, lons, null, 0, 100));
+    }
+
+    private int fullScan(double lat, double lon, double[] lats, double[] lons, int count, double radius) {
+        int nearest = -1;
+        double minDistance = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double distance = locationService.calculateDistance(lat, lon, lats[i], lons[i]);
+            if (distance < minDistance && distance <= radius) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    private static double wrap(double lon) {
+        return lon > 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+    }
+}
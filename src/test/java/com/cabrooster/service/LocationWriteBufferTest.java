@@ -0,0 +1,145 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.cabrooster.service.TestEntities.availableCab;
+import static com.cabrooster.service.TestEntities.passenger;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = "location.write-buffer.max-pending=3")
+@Import({LocationWriteBuffer.class, SimpleMeterRegistry.class})
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class LocationWriteBufferTest {
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    void tearDown() {
+        locationWriteBuffer.flush();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testOnlyLatestPingIsWrittenAndReadsSeeItBefore() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        Passenger passenger = passengerRepository.save(passenger());
+        double coalescedBefore = count("cab", "coalesced");
+
+        locationWriteBuffer.bufferCab(cab.getId(), 12.90, 77.50);
+        locationWriteBuffer.bufferCab(cab.getId(), 12.95, 77.55);
+        locationWriteBuffer.bufferPassenger(passenger.getId(), 12.98, 77.60);
+
+        // Nothing written yet, but reads that overlay the buffer see the latest ping
+        CabDriver stored = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertNull(stored.getCurrentLatitude());
+        locationWriteBuffer.overlay(stored);
+        assertEquals(12.95, stored.getCurrentLatitude());
+        assertEquals(2, locationWriteBuffer.getPendingCount());
+        assertEquals(1, count("cab", "coalesced") - coalescedBefore);
+
+        locationWriteBuffer.flush();
+
+        assertEquals(0, locationWriteBuffer.getPendingCount());
+        CabDriver moved = cabDriverRepository.findById(cab.getId()).orElseThrow();
+        assertEquals(12.95, moved.getCurrentLatitude());
+        assertEquals(77.55, moved.getCurrentLongitude());
+        assertEquals(cab.getVersion(), moved.getVersion());
+        Passenger movedPassenger = passengerRepository.findById(passenger.getId()).orElseThrow();
+        assertEquals(12.98, movedPassenger.getCurrentLatitude());
+        assertEquals(passenger.getVersion(), movedPassenger.getVersion());
+    }
+
+    @Test
+    void testFullBufferIsWrittenWithoutWaitingForTheTimer() {
+        Passenger first = passengerRepository.save(passenger());
+        Passenger second = passengerRepository.save(passenger());
+        Passenger third = passengerRepository.save(passenger());
+
+        locationWriteBuffer.bufferPassenger(first.getId(), 12.90, 77.50);
+        locationWriteBuffer.bufferPassenger(second.getId(), 12.90, 77.50);
+        assertEquals(12.97, passengerRepository.findById(first.getId()).orElseThrow().getCurrentLatitude());
+        locationWriteBuffer.bufferPassenger(third.getId(), 12.90, 77.50);
+
+        assertEquals(0, locationWriteBuffer.getPendingCount());
+        assertEquals(12.90, passengerRepository.findById(first.getId()).orElseThrow().getCurrentLatitude());
+        assertEquals(12.90, passengerRepository.findById(third.getId()).orElseThrow().getCurrentLatitude());
+    }
+
+    @Test
+    void testDiscardedPingIsNotWritten() {
+        Passenger passenger = passengerRepository.save(passenger());
+
+        locationWriteBuffer.bufferPassenger(passenger.getId(), 12.90, 77.50);
+        locationWriteBuffer.discardPassenger(passenger.getId());
+        locationWriteBuffer.flush();
+
+        Passenger stored = passengerRepository.findById(passenger.getId()).orElseThrow();
+        assertEquals(12.97, stored.getCurrentLatitude());
+        assertEquals(passenger.getVersion(), stored.getVersion());
+    }
+
+    @Test
+    void testDiscardWaitsForAFlushThatReadThePing() throws Exception {
+        Passenger passenger = passengerRepository.save(passenger());
+        Passenger other = passengerRepository.save(passenger());
+        locationWriteBuffer.bufferPassenger(passenger.getId(), 12.90, 77.50);
+
+        // Stand in for a flush that has read the ping and is still writing its batch
+        ReentrantLock flushLock = (ReentrantLock) ReflectionTestUtils.getField(
+                ReflectionTestUtils.getField(locationWriteBuffer, "passengers"), "flushLock");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        flushLock.lock();
+        try {
+            // Ids with nothing buffered are in no flush and need not wait
+            executor.submit(() -> locationWriteBuffer.discardPassenger(other.getId())).get(1, TimeUnit.SECONDS);
+
+            Future<?> discard = executor.submit(() -> locationWriteBuffer.discardPassenger(passenger.getId()));
+            assertThrows(TimeoutException.class, () -> discard.get(200, TimeUnit.MILLISECONDS));
+            flushLock.unlock();
+            discard.get(5, TimeUnit.SECONDS);
+        } finally {
+            if (flushLock.isHeldByCurrentThread()) {
+                flushLock.unlock();
+            }
+            executor.shutdownNow();
+        }
+        assertEquals(0, locationWriteBuffer.getPendingCount());
+    }
+
+    private double count(String entity, String result) {
+        return meterRegistry.get("location.writes").tag("entity", entity).tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,323 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RideAssignmentRepository;
+import com.cabrooster.repository.SchedulerLeaseRepository;
+import com.cabrooster.repository.WaitingPassenger;
+import com.cabrooster.service.dispatch.DispatchPartition;
+import com.cabrooster.service.dispatch.DropRoutePlanner;
+import com.cabrooster.service.dispatch.GreedyMatchingEngine;
+import com.cabrooster.service.dispatch.MatchingEngine;
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoUtils;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two instances running the partitioned ride assignment job at the same time against one
+ * database, through the real assignment service
+ */
+@DataJpaTest
+@Import({RideAssignmentService.class, LocationWriteBuffer.class, HaversineDistanceEngine.class,
+        SimpleMeterRegistry.class})
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PartitionedDispatchTest {
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+    private static final int PARTITIONS = 16;
+    private static final double PARTITION_SIZE_METERS = 2000;
+
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private RideAssignmentRepository rideAssignmentRepository;
+
+    @Autowired
+    private SchedulerLeaseRepository leaseRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private MatchingEngine matchingEngine;
+
+    @MockBean
+    private ForkJoinPool dispatchPool;
+
+    @MockBean
+    private DropRoutePlanner dropRoutePlanner;
+
+    @MockBean
+    private LocationService locationService;
+
+    @MockBean
+    private FleetStateStore fleetStateStore;
+
+    @MockBean
+    private TravelTimeService travelTimeService;
+
+    @MockBean
+    private CommuteCostCache commuteCostCache;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(rideAssignmentService, "distanceFunction",
+                (GeoGridIndex.DistanceFunction) GeoUtils::calculateDistanceInMeters);
+        when(commuteCostCache.wrap(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(matchingEngine.match(any()))
+                .thenAnswer(invocation -> new GreedyMatchingEngine().match(invocation.getArgument(0)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        rideAssignmentRepository.deleteAllInBatch();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+        leaseRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testTwoNodesAssignEveryPassengerOnceWithoutSharingCabs() throws Exception {
+        // A 9 km square of pickups 440 m apart with a cab at each, spanning about 25 regions
+        List<CabDriver> cabs = new ArrayList<>();
+        List<Passenger> passengers = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            double latitude = 12.9 + (i % 20) * 0.004;
+            double longitude = 77.5 + (i / 20) * 0.004;
+            CabDriver cab = new CabDriver();
+            cab.setName("Driver");
+            cab.setAvailable(true);
+            cab.setCurrentLatitude(latitude);
+            cab.setCurrentLongitude(longitude);
+            cabs.add(cab);
+            Passenger passenger = new Passenger();
+            passenger.setName("Passenger");
+            passenger.setNeedsRide(true);
+            passenger.setCurrentLatitude(latitude);
+            passenger.setCurrentLongitude(longitude);
+            passengers.add(passenger);
+        }
+        cabDriverRepository.saveAll(cabs);
+        passengerRepository.saveAll(passengers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<SchedulerLeaseService> nodes = List.of(node("a"), node("b"));
+        int ran = 0;
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (SchedulerLeaseService node : nodes) {
+                ScheduledDispatchJob job = job(node);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return job.run(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB,
+                            rideAssignmentService::scheduleRideAssignments);
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                ran += result.get();
+            }
+        } finally {
+            executor.shutdown();
+            nodes.forEach(SchedulerLeaseService::shutdown);
+        }
+
+        assertEquals(PARTITIONS, ran);
+        List<RideAssignment> assignments = rideAssignmentRepository.findAll();
+        assertEquals(400, assignments.size());
+        Set<Long> assignedPassengers = new HashSet<>();
+        Set<Long> assignedCabs = new HashSet<>();
+        Map<Long, CabDriver> cabsById = cabDriverRepository.findAll().stream()
+                .collect(Collectors.toMap(CabDriver::getId, Function.identity()));
+        Map<Long, Passenger> passengersById = passengerRepository.findAll().stream()
+                .collect(Collectors.toMap(Passenger::getId, Function.identity()));
+        for (RideAssignment assignment : assignments) {
+            assertTrue(assignedPassengers.add(assignment.getPassenger().getId()));
+            assertTrue(assignedCabs.add(assignment.getCabDriver().getId()));
+            // Every cab was taken by the run of its own partition
+            CabDriver cab = cabsById.get(assignment.getCabDriver().getId());
+            Passenger passenger = passengersById.get(assignment.getPassenger().getId());
+            assertEquals(partitionOf(passenger.getCurrentLatitude(), passenger.getCurrentLongitude()),
+                    partitionOf(cab.getCurrentLatitude(), cab.getCurrentLongitude()));
+        }
+        assertEquals(0, passengerRepository.countByNeedsRide(true));
+        assertEquals(0, cabDriverRepository.countByAvailable(true));
+    }
+
+    @Test
+    void testPositionWrittenByAnotherNodeIsUsed() {
+        // Node a last saw the cab far from the passenger; node b then recorded it next to them
+        CabDriver cab = new CabDriver();
+        cab.setName("Driver");
+        cab.setAvailable(true);
+        cab.setCurrentLatitude(13.2);
+        cab.setCurrentLongitude(77.8);
+        cab = cabDriverRepository.save(cab);
+        Passenger passenger = new Passenger();
+        passenger.setName("Passenger");
+        passenger.setNeedsRide(true);
+        passenger.setCurrentLatitude(12.97);
+        passenger.setCurrentLongitude(77.59);
+        passengerRepository.save(passenger);
+        jdbcTemplate.update("UPDATE cab_drivers SET current_latitude = ?, current_longitude = ? WHERE id = ?",
+                12.97, 77.59, cab.getId());
+
+        SchedulerLeaseService node = node("a");
+        try {
+            assertEquals(PARTITIONS, job(node).run(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB,
+                    rideAssignmentService::scheduleRideAssignments));
+        } finally {
+            node.shutdown();
+        }
+
+        List<RideAssignment> assignments = rideAssignmentRepository.findAll();
+        assertEquals(1, assignments.size());
+        assertEquals(cab.getId(), assignments.get(0).getCabDriver().getId());
+    }
+
+    @Test
+    void testRegionsAreAsWideAsTheyAreTallFarFromTheEquator() {
+        // 20 km east along 60 degrees north, where a degree of longitude is half as long
+        double longitudeDegrees = 20_000 / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(60)));
+        int regions = 1;
+        int previous = partitionOf(60.0, 10.0);
+        for (double longitude = 10.0; longitude <= 10.0 + longitudeDegrees; longitude += 0.0005) {
+            int partition = partitionOf(60.0, longitude);
+            if (partition != previous) {
+                regions++;
+                previous = partition;
+            }
+        }
+        assertTrue(regions >= 10 && regions <= 11, regions + " regions");
+    }
+
+    @Test
+    void testPartitionQueriesAgreeWithDispatchPartitionFarFromTheEquator() {
+        // A 10 km square around Oslo, where columns are about twice as many degrees wide as rows are tall
+        List<CabDriver> cabs = new ArrayList<>();
+        List<Passenger> passengers = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            double latitude = 59.87 + (i % 20) * 0.0047;
+            double longitude = 10.70 + (i / 20) * 0.0093;
+            CabDriver cab = new CabDriver();
+            cab.setName("Driver");
+            cab.setAvailable(true);
+            cab.setCurrentLatitude(latitude);
+            cab.setCurrentLongitude(longitude);
+            cabs.add(cab);
+            Passenger passenger = new Passenger();
+            passenger.setName("Passenger");
+            passenger.setNeedsRide(true);
+            passenger.setCurrentLatitude(latitude);
+            passenger.setCurrentLongitude(longitude);
+            passengers.add(passenger);
+        }
+        cabDriverRepository.saveAll(cabs);
+        passengerRepository.saveAll(passengers);
+
+        double regionDegrees = PARTITION_SIZE_METERS / GeoUtils.METERS_PER_DEGREE;
+        int cabsSeen = 0;
+        int passengersSeen = 0;
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            for (CabDriver cab : cabDriverRepository.findAvailableInPartition(partition, PARTITIONS, regionDegrees)) {
+                assertEquals(partition, partitionOf(cab.getCurrentLatitude(), cab.getCurrentLongitude()));
+                cabsSeen++;
+            }
+            for (WaitingPassenger passenger : passengerRepository.findWaitingInPartitionAfter(
+                    0L, partition, PARTITIONS, regionDegrees, PageRequest.of(0, 1000))) {
+                assertEquals(partition, partitionOf(passenger.currentLatitude(), passenger.currentLongitude()));
+                passengersSeen++;
+            }
+        }
+        assertEquals(400, cabsSeen);
+        assertEquals(400, passengersSeen);
+    }
+
+    @Test
+    void testClusteredModesRefuseTheLiveStore() {
+        ScheduledDispatchJob job = new ScheduledDispatchJob();
+        ReflectionTestUtils.setField(job, "mode", ScheduledDispatchJob.MODE_PARTITIONED);
+        ReflectionTestUtils.setField(job, "partitions", PARTITIONS);
+        ReflectionTestUtils.setField(job, "partitionAttempts", 3);
+        ReflectionTestUtils.setField(job, "liveStoreEnabled", true);
+        assertThrows(IllegalStateException.class, job::init);
+
+        // A single instance sees every ping itself
+        ReflectionTestUtils.setField(job, "mode", ScheduledDispatchJob.MODE_SINGLE);
+        job.init();
+    }
+
+    private static int partitionOf(Double latitude, Double longitude) {
+        return DispatchPartition.of(latitude, longitude, PARTITIONS, PARTITION_SIZE_METERS / GeoUtils.METERS_PER_DEGREE);
+    }
+
+    private SchedulerLeaseService node(String nodeId) {
+        SchedulerLeaseService service = new SchedulerLeaseService();
+        ReflectionTestUtils.setField(service, "leaseRepository", leaseRepository);
+        ReflectionTestUtils.setField(service, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(service, "nodeId", nodeId);
+        service.init();
+        return service;
+    }
+
+    private ScheduledDispatchJob job(SchedulerLeaseService leaseService) {
+        ScheduledDispatchJob job = new ScheduledDispatchJob();
+        ReflectionTestUtils.setField(job, "rideAssignmentService", rideAssignmentService);
+        ReflectionTestUtils.setField(job, "leaseService", leaseService);
+        ReflectionTestUtils.setField(job, "mode", ScheduledDispatchJob.MODE_PARTITIONED);
+        ReflectionTestUtils.setField(job, "leaseTtlMs", TTL.toMillis());
+        ReflectionTestUtils.setField(job, "partitions", PARTITIONS);
+        ReflectionTestUtils.setField(job, "partitionSizeMeters", PARTITION_SIZE_METERS);
+        ReflectionTestUtils.setField(job, "partitionAttempts", 3);
+        job.init();
+        return job;
+    }
+}
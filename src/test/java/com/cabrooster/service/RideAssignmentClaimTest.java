@@ -0,0 +1,406 @@
+package com.cabrooster.service;
+
+import com.cabrooster.exception.InvalidOperationException;
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RideAssignmentRepository;
+import com.cabrooster.repository.RosterEntryRepository;
+import com.cabrooster.service.dispatch.BatchDispatchResult;
+import com.cabrooster.service.dispatch.DispatchPartition;
+import com.cabrooster.service.dispatch.DropRoutePlanner;
+import com.cabrooster.service.dispatch.GreedyMatchingEngine;
+import com.cabrooster.service.dispatch.MatchingEngine;
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoUtils;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.cabrooster.service.TestEntities.availableCab;
+import static com.cabrooster.service.TestEntities.waitingPassenger;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+@DataJpaTest
+@Import({RideAssignmentService.class, LocationWriteBuffer.class, HaversineDistanceEngine.class,
+        SimpleMeterRegistry.class})
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RideAssignmentClaimTest {
+
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private RideAssignmentRepository rideAssignmentRepository;
+
+    @Autowired
+    private RosterEntryRepository rosterEntryRepository;
+
+    @Autowired
+    private LocationWriteBuffer locationWriteBuffer;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Retries as the application does them, around the transaction
+    @TestConfiguration
+    @EnableRetry
+    static class RetryConfiguration {
+    }
+
+    @MockBean
+    private MatchingEngine matchingEngine;
+
+    @MockBean
+    private ForkJoinPool dispatchPool;
+
+    @MockBean
+    private DropRoutePlanner dropRoutePlanner;
+
+    @MockBean
+    private LocationService locationService;
+
+    @MockBean
+    private FleetStateStore fleetStateStore;
+
+    @MockBean
+    private TravelTimeService travelTimeService;
+
+    @MockBean
+    private CommuteCostCache commuteCostCache;
+
+    @AfterEach
+    void tearDown() {
+        locationWriteBuffer.flush();
+        rosterEntryRepository.deleteAllInBatch();
+        rideAssignmentRepository.deleteAllInBatch();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testStaleCabCannotBeAssignedTwice() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        Passenger first = passengerRepository.save(waitingPassenger());
+        Passenger second = passengerRepository.save(waitingPassenger());
+        // Both writers read the cab while it was still available
+        CabDriver staleCopy = cabDriverRepository.findById(cab.getId()).orElseThrow();
+
+        rideAssignmentService.assignRide(cab, first);
+
+        assertThrows(OptimisticLockingFailureException.class,
+                () -> rideAssignmentService.assignRide(staleCopy, second));
+        assertEquals(1, rideAssignmentRepository.count());
+        assertTrue(passengerRepository.findById(second.getId()).orElseThrow().isNeedsRide());
+    }
+
+    @Test
+    void testBulkPlanFailsWholeWhenOneCabWasTaken() {
+        CabDriver taken = cabDriverRepository.save(availableCab());
+        CabDriver free = cabDriverRepository.save(availableCab());
+        Passenger first = passengerRepository.save(waitingPassenger());
+        Passenger second = passengerRepository.save(waitingPassenger());
+        Passenger third = passengerRepository.save(waitingPassenger());
+        CabDriver staleCopy = cabDriverRepository.findById(taken.getId()).orElseThrow();
+
+        rideAssignmentService.assignRide(taken, first);
+
+        assertThrows(OptimisticLockingFailureException.class,
+                () -> rideAssignmentService.assignRides(List.of(free, staleCopy), List.of(second, third)));
+        // Nothing from the failed plan was kept
+        assertEquals(1, rideAssignmentRepository.count());
+        assertTrue(cabDriverRepository.findById(free.getId()).orElseThrow().isAvailable());
+        assertTrue(passengerRepository.findById(second.getId()).orElseThrow().isNeedsRide());
+    }
+
+    @Test
+    void testPassengerReadBeforeItsPositionIsFlushedIsStillAssigned() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        Passenger passenger = passengerRepository.save(locate(waitingPassenger(), 0));
+        locationWriteBuffer.bufferPassenger(passenger.getId(), 12.98, 77.59);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Passenger loaded = passengerRepository.findById(passenger.getId()).orElseThrow();
+            // The buffer writes the ping from its own thread while the assignment is under way
+            CompletableFuture.runAsync(locationWriteBuffer::flush).join();
+            rideAssignmentService.assignRide(cabDriverRepository.findById(cab.getId()).orElseThrow(), loaded);
+        });
+
+        Passenger stored = passengerRepository.findById(passenger.getId()).orElseThrow();
+        assertFalse(stored.isNeedsRide());
+        assertEquals(12.98, stored.getCurrentLatitude());
+        assertEquals(1, rideAssignmentRepository.count());
+    }
+
+    @Test
+    void testForceAssignRejectsBusyCab() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        Passenger first = passengerRepository.save(waitingPassenger());
+        Passenger second = passengerRepository.save(waitingPassenger());
+
+        assertTrue(rideAssignmentService.forceAssignRide(cab.getId(), first.getId()).isPresent());
+        assertThrows(InvalidOperationException.class,
+                () -> rideAssignmentService.forceAssignRide(cab.getId(), second.getId()));
+        assertTrue(rideAssignmentService.forceAssignRide(-1L, second.getId()).isEmpty());
+    }
+
+    @Test
+    void testPassengerWhoNoLongerNeedsARideIsNotAssignedAgain() {
+        CabDriver first = cabDriverRepository.save(availableCab());
+        CabDriver second = cabDriverRepository.save(availableCab());
+        Passenger passenger = passengerRepository.save(waitingPassenger());
+
+        assertTrue(rideAssignmentService.forceAssignRide(first.getId(), passenger.getId()).isPresent());
+        assertThrows(InvalidOperationException.class,
+                () -> rideAssignmentService.forceAssignRide(second.getId(), passenger.getId()));
+        assertEquals(1, rideAssignmentRepository.count());
+        assertTrue(cabDriverRepository.findById(second.getId()).orElseThrow().isAvailable());
+    }
+
+    @Test
+    void testRequestThatLosesItsCabIsRetriedWithTheNextNearest() {
+        CabDriver taken = cabDriverRepository.save(east(availableCab(), 0.0003));
+        CabDriver next = cabDriverRepository.save(east(availableCab(), 0.0006));
+        Passenger passenger = passengerRepository.save(locate(waitingPassenger(), 0));
+        AtomicInteger lookups = new AtomicInteger();
+        when(locationService.findNearest(anyDouble(), anyDouble(), any(), any(), any(), anyInt(), anyDouble()))
+                .thenAnswer(invocation -> {
+                    // Another instance takes the nearest cab after this one read it as free
+                    if (lookups.incrementAndGet() == 1) {
+                        takeElsewhere(taken.getId());
+                    }
+                    return nearest(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2),
+                            invocation.getArgument(3), invocation.getArgument(5));
+                });
+
+        RideAssignment assignment = rideAssignmentService.dispatchRideRequest(passenger.getId()).orElseThrow();
+
+        assertEquals(next.getId(), assignment.getCabDriver().getId());
+        assertEquals(2, lookups.get());
+        assertEquals(1, rideAssignmentRepository.count());
+    }
+
+    @Test
+    void testChunkThatLosesARaceIsMatchedAgainWithoutUndoingEarlierChunks() {
+        ReflectionTestUtils.setField(rideAssignmentService, "distanceFunction",
+                (GeoGridIndex.DistanceFunction) GeoUtils::calculateDistanceInMeters);
+        ReflectionTestUtils.setField(rideAssignmentService, "scheduledChunkSize", 1);
+        CabDriver first = cabDriverRepository.save(locate(availableCab(), 0));
+        CabDriver second = cabDriverRepository.save(locate(availableCab(), 1));
+        CabDriver spare = cabDriverRepository.save(east(locate(availableCab(), 1), 0.0004));
+        Passenger early = passengerRepository.save(locate(waitingPassenger(), 0));
+        Passenger late = passengerRepository.save(locate(waitingPassenger(), 1));
+        AtomicInteger matches = new AtomicInteger();
+        when(matchingEngine.match(any())).thenAnswer(invocation -> {
+            // The second chunk's cab is taken by someone else while it is being matched
+            if (matches.incrementAndGet() == 2) {
+                takeElsewhere(second.getId());
+            }
+            return new GreedyMatchingEngine().match(invocation.getArgument(0));
+        });
+
+        try {
+            rideAssignmentService.scheduleRideAssignments(DispatchPartition.ALL);
+        } finally {
+            ReflectionTestUtils.setField(rideAssignmentService, "scheduledChunkSize", 10000);
+        }
+
+        Map<Long, Long> cabOfPassenger = new HashMap<>();
+        for (RideAssignment assignment : rideAssignmentRepository.findAll()) {
+            cabOfPassenger.put(assignment.getPassenger().getId(), assignment.getCabDriver().getId());
+        }
+        assertEquals(Map.of(early.getId(), first.getId(), late.getId(), spare.getId()), cabOfPassenger);
+        // Only the second chunk was matched again
+        assertEquals(3, matches.get());
+    }
+
+    @Test
+    void testSharedCabIsFreedOnlyAfterItsLastPassenger() {
+        CabDriver cab = cabDriverRepository.save(availableCab());
+        Passenger first = passengerRepository.save(waitingPassenger());
+        Passenger second = passengerRepository.save(waitingPassenger());
+        List<RideAssignment> assignments = rideAssignmentService.assignRides(List.of(cab, cab), List.of(first, second));
+
+        rideAssignmentService.updateRideStatus(assignments.get(0).getId(), "COMPLETED");
+        assertFalse(cabDriverRepository.findById(cab.getId()).orElseThrow().isAvailable());
+
+        rideAssignmentService.updateRideStatus(assignments.get(1).getId(), "CANCELLED");
+        assertTrue(cabDriverRepository.findById(cab.getId()).orElseThrow().isAvailable());
+    }
+
+    @Test
+    void testRosterCommitsRidesThatStillHoldAndMatchesTheRest() {
+        ReflectionTestUtils.setField(rideAssignmentService, "distanceFunction",
+                (GeoGridIndex.DistanceFunction) GeoUtils::calculateDistanceInMeters);
+        when(commuteCostCache.wrap(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(matchingEngine.match(any()))
+                .thenAnswer(invocation -> new GreedyMatchingEngine().match(invocation.getArgument(0)));
+        // Three pickups a kilometer apart, each with a cab waiting
+        CabDriver first = cabDriverRepository.save(locate(availableCab(), 0));
+        CabDriver second = cabDriverRepository.save(locate(availableCab(), 1));
+        CabDriver third = cabDriverRepository.save(locate(availableCab(), 2));
+        Passenger stays = passengerRepository.save(locate(waitingPassenger(), 0));
+        Passenger losesCab = passengerRepository.save(locate(waitingPassenger(), 1));
+        Passenger cancels = passengerRepository.save(locate(waitingPassenger(), 2));
+
+        assertEquals(3, rideAssignmentService.precomputeRoster());
+        assertEquals(0, rideAssignmentRepository.count());
+
+        // Overnight the second cab goes off duty, one passenger cancels and another books
+        second.setAvailable(false);
+        cabDriverRepository.save(second);
+        cancels.setNeedsRide(false);
+        passengerRepository.save(cancels);
+        Passenger books = passengerRepository.save(locate(waitingPassenger(), 2));
+
+        rideAssignmentService.scheduleRideAssignments(DispatchPartition.ALL);
+
+        Map<Long, Long> cabOfPassenger = new HashMap<>();
+        for (RideAssignment assignment : rideAssignmentRepository.findAll()) {
+            cabOfPassenger.put(assignment.getPassenger().getId(), assignment.getCabDriver().getId());
+        }
+        assertEquals(Map.of(stays.getId(), first.getId(), books.getId(), third.getId()), cabOfPassenger);
+        assertTrue(passengerRepository.findById(losesCab.getId()).orElseThrow().isNeedsRide());
+        // Only the passengers whose plan changed went through matching
+        assertEquals(2, rideAssignmentService.getLastMatchingResult().getPassengerCount());
+    }
+
+    @Test
+    void testDispatchMatchesOnPingsStillInTheWriteBuffer() {
+        ReflectionTestUtils.setField(rideAssignmentService, "distanceFunction",
+                (GeoGridIndex.DistanceFunction) GeoUtils::calculateDistanceInMeters);
+        when(matchingEngine.match(any()))
+                .thenAnswer(invocation -> new GreedyMatchingEngine().match(invocation.getArgument(0)));
+        // The rows put them two kilometers apart; their latest pings put them at the same pickup
+        CabDriver cab = cabDriverRepository.save(locate(availableCab(), 0));
+        Passenger passenger = passengerRepository.save(locate(waitingPassenger(), 2));
+        locationWriteBuffer.bufferCab(cab.getId(), 12.98, 77.59);
+        locationWriteBuffer.bufferPassenger(passenger.getId(), 12.98, 77.59);
+
+        BatchDispatchResult result = rideAssignmentService.dispatchBatch(List.of(passenger.getId()));
+
+        assertEquals(Set.of(passenger.getId()), result.assignedPassengerIds());
+        assertEquals(cab.getId(), rideAssignmentRepository.findAll().get(0).getCabDriver().getId());
+        // Dispatch only read the pings; writing them is still up to the buffer
+        assertEquals(2, locationWriteBuffer.getPendingCount());
+        assertEquals(12.99, passengerRepository.findById(passenger.getId()).orElseThrow().getCurrentLatitude(), 1e-9);
+    }
+
+    @Test
+    void testRoutedDispatchFallsBackToTheNearestCabWithoutARoute() {
+        when(travelTimeService.isEnabled()).thenReturn(true);
+        doAnswer(invocation -> {
+            double[] latitudes = invocation.getArgument(2);
+            double[] longitudes = invocation.getArgument(3);
+            double[] out = invocation.getArgument(4);
+            for (int i = 0; i < (int) invocation.getArgument(5); i++) {
+                out[i] = GeoUtils.calculateDistanceInMeters(invocation.getArgument(0), invocation.getArgument(1),
+                        latitudes[i], longitudes[i]);
+            }
+            return null;
+        }).when(locationService).calculateDistances(anyDouble(), anyDouble(), any(), any(), any(), anyInt());
+        // About 90, 30 and 55 meters east of the pickups; the farthest is listed first
+        CabDriver far = cabDriverRepository.save(east(availableCab(), 0.0008));
+        CabDriver near = cabDriverRepository.save(east(availableCab(), 0.0003));
+        CabDriver onTheRoute = cabDriverRepository.save(east(availableCab(), 0.0005));
+        Passenger routed = passengerRepository.save(locate(waitingPassenger(), 0));
+        Passenger offTheRoads = passengerRepository.save(locate(waitingPassenger(), 0));
+
+        // With roads the quickest drive wins over the shortest distance
+        doAnswer(invocation -> {
+            double[] longitudes = invocation.getArgument(3);
+            double[] out = invocation.getArgument(4);
+            for (int i = 0; i < (int) invocation.getArgument(5); i++) {
+                out[i] = Math.abs(longitudes[i] - 77.5905) < 1e-9 ? 20 : 120;
+            }
+            return null;
+        }).when(travelTimeService).travelTimesTo(anyDouble(), anyDouble(), any(), any(), any(), anyInt());
+        assertEquals(onTheRoute.getId(),
+                rideAssignmentService.dispatchRideRequest(routed.getId()).orElseThrow().getCabDriver().getId());
+
+        // Beyond the snap radius every drive time is infinite, which must not leave the passenger without a cab
+        doAnswer(invocation -> {
+            Arrays.fill(invocation.<double[]>getArgument(4), Double.POSITIVE_INFINITY);
+            return null;
+        }).when(travelTimeService).travelTimesTo(anyDouble(), anyDouble(), any(), any(), any(), anyInt());
+        assertEquals(near.getId(),
+                rideAssignmentService.dispatchRideRequest(offTheRoads.getId()).orElseThrow().getCabDriver().getId());
+        assertTrue(cabDriverRepository.findById(far.getId()).orElseThrow().isAvailable());
+    }
+
+    private void takeElsewhere(Long cabId) {
+        // From another connection, so it commits on its own
+        CompletableFuture.runAsync(() -> jdbcTemplate.update(
+                "UPDATE cab_drivers SET available = false, version = version + 1 WHERE id = ?", cabId)).join();
+    }
+
+    private static int nearest(double latitude, double longitude, double[] latitudes, double[] longitudes, int count) {
+        int nearest = -1;
+        for (int c = 0; c < count; c++) {
+            if (nearest < 0 || GeoUtils.calculateDistanceInMeters(latitude, longitude, latitudes[c], longitudes[c])
+                    < GeoUtils.calculateDistanceInMeters(latitude, longitude, latitudes[nearest], longitudes[nearest])) {
+                nearest = c;
+            }
+        }
+        return nearest;
+    }
+
+    private static CabDriver east(CabDriver cab, double degrees) {
+        cab.setCurrentLatitude(cab.getCurrentLatitude() != null ? cab.getCurrentLatitude() : 12.97);
+        cab.setCurrentLongitude(77.59 + degrees);
+        return cab;
+    }
+
+    private static CabDriver locate(CabDriver cab, int pickup) {
+        cab.setCurrentLatitude(12.97 + pickup * 0.01);
+        cab.setCurrentLongitude(77.59);
+        return cab;
+    }
+
+    private static Passenger locate(Passenger passenger, int pickup) {
+        passenger.setCurrentLatitude(12.97 + pickup * 0.01);
+        passenger.setCurrentLongitude(77.59);
+        return passenger;
+    }
+}
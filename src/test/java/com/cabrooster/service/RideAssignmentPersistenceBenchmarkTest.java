@@ -0,0 +1,194 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+import com.cabrooster.repository.CabDriverRepository;
+import com.cabrooster.repository.PassengerRepository;
+import com.cabrooster.repository.RideAssignmentRepository;
+import com.cabrooster.service.dispatch.DispatchPartition;
+import com.cabrooster.service.dispatch.DropRoutePlanner;
+import com.cabrooster.service.dispatch.GreedyMatchingEngine;
+import com.cabrooster.service.dispatch.MatchingEngine;
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoUtils;
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the statements and commit time of assigning a plan ride by ride
+ * against assigning it in bulk, and checks what a scheduled run loads
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({RideAssignmentService.class, LocationWriteBuffer.class, HaversineDistanceEngine.class,
+        SimpleMeterRegistry.class})
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RideAssignmentPersistenceBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RideAssignmentPersistenceBenchmarkTest.class);
+
+    private static final int RIDES = 2000;
+
+    @Autowired
+    private RideAssignmentService rideAssignmentService;
+
+    @Autowired
+    private CabDriverRepository cabDriverRepository;
+
+    @Autowired
+    private PassengerRepository passengerRepository;
+
+    @Autowired
+    private RideAssignmentRepository rideAssignmentRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @MockBean
+    private MatchingEngine matchingEngine;
+
+    @MockBean
+    private ForkJoinPool dispatchPool;
+
+    @MockBean
+    private DropRoutePlanner dropRoutePlanner;
+
+    @MockBean
+    private LocationService locationService;
+
+    @MockBean
+    private FleetStateStore fleetStateStore;
+
+    @MockBean
+    private TravelTimeService travelTimeService;
+
+    @MockBean
+    private CommuteCostCache commuteCostCache;
+
+    @AfterEach
+    void tearDown() {
+        rideAssignmentRepository.deleteAllInBatch();
+        cabDriverRepository.deleteAllInBatch();
+        passengerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testBulkAssignmentNeedsFewerStatements() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        // Ride by ride, as the scheduled run used to do it
+        createFleet();
+        statistics.clear();
+        long start = System.nanoTime();
+        transaction.executeWithoutResult(status -> {
+            List<CabDriver> cabs = cabDriverRepository.findByAvailable(true);
+            List<Passenger> passengers = passengerRepository.findByNeedsRide(true);
+            for (int i = 0; i < RIDES; i++) {
+                rideAssignmentService.assignRide(cabs.get(i), passengers.get(i));
+            }
+        });
+        long perRideMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long perRideStatements = statistics.getPrepareStatementCount();
+        tearDown();
+
+        // The whole plan at once
+        createFleet();
+        statistics.clear();
+        start = System.nanoTime();
+        transaction.executeWithoutResult(status -> rideAssignmentService.assignRides(
+                cabDriverRepository.findByAvailable(true), passengerRepository.findByNeedsRide(true)));
+        long bulkMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bulkStatements = statistics.getPrepareStatementCount();
+
+        logger.info("Assigning {} rides one by one: {} statements in {} ms; as one plan: {} statements in {} ms",
+                RIDES, perRideStatements, perRideMillis, bulkStatements, bulkMillis);
+
+        assertEquals(RIDES, rideAssignmentRepository.count());
+        assertEquals(0, cabDriverRepository.countByAvailable(true));
+        assertEquals(0, passengerRepository.countByNeedsRide(true));
+        assertTrue(bulkStatements < perRideStatements,
+                "bulk path used " + bulkStatements + " statements, ride by ride used " + perRideStatements);
+    }
+
+    @Test
+    void testScheduledRunReadsPassengersInChunks() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        ReflectionTestUtils.setField(rideAssignmentService, "scheduledChunkSize", 300);
+        ReflectionTestUtils.setField(rideAssignmentService, "distanceFunction",
+                (GeoGridIndex.DistanceFunction) GeoUtils::calculateDistanceInMeters);
+        when(commuteCostCache.wrap(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(matchingEngine.match(any()))
+                .thenAnswer(invocation -> new GreedyMatchingEngine().match(invocation.getArgument(0)));
+
+        createFleet();
+        List<CabDriver> cabs = cabDriverRepository.findAll();
+        List<Passenger> passengers = passengerRepository.findAll();
+        for (int i = 0; i < RIDES; i++) {
+            double latitude = 12.9 + (i % 50) * 0.002;
+            double longitude = 77.5 + (i / 50) * 0.002;
+            cabs.get(i).setCurrentLatitude(latitude);
+            cabs.get(i).setCurrentLongitude(longitude);
+            passengers.get(i).setCurrentLatitude(latitude);
+            passengers.get(i).setCurrentLongitude(longitude);
+        }
+        cabDriverRepository.saveAll(cabs);
+        passengerRepository.saveAll(passengers);
+
+        statistics.clear();
+        rideAssignmentService.scheduleRideAssignments(DispatchPartition.ALL);
+
+        // Passengers are read as rows, never as managed entities
+        assertEquals(0, statistics.getEntityStatistics(Passenger.class.getName()).getLoadCount());
+        assertEquals(RIDES, rideAssignmentRepository.count());
+        assertEquals(0, passengerRepository.countByNeedsRide(true));
+        assertEquals(RIDES, rideAssignmentService.getLastMatchingResult().getMatchedCount());
+    }
+
+    private void createFleet() {
+        List<CabDriver> cabs = new ArrayList<>(RIDES);
+        List<Passenger> passengers = new ArrayList<>(RIDES);
+        for (int i = 0; i < RIDES; i++) {
+            CabDriver cab = new CabDriver();
+            cab.setName("Driver " + i);
+            cab.setAvailable(true);
+            cabs.add(cab);
+
+            Passenger passenger = new Passenger();
+            passenger.setName("Passenger " + i);
+            passenger.setNeedsRide(true);
+            passengers.add(passenger);
+        }
+        cabDriverRepository.saveAll(cabs);
+        passengerRepository.saveAll(passengers);
+    }
+}
@@ -0,0 +1,104 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.RideAssignment;
+import com.cabrooster.service.dispatch.BatchDispatchResult;
+import com.cabrooster.service.dispatch.MatchingResult;
+import com.cabrooster.service.dispatch.RideRequestedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RideDispatchServiceTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private RideAssignmentService rideAssignmentService;
+
+    @InjectMocks
+    private RideDispatchService rideDispatchService;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        rideDispatchService.stop();
+        Thread worker = (Thread) ReflectionTestUtils.getField(rideDispatchService, "worker");
+        if (worker != null) {
+            worker.join(5000);
+        }
+    }
+
+    @Test
+    void testContinuousModeDispatchesEachRequestOnArrival() throws InterruptedException {
+        when(rideAssignmentService.dispatchRideRequest(1L)).thenReturn(Optional.of(new RideAssignment()));
+        when(rideAssignmentService.dispatchRideRequest(2L)).thenReturn(Optional.empty());
+        start(RideDispatchService.MODE_CONTINUOUS);
+
+        rideDispatchService.onRideRequested(new RideRequestedEvent(1L, System.nanoTime()));
+        rideDispatchService.onRideRequested(new RideRequestedEvent(2L, System.nanoTime()));
+
+        verify(rideAssignmentService, timeout(5000)).dispatchRideRequest(1L);
+        verify(rideAssignmentService, timeout(5000)).dispatchRideRequest(2L);
+        tearDown();
+        assertEquals(1, latencyCount("assigned"));
+        assertEquals(1, latencyCount("unmatched"));
+    }
+
+    @Test
+    void testWindowedModeBatchesRequestsAndSizesTheWindowByTheArrivalRate() throws InterruptedException {
+        when(rideAssignmentService.dispatchBatch(List.of(1L, 2L)))
+                .thenReturn(new BatchDispatchResult(MatchingResult.combine(List.of()), Set.of(1L)));
+        start(RideDispatchService.MODE_WINDOWED);
+
+        // Two requests after a second of quiet: about two a second, so fifty need the longest window
+        Thread.sleep(1000);
+        rideDispatchService.onRideRequested(new RideRequestedEvent(1L, System.nanoTime()));
+        rideDispatchService.onRideRequested(new RideRequestedEvent(2L, System.nanoTime()));
+
+        verify(rideAssignmentService, timeout(5000)).dispatchBatch(List.of(1L, 2L));
+        tearDown();
+        // Measured over the 100 ms the window was open, the rate would look ten times higher
+        assertEquals(5.0, meterRegistry.get("dispatch.window.size").gauge().value(), 1e-9);
+        assertEquals(1, meterRegistry.get("dispatch.window.batch.size").summary().count());
+    }
+
+    @Test
+    void testScheduledModeStartsNoWorker() {
+        start(RideDispatchService.MODE_SCHEDULED);
+
+        rideDispatchService.onRideRequested(new RideRequestedEvent(1L, System.nanoTime()));
+
+        assertNull(ReflectionTestUtils.getField(rideDispatchService, "worker"));
+        assertEquals(0, meterRegistry.get("dispatch.queue.depth").gauge().value());
+    }
+
+    private void start(String mode) {
+        ReflectionTestUtils.setField(rideDispatchService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(rideDispatchService, "mode", mode);
+        ReflectionTestUtils.setField(rideDispatchService, "queueCapacity", 100);
+        ReflectionTestUtils.setField(rideDispatchService, "windowMinMs", 100L);
+        ReflectionTestUtils.setField(rideDispatchService, "windowMaxMs", 5000L);
+        ReflectionTestUtils.setField(rideDispatchService, "targetBatchSize", 50);
+        rideDispatchService.init();
+        rideDispatchService.start();
+    }
+
+    private long latencyCount(String outcome) {
+        return meterRegistry.get("dispatch.assignment.latency").tag("outcome", outcome).timer().count();
+    }
+}
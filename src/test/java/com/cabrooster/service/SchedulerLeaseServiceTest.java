@@ -0,0 +1,205 @@
+package com.cabrooster.service;
+
+import com.cabrooster.repository.SchedulerLeaseRepository;
+import com.cabrooster.service.dispatch.DispatchPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Several application instances, each with its own lease service and node id, sharing one database
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SchedulerLeaseServiceTest {
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Autowired
+    private SchedulerLeaseRepository leaseRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        leaseRepository.deleteAllInBatch();
+    }
+
+    @Test
+    void testOnlyOneNodeHoldsALease() {
+        SchedulerLeaseService a = node("a");
+        SchedulerLeaseService b = node("b");
+
+        assertTrue(a.tryAcquire("job", TTL));
+        assertFalse(b.tryAcquire("job", TTL));
+        // The holder can renew, and only the holder can release
+        assertTrue(a.tryAcquire("job", TTL));
+        b.release("job");
+        assertFalse(b.tryAcquire("job", TTL));
+
+        a.release("job");
+        assertTrue(b.tryAcquire("job", TTL));
+        assertFalse(a.tryAcquire("job", TTL));
+    }
+
+    @Test
+    void testLeaseOfCrashedNodeExpires() throws InterruptedException {
+        SchedulerLeaseService crashed = node("crashed");
+        SchedulerLeaseService survivor = node("survivor");
+
+        assertTrue(crashed.tryAcquire("job", Duration.ofMillis(100)));
+        assertFalse(survivor.tryAcquire("job", TTL));
+        Thread.sleep(200);
+
+        assertTrue(survivor.tryAcquire("job", TTL));
+        assertFalse(crashed.tryAcquire("job", TTL));
+    }
+
+    @Test
+    void testLeaseIsRenewedWhileWorkRuns() throws InterruptedException {
+        SchedulerLeaseService busy = node("busy");
+        SchedulerLeaseService waiting = node("waiting");
+        Duration ttl = Duration.ofMillis(300);
+
+        assertTrue(busy.tryAcquire("job", ttl));
+        try (SchedulerLeaseService.Renewal renewal = busy.keepAlive("job", ttl)) {
+            // Well past the lease time the lease is still held
+            Thread.sleep(900);
+            assertFalse(waiting.tryAcquire("job", TTL));
+        }
+        Thread.sleep(600);
+        assertTrue(waiting.tryAcquire("job", TTL));
+        busy.shutdown();
+        waiting.shutdown();
+    }
+
+    @Test
+    void testOneLeaderRunsTheJob() throws Exception {
+        Queue<DispatchPartition> runs = new ConcurrentLinkedQueue<>();
+        List<Integer> ran = runConcurrently(ScheduledDispatchJob.MODE_LEADER, 5, runs);
+
+        assertEquals(1, ran.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(1, runs.size());
+    }
+
+    @Test
+    void testNodesShareThePartitions() throws Exception {
+        Queue<DispatchPartition> runs = new ConcurrentLinkedQueue<>();
+        List<Integer> ran = runConcurrently(ScheduledDispatchJob.MODE_PARTITIONED, 4, runs);
+
+        assertEquals(16, ran.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(16, runs.size());
+        // Every passenger belongs to exactly one partition run
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            double latitude = 12.8 + random.nextDouble() * 0.4;
+            double longitude = 77.4 + random.nextDouble() * 0.4;
+            assertEquals(1, runs.stream().filter(run -> run.contains(latitude, longitude)).count());
+        }
+        assertEquals(1, runs.stream().filter(run -> run.contains(null, null)).count());
+
+        // Leases are kept after the run, so a node that fires late finds nothing left
+        assertEquals(0, job(node("late"), ScheduledDispatchJob.MODE_PARTITIONED)
+                .run(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB, runs::add));
+    }
+
+    @Test
+    void testFailedPartitionIsRetriedBeforeItIsGivenUp() {
+        SchedulerLeaseService leaseService = node("flaky");
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        Queue<DispatchPartition> runs = new ConcurrentLinkedQueue<>();
+
+        int ran = job(leaseService, ScheduledDispatchJob.MODE_PARTITIONED)
+                .run(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB, partition -> {
+                    if (partition.index() == 3 && failedOnce.compareAndSet(false, true)) {
+                        throw new IllegalStateException("Lost a race");
+                    }
+                    runs.add(partition);
+                });
+
+        assertEquals(16, ran);
+        assertEquals(16, runs.size());
+        assertFalse(node("other").tryAcquire(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB + "/3", TTL));
+
+        // A partition that keeps failing is let go after the last attempt
+        int ranHomeDrops = job(leaseService, ScheduledDispatchJob.MODE_PARTITIONED)
+                .run(ScheduledDispatchJob.HOME_DROP_JOB, partition -> {
+                    if (partition.index() == 5) {
+                        throw new IllegalStateException("Always fails");
+                    }
+                });
+        assertEquals(15, ranHomeDrops);
+        assertTrue(node("other").tryAcquire(ScheduledDispatchJob.HOME_DROP_JOB + "/5", TTL));
+    }
+
+    /**
+     * Fire the ride assignment job on several nodes at once
+     * @return Partitions run by each node
+     */
+    private List<Integer> runConcurrently(String mode, int nodes, Queue<DispatchPartition> runs)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int n = 0; n < nodes; n++) {
+                ScheduledDispatchJob job = job(node("node-" + n), mode);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return job.run(ScheduledDispatchJob.RIDE_ASSIGNMENT_JOB, runs::add);
+                }));
+            }
+            start.countDown();
+            List<Integer> ran = new ArrayList<>();
+            for (Future<Integer> result : results) {
+                ran.add(result.get());
+            }
+            return ran;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private SchedulerLeaseService node(String nodeId) {
+        SchedulerLeaseService service = new SchedulerLeaseService();
+        ReflectionTestUtils.setField(service, "leaseRepository", leaseRepository);
+        ReflectionTestUtils.setField(service, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(service, "nodeId", nodeId);
+        service.init();
+        return service;
+    }
+
+    private static ScheduledDispatchJob job(SchedulerLeaseService leaseService, String mode) {
+        ScheduledDispatchJob job = new ScheduledDispatchJob();
+        ReflectionTestUtils.setField(job, "leaseService", leaseService);
+        ReflectionTestUtils.setField(job, "mode", mode);
+        ReflectionTestUtils.setField(job, "leaseTtlMs", TTL.toMillis());
+        ReflectionTestUtils.setField(job, "partitions", 16);
+        ReflectionTestUtils.setField(job, "partitionSizeMeters", 2000.0);
+        ReflectionTestUtils.setField(job, "partitionAttempts", 3);
+        job.init();
+        return job;
+    }
+}
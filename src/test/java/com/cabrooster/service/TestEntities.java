@@ -0,0 +1,48 @@
+package com.cabrooster.service;
+
+import com.cabrooster.model.CabDriver;
+import com.cabrooster.model.Passenger;
+
+/**
+ * Unsaved cabs and passengers for the service tests, with only the fields the tests rely on set
+ */
+final class TestEntities {
+
+    private TestEntities() {
+    }
+
+    static CabDriver availableCab() {
+        CabDriver cab = new CabDriver();
+        cab.setName("Driver");
+        cab.setAvailable(true);
+        return cab;
+    }
+
+    static CabDriver availableCab(Double latitude, Double longitude) {
+        CabDriver cab = availableCab();
+        cab.setCurrentLatitude(latitude);
+        cab.setCurrentLongitude(longitude);
+        return cab;
+    }
+
+    /**
+     * A passenger in central Bangalore who has not asked for a ride
+     */
+    static Passenger passenger() {
+        Passenger passenger = new Passenger();
+        passenger.setName("Passenger");
+        passenger.setCurrentLatitude(12.97);
+        passenger.setCurrentLongitude(77.59);
+        return passenger;
+    }
+
+    /**
+     * A passenger waiting for a ride, without a location
+     */
+    static Passenger waitingPassenger() {
+        Passenger passenger = new Passenger();
+        passenger.setName("Passenger");
+        passenger.setNeedsRide(true);
+        return passenger;
+    }
+}
@@ -0,0 +1,66 @@
+package com.cabrooster.service;
+
+import com.cabrooster.util.distance.HaversineDistanceEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TravelTimeServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private TravelTimeService travelTimeService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Two connected nodes about 110 m apart and one a kilometer north with no road to it
+        Path graph = Files.writeString(directory.resolve("graph.csv"), """
+                n,10,12.970,77.590
+                n,11,12.971,77.590
+                n,12,12.980,77.590
+                e,10,11,60
+                """);
+        travelTimeService = new TravelTimeService();
+        ReflectionTestUtils.setField(travelTimeService, "resourceLoader", new DefaultResourceLoader());
+        ReflectionTestUtils.setField(travelTimeService, "distanceEngine", new HaversineDistanceEngine());
+        ReflectionTestUtils.setField(travelTimeService, "enabled", true);
+        ReflectionTestUtils.setField(travelTimeService, "graphLocation", graph.toUri().toString());
+        ReflectionTestUtils.setField(travelTimeService, "cachePath", "");
+        ReflectionTestUtils.setField(travelTimeService, "snapRadiusMeters", 250.0);
+        ReflectionTestUtils.setField(travelTimeService, "offRoadSpeed", 5.0);
+        travelTimeService.init();
+    }
+
+    @Test
+    void testPointsAreSnappedToTheNearestNodeAndWalkedTheRest() {
+        assertEquals(60, travelTimeService.travelTimeSeconds(12.970, 77.590, 12.971, 77.590), 1e-6);
+        // About 11 m from node 10, at the off-road speed of 5 m/s
+        assertEquals(60 + 11.12 / 5, travelTimeService.travelTimeSeconds(12.9699, 77.590, 12.971, 77.590), 0.01);
+    }
+
+    @Test
+    void testPointsBeyondTheSnapRadiusOrWithoutARouteAreInfinitelyFar() {
+        // Two kilometers north of the last node
+        assertEquals(Double.POSITIVE_INFINITY, travelTimeService.travelTimeSeconds(13.0, 77.590, 12.971, 77.590));
+        assertEquals(Double.POSITIVE_INFINITY, travelTimeService.travelTimeSeconds(12.970, 77.590, 12.980, 77.590));
+
+        double[] seconds = new double[3];
+        travelTimeService.travelTimesTo(12.971, 77.590,
+                new double[] {12.970, 12.980, 13.0}, new double[] {77.590, 77.590, 77.590}, seconds, 3);
+        assertEquals(60, seconds[0], 1e-6);
+        assertEquals(Double.POSITIVE_INFINITY, seconds[1]);
+        assertEquals(Double.POSITIVE_INFINITY, seconds[2]);
+
+        travelTimeService.travelTimesTo(13.0, 77.590, new double[] {12.970}, new double[] {77.590}, seconds, 1);
+        assertEquals(Double.POSITIVE_INFINITY, seconds[0]);
+    }
+}
@@ -0,0 +1,130 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DropRoutePlannerTest {
+
+    private static final double OFFICE_LAT = 12.97;
+    private static final double OFFICE_LON = 77.59;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Test
+    void testRoutesRespectSeatsAndDetours() {
+        Random random = new Random(1);
+        int passengers = 400;
+        double[] pickupLats = new double[passengers];
+        double[] pickupLons = new double[passengers];
+        double[] homeLats = new double[passengers];
+        double[] homeLons = new double[passengers];
+        for (int p = 0; p < passengers; p++) {
+            pickupLats[p] = OFFICE_LAT;
+            pickupLons[p] = OFFICE_LON;
+            homeLats[p] = OFFICE_LAT + (random.nextDouble() - 0.5) * 0.2;
+            homeLons[p] = OFFICE_LON + (random.nextDouble() - 0.5) * 0.2;
+        }
+        DropRoutePlanner planner = new DropRoutePlanner(4, 1.5, 500, Duration.ofSeconds(5), pool);
+
+        DropRoutePlan plan = planner.plan(pickupLats, pickupLons, homeLats, homeLons,
+                GeoUtils::calculateDistanceInMeters);
+
+        boolean[] seen = new boolean[passengers];
+        double total = 0;
+        for (int r = 0; r < plan.getRouteCount(); r++) {
+            int[] route = plan.getRoute(r);
+            assertTrue(route.length >= 1 && route.length <= 4);
+            double ride = 0;
+            double lat = OFFICE_LAT;
+            double lon = OFFICE_LON;
+            for (int p : route) {
+                assertFalse(seen[p], "passenger " + p + " is on two routes");
+                seen[p] = true;
+                ride += GeoUtils.calculateDistanceInMeters(lat, lon, homeLats[p], homeLons[p]);
+                double direct = GeoUtils.calculateDistanceInMeters(OFFICE_LAT, OFFICE_LON, homeLats[p], homeLons[p]);
+                assertTrue(ride <= direct * 1.5 + 1e-3, "passenger " + p + " rides too far");
+                lat = homeLats[p];
+                lon = homeLons[p];
+            }
+            total += ride;
+        }
+        for (int p = 0; p < passengers; p++) {
+            assertTrue(seen[p], "passenger " + p + " has no route");
+        }
+        assertEquals(total, plan.getTotalMeters(), 1e-3);
+        assertEquals(passengers, plan.getPassengerCount());
+        // Pooling should save well over half of the cabs and some distance
+        assertTrue(plan.getRouteCount() < passengers * 0.4, plan.toString());
+        assertTrue(plan.getTotalMeters() < plan.getDirectMeters(), plan.toString());
+    }
+
+    @Test
+    void testNeighboursShareACabInDropOrder() {
+        // Two homes on the same road north of the office and one to the south
+        double[] pickupLats = {OFFICE_LAT, OFFICE_LAT, OFFICE_LAT};
+        double[] pickupLons = {OFFICE_LON, OFFICE_LON, OFFICE_LON};
+        double[] homeLats = {OFFICE_LAT + 0.05, OFFICE_LAT - 0.04, OFFICE_LAT + 0.03};
+        double[] homeLons = {OFFICE_LON, OFFICE_LON, OFFICE_LON + 0.001};
+        DropRoutePlanner planner = new DropRoutePlanner(4, 1.5, 500, Duration.ofSeconds(5), pool);
+
+        DropRoutePlan plan = planner.plan(pickupLats, pickupLons, homeLats, homeLons,
+                GeoUtils::calculateDistanceInMeters);
+
+        assertEquals(2, plan.getRouteCount());
+        for (int r = 0; r < plan.getRouteCount(); r++) {
+            int[] route = plan.getRoute(r);
+            if (route.length == 2) {
+                assertArrayEquals(new int[] {2, 0}, route);
+            } else {
+                assertArrayEquals(new int[] {1}, route);
+            }
+        }
+    }
+
+    @Test
+    void testSharedCabBoardsAtOnePickupPoint() {
+        // Two riders waiting 40 m apart at the office, going the same way
+        double[] pickupLats = {OFFICE_LAT, OFFICE_LAT + 0.00036};
+        double[] pickupLons = {OFFICE_LON, OFFICE_LON};
+        double[] homeLats = {OFFICE_LAT + 0.05, OFFICE_LAT + 0.06};
+        double[] homeLons = {OFFICE_LON, OFFICE_LON};
+        DropRoutePlanner planner = new DropRoutePlanner(4, 1.5, 150, Duration.ofSeconds(5), pool);
+
+        DropRoutePlan plan = planner.plan(pickupLats, pickupLons, homeLats, homeLons,
+                GeoUtils::calculateDistanceInMeters);
+
+        assertEquals(1, plan.getRouteCount());
+        assertArrayEquals(new int[] {0, 1}, plan.getRoute(0));
+        assertEquals(OFFICE_LAT + 0.00018, plan.getPickupLatitude(0), 1e-9);
+        assertEquals(OFFICE_LON, plan.getPickupLongitude(0), 1e-9);
+    }
+
+    @Test
+    void testPickupRegionsAndSingleSeatCabsAreNotPooled() {
+        // Same homes, but picked up at offices 20 km apart
+        double[] pickupLats = {OFFICE_LAT, OFFICE_LAT + 0.18};
+        double[] pickupLons = {OFFICE_LON, OFFICE_LON};
+        double[] homeLats = {OFFICE_LAT + 0.09, OFFICE_LAT + 0.09};
+        double[] homeLons = {OFFICE_LON, OFFICE_LON};
+
+        DropRoutePlan regions = new DropRoutePlanner(4, 1.5, 500, Duration.ofSeconds(5), pool)
+                .plan(pickupLats, pickupLons, homeLats, homeLons, GeoUtils::calculateDistanceInMeters);
+        assertEquals(2, regions.getRouteCount());
+        // Each cab goes to its own rider's pickup
+        for (int r = 0; r < regions.getRouteCount(); r++) {
+            assertEquals(pickupLats[regions.getRoute(r)[0]], regions.getPickupLatitude(r), 1e-9);
+        }
+
+        pickupLats[1] = OFFICE_LAT;
+        DropRoutePlan singleSeats = new DropRoutePlanner(1, 1.5, 500, Duration.ofSeconds(5), pool)
+                .plan(pickupLats, pickupLons, homeLats, homeLons, GeoUtils::calculateDistanceInMeters);
+        assertEquals(2, singleSeats.getRouteCount());
+        assertEquals(singleSeats.getDirectMeters(), singleSeats.getTotalMeters(), 1e-6);
+    }
+}
@@ -0,0 +1,109 @@
+package com.cabrooster.service.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimalMatchingEngineTest {
+
+    private final OptimalMatchingEngine engine = new OptimalMatchingEngine(Duration.ofSeconds(5));
+
+    @Test
+    void testBeatsGreedyWhenEarlyPassengerTakesContestedCab() {
+        // Passenger 0 is slightly closer to cab 0, but passenger 1 can only reach cab 0
+        CandidateGraph.Builder builder = new CandidateGraph.Builder(2, 2);
+        builder.addEdge(0, 10);
+        builder.addEdge(1, 20);
+        builder.endRow();
+        builder.addEdge(0, 15);
+        builder.endRow();
+        CandidateGraph graph = builder.build();
+
+        MatchingResult greedy = new GreedyMatchingEngine().match(graph);
+        assertEquals(1, greedy.getMatchedCount());
+
+        MatchingResult optimal = engine.match(graph);
+        assertEquals(2, optimal.getMatchedCount());
+        assertEquals(1, optimal.getCabForPassenger(0));
+        assertEquals(0, optimal.getCabForPassenger(1));
+        assertEquals(35, optimal.getTotalCost(), 1e-9);
+        assertFalse(optimal.isFallbackUsed());
+    }
+
+    @Test
+    void testMatchesBruteForceOnRandomGraphs() {
+        Random random = new Random(7);
+        for (int round = 0; round < 300; round++) {
+            int passengers = 1 + random.nextInt(6);
+            int cabs = 1 + random.nextInt(6);
+            double[][] cost = new double[passengers][cabs];
+            CandidateGraph.Builder builder = new CandidateGraph.Builder(passengers, cabs);
+            for (int p = 0; p < passengers; p++) {
+                for (int c = 0; c < cabs; c++) {
+                    cost[p][c] = Double.NaN;
+                    if (random.nextDouble() < 0.5) {
+                        cost[p][c] = random.nextInt(100);
+                        builder.addEdge(c, cost[p][c]);
+                    }
+                }
+                builder.endRow();
+            }
+
+            MatchingResult result = engine.match(builder.build());
+
+            double[] best = {0, Double.MAX_VALUE};
+            bruteForce(cost, 0, new boolean[cabs], 0, 0, best);
+            assertEquals((int) best[0], result.getMatchedCount(), "round " + round);
+            assertEquals(best[1], result.getTotalCost(), 1e-6, "round " + round);
+            assertNoCabUsedTwice(result, cabs);
+        }
+    }
+
+    @Test
+    void testFallsBackToGreedyWhenBudgetIsExhausted() {
+        CandidateGraph.Builder builder = new CandidateGraph.Builder(2, 2);
+        builder.addEdge(0, 10);
+        builder.addEdge(1, 20);
+        builder.endRow();
+        builder.addEdge(0, 15);
+        builder.endRow();
+
+        MatchingResult result = new OptimalMatchingEngine(Duration.ZERO).match(builder.build());
+
+        assertTrue(result.isFallbackUsed());
+        assertEquals(1, result.getMatchedCount());
+        assertEquals(0, result.getCabForPassenger(0));
+    }
+
+    private static void bruteForce(double[][] cost, int p, boolean[] used, int matched, double total, double[] best) {
+        if (p == cost.length) {
+            if (matched > best[0] || (matched == best[0] && total < best[1])) {
+                best[0] = matched;
+                best[1] = total;
+            }
+            return;
+        }
+        bruteForce(cost, p + 1, used, matched, total, best);
+        for (int c = 0; c < used.length; c++) {
+            if (!used[c] && !Double.isNaN(cost[p][c])) {
+                used[c] = true;
+                bruteForce(cost, p + 1, used, matched + 1, total + cost[p][c], best);
+                used[c] = false;
+            }
+        }
+    }
+
+    private static void assertNoCabUsedTwice(MatchingResult result, int cabs) {
+        boolean[] used = new boolean[cabs];
+        for (int p = 0; p < result.getPassengerCount(); p++) {
+            int cab = result.getCabForPassenger(p);
+            if (cab != MatchingResult.UNMATCHED) {
+                assertFalse(used[cab]);
+                used[cab] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.cabrooster.service.dispatch;
+
+import com.cabrooster.util.GeoGridIndex;
+import com.cabrooster.util.GeoUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedMatchingEngineTest {
+
+    private static final double MAX_DISTANCE_METERS = 100;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void testSingleRegionMatchesDelegate() {
+        CandidateGraph graph = randomGraph(new Random(1), 3000, 3000);
+        MatchingEngine delegate = new OptimalMatchingEngine(Duration.ofSeconds(30));
+
+        MatchingResult expected = delegate.match(graph);
+        MatchingResult actual = new PartitionedMatchingEngine(delegate, pool, 1_000_000, Duration.ofSeconds(30))
+                .match(graph);
+
+        assertEquals(expected.getMatchedCount(), actual.getMatchedCount());
+        assertEquals(expected.getTotalCost(), actual.getTotalCost(), 1e-6);
+    }
+
+    @Test
+    void testSmallRegionsStayValidAndDeterministic() {
+        CandidateGraph graph = randomGraph(new Random(2), 3000, 3000);
+        MatchingEngine engine = new PartitionedMatchingEngine(
+                new OptimalMatchingEngine(Duration.ofSeconds(30)), pool, 150, Duration.ofSeconds(30));
+
+        MatchingResult first = engine.match(graph);
+        assertValidMatching(graph, first);
+        for (int run = 0; run < 3; run++) {
+            MatchingResult again = engine.match(graph);
+            for (int p = 0; p < graph.getPassengerCount(); p++) {
+                assertEquals(first.getCabForPassenger(p), again.getCabForPassenger(p));
+            }
+        }
+    }
+
+    @Test
+    void testRegionsShareOneDeadline() {
+        CandidateGraph graph = randomGraph(new Random(4), 3000, 3000);
+        RecordingEngine delegate = new RecordingEngine();
+
+        long budget = Duration.ofSeconds(2).toNanos();
+        long start = System.nanoTime();
+        new PartitionedMatchingEngine(delegate, pool, 150, Duration.ofNanos(budget)).match(graph);
+        long end = System.nanoTime();
+
+        // Counted from the start of the run, not from when each region got a thread
+        assertTrue(delegate.deadlines.size() > 1, delegate.deadlines.size() + " regions");
+        long deadline = delegate.deadlines.get(0);
+        assertTrue(deadline - start >= budget && deadline - end <= budget);
+        for (long regionDeadline : delegate.deadlines) {
+            assertEquals(deadline, regionDeadline);
+        }
+    }
+
+    @Test
+    void testRegionsAreSquareOnTheGroundAwayFromTheEquator() {
+        // Five passengers 450 m apart along a parallel at 60 degrees north, each with a cab on top.
+        // Square 1 km regions split them into at most three groups; regions 500 m wide would need four or five.
+        int passengers = 5;
+        double latitude = 60.0;
+        double lonStep = 450 / (GeoUtils.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        double[] lats = new double[passengers];
+        double[] lons = new double[passengers];
+        GeoGridIndex<Integer> cabIndex = new GeoGridIndex<>(MAX_DISTANCE_METERS, Integer::longValue);
+        for (int p = 0; p < passengers; p++) {
+            lats[p] = latitude;
+            lons[p] = 10.0 + p * lonStep;
+            cabIndex.add(p, lats[p], lons[p]);
+        }
+        CandidateGraph graph = CandidateGraph.build(lats, lons, cabIndex, passengers,
+                MAX_DISTANCE_METERS, GeoUtils::calculateDistanceInMeters);
+        RecordingEngine delegate = new RecordingEngine();
+
+        MatchingResult result = new PartitionedMatchingEngine(delegate, pool, 1000, Duration.ofSeconds(30))
+                .match(graph);
+
+        assertTrue(delegate.deadlines.size() <= 3, delegate.deadlines.size() + " regions");
+        assertEquals(passengers, result.getMatchedCount());
+    }
+
+    @Test
+    void testParallelBuildMatchesSequentialBuild() {
+        Random random = new Random(3);
+        int passengers = 10_000;
+        double[] lats = new double[passengers];
+        double[] lons = new double[passengers];
+        for (int p = 0; p < passengers; p++) {
+            lats[p] = 12.95 + random.nextDouble() * 0.05;
+            lons[p] = 77.55 + random.nextDouble() * 0.05;
+        }
+        GeoGridIndex<Integer> cabIndex = randomCabs(random, 5000);
+
+        CandidateGraph sequential = CandidateGraph.build(lats, lons, cabIndex, 5000,
+                MAX_DISTANCE_METERS, GeoUtils::calculateDistanceInMeters);
+        CandidateGraph parallel = CandidateGraph.build(lats, lons, cabIndex, 5000,
+                MAX_DISTANCE_METERS, GeoUtils::calculateDistanceInMeters, pool);
+
+        assertEquals(sequential.getEdgeCount(), parallel.getEdgeCount());
+        for (int p = 0; p < passengers; p++) {
+            assertEquals(sequential.rowStart(p), parallel.rowStart(p));
+        }
+        for (int e = 0; e < sequential.getEdgeCount(); e++) {
+            assertEquals(sequential.edgeCab(e), parallel.edgeCab(e));
+            assertEquals(sequential.edgeCost(e), parallel.edgeCost(e), 0);
+        }
+    }
+
+    private static CandidateGraph randomGraph(Random random, int passengers, int cabs) {
+        double[] lats = new double[passengers];
+        double[] lons = new double[passengers];
+        for (int p = 0; p < passengers; p++) {
+            lats[p] = 12.95 + random.nextDouble() * 0.02;
+            lons[p] = 77.55 + random.nextDouble() * 0.02;
+        }
+        return CandidateGraph.build(lats, lons, randomCabs(random, cabs), cabs,
+                MAX_DISTANCE_METERS, GeoUtils::calculateDistanceInMeters);
+    }
+
+    private static GeoGridIndex<Integer> randomCabs(Random random, int cabs) {
+        GeoGridIndex<Integer> index = new GeoGridIndex<>(MAX_DISTANCE_METERS, Integer::longValue);
+        for (int c = 0; c < cabs; c++) {
+            index.add(c, 12.95 + random.nextDouble() * 0.02, 77.55 + random.nextDouble() * 0.02);
+        }
+        return index;
+    }
+
+    /**
+     * Greedy matching that records the deadline each region was given
+     */
+    private static final class RecordingEngine implements MatchingEngine {
+        private final List<Long> deadlines = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public MatchingResult match(CandidateGraph graph) {
+            return new GreedyMatchingEngine().match(graph);
+        }
+
+        @Override
+        public MatchingResult match(CandidateGraph graph, long deadline) {
+            deadlines.add(deadline);
+            return match(graph);
+        }
+    }
+
+    private static void assertValidMatching(CandidateGraph graph, MatchingResult result) {
+        boolean[] used = new boolean[graph.getCabCount()];
+        for (int p = 0; p < graph.getPassengerCount(); p++) {
+            int cab = result.getCabForPassenger(p);
+            if (cab != MatchingResult.UNMATCHED) {
+                assertFalse(used[cab], "cab " + cab + " matched twice");
+                assertFalse(Double.isNaN(graph.cost(p, cab)), "match is not a candidate edge");
+                used[cab] = true;
+            }
+        }
+    }
+}
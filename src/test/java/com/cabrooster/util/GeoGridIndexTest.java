@@ -0,0 +1,107 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoGridIndexTest {
+
+    private static final double RADIUS_METERS = 100;
+
+    private record Point(long id, double latitude, double longitude) {
+    }
+
+    @Test
+    void testPointJustInsideTheRadiusIsFoundAcrossACellBoundary() {
+        // Query positions spread over more than one cell height, with a point 99.99 m due south of each,
+        // so for some of them the point sits in the next cell down
+        double offsetDegrees = 99.99 / GeoUtils.METERS_PER_DEGREE;
+        for (int i = 0; i < 20_000; i++) {
+            double lat = 12.97 + i * 1e-7;
+            Point point = new Point(i, lat - offsetDegrees, 77.59);
+            GeoGridIndex<Point> index = new GeoGridIndex<>(RADIUS_METERS, Point::id);
+            index.add(point, point.latitude(), point.longitude());
+
+            assertEquals(99.99, GeoUtils.calculateDistanceInMeters(lat, 77.59, point.latitude(), 77.59), 1e-6);
+            assertEquals(Optional.of(point),
+                    index.nearest(lat, 77.59, RADIUS_METERS, GeoUtils::calculateDistanceInMeters), "query at " + lat);
+        }
+    }
+
+    @Test
+    void testNearestMatchesLinearScan() {
+        Random random = new Random(42);
+        List<Point> points = new ArrayList<>();
+        GeoGridIndex<Point> index = new GeoGridIndex<>(RADIUS_METERS, Point::id);
+
+        // Scatter points around Bangalore within roughly 1 km
+        for (int i = 0; i < 2000; i++) {
+            Point point = new Point(i, 12.97 + random.nextDouble() * 0.01, 77.59 + random.nextDouble() * 0.01);
+            points.add(point);
+            index.add(point, point.latitude(), point.longitude());
+        }
+
+        for (int i = 0; i < 500; i++) {
+            double lat = 12.97 + random.nextDouble() * 0.01;
+            double lon = 77.59 + random.nextDouble() * 0.01;
+
+            Point expected = null;
+            double minDistance = Double.MAX_VALUE;
+            for (Point point : points) {
+                double distance = GeoUtils.calculateDistanceInMeters(lat, lon, point.latitude(), point.longitude());
+                if (distance < minDistance && distance <= RADIUS_METERS) {
+                    minDistance = distance;
+                    expected = point;
+                }
+            }
+
+            Optional<Point> actual = index.nearest(lat, lon, RADIUS_METERS, GeoUtils::calculateDistanceInMeters);
+            assertEquals(Optional.ofNullable(expected), actual);
+        }
+    }
+
+    @Test
+    void testRemovedItemsAreNotReturned() {
+        GeoGridIndex<Point> index = new GeoGridIndex<>(RADIUS_METERS, Point::id);
+        Point first = new Point(1, 12.9716, 77.5946);
+        Point second = new Point(2, 12.9717, 77.5946);
+        index.add(first, first.latitude(), first.longitude());
+        index.add(second, second.latitude(), second.longitude());
+
+        assertEquals(Optional.of(first), index.nearest(12.9716, 77.5946, RADIUS_METERS, GeoUtils::calculateDistanceInMeters));
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertEquals(1, index.size());
+        assertEquals(Optional.of(second), index.nearest(12.9716, 77.5946, RADIUS_METERS, GeoUtils::calculateDistanceInMeters));
+
+        assertTrue(index.remove(2));
+        assertTrue(index.isEmpty());
+        assertEquals(Optional.empty(), index.nearest(12.9716, 77.5946, RADIUS_METERS, GeoUtils::calculateDistanceInMeters));
+    }
+
+    @Test
+    void testEarlierItemWinsTies() {
+        GeoGridIndex<Point> index = new GeoGridIndex<>(RADIUS_METERS, Point::id);
+        Point first = new Point(7, 12.9716, 77.5946);
+        Point second = new Point(3, 12.9716, 77.5946);
+        index.add(first, first.latitude(), first.longitude());
+        index.add(second, second.latitude(), second.longitude());
+
+        assertEquals(Optional.of(first), index.nearest(12.9716, 77.5946, RADIUS_METERS, GeoUtils::calculateDistanceInMeters));
+    }
+
+    @Test
+    void testSearchCrossesAntimeridian() {
+        GeoGridIndex<Point> index = new GeoGridIndex<>(RADIUS_METERS, Point::id);
+        Point point = new Point(1, 0.0, 179.9998);
+        index.add(point, point.latitude(), point.longitude());
+
+        assertEquals(Optional.of(point), index.nearest(0.0, -179.9998, RADIUS_METERS, GeoUtils::calculateDistanceInMeters));
+    }
+}
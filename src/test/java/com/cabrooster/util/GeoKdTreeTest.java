@@ -0,0 +1,89 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoKdTreeTest {
+
+    @Test
+    void testNearestMatchesBruteForceWhileCabsMove() {
+        Random random = new Random(7);
+        int points = 5000;
+        double[] lats = new double[points];
+        double[] lons = new double[points];
+        GeoKdTree tree = new GeoKdTree();
+        for (int i = 0; i < points; i++) {
+            lats[i] = 12.9 + random.nextDouble() * 0.2;
+            lons[i] = 77.5 + random.nextDouble() * 0.2;
+            tree.put(i, lats[i], lons[i]);
+        }
+        // Move some points and remove others
+        for (int i = 0; i < points; i += 3) {
+            lats[i] = 12.9 + random.nextDouble() * 0.2;
+            lons[i] = 77.5 + random.nextDouble() * 0.2;
+            tree.put(i, lats[i], lons[i]);
+        }
+        for (int i = 1; i < points; i += 7) {
+            tree.remove(i);
+            lats[i] = Double.NaN;
+        }
+
+        long[] ids = new long[10];
+        double[] distances = new double[10];
+        for (int query = 0; query < 200; query++) {
+            double lat = 12.9 + random.nextDouble() * 0.2;
+            double lon = 77.5 + random.nextDouble() * 0.2;
+            int found = tree.nearest(lat, lon, 10, 2000, GeoUtils::calculateDistanceInMeters, null, ids, distances);
+
+            int[] expected = IntStream.range(0, points)
+                    .filter(i -> !Double.isNaN(lats[i]))
+                    .filter(i -> GeoUtils.calculateDistanceInMeters(lat, lon, lats[i], lons[i]) <= 2000)
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(i -> GeoUtils.calculateDistanceInMeters(lat, lon, lats[i], lons[i])))
+                    .limit(10)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertEquals(expected.length, found);
+            for (int i = 0; i < found; i++) {
+                assertEquals(expected[i], ids[i]);
+                if (i > 0) {
+                    assertTrue(distances[i - 1] <= distances[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testNearestAcrossAntimeridianAndWithFilter() {
+        GeoKdTree tree = new GeoKdTree();
+        tree.put(1, 0.0, 179.9995);
+        tree.put(2, 0.0, -179.9995);
+        tree.put(3, 0.0, 179.99);
+
+        assertEquals(2, tree.nearest(0.0, -179.9999, 500, GeoUtils::calculateDistanceInMeters, null, -1));
+        assertEquals(1, tree.nearest(0.0, -179.9999, 500, GeoUtils::calculateDistanceInMeters, id -> id != 2, -1));
+        assertEquals(-1, tree.nearest(0.0, -179.9999, 500, GeoUtils::calculateDistanceInMeters, id -> id == 3, -1));
+    }
+
+    @Test
+    void testIdenticalPointsStayInOneBucket() {
+        GeoKdTree tree = new GeoKdTree();
+        for (int i = 0; i < 100; i++) {
+            tree.put(i, 12.97, 77.59);
+        }
+        long[] ids = new long[100];
+        double[] distances = new double[100];
+
+        assertEquals(100, tree.nearest(12.97, 77.59, 100, 1, GeoUtils::calculateDistanceInMeters, null, ids, distances));
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(LongStream.range(0, 100).toArray(), sorted);
+    }
+}
@@ -0,0 +1,53 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoUtilsTest {
+
+    @Test
+    void testBatchDistancesMatchPerPairDistances() {
+        // Surefire adds the module, so the comparison below covers the vector kernel and not the fallback
+        assertTrue(GeoUtils.isVectorized(), "Vector API unavailable; run with --add-modules jdk.incubator.vector");
+        Random random = new Random(11);
+        // Not a multiple of any vector length, so the scalar tail runs too
+        int count = 1003;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lons[i] = random.nextDouble() * 360 - 180;
+        }
+        // Include a few nearby and identical points
+        lats[0] = 12.9716;
+        lons[0] = 77.5946;
+        lats[1] = 12.9717;
+        lons[1] = 77.5947;
+
+        double[] out = new double[count];
+        GeoUtils.distancesInMeters(12.9716, 77.5946, lats, lons, out);
+
+        for (int i = 0; i < count; i++) {
+            double expected = GeoUtils.calculateDistanceInMeters(12.9716, 77.5946, lats[i], lons[i]);
+            assertEquals(expected, out[i], Math.max(1e-9, expected * 1e-12), "point " + i);
+        }
+    }
+
+    @Test
+    void testBatchDistancesHonourCount() {
+        double[] lats = {12.97, 12.98, 12.99};
+        double[] lons = {77.59, 77.59, 77.59};
+        double[] out = {-1, -1, -1};
+
+        GeoUtils.distancesInMeters(12.97, 77.59, lats, lons, out, 2);
+
+        assertEquals(0, out[0], 1e-9);
+        assertTrue(out[1] > 1000);
+        assertEquals(-1, out[2], 0);
+        assertThrows(IllegalArgumentException.class,
+                () -> GeoUtils.distancesInMeters(12.97, 77.59, lats, lons, new double[2], 3));
+    }
+}
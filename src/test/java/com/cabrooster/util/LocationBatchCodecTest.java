@@ -0,0 +1,96 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocationBatchCodecTest {
+
+    @Test
+    void testRoundTripKeepsOrderAndSevenDecimals() {
+        long[] ids = {42, 7, Long.MAX_VALUE, -1};
+        long[] timestamps = {1_700_000_000_000L, 1_699_999_999_000L, 0, Long.MIN_VALUE};
+        double[] latitudes = {12.9716123, -33.8688197, 90, -90};
+        double[] longitudes = {77.5946456, 151.2092955, 180, -180};
+
+        byte[] payload = LocationBatchCodec.encode(ids, timestamps, latitudes, longitudes, 4);
+        assertEquals(4, LocationBatchCodec.count(payload));
+
+        List<Long> decodedIds = new ArrayList<>();
+        List<Long> decodedTimestamps = new ArrayList<>();
+        List<Double> decodedLatitudes = new ArrayList<>();
+        List<Double> decodedLongitudes = new ArrayList<>();
+        int count = LocationBatchCodec.decode(payload, (id, timestamp, latitude, longitude) -> {
+            decodedIds.add(id);
+            decodedTimestamps.add(timestamp);
+            decodedLatitudes.add(latitude);
+            decodedLongitudes.add(longitude);
+        });
+
+        assertEquals(4, count);
+        // Deltas that overflow wrap around and come back
+        assertEquals(List.of(42L, 7L, Long.MAX_VALUE, -1L), decodedIds);
+        assertEquals(List.of(1_700_000_000_000L, 1_699_999_999_000L, 0L, Long.MIN_VALUE), decodedTimestamps);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(latitudes[i], decodedLatitudes.get(i), 1e-9);
+            assertEquals(longitudes[i], decodedLongitudes.get(i), 1e-9);
+        }
+    }
+
+    @Test
+    void testFleetInOneCityTakesAboutTenBytesPerPing() {
+        Random random = new Random(42);
+        int count = 10_000;
+        long[] ids = new long[count];
+        long[] timestamps = new long[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 1000 + i;
+            timestamps[i] = 1_700_000_000_000L + random.nextInt(5000);
+            latitudes[i] = 12.9716 + (random.nextDouble() - 0.5) * 0.2;
+            longitudes[i] = 77.5946 + (random.nextDouble() - 0.5) * 0.2;
+        }
+
+        byte[] payload = LocationBatchCodec.encode(ids, timestamps, latitudes, longitudes, count);
+
+        assertTrue(payload.length <= count * 12, payload.length + " bytes");
+        assertEquals(count, LocationBatchCodec.decode(payload, (id, timestamp, latitude, longitude) -> { }));
+    }
+
+    @Test
+    void testEmptyBatch() {
+        byte[] payload = LocationBatchCodec.encode(new long[0], new long[0], new double[0], new double[0], 0);
+
+        assertEquals(0, LocationBatchCodec.count(payload));
+        assertEquals(0, LocationBatchCodec.decode(payload, (id, timestamp, latitude, longitude) -> fail()));
+    }
+
+    @Test
+    void testMalformedPayloadsAreRejected() {
+        byte[] payload = LocationBatchCodec.encode(new long[] {1, 2}, new long[] {1000, 2000},
+                new double[] {12.97, 12.98}, new double[] {77.59, 77.60}, 2);
+        LocationBatchCodec.Sink ignore = (id, timestamp, latitude, longitude) -> { };
+
+        assertThrows(IllegalArgumentException.class, () -> LocationBatchCodec.count(new byte[0]));
+        byte[] unknownFormat = payload.clone();
+        unknownFormat[0] = 2;
+        assertThrows(IllegalArgumentException.class, () -> LocationBatchCodec.decode(unknownFormat, ignore));
+        assertThrows(IllegalArgumentException.class,
+                () -> LocationBatchCodec.decode(Arrays.copyOf(payload, payload.length - 1), ignore));
+        assertThrows(IllegalArgumentException.class,
+                () -> LocationBatchCodec.decode(Arrays.copyOf(payload, payload.length + 1), ignore));
+        // A count larger than the bytes that follow could hold is refused before anything is sized by it
+        assertThrows(IllegalArgumentException.class,
+                () -> LocationBatchCodec.count(new byte[] {1, (byte) 0xFF, (byte) 0xFF, 0x7F, 0, 0, 0, 0}));
+        byte[] endlessVarint = new byte[16];
+        Arrays.fill(endlessVarint, (byte) 0x80);
+        endlessVarint[0] = 1;
+        assertThrows(IllegalArgumentException.class, () -> LocationBatchCodec.count(endlessVarint));
+    }
+}
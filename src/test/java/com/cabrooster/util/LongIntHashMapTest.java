@@ -0,0 +1,58 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIntHashMapTest {
+
+    @Test
+    void testPutGetRemove() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(7L, 1);
+        map.put(-3L, 2);
+        map.put(7L, 3);
+
+        assertEquals(2, map.size());
+        assertEquals(3, map.get(7L));
+        assertEquals(2, map.get(-3L));
+        assertEquals(-1, map.get(8L));
+        assertEquals(3, map.remove(7L));
+        assertEquals(-1, map.remove(7L));
+        assertFalse(map.containsKey(7L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void testMatchesHashMapUnderRandomChurn() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(16, -1);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range forces long probe chains and many removals
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? -1 : removed, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++) {
+            assertEquals((int) expected.getOrDefault(key, -1), map.get(key));
+        }
+    }
+
+    @Test
+    void testReservedKeyIsRejected() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        assertThrows(IllegalArgumentException.class, () -> map.put(Long.MIN_VALUE, 1));
+    }
+}
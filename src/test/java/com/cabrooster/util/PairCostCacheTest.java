@@ -0,0 +1,71 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PairCostCacheTest {
+
+    @Test
+    void testNearbyPointsShareAnEntry() {
+        PairCostCache cache = new PairCostCache(1 << 20, 1e-4, PairCostCache.Eviction.LRU);
+        int[] calls = new int[1];
+        GeoGridIndex.DistanceFunction cached = cache.wrap((lat1, lon1, lat2, lon2) -> {
+            calls[0]++;
+            return GeoUtils.calculateDistanceInMeters(lat1, lon1, lat2, lon2);
+        });
+
+        double first = cached.distance(12.97160, 77.59460, 12.93520, 77.62450);
+        // About a metre away at both ends
+        assertEquals(first, cached.distance(12.97161, 77.59461, 12.93521, 77.62449));
+        assertEquals(1, calls[0]);
+        // Pairs are directed
+        cached.distance(12.93520, 77.62450, 12.97160, 77.59460);
+        assertEquals(2, calls[0]);
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+        assertEquals(1.0 / 3, cache.hitRate(), 1e-12);
+    }
+
+    @Test
+    void testEvictionKeepsFrequentPairsUnderLfu() {
+        // Room for about 16 entries per segment
+        PairCostCache cache = new PairCostCache(16L * 16 * PairCostCache.ENTRY_BYTES, 1e-5, PairCostCache.Eviction.LFU);
+        for (int i = 0; i < 20; i++) {
+            cache.put(12.97, 77.59, 12.90, 77.60, 1234);
+            cache.get(12.97, 77.59, 12.90, 77.60);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(12.0 + i * 1e-4, 77.0, 13.0, 78.0, i);
+        }
+
+        assertTrue(cache.size() <= 16 * 16);
+        assertTrue(cache.evictionCount() > 0);
+        assertEquals(1234.0, cache.get(12.97, 77.59, 12.90, 77.60));
+    }
+
+    @Test
+    void testEntriesSurviveRoundTripForTheSameCost() throws IOException {
+        PairCostCache cache = new PairCostCache(1 << 20, 1e-5, PairCostCache.Eviction.LRU);
+        for (int i = 0; i < 500; i++) {
+            cache.put(12.9 + i * 1e-3, 77.5, 12.95, 77.6 + i * 1e-3, i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        cache.writeTo(new DataOutputStream(bytes), "haversine");
+
+        PairCostCache restored = new PairCostCache(1 << 20, 1e-5, PairCostCache.Eviction.LRU);
+        assertEquals(500, restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "haversine"));
+        assertEquals(42.0, restored.get(12.9 + 42e-3, 77.5, 12.95, 77.6 + 42e-3));
+
+        PairCostCache otherCost = new PairCostCache(1 << 20, 1e-5, PairCostCache.Eviction.LRU);
+        assertEquals(0, otherCost.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "vincenty"));
+        assertEquals(0, otherCost.size());
+    }
+}
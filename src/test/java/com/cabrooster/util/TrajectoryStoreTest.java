@@ -0,0 +1,217 @@
+package com.cabrooster.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrajectoryStoreTest {
+
+    private static final long HOUR = 3_600_000;
+    private static final long T0 = 1_700_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRangeReturnsOnlyThatEntityInTimeOrder() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 1 << 16, HOUR, 24 * HOUR)) {
+            for (int i = 0; i < 100; i++) {
+                store.append(1, T0 + i * 1000, 12.97 + i * 1e-4, 77.59);
+                store.append(2, T0 + i * 1000, 13.00, 77.00);
+            }
+            // Arrived late but taken earlier
+            store.append(1, T0 - 500, 12.96, 77.58);
+
+            List<TrajectoryStore.Point> points = store.range(1, T0 + 10_000, T0 + 19_000);
+            assertEquals(10, points.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(T0 + (10 + i) * 1000, points.get(i).timestampMillis());
+                assertEquals(12.97 + (10 + i) * 1e-4, points.get(i).latitude(), 1e-7);
+                assertEquals(77.59, points.get(i).longitude(), 1e-7);
+            }
+
+            List<TrajectoryStore.Point> all = store.range(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(101, all.size());
+            assertEquals(T0 - 500, all.get(0).timestampMillis());
+            assertTrue(store.range(3, Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+        }
+    }
+
+    @Test
+    void testFullSegmentsRollAndQueriesSpanThem() throws IOException {
+        // Room for ten records per segment
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR)) {
+            for (int i = 0; i < 35; i++) {
+                store.append(i % 2, T0 + i, 12.97, 77.59);
+            }
+
+            assertEquals(4, store.getSegmentCount());
+            // Entity 1 has the odd timestamps, spread over three segments
+            List<TrajectoryStore.Point> points = store.range(1, T0 + 5, T0 + 25);
+            assertEquals(11, points.size());
+            assertEquals(T0 + 5, points.get(0).timestampMillis());
+            assertEquals(T0 + 25, points.get(10).timestampMillis());
+        }
+    }
+
+    @Test
+    void testFullSegmentIsSealedByTheMaintenanceExecutorNotTheAppend() throws IOException {
+        List<Runnable> maintenance = new ArrayList<>();
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR, maintenance::add)) {
+            for (int i = 0; i < 11; i++) {
+                store.append(1, T0 + i, 12.97, 77.59);
+            }
+
+            // Rolled but still open and read from memory
+            Path index = directory.resolve(String.format("%016d.idx", 0));
+            assertEquals(1, maintenance.size());
+            assertFalse(Files.exists(index));
+            assertEquals(11, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+            maintenance.get(0).run();
+            assertTrue(Files.exists(index));
+            assertTrue(Files.exists(directory.resolve(String.format("%016d.seg", 2))));
+            assertEquals(11, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testRolledSegmentsWaitForMaintainWithoutAnExecutor() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR)) {
+            for (int i = 0; i < 11; i++) {
+                store.append(1, T0 + i, 12.97, 77.59);
+            }
+            Path index = directory.resolve(String.format("%016d.idx", 0));
+            assertFalse(Files.exists(index));
+
+            store.maintain(System.currentTimeMillis());
+            assertTrue(Files.exists(index));
+            assertEquals(11, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testRecordsSurviveReopening() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR)) {
+            for (int i = 0; i < 15; i++) {
+                store.append(7, T0 + i, 12.97, 77.59);
+            }
+        }
+
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR)) {
+            assertEquals(15, store.range(7, Long.MIN_VALUE, Long.MAX_VALUE).size());
+            // The last segment was not full, so appends continue in it
+            store.append(7, T0 + 15, 12.98, 77.60);
+            assertEquals(2, store.getSegmentCount());
+            List<TrajectoryStore.Point> points = store.range(7, T0 + 14, T0 + 15);
+            assertEquals(2, points.size());
+            assertEquals(12.98, points.get(1).latitude(), 1e-7);
+        }
+    }
+
+    @Test
+    void testRolledSegmentsAreTruncatedIndexedAndReadFromDisk() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 1 << 16, HOUR, 24 * HOUR)) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 3; i++) {
+                store.append(i, now + i, 12.97, 77.59);
+            }
+            store.append(1, now + 3, 12.98, 77.60);
+            store.maintain(now + HOUR + 1000);
+
+            // Cut to its four records, with the last record of each of the three cabs beside it
+            Path segment = directory.resolve(String.format("%016d.seg", 0));
+            Path index = directory.resolve(String.format("%016d.idx", 0));
+            assertEquals(16 + 4 * 28, Files.size(segment));
+            assertEquals(36 + 3 * 12, Files.size(index));
+            List<TrajectoryStore.Point> points = store.range(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(2, points.size());
+            assertEquals(12.98, points.get(1).latitude(), 1e-7);
+            assertTrue(store.range(3, Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+        }
+
+        // Reopened from the index alone; the sealed segment takes no more appends
+        try (TrajectoryStore store = new TrajectoryStore(directory, 1 << 16, HOUR, 24 * HOUR)) {
+            assertEquals(2, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+            store.append(1, System.currentTimeMillis(), 12.99, 77.61);
+            assertEquals(2, store.getSegmentCount());
+            assertEquals(3, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testNextSegmentIsCreatedBeforeTheRoll() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 10 * 28, HOUR, 24 * HOUR)) {
+            store.append(1, T0, 12.97, 77.59);
+            store.maintain(System.currentTimeMillis());
+
+            Path next = directory.resolve(String.format("%016d.seg", 1));
+            assertTrue(Files.exists(next));
+            for (int i = 1; i < 11; i++) {
+                store.append(1, T0 + i, 12.97, 77.59);
+            }
+            assertEquals(2, store.getSegmentCount());
+            assertEquals(11, store.range(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testQueriesRunWhileSegmentsFillAndRoll() throws Exception {
+        ExecutorService maintenance = Executors.newSingleThreadExecutor();
+        try (TrajectoryStore store = new TrajectoryStore(directory, 16 + 100 * 28, HOUR, 24 * HOUR, maintenance)) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    store.append(i % 2, T0 + i, 12.97, 77.59);
+                }
+            });
+            writer.start();
+            int seen = 0;
+            while (writer.isAlive()) {
+                // A query sees a prefix of the appends, never fewer than the one before it
+                List<TrajectoryStore.Point> points = store.range(0, Long.MIN_VALUE, Long.MAX_VALUE);
+                assertTrue(points.size() >= seen);
+                for (int i = 0; i < points.size(); i++) {
+                    assertEquals(T0 + 2L * i, points.get(i).timestampMillis());
+                }
+                seen = points.size();
+            }
+            writer.join();
+            maintenance.shutdown();
+            assertTrue(maintenance.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(2500, store.range(0, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        } finally {
+            maintenance.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSegmentsRollByAgeAndExpireAfterRetention() throws IOException {
+        try (TrajectoryStore store = new TrajectoryStore(directory, 1 << 16, HOUR, 24 * HOUR)) {
+            long now = System.currentTimeMillis();
+            store.append(1, now, 12.97, 77.59);
+            assertEquals(0, store.maintain(now));
+
+            // Rolled once an hour old; the next append starts a new segment
+            assertEquals(0, store.maintain(System.currentTimeMillis() + HOUR));
+            store.append(1, now + 2 * HOUR, 12.98, 77.60);
+            assertEquals(2, store.getSegmentCount());
+
+            // Only the first segment's records are past the retention a day later
+            assertEquals(1, store.maintain(now + 25 * HOUR));
+            assertEquals(1, store.getSegmentCount());
+            List<TrajectoryStore.Point> points = store.range(1, Long.MIN_VALUE, Long.MAX_VALUE);
+            assertEquals(1, points.size());
+            assertEquals(now + 2 * HOUR, points.get(0).timestampMillis());
+        }
+    }
+}
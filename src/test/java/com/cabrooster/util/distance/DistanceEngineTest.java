@@ -0,0 +1,106 @@
+package com.cabrooster.util.distance;
+
+import com.cabrooster.util.GeoUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceEngineTest {
+
+    @Test
+    void testVincentyMatchesKnownGeodesic() {
+        DistanceEngine vincenty = new VincentyDistanceEngine();
+
+        // Flinders Peak to Buninyong, the worked example from Vincenty's paper
+        double distance = vincenty.distance(-37.951033417, 144.424867889, -37.652821139, 143.926495528);
+        assertEquals(54_972.271, distance, 0.001);
+        assertEquals(0.0, vincenty.distance(12.97, 77.59, 12.97, 77.59));
+        // Nearly antipodal points fall back to the sphere instead of failing
+        assertTrue(vincenty.distance(0, 0, 0.5, 179.7) > 19_000_000);
+    }
+
+    @Test
+    void testFormulaEnginesAgreeWithinTheirBounds() {
+        Random random = new Random(5);
+        DistanceEngine haversine = new HaversineDistanceEngine();
+        DistanceEngine equirectangular = new EquirectangularDistanceEngine();
+        DistanceEngine vincenty = new VincentyDistanceEngine();
+
+        for (int i = 0; i < 1000; i++) {
+            double lat1 = random.nextDouble() * 160 - 80;
+            double lon1 = random.nextDouble() * 360 - 180;
+            double lat2 = lat1 + (random.nextDouble() - 0.5) * 0.4;
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * 0.4;
+            double expected = haversine.distance(lat1, lon1, lat2, lon2);
+
+            assertEquals(expected, equirectangular.distance(lat1, lon1, lat2, lon2), expected * 1e-3);
+            double geodesic = vincenty.distance(lat1, lon1, lat2, lon2);
+            assertEquals(expected, geodesic, expected * 6e-3);
+            assertTrue(geodesic >= expected * vincenty.greatCircleLowerBound());
+        }
+    }
+
+    @Test
+    void testSphericalEnginesStayCloseToVincentyAcrossACity() {
+        // The pairs DistanceEngineBenchmark times: one passenger against cabs spread over 0.4 degrees
+        Random random = new Random(42);
+        DistanceEngine vincenty = new VincentyDistanceEngine();
+        DistanceEngine[] engines = {new HaversineDistanceEngine(), new EquirectangularDistanceEngine()};
+        double[] maxError = new double[engines.length];
+
+        for (int i = 0; i < 1024; i++) {
+            double lat = 12.8 + random.nextDouble() * 0.4;
+            double lon = 77.4 + random.nextDouble() * 0.4;
+            double expected = vincenty.distance(12.9716, 77.5946, lat, lon);
+            for (int e = 0; e < engines.length; e++) {
+                double error = Math.abs(engines[e].distance(12.9716, 77.5946, lat, lon) - expected) / expected;
+                maxError[e] = Math.max(maxError[e], error);
+            }
+        }
+        for (int e = 0; e < engines.length; e++) {
+            assertTrue(maxError[e] < 6e-3, engines[e].name() + " is off by " + maxError[e]);
+        }
+    }
+
+    @Test
+    void testBatchDistancesMatchPerPair() {
+        double[] lats = {12.97, 12.98, -16.5};
+        double[] lons = {77.59, 77.60, -179.99};
+        double[] out = new double[3];
+
+        for (DistanceEngine engine : new DistanceEngine[] {
+                new HaversineDistanceEngine(), new EquirectangularDistanceEngine(), new VincentyDistanceEngine()}) {
+            engine.distances(-16.5, 179.99, lats, lons, out, 3);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(engine.distance(-16.5, 179.99, lats[i], lons[i]), out[i], 1e-6 * Math.max(1, out[i]),
+                        engine.name() + " point " + i);
+            }
+        }
+    }
+
+    @Test
+    void testMatrixLooksUpKnownPairsAndFallsBackForOthers() throws IOException {
+        String csv = """
+                # latitude,longitude,distance to each point
+                12.970000,77.590000,0,1800
+                12.980000,77.600000,1750,0
+                """;
+        PrecomputedDistanceEngine matrix = PrecomputedDistanceEngine.load(new StringReader(csv), new HaversineDistanceEngine());
+
+        assertEquals(2, matrix.size());
+        assertEquals(1800.0, matrix.distance(12.97, 77.59, 12.98, 77.60));
+        assertEquals(1750.0, matrix.distance(12.98, 77.60, 12.97, 77.59));
+        assertEquals(GeoUtils.calculateDistanceInMeters(12.97, 77.59, 12.99, 77.60),
+                matrix.distance(12.97, 77.59, 12.99, 77.60));
+        assertEquals(1.0, matrix.greatCircleLowerBound());
+
+        assertThrows(IOException.class, () -> PrecomputedDistanceEngine.load(
+                new StringReader("12.97,77.59,0\n12.98,77.60,0,1"), new HaversineDistanceEngine()));
+        assertThrows(IllegalArgumentException.class, () -> PrecomputedDistanceEngine.load(
+                new StringReader("12.97,77.59,0,10\n12.98,77.60,10,0"), new HaversineDistanceEngine()));
+    }
+}
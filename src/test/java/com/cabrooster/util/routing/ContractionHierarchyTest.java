@@ -0,0 +1,137 @@
+package com.cabrooster.util.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContractionHierarchyTest {
+
+    private static final int SIDE = 30;
+
+    @Test
+    void testQueriesMatchDijkstra() throws IOException {
+        RoadGraph graph = gridCity(new Random(3));
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+        Random random = new Random(4);
+
+        for (int q = 0; q < 200; q++) {
+            int source = random.nextInt(graph.nodeCount());
+            int target = random.nextInt(graph.nodeCount());
+            assertEquals(dijkstra(graph, source)[target], hierarchy.travelTime(source, target), 1e-9,
+                    source + " to " + target);
+        }
+
+        int[] nodes = random.ints(50, 0, graph.nodeCount()).toArray();
+        double[] out = new double[nodes.length];
+        int hub = random.nextInt(graph.nodeCount());
+        double[] fromHub = dijkstra(graph, hub);
+        hierarchy.travelTimesFrom(hub, nodes, out, nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(fromHub[nodes[i]], out[i], 1e-9);
+        }
+        hierarchy.travelTimesTo(hub, nodes, out, nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(dijkstra(graph, nodes[i])[hub], out[i], 1e-9);
+        }
+    }
+
+    @Test
+    void testUnreachableNodesAreInfinitelyFar() throws IOException {
+        RoadGraph graph = RoadGraph.load(new StringReader("""
+                n,10,12.970,77.590
+                n,11,12.971,77.590
+                n,12,12.972,77.590
+                e,10,11,30,oneway
+                """));
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+
+        assertEquals(30.0, hierarchy.travelTime(0, 1));
+        assertEquals(Double.POSITIVE_INFINITY, hierarchy.travelTime(1, 0));
+        assertEquals(Double.POSITIVE_INFINITY, hierarchy.travelTime(0, 2));
+        assertEquals(0.0, hierarchy.travelTime(2, 2));
+        assertThrows(IOException.class, () -> RoadGraph.load(new StringReader("e,1,2,30")));
+    }
+
+    @Test
+    void testHierarchySurvivesRoundTripToDisk() throws IOException {
+        RoadGraph graph = gridCity(new Random(8));
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        hierarchy.writeTo(new DataOutputStream(bytes));
+        ContractionHierarchy loaded = ContractionHierarchy.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))).orElseThrow();
+
+        assertTrue(loaded.isBuiltFrom(graph));
+        assertFalse(loaded.isBuiltFrom(gridCity(new Random(9))));
+        assertEquals(hierarchy.travelTime(0, graph.nodeCount() - 1), loaded.travelTime(0, graph.nodeCount() - 1));
+    }
+
+    /**
+     * Grid of streets with random travel times, some one-way streets and a river that
+     * only two bridges cross
+     */
+    private static RoadGraph gridCity(Random random) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int row = 0; row < SIDE; row++) {
+            for (int col = 0; col < SIDE; col++) {
+                lines.append("n,").append(row * SIDE + col).append(',')
+                        .append(12.9 + row * 0.001).append(',').append(77.5 + col * 0.001).append('\n');
+            }
+        }
+        for (int row = 0; row < SIDE; row++) {
+            for (int col = 0; col < SIDE; col++) {
+                int node = row * SIDE + col;
+                if (col + 1 < SIDE) {
+                    street(lines, node, node + 1, random);
+                }
+                boolean river = row == SIDE / 2 - 1;
+                if (row + 1 < SIDE && (!river || col == 3 || col == SIDE - 4)) {
+                    street(lines, node, node + SIDE, random);
+                }
+            }
+        }
+        return RoadGraph.load(new StringReader(lines.toString()));
+    }
+
+    private static void street(StringBuilder lines, int from, int to, Random random) {
+        lines.append("e,").append(from).append(',').append(to).append(',').append(5 + random.nextInt(60));
+        if (random.nextInt(5) == 0) {
+            lines.append(",oneway");
+        }
+        lines.append('\n');
+    }
+
+    private static double[] dijkstra(RoadGraph graph, int source) {
+        double[] distances = new double[graph.nodeCount()];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        distances[source] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        queue.add(new double[] {0, source});
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            int node = (int) entry[1];
+            if (entry[0] > distances[node]) {
+                continue;
+            }
+            for (int e = graph.firstEdge[node]; e < graph.firstEdge[node + 1]; e++) {
+                double candidate = entry[0] + graph.edgeSeconds[e];
+                if (candidate < distances[graph.edgeTargets[e]]) {
+                    distances[graph.edgeTargets[e]] = candidate;
+                    queue.add(new double[] {candidate, graph.edgeTargets[e]});
+                }
+            }
+        }
+        return distances;
+    }
+}